@@ -37,11 +37,15 @@ import com.feedzai.fos.common.validation.NotBlank;
 import com.feedzai.fos.common.validation.NotNull;
 import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
 import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.feedzai.fos.impl.weka.utils.ModelJournal;
+import com.feedzai.fos.impl.weka.utils.ParallelLoader;
+import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorer;
 import com.feedzai.fos.impl.weka.utils.WekaUtils;
 import com.feedzai.fos.impl.weka.utils.pmml.PMMLProducers;
 import com.feedzai.fos.impl.weka.utils.setter.InstanceSetter;
 import com.google.common.base.Optional;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Striped;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.SerializationUtils;
@@ -61,11 +65,13 @@ import java.net.Socket;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
 
 import static com.feedzai.fos.api.util.ManagerUtils.createModelFile;
 import static com.feedzai.fos.api.util.ManagerUtils.getUuid;
@@ -77,12 +83,20 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * <p/>
  * Aditionally, it also implements a Kryo endpoint for scoring to be used along
  * KryoScorer.
+ * <p/>
+ * Adding, reconfiguring and removing a model only holds the manager lock to switch the model and save its
+ * configuration: the new scorer is prepared beforehand, holding a lock of the model alone, so changes to the same
+ * model are applied in order while other models (and listing the models) are not blocked by them.
  *
  * @author Marco Jorge (marco.jorge@feedzai.com)
  * @author Miguel Duarte (miguel.duarte@feedzai.com)
  */
 public class WekaManager implements Manager {
     private final static Logger logger = LoggerFactory.getLogger(WekaManager.class);
+    /**
+     * The number of locks that order the changes to each model (models that share a lock are changed one at a time).
+     */
+    private static final int MODEL_LOCK_STRIPES = 4096;
     private Thread acceptThread;
     private ServerSocket serverSocket;
     ObjectMapper mapper = new ObjectMapper();
@@ -91,6 +105,8 @@ public class WekaManager implements Manager {
     private WekaManagerConfig wekaManagerConfig;
     private WekaScorer wekaScorer;
     private KryoScoringEndpoint scorerHandler;
+    private final Striped<Lock> modelLocks = Striped.lazyWeakLock(MODEL_LOCK_STRIPES);
+    private ModelJournal modelJournal;
 
     private volatile boolean acceptThreadRunning = false;
 
@@ -101,7 +117,9 @@ public class WekaManager implements Manager {
      */
     private synchronized void saveConfiguration() {
         for (WekaModelConfig wekaModelConfig : modelConfigs.values()) {
-            if (wekaModelConfig.isDirty() && wekaModelConfig.getModelConfig().isStoreModel()) {
+            if (modelJournal != null) {
+                saveToJournal(wekaModelConfig);
+            } else if (wekaModelConfig.isDirty() && wekaModelConfig.getModelConfig().isStoreModel()) {
                 try {
                     String modelConfigJson = mapper.writeValueAsString(wekaModelConfig.getModelConfig());
 
@@ -120,42 +138,42 @@ public class WekaManager implements Manager {
         }
     }
 
+    /**
+     * Appends the configuration of the given model to the model journal, if it changed since it was last saved.
+     * <p/> If saving configuration was not possible, a log is produced but no exception is thrown.
+     *
+     * @param wekaModelConfig the configuration of the model
+     */
+    private synchronized void saveToJournal(WekaModelConfig wekaModelConfig) {
+        if (wekaModelConfig.isDirty() && wekaModelConfig.getModelConfig().isStoreModel()) {
+            try {
+                modelJournal.put(wekaModelConfig.getId(), wekaModelConfig.getModelConfig());
+                wekaModelConfig.setDirty(false /* contents have been updated so the model is no longer dirty*/);
+            } catch (IOException e) {
+                logger.error("Could not store configuration for model '{}' in the model journal", wekaModelConfig.getId(), e);
+            }
+        }
+    }
+
     /**
      * Create a new manager from the given configuration.
      * <p/> Will lookup any headers files and to to instantiate the model.
      * <p/> If a model fails, a log is produced but loading other models will continue (no exception is thrown).
+     * <p/> The header files (and then the models, see {@link WekaScorer}) are read in parallel.
+     * <p/> When {@link WekaManagerConfig#isModelJournal()} is set the models are read from the {@link ModelJournal} instead
+     * (the first time, the header files are read and saved to a new journal).
      *
      * @param wekaManagerConfig the manager configuration
      */
-    public WekaManager(WekaManagerConfig wekaManagerConfig) {
+    public WekaManager(final WekaManagerConfig wekaManagerConfig) {
         checkNotNull(wekaManagerConfig, "Manager config cannot be null");
 
         this.wekaManagerConfig = wekaManagerConfig;
 
-        Collection<File> headers = FileUtils.listFiles(wekaManagerConfig.getHeaderLocation(), new String[]{WekaManagerConfig.HEADER_EXTENSION}, true);
-        for (File header : headers) {
-            logger.trace("Reading model file '{}'", header);
-
-            FileInputStream fileInputStream = null;
-            try {
-                fileInputStream = new FileInputStream(header);
-                String modelConfigJson = IOUtils.toString(fileInputStream);
-
-                ModelConfig modelConfig = mapper.readValue(modelConfigJson, ModelConfig.class);
-                WekaModelConfig wekaModelConfig = new WekaModelConfig(modelConfig, wekaManagerConfig);
-                wekaModelConfig.setHeader(header);
-                wekaModelConfig.setDirty(false /* not changed so far */);
-
-                if (modelConfigs.containsKey(wekaModelConfig.getId())) {
-                    logger.error("Model with ID '{}' is duplicated in the configuration (the configuration from '{}' is discarded)", wekaModelConfig.getId(), header.getAbsolutePath());
-                } else {
-                    modelConfigs.put(wekaModelConfig.getId(), wekaModelConfig);
-                }
-            } catch (Exception e) {
-                logger.error("Could not load from '{}' (continuing to load others)", header, e);
-            } finally {
-                IOUtils.closeQuietly(fileInputStream);
-            }
+        if (wekaManagerConfig.isModelJournal()) {
+            openJournal();
+        } else {
+            readHeaders();
         }
 
         this.wekaScorer = new WekaScorer(modelConfigs, wekaManagerConfig);
@@ -192,94 +210,276 @@ public class WekaManager implements Manager {
     }
 
 
-    @Override
-    public synchronized UUID addModel(ModelConfig config, Model model) throws FOSException {
-        File modelFile;
+    /**
+     * Reads the models from the header files in the header location.
+     * <p/> If a model fails, a log is produced but reading other models will continue (no exception is thrown).
+     */
+    private void readHeaders() {
+        Collection<File> headers = FileUtils.listFiles(wekaManagerConfig.getHeaderLocation(), new String[]{WekaManagerConfig.HEADER_EXTENSION}, true);
+        ParallelLoader<File, WekaModelConfig> loader = new ParallelLoader<>("model header",
+                wekaManagerConfig.getLoadingThreads(),
+                ParallelLoader.freeMemoryBudget(wekaManagerConfig.getLoadingMemoryFraction()),
+                new ParallelLoader.Loader<File, WekaModelConfig>() {
+                    @Override
+                    public WekaModelConfig load(File header) throws Exception {
+                        logger.trace("Reading model file '{}'", header);
+
+                        FileInputStream fileInputStream = null;
+                        try {
+                            fileInputStream = new FileInputStream(header);
+                            String modelConfigJson = IOUtils.toString(fileInputStream);
+
+                            ModelConfig modelConfig = mapper.readValue(modelConfigJson, ModelConfig.class);
+                            WekaModelConfig wekaModelConfig = new WekaModelConfig(modelConfig, wekaManagerConfig);
+                            wekaModelConfig.setHeader(header);
+                            wekaModelConfig.setDirty(false /* not changed so far */);
+                            return wekaModelConfig;
+                        } finally {
+                            IOUtils.closeQuietly(fileInputStream);
+                        }
+                    }
 
-        try {
-            modelFile = createModelFile(wekaManagerConfig.getHeaderLocation(), getUuid(config), model);
-        } catch (IOException e) {
-            throw new FOSException("Unable to create model file", e);
+                    @Override
+                    public long estimatedBytes(File header) {
+                        return header.length();
+                    }
+
+                    @Override
+                    public void discard(WekaModelConfig wekaModelConfig) {
+                        // nothing to release
+                    }
+                });
+
+        /* duplicates are resolved in the order the headers were listed, as when they were read one by one */
+        for (Map.Entry<File, WekaModelConfig> header : loader.load(headers).entrySet()) {
+            WekaModelConfig wekaModelConfig = header.getValue();
+            if (modelConfigs.containsKey(wekaModelConfig.getId())) {
+                logger.error("Model with ID '{}' is duplicated in the configuration (the configuration from '{}' is discarded)", wekaModelConfig.getId(), header.getKey().getAbsolutePath());
+            } else {
+                modelConfigs.put(wekaModelConfig.getId(), wekaModelConfig);
+            }
         }
+    }
+
+    /**
+     * Reads the models from the model journal, or from the header files if there is no journal yet (saving them to a
+     * new journal).
+     * <p/> If the journal could not be opened, a log is produced and the models are read from (and saved to) the
+     * header files.
+     */
+    private void openJournal() {
+        modelJournal = new ModelJournal(wekaManagerConfig.getHeaderLocation(), wekaManagerConfig.getModelJournalCompactionThreshold());
 
-        return addModel(config, getModelDescriptor(model, modelFile));
+        try {
+            if (!modelJournal.exists()) {
+                readHeaders();
+                modelJournal.open();
+
+                Map<UUID, ModelConfig> storedModels = new LinkedHashMap<>();
+                for (WekaModelConfig wekaModelConfig : modelConfigs.values()) {
+                    if (wekaModelConfig.getModelConfig().isStoreModel()) {
+                        storedModels.put(wekaModelConfig.getId(), wekaModelConfig.getModelConfig());
+                    }
+                }
+                modelJournal.reset(storedModels);
+                logger.info("Saved {} model headers to a new model journal", storedModels.size());
+                return;
+            }
+
+            for (Map.Entry<UUID, ModelConfig> model : modelJournal.open().entrySet()) {
+                WekaModelConfig wekaModelConfig = new WekaModelConfig(model.getValue(), wekaManagerConfig);
+                wekaModelConfig.setDirty(false /* not changed so far */);
+                modelConfigs.put(model.getKey(), wekaModelConfig);
+            }
+        } catch (IOException | FOSException e) {
+            logger.error("Could not open the model journal (using the model headers)", e);
+            IOUtils.closeQuietly(modelJournal);
+            modelJournal = null;
+            modelConfigs.clear();
+            readHeaders();
+        }
     }
 
     @Override
-    public synchronized UUID addModel(ModelConfig config, @NotBlank ModelDescriptor descriptor) throws FOSException {
+    public UUID addModel(ModelConfig config, Model model) throws FOSException {
         UUID uuid = getUuid(config);
 
-        WekaModelConfig wekaModelConfig = new WekaModelConfig(config, wekaManagerConfig);
-        wekaModelConfig.setId(uuid);
-        wekaModelConfig.setModelDescriptor(descriptor);
+        Lock modelLock = modelLocks.get(uuid);
+        modelLock.lock();
+        try {
+            File modelFile;
 
-        modelConfigs.put(uuid, wekaModelConfig);
-        wekaScorer.addOrUpdate(wekaModelConfig);
+            try {
+                modelFile = createModelFile(wekaManagerConfig.getHeaderLocation(), uuid, model);
+            } catch (IOException e) {
+                throw new FOSException("Unable to create model file", e);
+            }
 
-        saveConfiguration();
-        logger.debug("Model {} added", uuid);
-        return uuid;
+            return addModel(config, getModelDescriptor(model, modelFile));
+        } finally {
+            modelLock.unlock();
+        }
     }
 
     @Override
-    public synchronized void removeModel(UUID modelId) throws FOSException {
-        WekaModelConfig wekaModelConfig = modelConfigs.remove(modelId);
-        if (wekaModelConfig == null) {
-            logger.warn("Could not remove model with id {} because it does not exists", modelId);
-            return;
+    public UUID addModel(ModelConfig config, @NotBlank ModelDescriptor descriptor) throws FOSException {
+        UUID uuid = getUuid(config);
+
+        Lock modelLock = modelLocks.get(uuid);
+        modelLock.lock();
+        try {
+            WekaModelConfig wekaModelConfig = new WekaModelConfig(config, wekaManagerConfig);
+            wekaModelConfig.setId(uuid);
+            wekaModelConfig.setModelDescriptor(descriptor);
+
+            install(wekaModelConfig, wekaScorer.prepare(wekaModelConfig));
+            logger.debug("Model {} added", uuid);
+            return uuid;
+        } finally {
+            modelLock.unlock();
         }
-        wekaScorer.removeModel(modelId);
+    }
+
+    @Override
+    public void removeModel(UUID modelId) throws FOSException {
+        Lock modelLock = modelLocks.get(modelId);
+        modelLock.lock();
+        try {
+            WekaModelConfig wekaModelConfig;
+            synchronized (this) {
+                wekaModelConfig = modelConfigs.remove(modelId);
+            }
+            if (wekaModelConfig == null) {
+                logger.warn("Could not remove model with id {} because it does not exists", modelId);
+                return;
+            }
+            wekaScorer.removeModel(modelId);
 
-        if (wekaModelConfig.getModelConfig().isStoreModel()) {
+            if (wekaModelConfig.getModelConfig().isStoreModel()) {
+                if (modelJournal != null) {
+                    try {
+                        modelJournal.remove(modelId);
+                    } catch (IOException e) {
+                        logger.error("Could not remove model '{}' from the model journal", modelId, e);
+                    }
+                }
 
-            // delete the header & model file (or else it will be picked up on the next restart)
-            wekaModelConfig.getHeader().delete();
-            // only delete if is in our header location
-            if (!wekaManagerConfig.getHeaderLocation().toURI().relativize(wekaModelConfig.getModel().toURI()).isAbsolute()) {
-                wekaModelConfig.getModel().delete();
+                // delete the header & model file (or else it will be picked up on the next restart)
+                if (wekaModelConfig.getHeader() != null) {
+                    wekaModelConfig.getHeader().delete();
+                }
+                // only delete if is in our header location
+                if (!wekaManagerConfig.getHeaderLocation().toURI().relativize(wekaModelConfig.getModel().toURI()).isAbsolute()) {
+                    wekaModelConfig.getModel().delete();
+                }
+                // and the same for the compiled forest of the model (written next to it by default)
+                File mappedForest = wekaModelConfig.getMappedForest();
+                if (mappedForest != null && !wekaManagerConfig.getHeaderLocation().toURI().relativize(mappedForest.toURI()).isAbsolute()) {
+                    mappedForest.delete();
+                }
             }
+            logger.debug("Model {} removed", modelId);
+        } finally {
+            modelLock.unlock();
         }
-        logger.debug("Model {} removed", modelId);
     }
 
     @Override
-    public synchronized void reconfigureModel(UUID modelId, ModelConfig modelConfig) throws FOSException {
-        WekaModelConfig wekaModelConfig = this.modelConfigs.get(modelId);
-        wekaModelConfig.update(modelConfig);
+    public void reconfigureModel(UUID modelId, ModelConfig modelConfig) throws FOSException {
+        Lock modelLock = modelLocks.get(modelId);
+        modelLock.lock();
+        try {
+            WekaModelConfig wekaModelConfig = copyOf(modelId);
+            wekaModelConfig.update(modelConfig);
 
-        wekaScorer.addOrUpdate(wekaModelConfig);
-        saveConfiguration();
-        logger.debug("Model {} reconfigured", modelId);
+            install(wekaModelConfig, wekaScorer.prepare(wekaModelConfig));
+            logger.debug("Model {} reconfigured", modelId);
+        } finally {
+            modelLock.unlock();
+        }
     }
 
     @Override
-    public synchronized void reconfigureModel(UUID modelId, ModelConfig modelConfig, Model model) throws FOSException {
+    public void reconfigureModel(UUID modelId, ModelConfig modelConfig, Model model) throws FOSException {
+        Lock modelLock = modelLocks.get(modelId);
+        modelLock.lock();
         try {
             File modelFile = createModelFile(wekaManagerConfig.getHeaderLocation(), modelId, model);
 
-            WekaModelConfig wekaModelConfig = this.modelConfigs.get(modelId);
+            WekaModelConfig wekaModelConfig = copyOf(modelId);
             wekaModelConfig.update(modelConfig);
             ModelDescriptor descriptor = getModelDescriptor(model, modelFile);
             wekaModelConfig.setModelDescriptor(descriptor);
 
-            wekaScorer.addOrUpdate(wekaModelConfig);
-            saveConfiguration();
+            install(wekaModelConfig, wekaScorer.prepare(wekaModelConfig));
             logger.debug("Model {} reconfigured", modelId);
         } catch (IOException e) {
             throw new FOSException(e);
+        } finally {
+            modelLock.unlock();
         }
     }
 
     @Override
-    public synchronized void reconfigureModel(UUID modelId, ModelConfig modelConfig, @NotBlank ModelDescriptor descriptor) throws FOSException {
-        File file = new File(descriptor.getModelFilePath());
+    public void reconfigureModel(UUID modelId, ModelConfig modelConfig, @NotBlank ModelDescriptor descriptor) throws FOSException {
+        Lock modelLock = modelLocks.get(modelId);
+        modelLock.lock();
+        try {
+            WekaModelConfig wekaModelConfig = copyOf(modelId);
+            wekaModelConfig.update(modelConfig);
+            wekaModelConfig.setModelDescriptor(descriptor);
 
-        WekaModelConfig wekaModelConfig = this.modelConfigs.get(modelId);
-        wekaModelConfig.update(modelConfig);
-        wekaModelConfig.setModelDescriptor(descriptor);
+            install(wekaModelConfig, wekaScorer.prepare(wekaModelConfig));
+        } finally {
+            modelLock.unlock();
+        }
+    }
 
-        wekaScorer.addOrUpdate(wekaModelConfig);
-        saveConfiguration();
+    /**
+     * Copies the configuration of the given model, so that it can be updated without holding the manager lock (the
+     * copy replaces the current configuration once its scorer is ready, see {@link #install}).
+     *
+     * @param modelId the id of the model
+     * @return a copy of the configuration of the model
+     * @throws FOSException when there is no model with the given id
+     */
+    private synchronized WekaModelConfig copyOf(UUID modelId) throws FOSException {
+        WekaModelConfig wekaModelConfig = modelConfigs.get(modelId);
+        if (wekaModelConfig == null) {
+            throw new FOSException("No model with ID " + modelId);
+        }
+
+        ModelConfig modelConfig = wekaModelConfig.getModelConfig();
+        ModelConfig modelConfigCopy = new ModelConfig(new ArrayList<>(modelConfig.getAttributes()), new HashMap<>(modelConfig.getProperties()));
+        modelConfigCopy.setStoreModel(modelConfig.isStoreModel());
+
+        WekaModelConfig copy = new WekaModelConfig(modelConfigCopy, wekaManagerConfig);
+        copy.setHeader(wekaModelConfig.getHeader());
+        copy.setDirty(wekaModelConfig.isDirty());
+        return copy;
+    }
+
+    /**
+     * Switches the given model to its new configuration and scorer and saves the configuration.
+     *
+     * <p> The previous scorer of the model is closed after the manager lock is released.
+     *
+     * @param wekaModelConfig      the new configuration of the model
+     * @param wekaThreadSafeScorer the new scorer of the model (see {@link WekaScorer#prepare})
+     */
+    private void install(WekaModelConfig wekaModelConfig, WekaThreadSafeScorer wekaThreadSafeScorer) {
+        WekaThreadSafeScorer oldWekaThreadSafeScorer;
+        synchronized (this) {
+            modelConfigs.put(wekaModelConfig.getId(), wekaModelConfig);
+            oldWekaThreadSafeScorer = wekaScorer.install(wekaModelConfig.getId(), wekaThreadSafeScorer);
+            if (modelJournal != null) {
+                saveToJournal(wekaModelConfig);
+            } else {
+                saveConfiguration();
+            }
+        }
+
+        WekaUtils.closeSilently(oldWekaThreadSafeScorer);
     }
 
     @Override
@@ -300,13 +500,13 @@ public class WekaManager implements Manager {
     }
 
     @Override
-    public synchronized UUID trainAndAdd(ModelConfig config, List<Object[]> instances) throws FOSException {
+    public UUID trainAndAdd(ModelConfig config, List<Object[]> instances) throws FOSException {
         Model trainedModel = train(config, instances);
         return addModel(config, trainedModel);
     }
 
     @Override
-    public synchronized UUID trainAndAddFile(ModelConfig config, String path) throws FOSException {
+    public UUID trainAndAddFile(ModelConfig config, String path) throws FOSException {
         Model trainedModel = trainFile(config, path);
         return addModel(config, trainedModel);
     }
@@ -397,6 +597,7 @@ public class WekaManager implements Manager {
 
         IOUtils.closeQuietly(serverSocket);
         saveConfiguration();
+        IOUtils.closeQuietly(modelJournal);
     }
 
     /**
@@ -24,34 +24,61 @@ package com.feedzai.fos.impl.weka;
 import com.feedzai.fos.api.FOSException;
 import com.feedzai.fos.api.Scorer;
 import com.feedzai.fos.common.validation.NotNull;
+import com.feedzai.fos.common.validation.Nullable;
 import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
 import com.feedzai.fos.impl.weka.config.WekaModelConfig;
 import com.feedzai.fos.impl.weka.utils.*;
+import com.feedzai.fos.impl.weka.utils.forest.ForestEngine;
+import com.feedzai.fos.impl.weka.utils.pool.PoolMetricsMXBean;
+import com.google.common.collect.ImmutableMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import weka.classifiers.Classifier;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Implementation of the classification-api that supports multiple simultaneous classifiers (thread safe!).
  *
+ * <p> The models are kept in an immutable map that is replaced (copy-on-write) whenever a model is added, updated or
+ * removed, so scoring only does a volatile read of the current map and never waits for a model reload. A score that
+ * was running on a scorer that got replaced (and closed) meanwhile is retried with the new scorer.
+ *
  * @author Marco Jorge (marco.jorge@feedzai.com)
  */
 public class WekaScorer implements Scorer {
     private static final Logger logger = LoggerFactory.getLogger(WekaScorer.class);
 
-    private Map<UUID, WekaThreadSafeScorer> wekaThreadSafeScorers = new HashMap<>();
-    private ExecutorService executorService;
-    private ReentrantReadWriteLock reloadModelsLock = new ReentrantReadWriteLock(true /* fair */);
+    /**
+     * The JMX domain of the pool metrics (one <code>type=ScorerPool,model=&lt;id&gt;</code> bean per pooled model).
+     */
+    public static final String METRICS_DOMAIN = "com.feedzai.fos.impl.weka";
+
+    /**
+     * The rough ratio between the memory used while loading a model and the size of its file (used to limit the
+     * models loaded in parallel).
+     */
+    private static final int MODEL_MEMORY_FACTOR = 4;
+
+    private volatile ImmutableMap<UUID, WekaThreadSafeScorer> wekaThreadSafeScorers = ImmutableMap.of();
+    private ForkJoinPool forkJoinPool;
+    private ScoringLatencies scoringLatencies = new ScoringLatencies();
     private WekaManagerConfig wekaManagerConfig;
+    private ScorerCache scorerCache;
+    private SharedScorers sharedScorers;
+    private ScorerWarmup scorerWarmup;
 
     private WekaThreadSafeScorer getScorer(UUID modelId) throws FOSException {
         WekaThreadSafeScorer wekaThreadSafeScorer = wekaThreadSafeScorers.get(modelId);
@@ -62,6 +89,25 @@ public class WekaScorer implements Scorer {
         return wekaThreadSafeScorer;
     }
 
+    /**
+     * Gets the scorer that replaced the given one after scoring with it failed.
+     *
+     * @param modelId              the id of the model
+     * @param wekaThreadSafeScorer the scorer that failed
+     * @param e                    the failure
+     * @return the current scorer of the model, if it is not the one that failed (so the score can be retried)
+     * @throws FOSException the given failure if the scorer was not replaced (or the model was removed meanwhile)
+     */
+    private WekaThreadSafeScorer reloadedScorer(UUID modelId, WekaThreadSafeScorer wekaThreadSafeScorer, FOSException e) throws FOSException {
+        WekaThreadSafeScorer current = wekaThreadSafeScorers.get(modelId);
+        if (current == null || current == wekaThreadSafeScorer) {
+            throw e;
+        }
+
+        logger.debug("Model '{}' was reloaded while scoring (retrying with the new scorer)", modelId);
+        return current;
+    }
+
     private <T> T getFuture(Future<T> future, UUID modelId) throws FOSException {
         try {
             return future.get();
@@ -79,51 +125,92 @@ public class WekaScorer implements Scorer {
      *
      * <p>If loading of a model was not possible, this logs a message but continues to load other models and does not throw any exception.
      *
+     * <p>The models are loaded in parallel by {@link WekaManagerConfig#getLoadingThreads()} threads, as long as the
+     * memory they are estimated to need fits in {@link WekaManagerConfig#getLoadingMemoryFraction()} of the free heap.
+     *
+     * <p>When {@link WekaManagerConfig#isLazyLoading()} is set, no model is loaded here: each model is loaded when it
+     * is first scored, and the least recently used models are evicted (to be loaded again when needed) so that the
+     * loaded models stay within {@link WekaManagerConfig#getLazyLoadingHeapFraction()} of the maximum heap.
+     *
+     * <p>When {@link WekaManagerConfig#isShareIdenticalModels()} is set, models whose files have the same
+     * content (and that are scored with the same settings) share a single scorer.
+     *
      * @param modelConfigs      the list of models to instantiate
      * @param wekaManagerConfig the global configuration
      */
-    public WekaScorer(Map<UUID, WekaModelConfig> modelConfigs, WekaManagerConfig wekaManagerConfig) {
+    public WekaScorer(final Map<UUID, WekaModelConfig> modelConfigs, WekaManagerConfig wekaManagerConfig) {
         checkNotNull(modelConfigs, "Model configuration map cannot be null");
         checkNotNull(wekaManagerConfig, "Manager config cannot be null");
 
         this.wekaManagerConfig = wekaManagerConfig;
+        this.sharedScorers = wekaManagerConfig.isShareIdenticalModels() ? new SharedScorers() : null;
+        this.scorerWarmup = wekaManagerConfig.getWarmupMillis() > 0 ? new ScorerWarmup(wekaManagerConfig.getWarmupMillis()) : null;
 
-        for (Map.Entry<UUID, WekaModelConfig> wekaModelConfigEntry : modelConfigs.entrySet()) {
-            try {
-                if (wekaModelConfigEntry.getValue().isClassifierThreadSafe()) {
-                    wekaThreadSafeScorers.put(wekaModelConfigEntry.getValue().getId(), new WekaThreadSafeScorerPassthrough(wekaModelConfigEntry.getValue(), wekaManagerConfig));
-                } else {
-                    wekaThreadSafeScorers.put(wekaModelConfigEntry.getValue().getId(), new WekaThreadSafeScorerPool(wekaModelConfigEntry.getValue(), wekaManagerConfig));
-                }
-            } catch (Exception e) {
-                logger.error("Could not load from '{}' (continuing to load others)", wekaModelConfigEntry.getKey(), e);
+        if (wekaManagerConfig.isLazyLoading()) {
+            this.scorerCache = new ScorerCache((long) (Runtime.getRuntime().maxMemory() * wekaManagerConfig.getLazyLoadingHeapFraction()));
+            publishCacheMetrics(scorerCache);
+
+            ImmutableMap.Builder<UUID, WekaThreadSafeScorer> scorers = ImmutableMap.builder();
+            for (Map.Entry<UUID, WekaModelConfig> modelConfig : modelConfigs.entrySet()) {
+                scorers.put(modelConfig.getKey(), lazyScorer(modelConfig.getValue()));
             }
+            this.wekaThreadSafeScorers = scorers.build();
+            this.forkJoinPool = new ForkJoinPool(wekaManagerConfig.getThreadPoolSize());
+            return;
         }
-        this.executorService = Executors.newFixedThreadPool(wekaManagerConfig.getThreadPoolSize());
+
+        ParallelLoader<UUID, WekaThreadSafeScorer> loader = new ParallelLoader<>("model",
+                wekaManagerConfig.getLoadingThreads(),
+                ParallelLoader.freeMemoryBudget(wekaManagerConfig.getLoadingMemoryFraction()),
+                new ParallelLoader.Loader<UUID, WekaThreadSafeScorer>() {
+                    @Override
+                    public WekaThreadSafeScorer load(UUID modelId) throws Exception {
+                        return loadScorer(modelConfigs.get(modelId));
+                    }
+
+                    @Override
+                    public long estimatedBytes(UUID modelId) {
+                        return WekaScorer.estimatedBytes(modelConfigs.get(modelId));
+                    }
+
+                    @Override
+                    public void discard(WekaThreadSafeScorer wekaThreadSafeScorer) {
+                        WekaUtils.closeSilently(wekaThreadSafeScorer);
+                    }
+                });
+
+        this.wekaThreadSafeScorers = ImmutableMap.copyOf(loader.load(modelConfigs.keySet()));
+        for (Map.Entry<UUID, WekaThreadSafeScorer> scorer : this.wekaThreadSafeScorers.entrySet()) {
+            publishMetrics(scorer.getKey(), scorer.getValue());
+        }
+        this.forkJoinPool = new ForkJoinPool(wekaManagerConfig.getThreadPoolSize());
     }
 
 
     @Override
-    public void close() {
-        try {
-            reloadModelsLock.writeLock().lock();
+    public synchronized void close() {
+        Map<UUID, WekaThreadSafeScorer> closed = this.wekaThreadSafeScorers;
+        this.wekaThreadSafeScorers = ImmutableMap.of();
 
-            executorService.shutdown();
+        forkJoinPool.shutdown();
 
-            for (WekaThreadSafeScorer wekaThreadSafeScorer : this.wekaThreadSafeScorers.values()) {
-                if (wekaThreadSafeScorer != null) {
-                    wekaThreadSafeScorer.close();
-                }
-            }
-        } finally {
-            reloadModelsLock.writeLock().unlock();
+        for (Map.Entry<UUID, WekaThreadSafeScorer> scorer : closed.entrySet()) {
+            publishMetrics(scorer.getKey(), null);
+            WekaUtils.closeSilently(scorer.getValue());
+        }
+
+        if (scorerCache != null) {
+            publishCacheMetrics(null);
         }
     }
 
     /**
      * Score the <code>scorable</code> for each model ID identified by <code>modelIds</code>.
      *
-     * <p> If multiple models are given as parameters, they will be scored in parallel.
+     * <p> If multiple models are given as parameters, the ones whose estimated latency (see {@link ScoringLatencies})
+     * is above {@link WekaManagerConfig#getInlineScoringThresholdNanos()} are scored in parallel, except for the
+     * slowest one, which is scored by the calling thread together with all the cheap models (handing those over to
+     * the pool would cost more than scoring them).
      *
      * @param modelIds the list of models to score
      * @param scorable the item to score
@@ -138,37 +225,66 @@ public class WekaScorer implements Scorer {
 
         List<double[]> scores = new ArrayList<>(modelIds.size());
 
-        try {
-            reloadModelsLock.readLock().lock();
-
-            if (modelIds.size() == 1) {
-                // if only one model, then don't parallelize scoring
-                WekaThreadSafeScorer wekaThreadSafeScorer = getScorer(modelIds.get(0));
-                scores.add(wekaThreadSafeScorer.score(scorable));
-            } else {
-                Map<UUID, Future<double[]>> futureScores = new HashMap<>(modelIds.size());
-
-                // scatter
-                for (UUID modelId : modelIds) {
-                    WekaThreadSafeScorer wekaThreadSafeScorer = getScorer(modelId);
-                    futureScores.put(modelId, executorService.submit(new AsyncScoringTask(wekaThreadSafeScorer, scorable)));
-                }
-                // gather
-                for (UUID modelId : modelIds) {
-                    scores.add(getFuture(futureScores.get(modelId), modelId));
+        if (modelIds.size() == 1) {
+            // if only one model, then don't parallelize scoring
+            scores.add(score(modelIds.get(0), scorable));
+            return scores;
+        }
+
+        long threshold = wekaManagerConfig.getInlineScoringThresholdNanos();
+        long[] latencies = new long[modelIds.size()];
+        int slowest = -1;
+        for (int idx = 0; idx < modelIds.size(); idx++) {
+            latencies[idx] = scoringLatencies.estimate(modelIds.get(idx));
+            if (latencies[idx] > threshold && (slowest < 0 || latencies[idx] > latencies[slowest])) {
+                slowest = idx;
+            }
+        }
+
+        WekaThreadSafeScorer[] modelScorers = new WekaThreadSafeScorer[modelIds.size()];
+        List<Future<double[]>> futureScores = new ArrayList<>(Collections.<Future<double[]>>nCopies(modelIds.size(), null));
+
+        // scatter the expensive models
+        for (int idx = 0; idx < modelIds.size(); idx++) {
+            UUID modelId = modelIds.get(idx);
+            modelScorers[idx] = getScorer(modelId);
+            if (idx != slowest && latencies[idx] > threshold) {
+                futureScores.set(idx, forkJoinPool.submit(new AsyncScoringTask(modelScorers[idx], scorable, modelId, scoringLatencies)));
+            }
+        }
+
+        // score the others in this thread
+        double[][] modelScores = new double[modelIds.size()][];
+        for (int idx = 0; idx < modelIds.size(); idx++) {
+            if (futureScores.get(idx) == null) {
+                long start = System.nanoTime();
+                modelScores[idx] = score(modelIds.get(idx), scorable);
+                scoringLatencies.record(modelIds.get(idx), System.nanoTime() - start);
+            }
+        }
+
+        // gather
+        for (int idx = 0; idx < modelIds.size(); idx++) {
+            if (futureScores.get(idx) != null) {
+                try {
+                    modelScores[idx] = getFuture(futureScores.get(idx), modelIds.get(idx));
+                } catch (FOSException e) {
+                    reloadedScorer(modelIds.get(idx), modelScorers[idx], e);
+                    modelScores[idx] = score(modelIds.get(idx), scorable);
                 }
             }
-        } finally {
-            reloadModelsLock.readLock().unlock();
         }
 
+        Collections.addAll(scores, modelScores);
         return scores;
     }
 
     /**
      * Score each <code>scorable</code> with the given <code>modelId</code>.
      *
-     * <p> If multiple <code>scorables</code> are given as parameters, they will be scored in parallel.
+     * <p> If multiple <code>scorables</code> are given as parameters, they are split in chunks that are scored in
+     * parallel by a work-stealing pool (see {@link BulkScoringTask}). Each chunk is scored with
+     * {@link WekaThreadSafeScorer#score(java.util.List)}, so compiled forests score it in tree-major blocks.
      *
      * @param modelId   the id of the model
      * @param scorables an array of instances to score
@@ -182,32 +298,24 @@ public class WekaScorer implements Scorer {
 
         List<double[]> scores = new ArrayList<>(scorables.size());
 
-        try {
-            reloadModelsLock.readLock().lock();
-
-            if (scorables.size() == 1) {
-                // if only one model, then don't parallelize scoring
-                WekaThreadSafeScorer wekaThreadSafeScorer = getScorer(modelId);
-                scores.add(wekaThreadSafeScorer.score(scorables.get(0)));
-            } else {
-                Map<Object[], Future<double[]>> futureScores = new HashMap<>(scorables.size());
-
-                // scatter
-                for (Object[] scorable : scorables) {
-                    WekaThreadSafeScorer wekaThreadSafeScorer = wekaThreadSafeScorers.get(modelId);
-                    futureScores.put(scorable, executorService.submit(new AsyncScoringTask(wekaThreadSafeScorer, scorable)));
-                }
+        if (scorables.size() == 1) {
+            // if only one model, then don't parallelize scoring
+            scores.add(score(modelId, scorables.get(0)));
+            return scores;
+        }
 
-                // gather
-                for (Object[] scorable : scorables) {
-                    scores.add(getFuture(futureScores.get(scorable), modelId));
-                }
+        // chunks are scored by index, so the list must be random access
+        List<Object[]> randomAccessScorables = scorables instanceof RandomAccess ? scorables : new ArrayList<>(scorables);
+
+        WekaThreadSafeScorer wekaThreadSafeScorer = getScorer(modelId);
+        while (true) {
+            try {
+                Collections.addAll(scores, BulkScoringTask.score(forkJoinPool, wekaThreadSafeScorer, randomAccessScorables));
+                return scores;
+            } catch (FOSException e) {
+                wekaThreadSafeScorer = reloadedScorer(modelId, wekaThreadSafeScorer, e);
             }
-        } finally {
-            reloadModelsLock.readLock().unlock();
         }
-
-        return scores;
     }
 
 
@@ -224,14 +332,41 @@ public class WekaScorer implements Scorer {
     public double[] score(UUID modelId, Object[] scorable) throws FOSException {
         checkNotNull(scorable, "The scorable cannot be null");
 
-        try {
-            reloadModelsLock.readLock().lock();
+        WekaThreadSafeScorer wekaThreadSafeScorer = getScorer(modelId);
+        while (true) {
+            try {
+                return wekaThreadSafeScorer.score(scorable);
+            } catch (FOSException e) {
+                wekaThreadSafeScorer = reloadedScorer(modelId, wekaThreadSafeScorer, e);
+            }
+        }
+    }
 
-            WekaThreadSafeScorer wekaThreadSafeScorer = getScorer(modelId);
-            return wekaThreadSafeScorer.score(scorable);
+    /**
+     * Score every row of the given primitive matrix with the given <code>modelId</code>.
+     *
+     * <p> The matrix has one column per model attribute, with nominal values encoded as the index of the value and
+     * missing values as <code>NaN</code> (see {@link MatrixLayout}). Rows are scored one after the other in the calling
+     * thread with a single classifier, so no <code>Object[]</code>, future or <code>Instance</code> is created per row.
+     *
+     * @param modelId the id of the model
+     * @param matrix  the flat matrix to score
+     * @param layout  the layout of the matrix
+     * @return a flat array with the class distribution of each row (row <code>r</code> starts at <code>r * numClasses</code>)
+     * @throws FOSException when classification was not possible
+     */
+    @NotNull
+    public double[] score(UUID modelId, double[] matrix, MatrixLayout layout) throws FOSException {
+        checkNotNull(matrix, "The matrix cannot be null");
+        checkNotNull(layout, "The matrix layout cannot be null");
 
-        } finally {
-            reloadModelsLock.readLock().unlock();
+        WekaThreadSafeScorer wekaThreadSafeScorer = getScorer(modelId);
+        while (true) {
+            try {
+                return wekaThreadSafeScorer.score(matrix, layout);
+            } catch (FOSException e) {
+                wekaThreadSafeScorer = reloadedScorer(modelId, wekaThreadSafeScorer, e);
+            }
         }
     }
 
@@ -246,12 +381,67 @@ public class WekaScorer implements Scorer {
     public void addOrUpdate(WekaModelConfig wekaModelConfig) throws FOSException {
         checkNotNull(wekaModelConfig, "Model config cannot be null");
 
-        WekaThreadSafeScorer newWekaThreadSafeScorer = new WekaThreadSafeScorerPool(wekaModelConfig, wekaManagerConfig);
-        WekaThreadSafeScorer oldWekaThreadSafeScorer = quickSwitch(wekaModelConfig.getId(), newWekaThreadSafeScorer);
+        WekaThreadSafeScorer newWekaThreadSafeScorer = prepare(wekaModelConfig);
+        WekaThreadSafeScorer oldWekaThreadSafeScorer = install(wekaModelConfig.getId(), newWekaThreadSafeScorer);
 
         WekaUtils.closeSilently(oldWekaThreadSafeScorer);
     }
 
+    /**
+     * Creates the scorer of the given model without making it available for scoring (see {@link #install}).
+     *
+     * <p> This is the slow part of adding or updating a model, so callers can do it without holding their own locks.
+     *
+     * <p> When {@link WekaManagerConfig#getWarmupMillis()} is set, the new scorer is warmed up with synthetic instances
+     * of the model (see {@link ScorerWarmup}), so that the first real scores do not pay for its warm up. Pooled scorers
+     * are warmed up from as many threads as the pool has classifiers (at most one per processor), so that the copies
+     * are used. Models that are loaded lazily are only loaded (and not warmed up) when first scored, and models that
+     * share the scorer of an identical model that is already loaded are not warmed up again.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return the new scorer (to be installed, or closed if it is discarded)
+     * @throws FOSException when the new model could not be instantiated
+     */
+    WekaThreadSafeScorer prepare(WekaModelConfig wekaModelConfig) throws FOSException {
+        checkNotNull(wekaModelConfig, "Model config cannot be null");
+
+        WekaThreadSafeScorer wekaThreadSafeScorer = newScorer(wekaModelConfig);
+        if (scorerWarmup != null && isNewlyLoaded(wekaThreadSafeScorer)) {
+            WekaThreadSafeScorer loaded = loaded(wekaThreadSafeScorer);
+
+            int processors = Runtime.getRuntime().availableProcessors();
+            int threads = 1;
+            if (loaded instanceof WekaThreadSafeScorerPool) {
+                int maxActive = ((WekaThreadSafeScorerPool) loaded).getMaxActive();
+                threads = maxActive > 0 ? Math.min(maxActive, processors) : processors;
+            }
+            scorerWarmup.warmUp(wekaModelConfig.getId(), loaded,
+                    ScorerWarmup.syntheticInstances(wekaModelConfig.getAttributess(), ScorerWarmup.SAMPLE_SIZE, wekaModelConfig.getId().hashCode()),
+                    threads);
+
+            // the warm up scores are not part of the metrics of the model
+            if (loaded instanceof WekaThreadSafeScorerPool) {
+                ((WekaThreadSafeScorerPool) loaded).getMetrics().reset();
+            }
+        }
+        return wekaThreadSafeScorer;
+    }
+
+    /**
+     * Makes a scorer created by {@link #prepare} the scorer of the given model.
+     *
+     * @param modelId                 the id of the model
+     * @param newWekaThreadSafeScorer the new scorer of the model
+     * @return the previous scorer of the model (to be closed by the caller), or null if the model is new
+     */
+    @Nullable
+    WekaThreadSafeScorer install(UUID modelId, WekaThreadSafeScorer newWekaThreadSafeScorer) {
+        checkNotNull(modelId, "Model id cannot be null");
+        checkNotNull(newWekaThreadSafeScorer, "Scorer cannot be null");
+
+        return quickSwitch(modelId, newWekaThreadSafeScorer);
+    }
+
     /**
      * Removes the given model from the managed models.
      *
@@ -277,20 +467,249 @@ public class WekaScorer implements Scorer {
         return wekaThreadSafeScorers.get(modelId).getClassifier();
     }
 
+    /**
+     * Gets the metrics of the classifier pool of the given model.
+     *
+     * @param modelId the id of the model
+     * @return the metrics, or null if the model does not exist or is not scored through a pool of classifiers
+     */
+    @Nullable
+    public PoolMetricsMXBean getPoolMetrics(UUID modelId) {
+        WekaThreadSafeScorer wekaThreadSafeScorer = loaded(wekaThreadSafeScorers.get(modelId));
+        return wekaThreadSafeScorer instanceof WekaThreadSafeScorerPool ? ((WekaThreadSafeScorerPool) wekaThreadSafeScorer).getMetrics() : null;
+    }
+
+    /**
+     * Gets the metrics of the classifier pools of all the pooled models.
+     *
+     * @return the metrics of each model scored through a pool of classifiers
+     */
+    @NotNull
+    public Map<UUID, PoolMetricsMXBean> getPoolMetrics() {
+        Map<UUID, PoolMetricsMXBean> metrics = new HashMap<>();
+        for (Map.Entry<UUID, WekaThreadSafeScorer> scorer : wekaThreadSafeScorers.entrySet()) {
+            WekaThreadSafeScorer wekaThreadSafeScorer = loaded(scorer.getValue());
+            if (wekaThreadSafeScorer instanceof WekaThreadSafeScorerPool) {
+                metrics.put(scorer.getKey(), ((WekaThreadSafeScorerPool) wekaThreadSafeScorer).getMetrics());
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Gets the metrics of the lazily loaded models (see {@link WekaManagerConfig#isLazyLoading()}).
+     *
+     * @return the metrics, or null if models are not loaded lazily
+     */
+    @Nullable
+    public ScorerCacheMXBean getScorerCacheMetrics() {
+        return scorerCache;
+    }
+
+    /**
+     * Checks if the given new scorer was loaded for its model, i.e. it is not loaded lazily and does not share the
+     * scorer of an identical model that was already loaded.
+     *
+     * @param wekaThreadSafeScorer the new scorer of a model
+     * @return <code>true</code> if the scorer was loaded for its model
+     */
+    private static boolean isNewlyLoaded(WekaThreadSafeScorer wekaThreadSafeScorer) {
+        if (wekaThreadSafeScorer instanceof WekaThreadSafeScorerLazy) {
+            return false;
+        }
+        if (wekaThreadSafeScorer instanceof WekaThreadSafeScorerShared) {
+            return ((WekaThreadSafeScorerShared) wekaThreadSafeScorer).isNewlyLoaded();
+        }
+        return true;
+    }
+
+    /**
+     * Gets the scorer that is loaded for the given scorer (the scorer itself unless it is loaded lazily).
+     *
+     * @param wekaThreadSafeScorer the scorer of a model
+     * @return the loaded scorer, or null if there is none
+     */
+    @Nullable
+    private static WekaThreadSafeScorer loaded(@Nullable WekaThreadSafeScorer wekaThreadSafeScorer) {
+        if (wekaThreadSafeScorer instanceof WekaThreadSafeScorerLazy) {
+            return loaded(((WekaThreadSafeScorerLazy) wekaThreadSafeScorer).getLoaded());
+        }
+        if (wekaThreadSafeScorer instanceof WekaThreadSafeScorerShared) {
+            return ((WekaThreadSafeScorerShared) wekaThreadSafeScorer).getShared();
+        }
+        return wekaThreadSafeScorer;
+    }
+
+    /**
+     * Publishes the pool metrics of the given scorer through JMX, replacing the ones of the previous scorer of the model.
+     *
+     * @param modelId              the id of the model
+     * @param wekaThreadSafeScorer the new scorer of the model (null if it was removed)
+     */
+    private void publishMetrics(UUID modelId, @Nullable WekaThreadSafeScorer wekaThreadSafeScorer) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(METRICS_DOMAIN, new Hashtable<>(ImmutableMap.of("type", "ScorerPool", "model", modelId.toString())));
+
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+            WekaThreadSafeScorer loaded = loaded(wekaThreadSafeScorer);
+            if (loaded instanceof WekaThreadSafeScorerPool) {
+                // a plain (not MXBean) wrapper, as an MXBean can only be registered once and models that share a
+                // pool publish the same metrics under their own names (the metrics only have simple types anyway)
+                mBeanServer.registerMBean(new StandardMBean(((WekaThreadSafeScorerPool) loaded).getMetrics(), PoolMetricsMXBean.class, false), name);
+            }
+        } catch (JMException e) {
+            logger.warn("Could not publish the pool metrics of model '{}' through JMX", modelId, e);
+        }
+    }
+
+    /**
+     * Publishes the metrics of the lazily loaded models through JMX.
+     *
+     * @param scorerCache the cache of the lazily loaded models (null to unpublish them)
+     */
+    private void publishCacheMetrics(@Nullable ScorerCache scorerCache) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(METRICS_DOMAIN, "type", "ScorerCache");
+
+            if (mBeanServer.isRegistered(name)) {
+                mBeanServer.unregisterMBean(name);
+            }
+            if (scorerCache != null) {
+                mBeanServer.registerMBean(scorerCache, name);
+            }
+        } catch (JMException e) {
+            logger.warn("Could not publish the scorer cache metrics through JMX", e);
+        }
+    }
+
+    /**
+     * Creates the scorer for the given model, which is only loaded when first scored if models are loaded lazily.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return the new scorer
+     * @throws FOSException when the classifier could not be instantiated
+     */
+    private WekaThreadSafeScorer newScorer(WekaModelConfig wekaModelConfig) throws FOSException {
+        return scorerCache != null ? lazyScorer(wekaModelConfig) : loadScorer(wekaModelConfig);
+    }
+
+    /**
+     * Creates a scorer for the given model that loads it when it is first scored.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return the new (not yet loaded) scorer
+     */
+    private WekaThreadSafeScorer lazyScorer(final WekaModelConfig wekaModelConfig) {
+        return new WekaThreadSafeScorerLazy(wekaModelConfig.getId(), estimatedBytes(wekaModelConfig), scorerCache,
+                new Callable<WekaThreadSafeScorer>() {
+                    @Override
+                    public WekaThreadSafeScorer call() throws FOSException {
+                        return loadScorer(wekaModelConfig);
+                    }
+                });
+    }
+
+    /**
+     * Estimates the heap the scorer of the given model needs, from the size of the model file.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return the estimated memory in bytes
+     */
+    private static long estimatedBytes(WekaModelConfig wekaModelConfig) {
+        File model = wekaModelConfig.getModel();
+        return model == null ? 0 : model.length() * MODEL_MEMORY_FACTOR;
+    }
+
+    /**
+     * Loads the scorer for the given model, sharing the scorer of an identical model if there is one (see
+     * {@link SharedScorers}).
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return the scorer of the model
+     * @throws FOSException when the classifier could not be instantiated
+     */
+    private WekaThreadSafeScorer loadScorer(final WekaModelConfig wekaModelConfig) throws FOSException {
+        if (sharedScorers == null || wekaModelConfig.getModel() == null) {
+            return createScorer(wekaModelConfig);
+        }
+
+        return sharedScorers.get(wekaModelConfig, new Callable<WekaThreadSafeScorer>() {
+            @Override
+            public WekaThreadSafeScorer call() throws FOSException {
+                return createScorer(wekaModelConfig);
+            }
+        });
+    }
+
+    /**
+     * Creates a new scorer for the given model.
+     *
+     * <p> Compiled forests are used when the model has a {@link ForestEngine} other than weka. Otherwise classifiers
+     * that can be shared between threads (see {@link ThreadSafeClassifiers}) are scored through a single instance and
+     * the others through a pool of copies.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return the new scorer
+     * @throws FOSException when the classifier could not be instantiated
+     */
+    private WekaThreadSafeScorer createScorer(WekaModelConfig wekaModelConfig) throws FOSException {
+        WekaThreadSafeScorer compiledScorer = compiledScorer(wekaModelConfig);
+        if (compiledScorer != null) {
+            return compiledScorer;
+        }
+
+        if (ThreadSafeClassifiers.isThreadSafe(wekaModelConfig)) {
+            return new WekaThreadSafeScorerPassthrough(wekaModelConfig, wekaManagerConfig);
+        }
+
+        return new WekaThreadSafeScorerPool(wekaModelConfig, wekaManagerConfig);
+    }
+
+    /**
+     * Creates a scorer for the given model with the configured {@link ForestEngine}.
+     *
+     * <p> If the model uses the {@link ForestEngine#WEKA} engine or could not be compiled, this returns null (after
+     * logging the reason) and the model is scored with the weka classifier itself.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return the compiled scorer or null if the model should be scored by weka
+     */
+    @Nullable
+    private WekaThreadSafeScorer compiledScorer(WekaModelConfig wekaModelConfig) {
+        if (wekaModelConfig.getForestEngine() == ForestEngine.WEKA) {
+            return null;
+        }
+
+        try {
+            return new WekaThreadSafeScorerCompiled(wekaModelConfig, wekaManagerConfig);
+        } catch (Exception e) {
+            logger.warn("Could not compile model '{}' with engine {} (falling back to weka)", wekaModelConfig.getId(), wekaModelConfig.getForestEngine(), e);
+            return null;
+        }
+    }
+
     /**
      * Switches the {@link com.feedzai.fos.impl.weka.WekaScorer} used for the model with the given UUID.
      *
      * @param modelId                 The UUID of the model whose scorer to switch.
-     * @param newWekaThreadSafeScorer The score to switch to.
+     * @param newWekaThreadSafeScorer The score to switch to (null removes the model).
      * @return The previous scorer associated to the given UUID.
      */
-    private WekaThreadSafeScorer quickSwitch(UUID modelId, WekaThreadSafeScorer newWekaThreadSafeScorer) {
-        try { // quick switch - do not do anything inside for performance reasons!!
-            reloadModelsLock.writeLock().lock();
-            return wekaThreadSafeScorers.put(modelId, newWekaThreadSafeScorer);
-        } finally {
-            reloadModelsLock.writeLock().unlock();
-        }
+    private synchronized WekaThreadSafeScorer quickSwitch(UUID modelId, WekaThreadSafeScorer newWekaThreadSafeScorer) {
+        // copy-on-write - scoring threads keep using the previous map until the new one is published
+        Map<UUID, WekaThreadSafeScorer> scorers = new HashMap<>(wekaThreadSafeScorers);
+        WekaThreadSafeScorer oldWekaThreadSafeScorer = newWekaThreadSafeScorer != null
+                ? scorers.put(modelId, newWekaThreadSafeScorer)
+                : scorers.remove(modelId);
+
+        wekaThreadSafeScorers = ImmutableMap.copyOf(scorers);
+        scoringLatencies.reset(modelId);
+        publishMetrics(modelId, newWekaThreadSafeScorer);
+        return oldWekaThreadSafeScorer;
     }
 }
 
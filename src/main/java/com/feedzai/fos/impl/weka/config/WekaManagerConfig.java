@@ -41,6 +41,48 @@ public class WekaManagerConfig extends FosConfig {
      * Name of the configuration parameter for the maximum number of scoring threads
      */
     private static final String MAX_SIMULTANEOUS_SCORING_THREADS = "MaxSimultaneousScoringThreads";
+    /**
+     * Name of the configuration parameter for the estimated latency (in microseconds) above which a model is scored in
+     * parallel with the others of a multi-model score (cheaper models are scored by the calling thread).
+     */
+    public static final String INLINE_SCORING_THRESHOLD = "InlineScoringThresholdMicros";
+    /**
+     * Name of the configuration parameter for the number of models loaded in parallel at startup.
+     */
+    public static final String LOADING_THREADS = "LoadingThreads";
+    /**
+     * Name of the configuration parameter for the fraction of the free heap that the models being loaded in parallel
+     * at startup may use (models that would go beyond it wait for the others to load).
+     */
+    public static final String LOADING_MEMORY_FRACTION = "LoadingMemoryFraction";
+    /**
+     * Name of the configuration parameter that makes models load only when they are first scored (and be evicted,
+     * least recently used first, when the loaded models go beyond their heap budget).
+     */
+    public static final String LAZY_LOADING = "LazyLoading";
+    /**
+     * Name of the configuration parameter for the fraction of the maximum heap that lazily loaded models may use.
+     */
+    public static final String LAZY_LOADING_HEAP_FRACTION = "LazyLoadingHeapFraction";
+    /**
+     * Name of the configuration parameter that makes models with identical files (and scoring settings) share a
+     * single scorer.
+     */
+    public static final String SHARE_IDENTICAL_MODELS = "ShareIdenticalModels";
+    /**
+     * Name of the configuration parameter that saves the models in a journal (see
+     * {@link com.feedzai.fos.impl.weka.utils.ModelJournal}) instead of one header file per model.
+     */
+    public static final String MODEL_JOURNAL = "ModelJournal";
+    /**
+     * Name of the configuration parameter for the number of changes after which the model journal is compacted.
+     */
+    public static final String MODEL_JOURNAL_COMPACTION_THRESHOLD = "ModelJournalCompactionThreshold";
+    /**
+     * Name of the configuration parameter for the maximum time (in milliseconds) a new scorer is warmed up before it
+     * replaces the scorer of a model (0 disables the warm up).
+     */
+    public static final String WARMUP_MILLIS = "WarmupMillis";
 
     private FosConfig configuration;
 
@@ -61,10 +103,101 @@ public class WekaManagerConfig extends FosConfig {
         return Objects.toStringHelper(this)
                 .add("configuration", configuration)
                 .add("maxSimultaneousScoringThreads", getMaxSimultaneousScoringThreads())
+                .add("inlineScoringThresholdNanos", getInlineScoringThresholdNanos())
+                .add("loadingThreads", getLoadingThreads())
+                .add("loadingMemoryFraction", getLoadingMemoryFraction())
+                .add("lazyLoading", isLazyLoading())
+                .add("lazyLoadingHeapFraction", getLazyLoadingHeapFraction())
+                .add("shareIdenticalModels", isShareIdenticalModels())
+                .add("modelJournal", isModelJournal())
+                .add("modelJournalCompactionThreshold", getModelJournalCompactionThreshold())
+                .add("warmupMillis", getWarmupMillis())
                 .toString();
     }
 
     public int getMaxSimultaneousScoringThreads() {
         return configuration.getConfig().getInt(MAX_SIMULTANEOUS_SCORING_THREADS, 100);
     }
+
+    /**
+     * Gets the estimated latency above which a model is scored in parallel with the others of a multi-model score.
+     *
+     * @return the threshold in nanoseconds (defaults to 50 microseconds, around the cost of handing a task over to another thread)
+     */
+    public long getInlineScoringThresholdNanos() {
+        return configuration.getConfig().getLong(INLINE_SCORING_THRESHOLD, 50) * 1000;
+    }
+
+    /**
+     * Gets the number of models loaded in parallel at startup.
+     *
+     * @return the number of loading threads (defaults to the number of processors)
+     */
+    public int getLoadingThreads() {
+        return configuration.getConfig().getInt(LOADING_THREADS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Gets the fraction of the free heap that the models being loaded in parallel at startup may use.
+     *
+     * @return the fraction of the free heap (defaults to 0.5)
+     */
+    public double getLoadingMemoryFraction() {
+        return configuration.getConfig().getDouble(LOADING_MEMORY_FRACTION, 0.5);
+    }
+
+    /**
+     * Gets whether models are only loaded when they are first scored.
+     *
+     * @return true if models are loaded lazily (defaults to false)
+     */
+    public boolean isLazyLoading() {
+        return configuration.getConfig().getBoolean(LAZY_LOADING, false);
+    }
+
+    /**
+     * Gets the fraction of the maximum heap that lazily loaded models may use.
+     *
+     * @return the fraction of the maximum heap (defaults to 0.5)
+     */
+    public double getLazyLoadingHeapFraction() {
+        return configuration.getConfig().getDouble(LAZY_LOADING_HEAP_FRACTION, 0.5);
+    }
+
+    /**
+     * Gets whether models with identical files (and scoring settings) share a single scorer.
+     *
+     * @return true if identical models share their scorer (defaults to false, as the models then also share the
+     * capacity of their classifier pool)
+     */
+    public boolean isShareIdenticalModels() {
+        return configuration.getConfig().getBoolean(SHARE_IDENTICAL_MODELS, false);
+    }
+
+    /**
+     * Gets whether the models are saved in a journal instead of one header file per model.
+     *
+     * @return true if the models are saved in a journal (defaults to false)
+     */
+    public boolean isModelJournal() {
+        return configuration.getConfig().getBoolean(MODEL_JOURNAL, false);
+    }
+
+    /**
+     * Gets the number of changes after which the model journal is compacted into a snapshot.
+     *
+     * @return the number of changes (defaults to 1000)
+     */
+    public int getModelJournalCompactionThreshold() {
+        return configuration.getConfig().getInt(MODEL_JOURNAL_COMPACTION_THRESHOLD, 1000);
+    }
+
+    /**
+     * Gets the maximum time a new scorer is warmed up before it replaces the scorer of a model.
+     *
+     * @return the warm up time in milliseconds (defaults to 0, no warm up)
+     */
+    public long getWarmupMillis() {
+        return configuration.getConfig().getLong(WARMUP_MILLIS, 0);
+    }
 }
@@ -23,6 +23,8 @@ package com.feedzai.fos.impl.weka.config;
 
 import com.feedzai.fos.api.*;
 import com.feedzai.fos.common.validation.NotNull;
+import com.feedzai.fos.common.validation.Nullable;
+import com.feedzai.fos.impl.weka.utils.forest.ForestEngine;
 import com.feedzai.fos.impl.weka.utils.pool.GenericObjectPoolConfig;
 import com.google.common.collect.ImmutableList;
 import org.apache.commons.configuration.Configuration;
@@ -59,9 +61,40 @@ public class WekaModelConfig {
     /**
      * The property name of a boolean that indicates if the classifier is thread safe..
      * <p/> If the model is thread safe then @{WekaThreadSafeScorerPassthrough} will be used, else @{WekaThreadSafeScorerPool} will be used.
+     * Classifiers registered in {@link com.feedzai.fos.impl.weka.utils.ThreadSafeClassifiers} are always considered thread safe.
      */
     public static final String IS_CLASSIFIER_THREAD_SAFE = "isClassifierThreadSafe";
 
+    /**
+     * The property name of a boolean that indicates if the scorers should reuse thread confined instances.
+     * <p/> When enabled, each scoring thread keeps a single {@link com.feedzai.fos.impl.weka.utils.ReusableInstance}
+     * that is overwritten on every score. Only enable for classifiers that do not keep a reference to the scored instance.
+     */
+    public static final String REUSE_INSTANCES = "reuseInstances";
+
+    /**
+     * The property name of a boolean that indicates if pooled classifier copies should share their read-only structure.
+     * <p/> When enabled, the model is loaded once and the parts of it that are registered in
+     * {@link com.feedzai.fos.impl.weka.utils.ThreadSafeClassifiers} (e.g. the forest inside a filtered classifier) are shared
+     * by all the copies in the pool (see {@link com.feedzai.fos.impl.weka.utils.pool.SharedStructureClassifierFactory}).
+     */
+    public static final String SHARE_STRUCTURE = "shareStructure";
+
+    /**
+     * The property name of the engine used to score tree ensembles.
+     * <p/> One of the {@link com.feedzai.fos.impl.weka.utils.forest.ForestEngine} values, defaults to <code>WEKA</code> (score with the classifier itself).
+     */
+    public static final String FOREST_ENGINE = "forestEngine";
+
+    /**
+     * The property name of the file with the compiled forest of the <code>MAPPED</code> forest engine.
+     * <p/> Defaults to the model file with the <code>.forest</code> extension appended. The file stores the length and
+     * modification time of the model file it was compiled from: it is written when it does not exist, is not a valid
+     * mapped forest or those do not match the ones of the model file anymore, and mapped directly otherwise (without
+     * reading the model). See {@link com.feedzai.fos.impl.weka.utils.forest.MappedForest#isCompiledFrom}.
+     */
+    public static final String MAPPED_FOREST = "mappedForest";
+
     /**
      * The property name that defines the weka classifier class (FQCN).
      */
@@ -91,6 +124,10 @@ public class WekaModelConfig {
     private transient File header;
     private transient boolean dirty = true;
     private boolean classifierThreadSafe;
+    private boolean reuseInstances;
+    private boolean shareStructure;
+    private ForestEngine forestEngine;
+    private File mappedForest;
     private Configuration configuration;
 
     /**
@@ -136,6 +173,14 @@ public class WekaModelConfig {
         }
 
         classifierThreadSafe = configuration.getBoolean(IS_CLASSIFIER_THREAD_SAFE, false /* defaults to Pool implementation*/);
+        reuseInstances = configuration.getBoolean(REUSE_INSTANCES, false);
+        shareStructure = configuration.getBoolean(SHARE_STRUCTURE, false);
+        forestEngine = ForestEngine.valueOf(configuration.getString(FOREST_ENGINE, ForestEngine.WEKA.name()));
+
+        String mappedForestFile = configuration.getString(MAPPED_FOREST);
+        if (mappedForestFile != null) {
+            this.mappedForest = new File(mappedForestFile);
+        }
 
         String uuid = configuration.getString(ID);
         if (uuid != null) {
@@ -163,6 +208,48 @@ public class WekaModelConfig {
         return classifierThreadSafe;
     }
 
+    /**
+     * Returns true, if and only if the scorers should reuse thread confined instances.
+     *
+     * @return true if instances should be reused between scores
+     */
+    public boolean isReuseInstances() {
+        return reuseInstances;
+    }
+
+    /**
+     * Returns true, if and only if pooled classifier copies should share their read-only structure.
+     *
+     * @return true if the pool copies share the registered thread safe parts of the model
+     */
+    public boolean isShareStructure() {
+        return shareStructure;
+    }
+
+    /**
+     * Gets the engine used to score tree ensembles.
+     *
+     * @return the forest engine of the model
+     */
+    @NotNull
+    public ForestEngine getForestEngine() {
+        return forestEngine;
+    }
+
+    /**
+     * Gets the file with the compiled forest of the <code>MAPPED</code> forest engine (by default next to the current
+     * model file, see {@link #MAPPED_FOREST}).
+     *
+     * @return the mapped forest file, or null if the model has no file
+     */
+    @Nullable
+    public File getMappedForest() {
+        if (mappedForest == null && model != null) {
+            return new File(model.getPath() + ".forest");
+        }
+        return mappedForest;
+    }
+
     /**
      * Gets a boolean indicating if this configuration has changed since the last save.
      *
@@ -23,6 +23,7 @@ package com.feedzai.fos.impl.weka.utils;
 
 import com.feedzai.fos.common.validation.NotNull;
 
+import java.util.UUID;
 import java.util.concurrent.Callable;
 
 /**
@@ -33,6 +34,8 @@ import java.util.concurrent.Callable;
 public class AsyncScoringTask implements Callable<double[]> {
     private WekaThreadSafeScorer wekaThreadSafeScorer;
     private Object[] scorable;
+    private UUID modelId;
+    private ScoringLatencies scoringLatencies;
 
     /**
      * Creates a new task with the given scorer and scorable.
@@ -45,6 +48,20 @@ public class AsyncScoringTask implements Callable<double[]> {
         this.scorable = scorable;
     }
 
+    /**
+     * Creates a new task with the given scorer and scorable that records the latency of the score.
+     *
+     * @param wekaThreadSafeScorer the scorer that will score the scorable
+     * @param scorable             the scorable to score
+     * @param modelId              the id of the model of the scorer
+     * @param scoringLatencies     where to record the latency of the score
+     */
+    public AsyncScoringTask(WekaThreadSafeScorer wekaThreadSafeScorer, Object[] scorable, UUID modelId, ScoringLatencies scoringLatencies) {
+        this(wekaThreadSafeScorer, scorable);
+        this.modelId = modelId;
+        this.scoringLatencies = scoringLatencies;
+    }
+
     /**
      * Uses the scorer to score the scorable and return the numeric score (so many scor*!).
      *
@@ -54,6 +71,14 @@ public class AsyncScoringTask implements Callable<double[]> {
     @Override
     @NotNull
     public double[] call() throws Exception {
-        return wekaThreadSafeScorer.score(scorable);
+        if (scoringLatencies == null) {
+            return wekaThreadSafeScorer.score(scorable);
+        }
+
+        long start = System.nanoTime();
+        double[] score = wekaThreadSafeScorer.score(scorable);
+        scoringLatencies.record(modelId, System.nanoTime() - start);
+
+        return score;
     }
 }
@@ -0,0 +1,119 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.FOSException;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join task that scores a range of a list of scorables, writing each score into the position of its scorable.
+ * <p/>
+ * Ranges are split in halves while they are larger than the minimum chunk size and the current worker does not have
+ * enough queued tasks to feed idle workers (the surplus heuristic of the fork-join framework), so chunks adapt to the
+ * load of the pool: idle workers steal the pending halves and busy ones score large chunks without further splits.
+ *
+ * @since 1.0.11
+ */
+public class BulkScoringTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The queued tasks above which a worker stops splitting its range.
+     */
+    private static final int SURPLUS_TASKS = 3;
+
+    private final WekaThreadSafeScorer wekaThreadSafeScorer;
+    private final List<Object[]> scorables;
+    private final double[][] scores;
+    private final int start;
+    private final int end;
+    private final int minChunkSize;
+
+    /**
+     * Scores all the given scorables in the given pool.
+     *
+     * @param forkJoinPool         the pool where to score the scorables
+     * @param wekaThreadSafeScorer the scorer that will score the scorables
+     * @param scorables            the scorables to score (random access)
+     * @return the score of each scorable, in the same order
+     * @throws FOSException when any of the scorables could not be scored
+     */
+    public static double[][] score(ForkJoinPool forkJoinPool, WekaThreadSafeScorer wekaThreadSafeScorer, List<Object[]> scorables) throws FOSException {
+        double[][] scores = new double[scorables.size()][];
+
+        /* enough chunks for every thread to steal a few, but never so small that splitting costs more than scoring */
+        int minChunkSize = Math.max(1, scorables.size() / (4 * forkJoinPool.getParallelism()));
+
+        try {
+            forkJoinPool.invoke(new BulkScoringTask(wekaThreadSafeScorer, scorables, scores, 0, scorables.size(), minChunkSize));
+        } catch (BulkScoringException e) {
+            throw (FOSException) e.getCause();
+        }
+
+        return scores;
+    }
+
+    private BulkScoringTask(WekaThreadSafeScorer wekaThreadSafeScorer, List<Object[]> scorables, double[][] scores, int start, int end, int minChunkSize) {
+        this.wekaThreadSafeScorer = wekaThreadSafeScorer;
+        this.scorables = scorables;
+        this.scores = scores;
+        this.start = start;
+        this.end = end;
+        this.minChunkSize = minChunkSize;
+    }
+
+    @Override
+    protected void compute() {
+        if (end - start > minChunkSize && getSurplusQueuedTaskCount() <= SURPLUS_TASKS) {
+            int middle = (start + end) >>> 1;
+            invokeAll(new BulkScoringTask(wekaThreadSafeScorer, scorables, scores, start, middle, minChunkSize),
+                    new BulkScoringTask(wekaThreadSafeScorer, scorables, scores, middle, end, minChunkSize));
+            return;
+        }
+
+        try {
+            List<double[]> chunkScores = wekaThreadSafeScorer.score(scorables.subList(start, end));
+            for (int idx = 0; idx < chunkScores.size(); idx++) {
+                scores[start + idx] = chunkScores.get(idx);
+            }
+        } catch (FOSException e) {
+            throw new BulkScoringException(e);
+        }
+    }
+
+    /**
+     * Carries the {@link FOSException} of a chunk out of the fork-join framework (that only propagates unchecked exceptions).
+     * <p/>
+     * It has no <code>Throwable</code> constructor on purpose: the framework then rethrows this same instance in the
+     * joining thread instead of a reflective copy.
+     */
+    private static final class BulkScoringException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private BulkScoringException(FOSException cause) {
+            super(cause);
+        }
+    }
+}
@@ -24,6 +24,7 @@ package com.feedzai.fos.impl.weka.utils;
 import com.feedzai.fos.api.FOSException;
 import com.feedzai.fos.api.ModelDescriptor;
 import com.feedzai.fos.common.validation.NotNull;
+import com.feedzai.fos.impl.weka.utils.forest.ForestCodec;
 import com.feedzai.fos.impl.weka.utils.pmml.PMMLConsumers;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -81,6 +82,10 @@ public class Cloner<T extends Serializable> {
 
     /**
      * Creates a clonner by reading a serialized object from file.
+     * <p/>
+     * Binary files with a forest encoded by the {@link ForestCodec} are kept as they are (so {@link #write(File)}
+     * keeps their format), but cannot be cloned: read them with
+     * {@link com.feedzai.fos.impl.weka.utils.pool.ClassifierFactory#load(ModelDescriptor)} instead.
      *
      * @param descriptor A {@link com.feedzai.fos.api.ModelDescriptor} with the information about the classifier.
      * @throws IOException when there were problems reading the file
@@ -110,11 +115,15 @@ public class Cloner<T extends Serializable> {
      * Gets a fresh clone of the object.
      *
      * @return a fresh clone
-     * @throws IOException            when there were problems serializing the object
+     * @throws IOException            when there were problems serializing the object (or it is an encoded forest)
      * @throws ClassNotFoundException when the serialized objects's class was not found
      */
     @NotNull
     public T get() throws IOException, ClassNotFoundException {
+        if (ForestCodec.isEncoded(serializedObject)) {
+            throw new IOException("Encoded forests are not serialized objects, they must be loaded as classifiers.");
+        }
+
         /* cannot be pre-instantiated to enable thread concurrency*/
         ByteArrayInputStream byteArrayInputStream = null;
         ObjectInputStream objectInputStream = null;
@@ -0,0 +1,252 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import com.esotericsoftware.shaded.org.objenesis.instantiator.ObjectInstantiator;
+import com.esotericsoftware.shaded.org.objenesis.strategy.InstantiatorStrategy;
+import com.esotericsoftware.shaded.org.objenesis.strategy.SerializingInstantiatorStrategy;
+import com.feedzai.fos.common.validation.Nullable;
+import com.google.common.collect.ImmutableSet;
+import weka.core.ProtectedProperties;
+
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * Deep copies object graphs with {@link Kryo#copy(Object)}, with the same result as serializing and deserializing them
+ * (see {@link Cloner}) but without encoding and decoding the graph through a byte stream.
+ * <p/>
+ * Objects are created like {@link ObjectInputStream} does (only the constructor of the first non serializable
+ * superclass is run) and only their non transient fields are copied. Shared references and cycles are kept, the
+ * common JDK collections and maps are copied element by element, {@link BitSet}s are cloned and {@link ProtectedProperties} (the read-only
+ * metadata of weka attributes) are shared between copies.
+ * <p/>
+ * Classes that customize their serialization (<code>writeObject</code>, <code>readObject</code>,
+ * <code>readResolve</code>, <code>writeReplace</code>, <code>serialPersistentFields</code> or
+ * {@link Externalizable}) cannot be copied field by field: copying a graph with one of them throws an
+ * {@link IllegalArgumentException}, and the caller should fall back to serialization.
+ *
+ * @since 1.0.11
+ */
+public final class DeepCopier {
+    /**
+     * Collections and maps that are copied by adding copies of their elements to a new instance.
+     */
+    private static final Set<Class<?>> COLLECTIONS = ImmutableSet.<Class<?>>of(
+            ArrayList.class, LinkedList.class, Vector.class, HashSet.class, LinkedHashSet.class,
+            HashMap.class, LinkedHashMap.class, Hashtable.class);
+
+    /**
+     * Creates objects without running the constructors of serializable classes, like {@link ObjectInputStream}.
+     */
+    private static final InstantiatorStrategy SERIALIZING = new SerializingInstantiatorStrategy();
+
+    /**
+     * Kryo instances are not thread safe (and keep the serializers of the classes they copied).
+     */
+    private static final ThreadLocal<Kryo> kryos = new ThreadLocal<Kryo>() {
+        @Override
+        protected Kryo initialValue() {
+            Kryo kryo = new CopyingKryo();
+            kryo.addDefaultSerializer(ProtectedProperties.class, new SharedSerializer());
+            kryo.addDefaultSerializer(BitSet.class, new BitSetSerializer());
+            return kryo;
+        }
+    };
+
+    private DeepCopier() {
+    }
+
+    /**
+     * Makes a deep copy of the given object.
+     *
+     * @param object the object to copy
+     * @param <T>    the type of the object
+     * @return a copy of the object that shares no mutable state with it
+     * @throws IllegalArgumentException when the graph has objects that cannot be copied field by field
+     */
+    @Nullable
+    public static <T> T copy(@Nullable T object) {
+        try {
+            return kryos.get().copy(object);
+        } catch (KryoException e) {
+            Throwable cause = e;
+            while (cause.getCause() != null && !(cause instanceof IllegalArgumentException)) {
+                cause = cause.getCause();
+            }
+            throw new IllegalArgumentException("Cannot copy " + object.getClass().getName() + " field by field", cause instanceof IllegalArgumentException ? cause : e);
+        }
+    }
+
+    /**
+     * Kryo that refuses to copy field by field the classes that are not serializable that way.
+     */
+    private static final class CopyingKryo extends Kryo {
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Serializer getDefaultSerializer(Class type) {
+            if ((Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type))
+                    && !COLLECTIONS.contains(type) && type != ProtectedProperties.class) {
+                throw new IllegalArgumentException(type.getName() + " is not a known collection");
+            }
+            return super.getDefaultSerializer(type);
+        }
+
+        @Override
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        protected Serializer newDefaultSerializer(Class type) {
+            checkSerializableFieldByField(type);
+            return new SerializableFieldSerializer<>(this, type);
+        }
+
+        private static void checkSerializableFieldByField(Class<?> type) {
+            if (type.isArray() || type.isEnum()) {
+                return;
+            }
+            if (!Serializable.class.isAssignableFrom(type) || Externalizable.class.isAssignableFrom(type)) {
+                throw new IllegalArgumentException(type.getName() + " is not serializable field by field");
+            }
+            for (Class<?> current = type; Serializable.class.isAssignableFrom(current); current = current.getSuperclass()) {
+                if (customizesSerialization(current)) {
+                    throw new IllegalArgumentException(type.getName() + " customizes its serialization (in " + current.getName() + ")");
+                }
+            }
+        }
+
+        private static boolean customizesSerialization(Class<?> type) {
+            for (Method method : type.getDeclaredMethods()) {
+                switch (method.getName()) {
+                    case "writeObject":
+                        if (hasParameters(method, ObjectOutputStream.class)) {
+                            return true;
+                        }
+                        break;
+                    case "readObject":
+                        if (hasParameters(method, ObjectInputStream.class)) {
+                            return true;
+                        }
+                        break;
+                    case "readObjectNoData":
+                    case "readResolve":
+                    case "writeReplace":
+                        if (hasParameters(method)) {
+                            return true;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            try {
+                type.getDeclaredField("serialPersistentFields");
+                return true;
+            } catch (NoSuchFieldException e) {
+                return false;
+            }
+        }
+
+        private static boolean hasParameters(Method method, Class<?>... parameters) {
+            return Arrays.equals(method.getParameterTypes(), parameters);
+        }
+    }
+
+    /**
+     * Copies the non transient fields of the serializable classes (including the reference of inner classes to their
+     * outer instance) of objects created like {@link ObjectInputStream} does.
+     */
+    private static final class SerializableFieldSerializer<T> extends FieldSerializer<T> {
+        private final ObjectInstantiator instantiator;
+        private final List<CachedField<?>> serializableFields = new ArrayList<>();
+
+        private SerializableFieldSerializer(Kryo kryo, Class<T> type) {
+            super(kryo, type);
+            setIgnoreSyntheticFields(false);
+            this.instantiator = SERIALIZING.newInstantiatorOf(type);
+            for (CachedField<?> field : getFields()) {
+                if (Serializable.class.isAssignableFrom(field.getField().getDeclaringClass())) {
+                    serializableFields.add(field);
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T copy(Kryo kryo, T original) {
+            T copy = (T) instantiator.newInstance();
+            kryo.reference(copy);
+            for (CachedField<?> field : serializableFields) {
+                field.copy(original, copy);
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * Copies {@link BitSet}s (which customize their serialization) with {@link BitSet#clone()}.
+     */
+    private static final class BitSetSerializer extends Serializer<BitSet> {
+        @Override
+        public void write(Kryo kryo, Output output, BitSet object) {
+            throw new UnsupportedOperationException("Only copies are supported");
+        }
+
+        @Override
+        public BitSet read(Kryo kryo, Input input, Class<BitSet> type) {
+            throw new UnsupportedOperationException("Only copies are supported");
+        }
+
+        @Override
+        public BitSet copy(Kryo kryo, BitSet original) {
+            return (BitSet) original.clone();
+        }
+    }
+
+    /**
+     * Serializer of immutable objects, which are shared by the copies (it only copies).
+     */
+    private static final class SharedSerializer extends Serializer<Object> {
+        private SharedSerializer() {
+            super(false, true);
+        }
+
+        @Override
+        public void write(Kryo kryo, Output output, Object object) {
+            throw new UnsupportedOperationException("Only copies are supported");
+        }
+
+        @Override
+        public Object read(Kryo kryo, Input input, Class<Object> type) {
+            throw new UnsupportedOperationException("Only copies are supported");
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+/**
+ * Layout of the primitive matrices used for batch scoring.
+ * <p/>
+ * A matrix is a flat <code>double[]</code> with one column per model attribute (class attribute included). Numeric
+ * values are stored as is, nominal values are stored as the (0 based) index of the value in the attribute and
+ * missing values are stored as {@link weka.core.Instance#missingValue()}.
+ *
+ * @since 1.0.11
+ */
+public enum MatrixLayout {
+    /**
+     * All the values of a row are stored contiguously.
+     */
+    ROW_MAJOR {
+        @Override
+        public int index(int row, int column, int rows, int columns) {
+            return row * columns + column;
+        }
+    },
+    /**
+     * All the values of a column are stored contiguously.
+     */
+    COLUMN_MAJOR {
+        @Override
+        public int index(int row, int column, int rows, int columns) {
+            return column * rows + row;
+        }
+    };
+
+    /**
+     * Returns the position of the given cell in the flat matrix.
+     *
+     * @param row     the row of the cell
+     * @param column  the column of the cell
+     * @param rows    the number of rows in the matrix
+     * @param columns the number of columns in the matrix
+     * @return the position of the cell in the flat array
+     */
+    public abstract int index(int row, int column, int rows, int columns);
+}
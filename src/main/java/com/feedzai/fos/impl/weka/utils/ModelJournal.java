@@ -0,0 +1,355 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.feedzai.fos.api.ModelConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Append-only journal of the models registered in a manager, kept instead of one header file per model.
+ * <p/>
+ * Each change of a model is appended as a checksummed record (the whole configuration of an added or updated model,
+ * or the id of a removed one), so saving a change costs a single append. After a number of changes the journal is
+ * compacted: the configurations of all the models are written to a snapshot (atomically replacing the previous one)
+ * and the journal is emptied.
+ * <p/>
+ * Reading replays the snapshot and then the journal. Records describe the whole state of a model, so replaying a
+ * journal over a snapshot that already has its changes (e.g. after a crash during compaction) gives the same models.
+ * A record that was not completely written (e.g. after a crash during an append) ends the journal, and is discarded.
+ * Snapshots are always written whole, so an invalid record in a snapshot is corruption and fails {@link #open()}.
+ *
+ * @since 1.0.11
+ */
+public class ModelJournal implements Closeable {
+    private final static Logger logger = LoggerFactory.getLogger(ModelJournal.class);
+
+    /**
+     * The name of the journal file.
+     */
+    public static final String JOURNAL_FILE = "models.journal";
+    /**
+     * The name of the snapshot file.
+     */
+    public static final String SNAPSHOT_FILE = "models.snapshot";
+
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * The size of the record header (type, length and checksum).
+     */
+    private static final int RECORD_HEADER = 1 + 4 + 8;
+
+    private final File journalFile;
+    private final File snapshotFile;
+    private final int compactionThreshold;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /* guarded by this */
+    private final Map<UUID, byte[]> models = new LinkedHashMap<>();
+    private FileOutputStream journal;
+    private int records;
+
+    /**
+     * Creates a new journal in the given directory (see {@link #open()}).
+     *
+     * @param directory           the directory of the journal and snapshot files
+     * @param compactionThreshold the number of changes after which the journal is compacted into the snapshot
+     */
+    public ModelJournal(File directory, int compactionThreshold) {
+        checkNotNull(directory, "Directory cannot be null");
+        checkArgument(compactionThreshold > 0, "Compaction threshold must be positive");
+
+        this.journalFile = new File(directory, JOURNAL_FILE);
+        this.snapshotFile = new File(directory, SNAPSHOT_FILE);
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Gets whether there is a journal (or a snapshot) in the directory.
+     *
+     * @return true if the models were already saved to this journal
+     */
+    public boolean exists() {
+        return journalFile.exists() || snapshotFile.exists();
+    }
+
+    /**
+     * Reads the models in the snapshot and the journal, and opens the journal for the changes that follow.
+     *
+     * @return the configuration of each model, in the order they were first added
+     * @throws IOException when the journal could not be read or opened, or the snapshot is corrupted
+     */
+    public synchronized Map<UUID, ModelConfig> open() throws IOException {
+        checkState(journal == null, "Journal is already open");
+
+        models.clear();
+        if (snapshotFile.exists()) {
+            long valid = replay(snapshotFile);
+            if (valid < snapshotFile.length()) {
+                models.clear();
+                throw new IOException(String.format("Snapshot '%s' is corrupted at byte %s", snapshotFile, valid));
+            }
+        }
+
+        records = 0;
+        long valid = 0;
+        if (journalFile.exists()) {
+            valid = replay(journalFile);
+            if (valid < journalFile.length()) {
+                logger.warn("Discarding {} bytes at the end of journal '{}' (incomplete or corrupted record)", journalFile.length() - valid, journalFile);
+            }
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.setLength(valid);
+        }
+        journal = new FileOutputStream(journalFile, true);
+
+        Map<UUID, ModelConfig> result = new LinkedHashMap<>(models.size());
+        for (Map.Entry<UUID, byte[]> model : models.entrySet()) {
+            result.put(model.getKey(), mapper.readValue(model.getValue(), ModelConfig.class));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Saves the configuration of an added or updated model.
+     *
+     * @param modelId     the id of the model
+     * @param modelConfig the configuration of the model
+     * @throws IOException when the change could not be appended
+     */
+    public synchronized void put(UUID modelId, ModelConfig modelConfig) throws IOException {
+        checkNotNull(modelId, "Model id cannot be null");
+        checkNotNull(modelConfig, "Model configuration cannot be null");
+
+        byte[] json = mapper.writeValueAsBytes(modelConfig);
+        append(PUT, modelId, json);
+        models.put(modelId, json);
+        compactIfNeeded();
+    }
+
+    /**
+     * Saves the removal of a model.
+     *
+     * @param modelId the id of the model
+     * @throws IOException when the change could not be appended
+     */
+    public synchronized void remove(UUID modelId) throws IOException {
+        checkNotNull(modelId, "Model id cannot be null");
+
+        if (models.containsKey(modelId)) {
+            append(REMOVE, modelId, new byte[0]);
+            models.remove(modelId);
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * Replaces the saved models with the given ones (e.g. when migrating from header files).
+     *
+     * @param modelConfigs the configuration of each model
+     * @throws IOException when the snapshot could not be written
+     */
+    public synchronized void reset(Map<UUID, ModelConfig> modelConfigs) throws IOException {
+        checkNotNull(modelConfigs, "Model configurations cannot be null");
+
+        models.clear();
+        for (Map.Entry<UUID, ModelConfig> model : modelConfigs.entrySet()) {
+            models.put(model.getKey(), mapper.writeValueAsBytes(model.getValue()));
+        }
+        compact();
+    }
+
+    /**
+     * Writes all the models to a new snapshot and empties the journal.
+     *
+     * @throws IOException when the snapshot could not be written
+     */
+    public synchronized void compact() throws IOException {
+        checkState(journal != null, "Journal is not open");
+
+        long start = System.currentTimeMillis();
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+        try (FileOutputStream snapshot = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(snapshot));
+            for (Map.Entry<UUID, byte[]> model : models.entrySet()) {
+                writeRecord(out, PUT, model.getKey(), model.getValue());
+            }
+            out.flush();
+            snapshot.getFD().sync();
+        }
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        /* a crash before this point replays the journal over the new snapshot, which gives the same models */
+        journal.getChannel().truncate(0);
+        journal.getChannel().force(true);
+        records = 0;
+
+        logger.info("Compacted {} models into '{}' in {} ms", models.size(), snapshotFile, System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+    }
+
+    /**
+     * Appends a record to the journal.
+     * <p/>
+     * When the record could not be written, the journal is truncated back to where the record started, so that the
+     * records appended later are not replayed after a partial one (which would end the journal). If even that fails
+     * the journal is closed.
+     */
+    private void append(byte type, UUID modelId, byte[] json) throws IOException {
+        checkState(journal != null, "Journal is not open");
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(RECORD_HEADER + 16 + json.length);
+        writeRecord(new DataOutputStream(buffer), type, modelId, json);
+
+        long position = journal.getChannel().size();
+        try {
+            journal.write(buffer.toByteArray());
+            journal.getChannel().force(false);
+        } catch (IOException e) {
+            try {
+                journal.getChannel().truncate(position);
+            } catch (IOException truncateException) {
+                e.addSuppressed(truncateException);
+                logger.error("Could not truncate journal '{}' after a failed append, closing it", journalFile, truncateException);
+                close();
+            }
+            throw e;
+        }
+        records++;
+    }
+
+    /**
+     * Compacts the journal if it reached the threshold.
+     */
+    private void compactIfNeeded() throws IOException {
+        if (records >= compactionThreshold) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes a record: the type, the length of the payload (model id and configuration), a checksum of the type and
+     * payload, and the payload itself.
+     */
+    private static void writeRecord(DataOutputStream out, byte type, UUID modelId, byte[] json) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(16 + json.length);
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeLong(modelId.getMostSignificantBits());
+        data.writeLong(modelId.getLeastSignificantBits());
+        data.write(json);
+        byte[] bytes = payload.toByteArray();
+
+        out.writeByte(type);
+        out.writeInt(bytes.length);
+        out.writeLong(checksum(type, bytes));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /**
+     * Replays the records of the given file into the models, up to the first incomplete or corrupted record.
+     *
+     * @return the length of the valid records
+     */
+    private long replay(File file) throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long remaining = file.length();
+            while (remaining >= RECORD_HEADER) {
+                byte type = in.readByte();
+                int length = in.readInt();
+                long checksum = in.readLong();
+                if (length < 16 || length > remaining - RECORD_HEADER || (type != PUT && type != REMOVE)) {
+                    break;
+                }
+
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                if (checksum(type, bytes) != checksum) {
+                    break;
+                }
+
+                DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+                UUID modelId = new UUID(payload.readLong(), payload.readLong());
+                if (type == PUT) {
+                    models.put(modelId, Arrays.copyOfRange(bytes, 16, bytes.length));
+                } else {
+                    models.remove(modelId);
+                }
+
+                valid += RECORD_HEADER + length;
+                remaining -= RECORD_HEADER + length;
+                if (file.equals(journalFile)) {
+                    records++;
+                }
+            }
+        } catch (EOFException e) {
+            // the last record is incomplete
+        }
+        return valid;
+    }
+
+    private static long checksum(byte type, byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(bytes, 0, bytes.length);
+        return crc.getValue();
+    }
+}
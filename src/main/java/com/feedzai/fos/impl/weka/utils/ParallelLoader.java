@@ -0,0 +1,257 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.common.validation.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Loads several items (e.g. the models of a manager at startup) in parallel.
+ * <p/>
+ * At most <code>threads</code> items are loaded at once, and the loads in progress never add up to more than the
+ * memory budget (each load reserves the memory its {@link Loader} estimates, a load larger than the whole budget
+ * runs alone). As with serial loading, an item that fails to load is logged and skipped, and does not stop the
+ * others from loading. The time each item took to load and the total time are logged.
+ * <p/>
+ * If the loading thread is interrupted, the items that were loaded so far are returned, and the values of the loads
+ * that complete after that are given to {@link Loader#discard(Object)}, so that they do not leak.
+ *
+ * @param <K> the type of the items to load
+ * @param <V> the type of the loaded values
+ * @since 1.0.11
+ */
+public class ParallelLoader<K, V> {
+    private final static Logger logger = LoggerFactory.getLogger(ParallelLoader.class);
+
+    /**
+     * Loads the value of an item.
+     *
+     * @param <K> the type of the items to load
+     * @param <V> the type of the loaded values
+     */
+    public interface Loader<K, V> {
+        /**
+         * Loads the value of the given item (called from the loader threads).
+         *
+         * @param key the item to load
+         * @return the loaded value
+         * @throws Exception when the item could not be loaded
+         */
+        V load(K key) throws Exception;
+
+        /**
+         * Estimates the memory needed to load the given item.
+         *
+         * @param key the item to load
+         * @return the estimated memory in bytes (0 if unknown)
+         */
+        long estimatedBytes(K key);
+
+        /**
+         * Releases a value that was loaded but is not returned by {@link ParallelLoader#load(Collection)}, because
+         * the loading was interrupted (called from the loader threads or the loading thread).
+         *
+         * @param value the loaded value
+         */
+        void discard(V value);
+    }
+
+    /**
+     * The memory budget is reserved in units of this size, so that it fits in the permits of a semaphore.
+     */
+    private static final long PERMIT_BYTES = 1024;
+
+    private final String description;
+    private final int threads;
+    private final int memoryPermits;
+    private final Loader<K, V> loader;
+
+    /**
+     * Creates a new parallel loader.
+     *
+     * @param description  what is loaded (used in the logs, e.g. <code>"model"</code>)
+     * @param threads      the maximum number of items loaded at once
+     * @param memoryBudget the maximum memory, in bytes, estimated for the items being loaded at once
+     * @param loader       the loader of each item
+     */
+    public ParallelLoader(String description, int threads, long memoryBudget, Loader<K, V> loader) {
+        checkNotNull(description, "Description cannot be null");
+        checkArgument(threads > 0, "The number of threads must be positive");
+        checkArgument(memoryBudget > 0, "The memory budget must be positive");
+        checkNotNull(loader, "Loader cannot be null");
+
+        this.description = description;
+        this.threads = threads;
+        this.memoryPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / PERMIT_BYTES));
+        this.loader = loader;
+    }
+
+    /**
+     * Gets the memory budget of a loader that may use the given fraction of the heap that is currently free.
+     *
+     * @param fraction the fraction (between 0 and 1) of the free heap
+     * @return the memory budget in bytes
+     */
+    public static long freeMemoryBudget(double fraction) {
+        checkArgument(fraction > 0 && fraction <= 1, "The memory fraction must be in ]0, 1]");
+
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+
+        return Math.max(PERMIT_BYTES, (long) (free * fraction));
+    }
+
+    /**
+     * Loads the given items.
+     *
+     * @param keys the items to load
+     * @return the values of the items that were loaded, in the iteration order of <code>keys</code>
+     */
+    @NotNull
+    public Map<K, V> load(Collection<K> keys) {
+        checkNotNull(keys, "Keys cannot be null");
+
+        long start = System.currentTimeMillis();
+        final Semaphore memory = new Semaphore(memoryPermits);
+
+        int poolSize = Math.max(1, Math.min(threads, keys.size()));
+        ExecutorService executorService = Executors.newFixedThreadPool(poolSize);
+
+        final Handoff<V> handoff = new Handoff<>();
+        Map<K, V> result = new LinkedHashMap<>();
+        try {
+            List<Future<?>> futures = new ArrayList<>(keys.size());
+            for (final K key : keys) {
+                final int idx = futures.size();
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        V value = load(key, memory);
+                        if (!handoff.offer(idx, value)) {
+                            loader.discard(value);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            int idx = 0;
+            for (K key : keys) {
+                try {
+                    futures.get(idx).get();
+                    result.put(key, handoff.take(idx));
+                } catch (ExecutionException e) {
+                    logger.error("Could not load {} '{}' (continuing to load others)", description, key, e.getCause());
+                }
+                idx++;
+            }
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while loading {}s ({} loaded)", description, result.size(), e);
+            Thread.currentThread().interrupt();
+
+            for (V value : handoff.abandon()) {
+                loader.discard(value);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        logger.info("Loaded {} of {} {}s in {} ms ({} threads)", result.size(), keys.size(), description, System.currentTimeMillis() - start, poolSize);
+
+        return result;
+    }
+
+    /**
+     * Loads an item, once there is enough memory budget for it.
+     */
+    private V load(K key, Semaphore memory) throws Exception {
+        int permits = (int) Math.max(1, Math.min(memoryPermits, loader.estimatedBytes(key) / PERMIT_BYTES));
+
+        memory.acquire(permits);
+        try {
+            long start = System.currentTimeMillis();
+            V value = loader.load(key);
+            logger.info("Loaded {} '{}' in {} ms", description, key, System.currentTimeMillis() - start);
+            return value;
+        } finally {
+            memory.release(permits);
+        }
+    }
+
+    /**
+     * Hands the loaded values over to the loading thread, until it stops taking them.
+     */
+    private static final class Handoff<V> {
+        /* guarded by this */
+        private final Map<Integer, V> loaded = new HashMap<>();
+        private boolean abandoned;
+
+        /**
+         * Offers the value of the item with the given index.
+         *
+         * @return false if the values are no longer taken (the value must be discarded by the caller)
+         */
+        synchronized boolean offer(int idx, V value) {
+            if (abandoned) {
+                return false;
+            }
+            loaded.put(idx, value);
+            return true;
+        }
+
+        /**
+         * Takes the (offered) value of the item with the given index.
+         */
+        synchronized V take(int idx) {
+            return loaded.remove(idx);
+        }
+
+        /**
+         * Stops taking values.
+         *
+         * @return the values that were offered but not taken
+         */
+        synchronized Collection<V> abandon() {
+            abandoned = true;
+            List<V> values = new ArrayList<>(loaded.values());
+            loaded.clear();
+            return values;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A weka {@link Instance} whose values are overwritten in place, so it can be reused across scores.
+ * <p/>
+ * {@link Instance#setValue(int, double)} copies the whole value vector on every write, which is what makes building
+ * an instance per score allocation heavy. This instance writes straight into its value vector and is meant to be
+ * confined to a single thread (see {@link WekaUtils#newReusableInstances(weka.core.Instances)}).
+ * <p/>
+ * It must only be used with classifiers that do not keep a reference to the scored instance after
+ * <code>distributionForInstance</code> returns.
+ *
+ * @since 1.0.11
+ */
+public class ReusableInstance extends Instance {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates a new reusable instance bound to the given dataset.
+     *
+     * @param dataset the dataset (header) of the instance
+     */
+    public ReusableInstance(Instances dataset) {
+        super(1, new double[dataset.numAttributes()]);
+
+        setDataset(dataset);
+    }
+
+    /**
+     * Sets the value of the given attribute (without copying the value vector).
+     *
+     * @param attIndex the index of the attribute
+     * @param value    the value in the weka representation
+     */
+    public void set(int attIndex, double value) {
+        m_AttValues[attIndex] = value;
+    }
+
+    /**
+     * Gets the (live) values of this instance.
+     * <p/>
+     * Unlike {@link #toDoubleArray()} this does not copy the values, so the returned array changes with this instance.
+     *
+     * @return the values of this instance
+     */
+    public double[] values() {
+        return m_AttValues;
+    }
+
+    /**
+     * Copies the given row of a primitive matrix into this instance.
+     *
+     * @param matrix the flat matrix (one column per attribute)
+     * @param layout the layout of the matrix
+     * @param row    the row to copy
+     * @param rows   the number of rows in the matrix
+     */
+    public void set(double[] matrix, MatrixLayout layout, int row, int rows) {
+        for (int column = 0; column < m_AttValues.length; column++) {
+            m_AttValues[column] = matrix[layout.index(row, column, rows, m_AttValues.length)];
+        }
+    }
+
+    /**
+     * Resets all the values of this instance to missing.
+     */
+    public void reset() {
+        for (int idx = 0; idx < m_AttValues.length; idx++) {
+            m_AttValues[idx] = MISSING_VALUE;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.google.common.base.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the {@link WekaThreadSafeScorerLazy} models that are loaded within a memory budget.
+ * <p/>
+ * Before a model is loaded its estimated memory is reserved, evicting the least recently used models until it fits
+ * in the budget. Models that are being scored are never evicted (they are skipped), and a model larger than the
+ * whole budget is still loaded (after evicting all the others that can be evicted).
+ *
+ * @since 1.0.11
+ */
+public class ScorerCache implements ScorerCacheMXBean {
+    private final static Logger logger = LoggerFactory.getLogger(ScorerCache.class);
+
+    private final long budgetBytes;
+
+    /* guarded by this */
+    private final Map<WekaThreadSafeScorerLazy, Long> resident = new IdentityHashMap<>();
+    private long residentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadFailures = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates a new cache.
+     *
+     * @param budgetBytes the memory budget of the loaded models, in bytes
+     */
+    public ScorerCache(long budgetBytes) {
+        checkArgument(budgetBytes > 0, "The memory budget must be positive");
+
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Reserves the memory of a model that is about to load, evicting the least recently used models as needed.
+     *
+     * @param scorer the model to load
+     * @param bytes  the estimated memory of the model
+     */
+    synchronized void reserve(WekaThreadSafeScorerLazy scorer, long bytes) {
+        checkNotNull(scorer, "Scorer cannot be null");
+
+        release(scorer);
+
+        if (residentBytes + bytes > budgetBytes) {
+            List<WekaThreadSafeScorerLazy> candidates = new ArrayList<>(resident.keySet());
+            Collections.sort(candidates, new Comparator<WekaThreadSafeScorerLazy>() {
+                @Override
+                public int compare(WekaThreadSafeScorerLazy first, WekaThreadSafeScorerLazy second) {
+                    return Long.compare(first.getLastUsed(), second.getLastUsed());
+                }
+            });
+
+            for (WekaThreadSafeScorerLazy candidate : candidates) {
+                if (residentBytes + bytes <= budgetBytes) {
+                    break;
+                }
+
+                if (candidate.evict()) {
+                    logger.debug("Evicted model '{}' to load model '{}'", candidate.getId(), scorer.getId());
+                    evictions.incrementAndGet();
+                    release(candidate);
+                }
+            }
+        }
+
+        resident.put(scorer, bytes);
+        residentBytes += bytes;
+    }
+
+    /**
+     * Releases the memory of a model that was unloaded (or failed to load).
+     *
+     * @param scorer the model
+     */
+    synchronized void release(WekaThreadSafeScorerLazy scorer) {
+        Long bytes = resident.remove(scorer);
+        if (bytes != null) {
+            residentBytes -= bytes;
+        }
+    }
+
+    /**
+     * Records the score of a loaded model.
+     */
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Records a model load.
+     *
+     * @param nanos   how long the model took to load
+     * @param success false if the model failed to load
+     */
+    void loaded(long nanos, boolean success) {
+        if (success) {
+            loads.incrementAndGet();
+            loadNanos.addAndGet(nanos);
+        } else {
+            loadFailures.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    @Override
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    @Override
+    public synchronized int getResidentModels() {
+        return resident.size();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.get();
+    }
+
+    @Override
+    public long getLoadFailures() {
+        return loadFailures.get();
+    }
+
+    @Override
+    public double getAverageLoadMillis() {
+        long loads = this.loads.get();
+        return loads == 0 ? 0 : (double) loadNanos.get() / TimeUnit.MILLISECONDS.toNanos(1) / loads;
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("budgetBytes", getBudgetBytes())
+                .add("residentBytes", getResidentBytes())
+                .add("residentModels", getResidentModels())
+                .add("hits", getHits())
+                .add("loads", getLoads())
+                .add("loadFailures", getLoadFailures())
+                .add("evictions", getEvictions())
+                .toString();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+/**
+ * The metrics of the lazily loaded models, also published through JMX (see {@link ScorerCache}).
+ *
+ * @since 1.0.11
+ */
+public interface ScorerCacheMXBean {
+
+    /**
+     * Gets the memory budget of the loaded models.
+     *
+     * @return the budget in bytes
+     */
+    long getBudgetBytes();
+
+    /**
+     * Gets the memory the loaded models are estimated to use.
+     *
+     * @return the estimated memory in bytes
+     */
+    long getResidentBytes();
+
+    /**
+     * Gets the number of models that are loaded.
+     *
+     * @return the number of loaded models
+     */
+    int getResidentModels();
+
+    /**
+     * Gets the number of scores of models that were already loaded.
+     *
+     * @return the number of hits
+     */
+    long getHits();
+
+    /**
+     * Gets the number of times a model was loaded (the first time it was scored, or after being evicted).
+     *
+     * @return the number of loads
+     */
+    long getLoads();
+
+    /**
+     * Gets the number of times a model failed to load.
+     *
+     * @return the number of failed loads
+     */
+    long getLoadFailures();
+
+    /**
+     * Gets the average time models took to load.
+     *
+     * @return the average load time in milliseconds
+     */
+    double getAverageLoadMillis();
+
+    /**
+     * Gets the number of times a model was evicted to keep the loaded models within the budget.
+     *
+     * @return the number of evictions
+     */
+    long getEvictions();
+}
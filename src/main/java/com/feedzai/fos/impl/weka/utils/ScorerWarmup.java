@@ -0,0 +1,198 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.Attribute;
+import com.feedzai.fos.api.CategoricalAttribute;
+import com.feedzai.fos.api.FOSException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Warms up new scorers before they replace the scorer of a model, so that the first scores of the model are not
+ * slowed down by code that was not compiled yet (or classifier copies that were never used).
+ * <p/>
+ * Sample instances are scored in rounds until the average latency of a round stays within {@link #TOLERANCE} of the
+ * previous one for {@link #STABLE_BATCHES} rounds in a row, or until the time limit of the warm up. In each round a
+ * batch is scored by each of the given number of threads at once: a pooled scorer hands the same classifier back to
+ * a thread that scores alone, so the other copies of the pool are only used when that many threads score together.
+ *
+ * @since 1.0.11
+ */
+public class ScorerWarmup {
+    private final static Logger logger = LoggerFactory.getLogger(ScorerWarmup.class);
+
+    /**
+     * The number of synthetic instances generated to warm up a model.
+     */
+    public static final int SAMPLE_SIZE = 1000;
+    /**
+     * The number of instances scored in each batch.
+     */
+    public static final int BATCH_SIZE = 100;
+    /**
+     * The relative change of the average latency of a batch below which the latency is considered stable.
+     */
+    public static final double TOLERANCE = 0.1;
+    /**
+     * The number of batches in a row with a stable latency after which the warm up stops.
+     */
+    public static final int STABLE_BATCHES = 3;
+
+    private final long maxNanos;
+
+    /**
+     * Creates a new warm up.
+     *
+     * @param maxMillis the maximum time a scorer is warmed up
+     */
+    public ScorerWarmup(long maxMillis) {
+        checkArgument(maxMillis > 0, "Warm up time must be positive");
+
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    /**
+     * Generates random instances of the given attributes (uniform categories and normally distributed numbers).
+     * <p/>
+     * The numbers are drawn from N(0, 1) whatever the real range of the attribute, as the model configuration does not
+     * have it. For models whose attributes are far from that range most instances follow the same branches, so the
+     * warm up compiles the scoring code but does not cover every path of the model.
+     *
+     * @param attributes the attributes of the model
+     * @param count      the number of instances
+     * @param seed       the seed of the random values
+     * @return the instances, with one value for each attribute
+     */
+    public static List<Object[]> syntheticInstances(List<? extends Attribute> attributes, int count, long seed) {
+        checkNotNull(attributes, "Attributes cannot be null");
+
+        Random random = new Random(seed);
+        List<Object[]> instances = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Object[] instance = new Object[attributes.size()];
+            for (int idx = 0; idx < instance.length; idx++) {
+                Attribute attribute = attributes.get(idx);
+                if (attribute instanceof CategoricalAttribute) {
+                    List<String> categories = ((CategoricalAttribute) attribute).getCategoricalInstances();
+                    instance[idx] = categories.get(random.nextInt(categories.size()));
+                } else {
+                    instance[idx] = random.nextGaussian();
+                }
+            }
+            instances.add(instance);
+        }
+        return instances;
+    }
+
+    /**
+     * Scores the given instances (over and over) with the scorer, from the given number of threads at once, until its
+     * latency is stable.
+     * <p/>
+     * If scoring fails the warm up stops (after logging the reason) without throwing, as the scorer may still score
+     * the real instances.
+     *
+     * @param modelId   the id of the model (for logging)
+     * @param scorer    the scorer to warm up
+     * @param instances the sample instances
+     * @param threads   the number of threads that score at once (e.g. the size of the pool of the scorer)
+     * @return the number of instances scored
+     */
+    public int warmUp(UUID modelId, final WekaThreadSafeScorer scorer, final List<Object[]> instances, int threads) {
+        checkNotNull(scorer, "Scorer cannot be null");
+        checkNotNull(instances, "Instances cannot be null");
+        checkArgument(!instances.isEmpty(), "Instances cannot be empty");
+        checkArgument(threads > 0, "Warm up threads must be positive");
+
+        long start = System.nanoTime();
+        double firstLatency = Double.NaN;
+        double previousLatency = Double.NaN;
+        double latency = Double.NaN;
+        int stable = 0;
+        final AtomicInteger scored = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (long round = 0; stable < STABLE_BATCHES && System.nanoTime() - start < maxNanos; round++) {
+                long batchStart = System.nanoTime();
+                List<Future<Void>> batches = new ArrayList<>(threads);
+                for (int thread = 0; thread < threads; thread++) {
+                    /* each batch of the round scores its own (deterministic) slice of the instances */
+                    final int first = (int) (((round * threads + thread) * BATCH_SIZE) % instances.size());
+                    batches.add(executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws FOSException {
+                            for (int i = 0; i < BATCH_SIZE; i++) {
+                                scorer.score(instances.get((first + i) % instances.size()));
+                                scored.incrementAndGet();
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<Void> batch : batches) {
+                    batch.get();
+                }
+                latency = (double) (System.nanoTime() - batchStart) / BATCH_SIZE;
+
+                if (Double.isNaN(firstLatency)) {
+                    firstLatency = latency;
+                } else if (Math.abs(latency - previousLatency) <= TOLERANCE * previousLatency) {
+                    stable++;
+                } else {
+                    stable = 0;
+                }
+                previousLatency = latency;
+            }
+        } catch (ExecutionException e) {
+            logger.warn("Could not warm up model '{}' (stopped after {} scores)", modelId, scored.get(), e.getCause());
+            return scored.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Warm up of model '{}' was interrupted (stopped after {} scores)", modelId, scored.get());
+            return scored.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        logger.info("Warmed up model '{}' with {} scores from {} threads in {} ms (latency {} -> {} us{})", modelId, scored.get(), threads,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                String.format("%.1f", firstLatency / 1000), String.format("%.1f", latency / 1000),
+                stable < STABLE_BATCHES ? ", not yet stable" : "");
+        return scored.get();
+    }
+}
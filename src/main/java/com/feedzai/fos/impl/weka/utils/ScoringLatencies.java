@@ -0,0 +1,98 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps an estimate of the time each model takes to score an instance, as an exponentially weighted moving average
+ * (EWMA) of the measured latencies.
+ * <p/>
+ * The estimates are only used to decide where to score, so updates are not atomic: concurrent samples of the same
+ * model may overwrite each other, which only makes the average a bit slower to follow changes.
+ *
+ * @since 1.0.11
+ */
+public class ScoringLatencies {
+    /**
+     * The weight of each new sample in the moving average.
+     */
+    private static final double ALPHA = 0.2;
+
+    private final ConcurrentMap<UUID, Latency> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the estimated latency of the given model.
+     *
+     * @param modelId the id of the model
+     * @return the estimated latency in nanoseconds, or 0 if the model was not measured yet
+     */
+    public long estimate(UUID modelId) {
+        Latency latency = latencies.get(modelId);
+        return latency != null ? (long) latency.average : 0;
+    }
+
+    /**
+     * Adds a latency sample of the given model.
+     *
+     * @param modelId the id of the model
+     * @param nanos   the time the model took to score an instance, in nanoseconds
+     */
+    public void record(UUID modelId, long nanos) {
+        checkNotNull(modelId, "Model id cannot be null");
+
+        Latency latency = latencies.get(modelId);
+        if (latency == null) {
+            Latency first = new Latency(nanos);
+            latency = latencies.putIfAbsent(modelId, first);
+            if (latency == null) {
+                return;
+            }
+        }
+
+        latency.average += ALPHA * (nanos - latency.average);
+    }
+
+    /**
+     * Forgets the latency of the given model (e.g. because it was reloaded).
+     *
+     * @param modelId the id of the model
+     */
+    public void reset(UUID modelId) {
+        latencies.remove(modelId);
+    }
+
+    /**
+     * The moving average of a single model.
+     */
+    private static final class Latency {
+        private volatile double average;
+
+        private Latency(double average) {
+            this.average = average;
+        }
+    }
+}
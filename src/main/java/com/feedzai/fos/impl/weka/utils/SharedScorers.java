@@ -0,0 +1,206 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.Attribute;
+import com.feedzai.fos.api.CategoricalAttribute;
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Shares a single scorer between the models whose files have identical content (and that are scored with the same
+ * settings), so that copies of a model registered under several ids are only loaded once.
+ * <p/>
+ * Each model gets its own {@link WekaThreadSafeScorerShared}, and the shared scorer is closed when the last of them is
+ * closed.
+ *
+ * @since 1.0.11
+ */
+public class SharedScorers {
+    private final static Logger logger = LoggerFactory.getLogger(SharedScorers.class);
+
+    /* guarded by this */
+    private final Map<HashCode, Entry> entries = new HashMap<>();
+
+    /**
+     * Gets a scorer for the given model, sharing the scorer of an identical model if there is one.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @param loader          loads the scorer of the model, if no identical model is loaded
+     * @return the scorer of the model (closing it releases the shared scorer)
+     * @throws FOSException when the model could not be read or loaded
+     */
+    public WekaThreadSafeScorer get(WekaModelConfig wekaModelConfig, Callable<WekaThreadSafeScorer> loader) throws FOSException {
+        checkNotNull(wekaModelConfig, "Model configuration cannot be null");
+        checkNotNull(loader, "Loader cannot be null");
+
+        HashCode fingerprint = fingerprint(wekaModelConfig);
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(fingerprint);
+            if (entry == null) {
+                entry = new Entry(fingerprint);
+                entries.put(fingerprint, entry);
+            }
+            entry.references++;
+        }
+
+        boolean success = false;
+        try {
+            WekaThreadSafeScorer scorer;
+            boolean newlyLoaded;
+            synchronized (entry) {
+                newlyLoaded = entry.scorer == null;
+                scorer = entry.load(wekaModelConfig, loader);
+            }
+            success = true;
+            return new WekaThreadSafeScorerShared(this, entry, scorer, newlyLoaded);
+        } finally {
+            if (!success) {
+                release(entry);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of distinct scorers that are shared.
+     *
+     * @return the number of shared scorers
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Releases a reference to the given shared scorer, closing it if it was the last one.
+     *
+     * @param entry the shared scorer
+     */
+    void release(Entry entry) {
+        synchronized (this) {
+            if (--entry.references > 0) {
+                return;
+            }
+            entries.remove(entry.fingerprint);
+        }
+
+        WekaUtils.closeSilently(entry.scorer);
+    }
+
+    /**
+     * Fingerprints the content of the model file and the settings that change how it is scored.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return the fingerprint of the model
+     * @throws FOSException when the model file could not be read
+     */
+    static HashCode fingerprint(WekaModelConfig wekaModelConfig) throws FOSException {
+        File model = wekaModelConfig.getModel();
+        checkNotNull(model, "Model file cannot be null");
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        try {
+            hasher.putBytes(Files.hash(model, Hashing.sha256()).asBytes());
+        } catch (IOException e) {
+            throw new FOSException("Could not read model file " + model, e);
+        }
+
+        hasher.putString(String.valueOf(wekaModelConfig.getModelDescriptor().getFormat()), Charsets.UTF_8)
+                .putInt(wekaModelConfig.getClassIndex())
+                .putBoolean(wekaModelConfig.isClassifierThreadSafe())
+                .putBoolean(wekaModelConfig.isReuseInstances())
+                .putBoolean(wekaModelConfig.isShareStructure())
+                .putString(wekaModelConfig.getForestEngine().name(), Charsets.UTF_8)
+                .putString(new TreeMap<>(stringKeys(wekaModelConfig.getPoolConfiguration())).toString(), Charsets.UTF_8);
+
+        for (Attribute attribute : wekaModelConfig.getAttributess()) {
+            hasher.putString(attribute.getClass().getName(), Charsets.UTF_8)
+                    .putString(attribute.getName(), Charsets.UTF_8);
+            if (attribute instanceof CategoricalAttribute) {
+                hasher.putString(String.valueOf(((CategoricalAttribute) attribute).getCategoricalInstances()), Charsets.UTF_8);
+            }
+        }
+
+        return hasher.hash();
+    }
+
+    private static Map<String, Object> stringKeys(Map<Object, Object> map) {
+        Map<String, Object> result = new HashMap<>(map.size());
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            result.put(String.valueOf(entry.getKey()), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * A scorer shared by the models with the same fingerprint.
+     */
+    static class Entry {
+        private final HashCode fingerprint;
+
+        /* guarded by the enclosing SharedScorers */
+        private int references;
+
+        /* written while holding the lock of this entry */
+        private volatile WekaThreadSafeScorer scorer;
+
+        Entry(HashCode fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * Gets the shared scorer, loading it if this is the first model that uses it.
+         */
+        synchronized WekaThreadSafeScorer load(WekaModelConfig wekaModelConfig, Callable<WekaThreadSafeScorer> loader) throws FOSException {
+            if (scorer != null) {
+                logger.info("Model '{}' shares the scorer of an identical model ({})", wekaModelConfig.getId(), fingerprint);
+                return scorer;
+            }
+
+            try {
+                scorer = loader.call();
+            } catch (FOSException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new FOSException(e);
+            }
+            return scorer;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.ModelDescriptor;
+import com.feedzai.fos.common.validation.Nullable;
+import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.feedzai.fos.impl.weka.utils.forest.FlatForestClassifier;
+import com.feedzai.fos.impl.weka.utils.forest.ForestCodec;
+import com.google.common.collect.ImmutableSet;
+import hr.irb.fastRandomForest.FastRandomForest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomTree;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Registry of the classifier classes that are known to be read-only at scoring time, and so can be shared by all
+ * scoring threads through a {@link WekaThreadSafeScorerPassthrough} instead of a pool of copies.
+ * <p/>
+ * Only the exact classes are registered (subclasses may keep state while scoring). A class must pass the
+ * concurrency stress test in <code>ThreadSafeClassifiersTest</code> before it is added here.
+ *
+ * @since 1.0.11
+ */
+public final class ThreadSafeClassifiers {
+    private final static Logger logger = LoggerFactory.getLogger(ThreadSafeClassifiers.class);
+
+    /**
+     * The names of the classifier classes whose <code>distributionForInstance</code> does not change the classifier.
+     */
+    public static final Set<String> CLASSIFIERS = ImmutableSet.of(
+            RandomForest.class.getName(),
+            RandomTree.class.getName(),
+            FastRandomForest.class.getName(),
+            J48.class.getName(),
+            FlatForestClassifier.class.getName());
+
+    private ThreadSafeClassifiers() {
+    }
+
+    /**
+     * Checks if the given classifier class is registered as thread safe.
+     *
+     * @param classifierClass the class of the classifier
+     * @return true if instances of the class can be shared between scoring threads
+     */
+    public static boolean isThreadSafe(Class<?> classifierClass) {
+        checkNotNull(classifierClass, "Classifier class cannot be null");
+
+        return CLASSIFIERS.contains(classifierClass.getName());
+    }
+
+    /**
+     * Checks if the classifier of the given model can be shared between scoring threads, either because the model
+     * says so ({@link WekaModelConfig#IS_CLASSIFIER_THREAD_SAFE}) or because its class is registered.
+     * <p/>
+     * The class of a binary model is read from the header of the serialized file, without loading the model (forests
+     * encoded by the {@link ForestCodec} are read as a {@link FlatForestClassifier}).
+     * PMML models are only shared if the model says so.
+     *
+     * @param wekaModelConfig the configuration of the model
+     * @return true if the classifier can be shared between scoring threads
+     */
+    public static boolean isThreadSafe(WekaModelConfig wekaModelConfig) {
+        checkNotNull(wekaModelConfig, "Model config cannot be null");
+
+        if (wekaModelConfig.isClassifierThreadSafe()) {
+            return true;
+        }
+
+        ModelDescriptor modelDescriptor = wekaModelConfig.getModelDescriptor();
+        if (modelDescriptor == null || modelDescriptor.getFormat() != ModelDescriptor.Format.BINARY || modelDescriptor.getModelFilePath() == null) {
+            return false;
+        }
+
+        try {
+            File file = new File(modelDescriptor.getModelFilePath());
+            String className = ForestCodec.isEncoded(file) ? FlatForestClassifier.class.getName() : serializedClassName(file);
+            return className != null && CLASSIFIERS.contains(className);
+        } catch (IOException e) {
+            logger.warn("Could not read the classifier class of model '{}' (assuming it is not thread safe)", wekaModelConfig.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the class name of the object serialized in the given file.
+     * <p/>
+     * Only the stream header and the class descriptor of the top level object are read.
+     *
+     * @param file the file with a serialized object
+     * @return the name of the class, or <code>null</code> if the file does not start with a serialized object
+     * @throws IOException when the file could not be read
+     */
+    @Nullable
+    static String serializedClassName(File file) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 512))) {
+            if (input.readShort() != ObjectStreamConstants.STREAM_MAGIC
+                    || input.readShort() != ObjectStreamConstants.STREAM_VERSION
+                    || input.readByte() != ObjectStreamConstants.TC_OBJECT
+                    || input.readByte() != ObjectStreamConstants.TC_CLASSDESC) {
+                return null;
+            }
+
+            return input.readUTF();
+        }
+    }
+}
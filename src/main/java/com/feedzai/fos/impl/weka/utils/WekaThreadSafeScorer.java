@@ -24,6 +24,8 @@ package com.feedzai.fos.impl.weka.utils;
 import com.feedzai.fos.api.FOSException;
 import weka.classifiers.Classifier;
 
+import java.util.List;
+
 /**
  * Base interface for scorers.
  *
@@ -40,6 +42,37 @@ public interface WekaThreadSafeScorer {
      */
     double[] score(Object[] scorable) throws FOSException;
 
+    /**
+     * Scores the give instance, writing the result into the given array.
+     *
+     * @param scorable     The instance to score.
+     * @param distribution The array where to write the result to (must have one position per class), or <code>null</code> to return a new array.
+     * @return The result of the score (<code>distribution</code> when it was given).
+     * @throws FOSException If it fails to score the instance.
+     */
+    double[] score(Object[] scorable, double[] distribution) throws FOSException;
+
+    /**
+     * Scores the given instances, one after the other in the calling thread.
+     *
+     * @param scorables The instances to score.
+     * @return The result of the score of each instance, in the same order.
+     * @throws FOSException If it fails to score any of the instances.
+     */
+    List<double[]> score(List<Object[]> scorables) throws FOSException;
+
+    /**
+     * Scores every row of the given primitive matrix.
+     * <p/>
+     * The matrix has one column per model attribute (see {@link MatrixLayout} for the encoding of the values).
+     *
+     * @param matrix The flat matrix to score.
+     * @param layout The layout of the matrix.
+     * @return A flat array with the class distribution of each row (row <code>r</code> starts at <code>r * numClasses</code>).
+     * @throws FOSException If it fails to score the matrix.
+     */
+    double[] score(double[] matrix, MatrixLayout layout) throws FOSException;
+
     /**
      * Retrieves the {@link weka.classifiers.Classifier} associated with this scorer.
      *
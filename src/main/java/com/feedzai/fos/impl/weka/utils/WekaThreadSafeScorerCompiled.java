@@ -0,0 +1,303 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.api.InstanceType;
+import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
+import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.feedzai.fos.impl.weka.exception.Data2ConfigurationMismatch;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import com.feedzai.fos.impl.weka.utils.forest.CompiledForest;
+import com.feedzai.fos.impl.weka.utils.forest.ForestEngine;
+import com.feedzai.fos.impl.weka.utils.forest.MappedForest;
+import com.feedzai.fos.impl.weka.utils.pool.ClassifierFactory;
+import com.feedzai.fos.impl.weka.utils.setter.AbstractInstanceSetter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import weka.classifiers.Classifier;
+import weka.core.FastVector;
+import weka.core.Instances;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Thread safe scorer that scores against a {@link CompiledForest} instead of the weka classifier.
+ * <p/>
+ * The compiled forest is immutable, so a single instance is shared by all scoring threads (no pool is needed) and
+ * the scorables are converted into per thread value buffers.
+ *
+ * @since 1.0.11
+ */
+public class WekaThreadSafeScorerCompiled implements WekaThreadSafeScorer {
+    private final static Logger logger = LoggerFactory.getLogger(WekaThreadSafeScorerCompiled.class);
+
+    private WekaManagerConfig wekaManagerConfig;
+    private WekaModelConfig wekaModelConfig;
+    private CompiledForest compiledForest;
+    private FastVector attributes;
+    private Instances instances;
+    private AbstractInstanceSetter[] instanceSetters;
+    private ThreadLocal<ReusableInstance> reusableInstances;
+    private ThreadLocal<Block> blocks;
+
+    /**
+     * The classifier read from the model file (for compiling and {@link #getClassifier()}), softly referenced as the
+     * scores do not need it.
+     */
+    private volatile SoftReference<Classifier> classifier = new SoftReference<>(null);
+
+    /**
+     * Creates a new thread safe scorer from the given configuration parameters.
+     *
+     * @param wekaModelConfig   the configuration of the model (with a compiled {@link WekaModelConfig#FOREST_ENGINE})
+     * @param wekaManagerConfig the global configurations
+     * @throws FOSException when the underlying classifier could not be instantiated or compiled
+     */
+    public WekaThreadSafeScorerCompiled(WekaModelConfig wekaModelConfig, WekaManagerConfig wekaManagerConfig) throws FOSException {
+        checkNotNull(wekaModelConfig, "Model config cannot be null");
+        checkNotNull(wekaManagerConfig, "Manager config cannot be null");
+        checkNotNull(wekaModelConfig.getAttributess(), "Model instances fields cannot be null");
+        checkArgument(wekaModelConfig.getAttributess().size() > 0, "Model must have at least one field");
+
+        this.wekaManagerConfig = wekaManagerConfig;
+        this.wekaModelConfig = wekaModelConfig;
+
+        this.attributes = WekaUtils.instanceFields2Attributes(wekaModelConfig.getClassIndex(), wekaModelConfig.getAttributess());
+        this.instanceSetters = WekaUtils.instanceFields2ValueSetters(wekaModelConfig.getAttributess(), InstanceType.SCORING);
+
+        this.instances = new Instances(Integer.toString(this.wekaModelConfig.hashCode()), attributes, 0 /*this set is for scoring only*/);
+        this.instances.setClassIndex(wekaModelConfig.getClassIndex());
+        this.reusableInstances = WekaUtils.newReusableInstances(this.instances);
+
+        try {
+            this.compiledForest = compile();
+        } catch (FOSException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FOSException(e);
+        }
+
+        if (compiledForest == null) {
+            throw new WekaClassifierException("Engine " + wekaModelConfig.getForestEngine() + " does not compile classifiers");
+        }
+
+        if (compiledForest.numAttributes() != attributes.size() || compiledForest.numClasses() != instances.numClasses()) {
+            throw new Data2ConfigurationMismatch(String.format("Compiled forest has %s attributes and %s classes but the model is configured with %s attributes and %s classes",
+                    compiledForest.numAttributes(), compiledForest.numClasses(), attributes.size(), instances.numClasses()));
+        }
+
+        this.blocks = new ThreadLocal<Block>() {
+            @Override
+            protected Block initialValue() {
+                return new Block(compiledForest.numAttributes(), compiledForest.numClasses());
+            }
+        };
+    }
+
+    /**
+     * Compiles the classifier of the model with the configured engine.
+     * <p/>
+     * With the {@link ForestEngine#MAPPED} engine the forest is mapped from the {@link WekaModelConfig#getMappedForest()}
+     * file, which is only (re)written from the classifier when it is missing, invalid or was not compiled from the
+     * model file as it is now (see {@link MappedForest#isCompiledFrom(File, File)}).
+     *
+     * @return the compiled forest (null if the engine does not compile classifiers)
+     * @throws Exception when the classifier could not be read or compiled
+     */
+    private CompiledForest compile() throws Exception {
+        ForestEngine forestEngine = wekaModelConfig.getForestEngine();
+        File mappedForest = wekaModelConfig.getMappedForest();
+        if (forestEngine != ForestEngine.MAPPED || mappedForest == null) {
+            return forestEngine.compile(getClassifier());
+        }
+
+        File model = wekaModelConfig.getModel();
+        if (!MappedForest.isCompiledFrom(mappedForest, model)) {
+            long start = System.currentTimeMillis();
+            MappedForest.write(getClassifier(), mappedForest, model);
+            logger.info("Compiled model '{}' into {} in {} ms", wekaModelConfig.getId(), mappedForest, System.currentTimeMillis() - start);
+        }
+
+        return new MappedForest(mappedForest);
+    }
+
+    /**
+     * The the given <code>Object[]</code> with this scorer (thread safe!).
+     *
+     * @param scorable the scorable data to score
+     * @return the class distribution of the scorable
+     * @throws FOSException when classification was not possible
+     */
+    @Override
+    public double[] score(Object[] scorable) throws FOSException {
+        return score(scorable, new double[compiledForest.numClasses()]);
+    }
+
+    @Override
+    public double[] score(Object[] scorable, double[] distribution) throws FOSException {
+        if (distribution == null) {
+            return score(scorable);
+        }
+
+        ReusableInstance instance = reusableInstances.get();
+        try {
+            WekaUtils.objectArray2Instance(scorable, instanceSetters, instance);
+
+            return compiledForest.distribution(instance.values(), distribution);
+        } catch (RuntimeException e) {
+            throw new FOSException(e);
+        } finally {
+            instance.reset();
+        }
+    }
+
+    /**
+     * Scores the given instances with this scorer (thread safe!).
+     * <p/>
+     * The instances are scored in blocks of {@link CompiledForest#BLOCK_SIZE}, each of them in tree-major order.
+     *
+     * @param scorables the scorables to score
+     * @return the class distribution of each scorable, in the same order
+     * @throws FOSException when classification was not possible
+     */
+    @Override
+    public List<double[]> score(List<Object[]> scorables) throws FOSException {
+        checkNotNull(scorables, "Scorables cannot be null");
+
+        List<double[]> scores = new ArrayList<>(scorables.size());
+        Block block = blocks.get();
+
+        try {
+            Iterator<Object[]> iterator = scorables.iterator();
+            while (iterator.hasNext()) {
+                int count = 0;
+                while (count < CompiledForest.BLOCK_SIZE && iterator.hasNext()) {
+                    WekaUtils.objectArray2Values(iterator.next(), instanceSetters, block.values[count++]);
+                }
+
+                compiledForest.distributions(block.values, count, block.results);
+
+                for (int row = 0; row < count; row++) {
+                    scores.add(block.results[row].clone());
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new FOSException(e);
+        }
+
+        return scores;
+    }
+
+    /**
+     * Scores the given matrix with this scorer (thread safe!).
+     * <p/>
+     * The rows are scored in blocks of {@link CompiledForest#BLOCK_SIZE}, each of them in tree-major order.
+     *
+     * @param matrix the flat matrix to score
+     * @param layout the layout of the matrix
+     * @return the class distribution of each row, one after the other
+     * @throws FOSException when classification was not possible
+     */
+    @Override
+    public double[] score(double[] matrix, MatrixLayout layout) throws FOSException {
+        checkNotNull(matrix, "Matrix cannot be null");
+        checkNotNull(layout, "Matrix layout cannot be null");
+
+        int columns = compiledForest.numAttributes();
+        if (matrix.length % columns != 0) {
+            throw new Data2ConfigurationMismatch(String.format("Matrix size '%s' is not a multiple of the number of configured attributes '%s'", matrix.length, columns));
+        }
+
+        int rows = matrix.length / columns;
+        int numClasses = compiledForest.numClasses();
+        double[] result = new double[rows * numClasses];
+        Block block = blocks.get();
+
+        try {
+            for (int start = 0; start < rows; start += CompiledForest.BLOCK_SIZE) {
+                int count = Math.min(CompiledForest.BLOCK_SIZE, rows - start);
+                for (int row = 0; row < count; row++) {
+                    for (int column = 0; column < columns; column++) {
+                        block.values[row][column] = matrix[layout.index(start + row, column, rows, columns)];
+                    }
+                }
+
+                compiledForest.distributions(block.values, count, block.results);
+
+                for (int row = 0; row < count; row++) {
+                    System.arraycopy(block.results[row], 0, result, (start + row) * numClasses, numClasses);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new FOSException(e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Gets the classifier of the model, which is only read again from the model file if it was garbage collected.
+     *
+     * @return the classifier of the model
+     * @throws FOSException when the classifier could not be read
+     */
+    @Override
+    public Classifier getClassifier() throws FOSException {
+        Classifier result = classifier.get();
+        if (result != null) {
+            return result;
+        }
+
+        result = ClassifierFactory.load(wekaModelConfig.getModelDescriptor());
+        classifier = new SoftReference<>(result);
+        return result;
+    }
+
+    /**
+     * Close the resources allocated with this scorer.
+     */
+    @Override
+    public void close() {
+        /* nothing to do */
+    }
+
+    /**
+     * The per thread buffers of a block of instances.
+     */
+    private static final class Block {
+        private final double[][] values;
+        private final double[][] results;
+
+        private Block(int numAttributes, int numClasses) {
+            this.values = new double[CompiledForest.BLOCK_SIZE][numAttributes];
+            this.results = new double[CompiledForest.BLOCK_SIZE][numClasses];
+        }
+    }
+}
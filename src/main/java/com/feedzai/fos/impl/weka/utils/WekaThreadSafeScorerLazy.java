@@ -0,0 +1,259 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.common.validation.Nullable;
+import weka.classifiers.Classifier;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Thread safe scorer that only loads the scorer of the model when it is first used.
+ * <p/>
+ * The loaded scorer is kept within the memory budget of a {@link ScorerCache}, which may evict it when other models
+ * need to load (it is loaded again on the next score). Scores hold a read lock on the loaded scorer, so a scorer is
+ * never evicted while it is scoring.
+ *
+ * @since 1.0.11
+ */
+public class WekaThreadSafeScorerLazy implements WekaThreadSafeScorer {
+    private final UUID id;
+    private final long estimatedBytes;
+    private final ScorerCache scorerCache;
+    private final Callable<WekaThreadSafeScorer> loader;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /* guarded by lock */
+    private WekaThreadSafeScorer scorer;
+    private boolean closed;
+
+    private volatile long lastUsed;
+
+    /**
+     * Creates a new lazy scorer.
+     *
+     * @param id             the id of the model
+     * @param estimatedBytes the estimated memory of the loaded scorer
+     * @param scorerCache    the cache that keeps the loaded models within budget
+     * @param loader         loads the scorer of the model
+     */
+    public WekaThreadSafeScorerLazy(UUID id, long estimatedBytes, ScorerCache scorerCache, Callable<WekaThreadSafeScorer> loader) {
+        checkNotNull(id, "Model id cannot be null");
+        checkArgument(estimatedBytes >= 0, "Estimated memory cannot be negative");
+        checkNotNull(scorerCache, "Scorer cache cannot be null");
+        checkNotNull(loader, "Loader cannot be null");
+
+        this.id = id;
+        this.estimatedBytes = estimatedBytes;
+        this.scorerCache = scorerCache;
+        this.loader = loader;
+    }
+
+    /**
+     * Gets the loaded scorer, loading it if needed, and holds the read lock until {@link #release()}.
+     *
+     * @return the loaded scorer
+     * @throws FOSException when the scorer could not be loaded or this scorer was closed
+     */
+    private WekaThreadSafeScorer acquire() throws FOSException {
+        lastUsed = System.nanoTime();
+
+        lock.readLock().lock();
+        if (scorer != null) {
+            scorerCache.hit();
+            return scorer;
+        }
+        lock.readLock().unlock();
+
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                throw new FOSException("Scorer of model " + id + " was closed");
+            }
+
+            if (scorer == null) {
+                load();
+            } else {
+                scorerCache.hit();
+            }
+
+            /* downgrade to the read lock */
+            lock.readLock().lock();
+            return scorer;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void release() {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * Loads the scorer (with the write lock held).
+     */
+    private void load() throws FOSException {
+        scorerCache.reserve(this, estimatedBytes);
+
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            scorer = loader.call();
+            success = true;
+        } catch (FOSException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FOSException(e);
+        } finally {
+            scorerCache.loaded(System.nanoTime() - start, success);
+            if (!success) {
+                scorerCache.release(this);
+            }
+        }
+    }
+
+    /**
+     * Unloads the scorer, unless it is scoring or loading.
+     *
+     * @return true if the scorer is no longer loaded
+     */
+    boolean evict() {
+        if (!lock.writeLock().tryLock()) {
+            return false;
+        }
+
+        try {
+            WekaUtils.closeSilently(scorer);
+            scorer = null;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gets the id of the model.
+     *
+     * @return the model id
+     */
+    public UUID getId() {
+        return id;
+    }
+
+    /**
+     * Gets when the model was last scored.
+     *
+     * @return the <code>System.nanoTime()</code> of the last score
+     */
+    long getLastUsed() {
+        return lastUsed;
+    }
+
+    /**
+     * Gets the scorer of the model, if it is loaded.
+     *
+     * @return the loaded scorer, or null if the model is not loaded
+     */
+    @Nullable
+    public WekaThreadSafeScorer getLoaded() {
+        lock.readLock().lock();
+        try {
+            return scorer;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public double[] score(Object[] scorable) throws FOSException {
+        WekaThreadSafeScorer scorer = acquire();
+        try {
+            return scorer.score(scorable);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public double[] score(Object[] scorable, double[] distribution) throws FOSException {
+        WekaThreadSafeScorer scorer = acquire();
+        try {
+            return scorer.score(scorable, distribution);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public List<double[]> score(List<Object[]> scorables) throws FOSException {
+        WekaThreadSafeScorer scorer = acquire();
+        try {
+            return scorer.score(scorables);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public double[] score(double[] matrix, MatrixLayout layout) throws FOSException {
+        WekaThreadSafeScorer scorer = acquire();
+        try {
+            return scorer.score(matrix, layout);
+        } finally {
+            release();
+        }
+    }
+
+    @Override
+    public Classifier getClassifier() throws FOSException {
+        WekaThreadSafeScorer scorer = acquire();
+        try {
+            return scorer.getClassifier();
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Unloads the scorer (waiting for the scores in progress) and releases its memory.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            closed = true;
+            WekaUtils.closeSilently(scorer);
+            scorer = null;
+            scorerCache.release(this);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -25,13 +25,17 @@ import com.feedzai.fos.api.FOSException;
 import com.feedzai.fos.api.InstanceType;
 import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
 import com.feedzai.fos.impl.weka.config.WekaModelConfig;
-import com.feedzai.fos.impl.weka.utils.setter.InstanceSetter;
+import com.feedzai.fos.impl.weka.utils.pool.ClassifierFactory;
+import com.feedzai.fos.impl.weka.utils.setter.AbstractInstanceSetter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import weka.classifiers.Classifier;
 import weka.core.FastVector;
 import weka.core.Instances;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -49,7 +53,8 @@ public class WekaThreadSafeScorerPassthrough implements WekaThreadSafeScorer {
     private WekaModelConfig wekaModelConfig;
     private FastVector attributes;
     private Instances instances;
-    private InstanceSetter[] instanceSetters;
+    private AbstractInstanceSetter[] instanceSetters;
+    private ThreadLocal<ReusableInstance> reusableInstances;
 
     /**
      * Creates a new thread safe scorer from the given configuration parameters.
@@ -72,12 +77,11 @@ public class WekaThreadSafeScorerPassthrough implements WekaThreadSafeScorer {
 
         this.instances = new Instances(Integer.toString(this.wekaModelConfig.hashCode()), attributes, 0 /*this set is for scoring only*/);
         this.instances.setClassIndex(this.wekaModelConfig.getClassIndex());
-
-        try {
-            this.classifier = new Cloner<Classifier>(wekaModelConfig.getModelDescriptor()).get();
-        } catch (Exception e) {
-            throw new FOSException(e);
+        if (wekaModelConfig.isReuseInstances()) {
+            this.reusableInstances = WekaUtils.newReusableInstances(this.instances);
         }
+
+        this.classifier = ClassifierFactory.load(wekaModelConfig.getModelDescriptor());
     }
 
     /**
@@ -91,7 +95,30 @@ public class WekaThreadSafeScorerPassthrough implements WekaThreadSafeScorer {
      */
     @Override
     public double[] score(Object[] scorable) throws FOSException {
-        return WekaUtils.score(classifier, scorable, instanceSetters, instances, attributes);
+        return score(scorable, null);
+    }
+
+    @Override
+    public double[] score(Object[] scorable, double[] distribution) throws FOSException {
+        if (reusableInstances != null) {
+            return WekaUtils.score(classifier, scorable, instanceSetters, reusableInstances.get(), distribution);
+        }
+
+        return WekaUtils.copyDistribution(WekaUtils.score(classifier, scorable, instanceSetters, instances, attributes), distribution);
+    }
+
+    @Override
+    public List<double[]> score(List<Object[]> scorables) throws FOSException {
+        List<double[]> scores = new ArrayList<>(scorables.size());
+        for (Object[] scorable : scorables) {
+            scores.add(score(scorable, null));
+        }
+        return scores;
+    }
+
+    @Override
+    public double[] score(double[] matrix, MatrixLayout layout) throws FOSException {
+        return WekaUtils.score(classifier, matrix, layout, new ReusableInstance(instances));
     }
 
     @Override
@@ -23,27 +23,43 @@ package com.feedzai.fos.impl.weka.utils;
 
 import com.feedzai.fos.api.FOSException;
 import com.feedzai.fos.api.InstanceType;
+import com.feedzai.fos.common.validation.Nullable;
 import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
 import com.feedzai.fos.impl.weka.config.WekaModelConfig;
 import com.feedzai.fos.impl.weka.utils.pool.AutoPopulateGenericObjectPool;
 import com.feedzai.fos.impl.weka.utils.pool.ClassifierFactory;
+import com.feedzai.fos.impl.weka.utils.pool.ElasticPoolController;
 import com.feedzai.fos.impl.weka.utils.pool.GenericObjectPoolConfig;
-import com.feedzai.fos.impl.weka.utils.setter.InstanceSetter;
+import com.feedzai.fos.impl.weka.utils.pool.PoolMetrics;
+import com.feedzai.fos.impl.weka.utils.pool.ResizableObjectPool;
+import com.feedzai.fos.impl.weka.utils.pool.SharedStructureClassifierFactory;
+import com.feedzai.fos.impl.weka.utils.pool.StripedObjectPool;
+import com.feedzai.fos.impl.weka.utils.setter.AbstractInstanceSetter;
 import org.apache.commons.beanutils.BeanUtils;
 import org.apache.commons.pool.ObjectPool;
-import org.apache.commons.pool.impl.GenericObjectPool;
+import org.apache.commons.pool.PoolableObjectFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import weka.classifiers.Classifier;
 import weka.core.FastVector;
 import weka.core.Instances;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Creates a new scorer based on the weka library.
  * Because weka classifiers are not guaranteed to be thread sate, this class wraps around the actual weka library using a pool of thread-unsafe calssifiers.
+ * <p/>
+ * The pool is a {@link AutoPopulateGenericObjectPool} unless the model sets the <code>striped</code> pool property
+ * (see {@link GenericObjectPoolConfig}), in which case a lock free {@link StripedObjectPool} is used. Models with
+ * {@link WekaModelConfig#SHARE_STRUCTURE} fill the pool with copies that share their read-only parts
+ * (see {@link SharedStructureClassifierFactory}). With the <code>elastic</code> pool property, an
+ * {@link ElasticPoolController} resizes the pool from the time threads wait for classifiers.
  *
  * @author Marco Jorge (marco.jorge@feedzai.com)
  */
@@ -51,12 +67,15 @@ public class WekaThreadSafeScorerPool implements WekaThreadSafeScorer {
     private final static Logger logger = LoggerFactory.getLogger(WekaThreadSafeScorerPool.class);
 
     private WekaManagerConfig wekaManagerConfig;
-    private ObjectPool<Classifier> pool;
-    private GenericObjectPool.Config poolConfig = new GenericObjectPoolConfig();
+    private ResizableObjectPool<Classifier> pool;
+    private ElasticPoolController<Classifier> elasticPoolController;
+    private final PoolMetrics metrics = new PoolMetrics();
+    private GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
     private WekaModelConfig wekaModelConfig;
     private FastVector attributes;
     private Instances instances;
-    private InstanceSetter[] instanceSetters;
+    private AbstractInstanceSetter[] instanceSetters;
+    private ThreadLocal<ReusableInstance> reusableInstances;
 
     /**
      * Creates a new thread safe scorer from the given configuration parameters.
@@ -81,9 +100,23 @@ public class WekaThreadSafeScorerPool implements WekaThreadSafeScorer {
 
         this.instances = new Instances(Integer.toString(this.wekaModelConfig.hashCode()), attributes, 0 /*this set is for scoring only*/);
         this.instances.setClassIndex(wekaModelConfig.getClassIndex());
+        if (wekaModelConfig.isReuseInstances()) {
+            this.reusableInstances = WekaUtils.newReusableInstances(this.instances);
+        }
         try {
             BeanUtils.populate(poolConfig, this.wekaModelConfig.getPoolConfiguration());
-            this.pool = new AutoPopulateGenericObjectPool<>(new ClassifierFactory(wekaModelConfig.getModelDescriptor()), poolConfig);
+            PoolableObjectFactory<Classifier> classifierFactory = metrics.timed(wekaModelConfig.isShareStructure()
+                    ? new SharedStructureClassifierFactory(wekaModelConfig.getModelDescriptor())
+                    : new ClassifierFactory(wekaModelConfig.getModelDescriptor()));
+            long start = System.nanoTime();
+            ResizableObjectPool<Classifier> pool = poolConfig.striped
+                    ? new StripedObjectPool<>(classifierFactory, poolConfig)
+                    : new AutoPopulateGenericObjectPool<>(classifierFactory, poolConfig);
+            if (poolConfig.elastic) {
+                this.elasticPoolController = new ElasticPoolController<>(pool, poolConfig, String.valueOf(wekaModelConfig.getId())).start(poolConfig.elasticPeriodMillis);
+            }
+            this.pool = pool;
+            logger.info("Populated the pool of model '{}' with {} classifiers in {} ms", wekaModelConfig.getId(), pool.getNumIdle(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         } catch (Exception e) {
             throw new FOSException(e);
         }
@@ -101,38 +134,170 @@ public class WekaThreadSafeScorerPool implements WekaThreadSafeScorer {
      */
     @Override
     public double[] score(Object[] scorable) throws FOSException {
+        return score(scorable, null);
+    }
+
+    @Override
+    public double[] score(Object[] scorable, double[] distribution) throws FOSException {
         /* the pool can change while this is processing (reload) so assign a local variable */
         final ObjectPool<Classifier> localPool = pool;
 
         Classifier classifier = null;
+        long borrowed = 0;
         try {
-            classifier = localPool.borrowObject();
+            classifier = borrowObject(localPool);
+            borrowed = System.nanoTime();
 
-            return WekaUtils.score(classifier, scorable, instanceSetters, instances, attributes);
+            return score(classifier, scorable, distribution);
         } catch (Exception e) {
             throw new FOSException(e);
         } finally {
-            returnObject(localPool, classifier);
+            returnObject(localPool, classifier, borrowed);
         }
     }
 
+    /**
+     * Scores the given instances with this scorer (thread safe!).
+     * <p/>
+     * A single classifier is borrowed from the pool for all the instances.
+     *
+     * @param scorables the scorables to score
+     * @return the class distribution of each scorable, in the same order
+     * @throws FOSException when classification was not possible
+     */
     @Override
-    public Classifier getClassifier() throws FOSException {
+    public List<double[]> score(List<Object[]> scorables) throws FOSException {
+        /* the pool can change while this is processing (reload) so assign a local variable */
+        final ObjectPool<Classifier> localPool = pool;
+
+        Classifier classifier = null;
+        long borrowed = 0;
+        try {
+            classifier = borrowObject(localPool);
+            borrowed = System.nanoTime();
+
+            List<double[]> scores = new ArrayList<>(scorables.size());
+            for (Object[] scorable : scorables) {
+                scores.add(score(classifier, scorable, null));
+            }
+            return scores;
+        } catch (Exception e) {
+            throw new FOSException(e);
+        } finally {
+            returnObject(localPool, classifier, borrowed);
+        }
+    }
+
+    /**
+     * Scores the given scorable with a classifier borrowed from the pool.
+     *
+     * @param classifier   the borrowed classifier
+     * @param scorable     the scorable data to score
+     * @param distribution the (optional) array where to write the distribution to
+     * @return the class distribution of the scorable
+     * @throws FOSException when classification was not possible
+     */
+    private double[] score(Classifier classifier, Object[] scorable, @Nullable double[] distribution) throws FOSException {
+        if (reusableInstances != null) {
+            return WekaUtils.score(classifier, scorable, instanceSetters, reusableInstances.get(), distribution);
+        }
+
+        return WekaUtils.copyDistribution(WekaUtils.score(classifier, scorable, instanceSetters, instances, attributes), distribution);
+    }
+
+    /**
+     * Scores the given matrix with this scorer (thread safe!).
+     * <p/>
+     * A single classifier is borrowed from the pool for the whole matrix.
+     *
+     * @param matrix the flat matrix to score
+     * @param layout the layout of the matrix
+     * @return the class distribution of each row, one after the other
+     * @throws FOSException when classification was not possible
+     */
+    @Override
+    public double[] score(double[] matrix, MatrixLayout layout) throws FOSException {
+        /* the pool can change while this is processing (reload) so assign a local variable */
+        final ObjectPool<Classifier> localPool = pool;
+
+        Classifier classifier = null;
+        long borrowed = 0;
         try {
-            Cloner<Classifier> cloner = new Cloner<Classifier>(wekaModelConfig.getModelDescriptor());
-            return cloner.get();
+            classifier = borrowObject(localPool);
+            borrowed = System.nanoTime();
+
+            return WekaUtils.score(classifier, matrix, layout, new ReusableInstance(instances));
         } catch (Exception e) {
-            throw new FOSException(e.getMessage(), e);
+            throw new FOSException(e);
+        } finally {
+            returnObject(localPool, classifier, borrowed);
+        }
+    }
+
+    @Override
+    public Classifier getClassifier() throws FOSException {
+        return ClassifierFactory.load(wekaModelConfig.getModelDescriptor());
+    }
+
+    /**
+     * Borrows a classifier from the given pool, recording the time waited for it.
+     *
+     * @param pool The pool to borrow the object from.
+     * @return the borrowed classifier
+     * @throws Exception when the classifier could not be borrowed
+     */
+    private Classifier borrowObject(ObjectPool<Classifier> pool) throws Exception {
+        metrics.borrowing();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Classifier classifier = pool.borrowObject();
+            success = true;
+            return classifier;
+        } finally {
+            long waitNanos = System.nanoTime() - start;
+            metrics.borrowed(waitNanos, success);
+            if (success && elasticPoolController != null) {
+                elasticPoolController.borrowed(waitNanos);
+            }
         }
     }
 
+    /**
+     * Gets the number of classifiers the pool of this scorer currently creates at most.
+     *
+     * @return the maximum number of classifiers of the pool, negative if unbounded
+     */
+    public int getMaxActive() {
+        return pool.getMaxActive();
+    }
+
+    /**
+     * Gets the metrics of the pool of this scorer.
+     *
+     * @return the pool metrics
+     */
+    public PoolMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Returns the given object to the pool.
      *
-     * @param pool   The pool to where return the object to.
-     * @param object The object to be returned to the pool.
+     * @param pool     The pool to where return the object to.
+     * @param object   The object to be returned to the pool.
+     * @param borrowed When the object was borrowed (<code>System.nanoTime()</code>).
      */
-    private void returnObject(ObjectPool<Classifier> pool, Classifier object) {
+    private void returnObject(ObjectPool<Classifier> pool, Classifier object, long borrowed) {
+        if (object == null) {
+            return;
+        }
+
+        metrics.returned();
+        if (elasticPoolController != null) {
+            elasticPoolController.returned(System.nanoTime() - borrowed);
+        }
+
         try {
             pool.returnObject(object);
         } catch (Exception e) {
@@ -145,6 +310,10 @@ public class WekaThreadSafeScorerPool implements WekaThreadSafeScorer {
      */
     @Override
     public void close() {
+        if (elasticPoolController != null) {
+            elasticPoolController.stop();
+        }
+
         try {
             pool.close();
         } catch (Exception e) {
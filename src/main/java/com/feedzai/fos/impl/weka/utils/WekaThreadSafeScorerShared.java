@@ -0,0 +1,105 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.FOSException;
+import weka.classifiers.Classifier;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The scorer of a model that shares the scorer of identical models (see {@link SharedScorers}).
+ * <p/>
+ * Scores are delegated to the shared scorer, and closing this scorer only closes the shared one if no other model
+ * uses it.
+ *
+ * @since 1.0.11
+ */
+public class WekaThreadSafeScorerShared implements WekaThreadSafeScorer {
+    private final SharedScorers sharedScorers;
+    private final SharedScorers.Entry entry;
+    private final WekaThreadSafeScorer scorer;
+    private final boolean newlyLoaded;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    WekaThreadSafeScorerShared(SharedScorers sharedScorers, SharedScorers.Entry entry, WekaThreadSafeScorer scorer, boolean newlyLoaded) {
+        this.sharedScorers = sharedScorers;
+        this.entry = entry;
+        this.scorer = scorer;
+        this.newlyLoaded = newlyLoaded;
+    }
+
+    /**
+     * Gets the shared scorer.
+     *
+     * @return the scorer shared with the identical models
+     */
+    public WekaThreadSafeScorer getShared() {
+        return scorer;
+    }
+
+    /**
+     * Checks if the shared scorer was loaded for this model.
+     *
+     * @return <code>true</code> if the shared scorer was loaded for this model, <code>false</code> if it was already
+     * loaded (and possibly scoring) for an identical model
+     */
+    public boolean isNewlyLoaded() {
+        return newlyLoaded;
+    }
+
+    @Override
+    public double[] score(Object[] scorable) throws FOSException {
+        return scorer.score(scorable);
+    }
+
+    @Override
+    public double[] score(Object[] scorable, double[] distribution) throws FOSException {
+        return scorer.score(scorable, distribution);
+    }
+
+    @Override
+    public List<double[]> score(List<Object[]> scorables) throws FOSException {
+        return scorer.score(scorables);
+    }
+
+    @Override
+    public double[] score(double[] matrix, MatrixLayout layout) throws FOSException {
+        return scorer.score(matrix, layout);
+    }
+
+    @Override
+    public Classifier getClassifier() throws FOSException {
+        return scorer.getClassifier();
+    }
+
+    /**
+     * Releases the shared scorer (closing it if no other model uses it).
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            sharedScorers.release(entry);
+        }
+    }
+}
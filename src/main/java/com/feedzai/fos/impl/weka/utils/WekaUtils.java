@@ -26,7 +26,10 @@ import com.feedzai.fos.common.validation.NotNull;
 import com.feedzai.fos.common.validation.Nullable;
 import com.feedzai.fos.impl.weka.exception.Data2ConfigurationMismatch;
 import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import com.feedzai.fos.impl.weka.utils.setter.AbstractInstanceSetter;
+import com.feedzai.fos.impl.weka.utils.setter.CategoricalInstanceSetter;
 import com.feedzai.fos.impl.weka.utils.setter.InstanceSetter;
+import com.feedzai.fos.impl.weka.utils.setter.NumericInstanceSetter;
 import weka.classifiers.Classifier;
 import weka.core.FastVector;
 import weka.core.Instance;
@@ -107,7 +110,7 @@ public class WekaUtils {
         if (data.length == setters.length) {
             for (int idx = 0; idx < data.length; idx++) {
                 if (data[idx] != null) {
-                    setters[idx].set(instance, (weka.core.Attribute) attributes.elementAt(idx), data[idx].toString());
+                    setters[idx].set(instance, (weka.core.Attribute) attributes.elementAt(idx), data[idx]);
                 } else {
                     instance.setMissing(idx);
                 }
@@ -119,25 +122,88 @@ public class WekaUtils {
         return instance;
     }
 
+    /**
+     * Copies the received Object[] into the given reusable <code>Instance</code>, overwriting all its values.
+     *
+     * @param data     the Object[] to convert (the scorable)
+     * @param setters  the setters that will convert the data
+     * @param instance the instance where to copy the data to
+     * @throws WekaClassifierException when the setters and the data do not have the same size (more data than setters, or more setters than data)
+     */
+    public static void objectArray2Instance(Object[] data, AbstractInstanceSetter[] setters, ReusableInstance instance) throws FOSException {
+        checkNotNull(data, "Instance cannot be null");
+        checkNotNull(setters, "Setters cannot be null");
+        checkNotNull(instance, "Reusable instance cannot be null");
+
+        objectArray2Values(data, setters, instance.values());
+    }
+
+    /**
+     * Converts the received Object[] into the weka representation of its values, overwriting all the given values.
+     *
+     * @param data    the Object[] to convert (the scorable)
+     * @param setters the setters that will convert the data
+     * @param values  the array where to write the values to (one position per attribute)
+     * @throws WekaClassifierException when the setters and the data do not have the same size (more data than setters, or more setters than data)
+     */
+    public static void objectArray2Values(Object[] data, AbstractInstanceSetter[] setters, double[] values) throws FOSException {
+        checkNotNull(data, "Instance cannot be null");
+        checkNotNull(setters, "Setters cannot be null");
+        checkNotNull(values, "Values cannot be null");
+
+        if (data.length != setters.length || values.length != setters.length) {
+            throw new Data2ConfigurationMismatch(String.format("Data is not the same size as configured attributes (expected data size '%s' but was '%s')", setters.length, data.length));
+        }
+
+        for (int idx = 0; idx < data.length; idx++) {
+            values[idx] = data[idx] != null ? setters[idx].convert(data[idx]) : Instance.missingValue();
+        }
+    }
+
+    /**
+     * Creates the per thread <code>Instance</code> buffers used to score against the given dataset.
+     *
+     * @param instances the dataset (header) of the scored instances
+     * @return a thread local that lazily creates one {@link ReusableInstance} per scoring thread
+     */
+    @NotNull
+    public static ThreadLocal<ReusableInstance> newReusableInstances(final Instances instances) {
+        checkNotNull(instances, "Instances cannot be null");
+
+        return new ThreadLocal<ReusableInstance>() {
+            @Override
+            protected ReusableInstance initialValue() {
+                return new ReusableInstance(instances);
+            }
+        };
+    }
+
     /**
      * Converts from <code>InstanceFields</code> to <code>InstanceSetters</code> (required for scorable manipulation).
      *
+     * <p> The setters are built once per attribute and convert the scorable values without formatting them to
+     * <code>String</code> first (see {@link NumericInstanceSetter} and {@link CategoricalInstanceSetter}).
+     *
      * @param instanceFields The instance fields for which to create the converters
      * @param type           The type of instance to handle.
      * @return an array of <code>InstanceSetter</code> with one <code>InstanceSetter</code> for each <code>InstanceField</code>.
+     * @throws FOSException when an instance field is of an unknown type
      */
     @NotNull
-    public static InstanceSetter[] instanceFields2ValueSetters(final List<? extends Attribute> instanceFields, final InstanceType type) throws FOSException {
-        InstanceSetter[] instanceSetters = new InstanceSetter[instanceFields.size()];
+    public static AbstractInstanceSetter[] instanceFields2ValueSetters(final List<? extends Attribute> instanceFields, final InstanceType type) throws FOSException {
+        AbstractInstanceSetter[] instanceSetters = new AbstractInstanceSetter[instanceFields.size()];
 
         for (int idx = 0; idx < instanceFields.size(); idx++) {
             final Attribute att = instanceFields.get(idx);
-            instanceSetters[idx] = new InstanceSetter() {
-                @Override
-                public void set(Instance instance, weka.core.Attribute attribute, Object value) throws FOSException {
-                    instance.setValue(attribute, att.parseOrMissing(value));
-                }
-            };
+
+            Class<?> attributeType = att.getClass();
+            if (attributeType == CategoricalAttribute.class) {
+                instanceSetters[idx] = new CategoricalInstanceSetter((CategoricalAttribute) att);
+            } else if (attributeType == NumericAttribute.class) {
+                instanceSetters[idx] = new NumericInstanceSetter(att);
+            } else {
+                throw new FOSException("Unknown instance class");
+            }
         }
         return instanceSetters;
     }
@@ -153,6 +219,101 @@ public class WekaUtils {
         }
     }
 
+    /**
+     * Scores the given scorable reusing the given (thread confined) <code>Instance</code>.
+     * <p/>
+     * When a <code>distribution</code> is given, the classifier distribution is copied into it and it is returned,
+     * otherwise the array produced by the classifier is returned.
+     *
+     * @param classifier   the classifier to score with
+     * @param scorable     the scorable data to score
+     * @param setters      the setters that will convert the data
+     * @param instance     the reusable instance, bound to the scoring dataset (it is reset before returning)
+     * @param distribution the (optional) array where to write the distribution to
+     * @return the class distribution of the scorable
+     * @throws FOSException when classification was not possible
+     */
+    public static double[] score(Classifier classifier, Object[] scorable, AbstractInstanceSetter[] setters, ReusableInstance instance, @Nullable double[] distribution) throws FOSException {
+        try {
+            WekaUtils.objectArray2Instance(scorable, setters, instance);
+
+            return copyDistribution(classifier.distributionForInstance(instance), distribution);
+        } catch (FOSException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FOSException(e.getMessage(), e);
+        } finally {
+            instance.reset();
+        }
+    }
+
+    /**
+     * Scores all the rows of the given primitive matrix, reusing the given <code>Instance</code> for every row.
+     *
+     * @param classifier the classifier to score with
+     * @param matrix     the flat matrix with one column per attribute (see {@link MatrixLayout})
+     * @param layout     the layout of the matrix
+     * @param instance   the reusable instance, bound to the scoring dataset (it is reset before returning)
+     * @return a flat array with the class distribution of each row (row <code>r</code> starts at <code>r * numClasses</code>)
+     * @throws FOSException when the matrix does not match the dataset or classification was not possible
+     */
+    @NotNull
+    public static double[] score(Classifier classifier, double[] matrix, MatrixLayout layout, ReusableInstance instance) throws FOSException {
+        checkNotNull(matrix, "Matrix cannot be null");
+        checkNotNull(layout, "Matrix layout cannot be null");
+        checkNotNull(instance, "Reusable instance cannot be null");
+
+        int columns = instance.numAttributes();
+        if (matrix.length % columns != 0) {
+            throw new Data2ConfigurationMismatch(String.format("Matrix size '%s' is not a multiple of the number of configured attributes '%s'", matrix.length, columns));
+        }
+
+        int rows = matrix.length / columns;
+        int numClasses = instance.numClasses();
+        double[] result = new double[rows * numClasses];
+
+        try {
+            for (int row = 0; row < rows; row++) {
+                instance.set(matrix, layout, row, rows);
+
+                double[] distribution = classifier.distributionForInstance(instance);
+                if (distribution.length != numClasses) {
+                    throw new FOSException(String.format("Classifier produced '%s' values but the model has '%s' classes", distribution.length, numClasses));
+                }
+                System.arraycopy(distribution, 0, result, row * numClasses, numClasses);
+            }
+        } catch (FOSException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new FOSException(e.getMessage(), e);
+        } finally {
+            instance.reset();
+        }
+
+        return result;
+    }
+
+    /**
+     * Copies the given class distribution into the (optional) caller provided array.
+     *
+     * @param source       the distribution produced by the classifier
+     * @param distribution the array where to write the distribution to, or <code>null</code>
+     * @return <code>distribution</code> filled with the values of <code>source</code>, or <code>source</code> itself if no array was given
+     * @throws FOSException when the arrays do not have the same size
+     */
+    public static double[] copyDistribution(double[] source, @Nullable double[] distribution) throws FOSException {
+        if (distribution == null) {
+            return source;
+        }
+
+        if (distribution.length != source.length) {
+            throw new FOSException(String.format("Distribution array has size '%s' but the classifier produced '%s' values", distribution.length, source.length));
+        }
+        System.arraycopy(source, 0, distribution, 0, source.length);
+
+        return distribution;
+    }
+
     /**
      * Closes the given scorer (check for null first).
      *
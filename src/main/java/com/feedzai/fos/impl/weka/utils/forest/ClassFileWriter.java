@@ -0,0 +1,462 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer of JVM class files, with just what is needed to generate {@link GeneratedForest} classes.
+ * <p/>
+ * Classes are written with version 49 (Java 5) so that no <code>StackMapTable</code> has to be computed (the
+ * bytecode is checked by the type inferencing verifier).
+ *
+ * @since 1.0.11
+ */
+final class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_PRIVATE = 0x0002;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC = 0x12;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD_1 = 0x27;
+    static final int ALOAD_0 = 0x2a;
+    static final int ALOAD_1 = 0x2b;
+    static final int ALOAD_2 = 0x2c;
+    static final int DALOAD = 0x31;
+    static final int DSTORE_1 = 0x48;
+    static final int IASTORE = 0x4f;
+    static final int D2I = 0x8e;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFNE = 0x9a;
+    static final int IFGE = 0x9c;
+    static final int TABLESWITCH = 0xaa;
+    static final int IRETURN = 0xac;
+    static final int RETURN = 0xb1;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteBuffer constantPool = new ByteBuffer();
+    private final Map<Object, Integer> constants = new HashMap<>();
+    private int constantCount = 1;
+
+    private final ByteBuffer methods = new ByteBuffer();
+    private int methodCount;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int interfaceClass;
+
+    /**
+     * Creates a writer of a public final class.
+     *
+     * @param name           the internal name of the class (e.g. <code>a/b/C</code>)
+     * @param superName      the internal name of the super class
+     * @param interfaceName  the internal name of the single interface the class implements
+     */
+    ClassFileWriter(String name, String superName, String interfaceName) {
+        this.thisClass = classConstant(name);
+        this.superClass = classConstant(superName);
+        this.interfaceClass = classConstant(interfaceName);
+    }
+
+    /**
+     * Adds a method.
+     *
+     * @param access     the access flags
+     * @param name       the name of the method
+     * @param descriptor the descriptor of the method
+     * @param code       the code of the method
+     * @param maxStack   the maximum depth of the operand stack
+     * @param maxLocals  the number of local variable slots (arguments included)
+     */
+    void addMethod(int access, String name, String descriptor, Code code, int maxStack, int maxLocals) {
+        code.resolve();
+
+        methods.u2(access);
+        methods.u2(utf8Constant(name));
+        methods.u2(utf8Constant(descriptor));
+        methods.u2(1);
+        methods.u2(utf8Constant("Code"));
+        methods.u4(12 + code.bytes.size);
+        methods.u2(maxStack);
+        methods.u2(maxLocals);
+        methods.u4(code.bytes.size);
+        methods.bytes(code.bytes.data, code.bytes.size);
+        methods.u2(0);
+        methods.u2(0);
+        methodCount++;
+    }
+
+    /**
+     * Gets the bytes of the class file.
+     *
+     * @return the class file
+     * @throws IllegalStateException when the class has too many constants or methods
+     */
+    byte[] toByteArray() {
+        if (constantCount > 0xffff || methodCount > 0xffff) {
+            throw new IllegalStateException("Class has too many constants or methods");
+        }
+
+        ByteBuffer result = new ByteBuffer();
+        result.u4(0xcafebabe);
+        result.u2(0);
+        result.u2(49);
+        result.u2(constantCount);
+        result.bytes(constantPool.data, constantPool.size);
+        result.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        result.u2(thisClass);
+        result.u2(superClass);
+        result.u2(1);
+        result.u2(interfaceClass);
+        result.u2(0);
+        result.u2(methodCount);
+        result.bytes(methods.data, methods.size);
+        result.u2(0);
+
+        return Arrays.copyOf(result.data, result.size);
+    }
+
+    int utf8Constant(String value) {
+        Integer index = constants.get("U" + value);
+        if (index == null) {
+            index = newConstant("U" + value, 1);
+            constantPool.u1(CONSTANT_UTF8);
+            byte[] bytes = modifiedUtf8(value);
+            constantPool.u2(bytes.length);
+            constantPool.bytes(bytes, bytes.length);
+        }
+        return index;
+    }
+
+    int classConstant(String name) {
+        Integer index = constants.get("C" + name);
+        if (index == null) {
+            int nameIndex = utf8Constant(name);
+            index = newConstant("C" + name, 1);
+            constantPool.u1(CONSTANT_CLASS);
+            constantPool.u2(nameIndex);
+        }
+        return index;
+    }
+
+    int methodConstant(String owner, String name, String descriptor) {
+        String key = "M" + owner + '.' + name + descriptor;
+        Integer index = constants.get(key);
+        if (index == null) {
+            int classIndex = classConstant(owner);
+            int nameIndex = utf8Constant(name);
+            int descriptorIndex = utf8Constant(descriptor);
+            Integer nameAndTypeIndex = constants.get("N" + name + descriptor);
+            if (nameAndTypeIndex == null) {
+                nameAndTypeIndex = newConstant("N" + name + descriptor, 1);
+                constantPool.u1(CONSTANT_NAME_AND_TYPE);
+                constantPool.u2(nameIndex);
+                constantPool.u2(descriptorIndex);
+            }
+
+            index = newConstant(key, 1);
+            constantPool.u1(CONSTANT_METHODREF);
+            constantPool.u2(classIndex);
+            constantPool.u2(nameAndTypeIndex);
+        }
+        return index;
+    }
+
+    int intConstant(int value) {
+        Integer index = constants.get(value);
+        if (index == null) {
+            index = newConstant(value, 1);
+            constantPool.u1(CONSTANT_INTEGER);
+            constantPool.u4(value);
+        }
+        return index;
+    }
+
+    int doubleConstant(double value) {
+        /* keyed by the raw bits so that 0.0 and -0.0 (or different NaNs) are kept apart */
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = constants.get(bits);
+        if (index == null) {
+            index = newConstant(bits, 2);
+            constantPool.u1(CONSTANT_DOUBLE);
+            constantPool.u4((int) (bits >>> 32));
+            constantPool.u4((int) bits);
+        }
+        return index;
+    }
+
+    private int newConstant(Object key, int slots) {
+        int index = constantCount;
+        constantCount += slots;
+        if (constantCount > 0xffff) {
+            throw new IllegalStateException("Class has too many constants");
+        }
+        constants.put(key, index);
+        return index;
+    }
+
+    private static byte[] modifiedUtf8(String value) {
+        ByteBuffer result = new ByteBuffer();
+        for (int idx = 0; idx < value.length(); idx++) {
+            char c = value.charAt(idx);
+            if (c != 0 && c < 0x80) {
+                result.u1(c);
+            } else if (c < 0x800) {
+                result.u1(0xc0 | (c >> 6));
+                result.u1(0x80 | (c & 0x3f));
+            } else {
+                result.u1(0xe0 | (c >> 12));
+                result.u1(0x80 | ((c >> 6) & 0x3f));
+                result.u1(0x80 | (c & 0x3f));
+            }
+        }
+        return Arrays.copyOf(result.data, result.size);
+    }
+
+    /**
+     * The code of a method being written.
+     */
+    final class Code {
+        private final ByteBuffer bytes = new ByteBuffer();
+        private final List<Jump> jumps = new ArrayList<>();
+
+        /**
+         * Gets the current size of the code.
+         *
+         * @return the size of the code in bytes
+         */
+        int size() {
+            return bytes.size;
+        }
+
+        Code op(int opcode) {
+            bytes.u1(opcode);
+            return this;
+        }
+
+        /**
+         * Pushes the given int constant.
+         */
+        Code pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                bytes.u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                bytes.u1(BIPUSH);
+                bytes.u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                bytes.u1(SIPUSH);
+                bytes.u2(value);
+            } else {
+                ldc(intConstant(value));
+            }
+            return this;
+        }
+
+        /**
+         * Pushes the given double constant.
+         */
+        Code pushDouble(double value) {
+            bytes.u1(LDC2_W);
+            bytes.u2(doubleConstant(value));
+            return this;
+        }
+
+        Code invokeStatic(String owner, String name, String descriptor) {
+            bytes.u1(INVOKESTATIC);
+            bytes.u2(methodConstant(owner, name, descriptor));
+            return this;
+        }
+
+        Code invokeSpecial(String owner, String name, String descriptor) {
+            bytes.u1(INVOKESPECIAL);
+            bytes.u2(methodConstant(owner, name, descriptor));
+            return this;
+        }
+
+        /**
+         * Writes a conditional jump to the given label.
+         */
+        Code jump(int opcode, Label label) {
+            int position = bytes.size;
+            bytes.u1(opcode);
+            jumps.add(new Jump(bytes.size, position, 2, label));
+            bytes.u2(0);
+            return this;
+        }
+
+        /**
+         * Writes a <code>tableswitch</code> over the values <code>0..labels.length - 1</code>.
+         */
+        Code tableSwitch(Label defaultLabel, Label[] labels) {
+            int position = bytes.size;
+            bytes.u1(TABLESWITCH);
+            while (bytes.size % 4 != 0) {
+                bytes.u1(0);
+            }
+            jumps.add(new Jump(bytes.size, position, 4, defaultLabel));
+            bytes.u4(0);
+            bytes.u4(0);
+            bytes.u4(labels.length - 1);
+            for (Label label : labels) {
+                jumps.add(new Jump(bytes.size, position, 4, label));
+                bytes.u4(0);
+            }
+            return this;
+        }
+
+        Label newLabel() {
+            return new Label();
+        }
+
+        /**
+         * Binds the label to the current position.
+         */
+        Code bind(Label label) {
+            label.position = bytes.size;
+            return this;
+        }
+
+        private void ldc(int index) {
+            if (index <= 0xff) {
+                bytes.u1(LDC);
+                bytes.u1(index);
+            } else {
+                bytes.u1(LDC_W);
+                bytes.u2(index);
+            }
+        }
+
+        private void resolve() {
+            for (Jump jump : jumps) {
+                if (jump.label.position < 0) {
+                    throw new IllegalStateException("Unbound label");
+                }
+
+                int offset = jump.label.position - jump.opcode;
+                if (jump.width == 2) {
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                        throw new IllegalStateException("Jump too far");
+                    }
+                    bytes.set2(jump.patch, offset);
+                } else {
+                    bytes.set4(jump.patch, offset);
+                }
+            }
+            jumps.clear();
+        }
+    }
+
+    /**
+     * A jump offset to patch once the target label is bound.
+     */
+    private static final class Jump {
+        private final int patch;
+        private final int opcode;
+        private final int width;
+        private final Label label;
+
+        private Jump(int patch, int opcode, int width, Label label) {
+            this.patch = patch;
+            this.opcode = opcode;
+            this.width = width;
+            this.label = label;
+        }
+    }
+
+    /**
+     * A position in the code, target of jumps.
+     */
+    static final class Label {
+        private int position = -1;
+    }
+
+    /**
+     * A growable array of bytes (big endian).
+     */
+    private static final class ByteBuffer {
+        private byte[] data = new byte[1024];
+        private int size;
+
+        private void ensure(int extra) {
+            if (size + extra > data.length) {
+                data = Arrays.copyOf(data, Math.max(size + extra, data.length * 2));
+            }
+        }
+
+        void u1(int value) {
+            ensure(1);
+            data[size++] = (byte) value;
+        }
+
+        void u2(int value) {
+            ensure(2);
+            data[size++] = (byte) (value >>> 8);
+            data[size++] = (byte) value;
+        }
+
+        void u4(int value) {
+            ensure(4);
+            data[size++] = (byte) (value >>> 24);
+            data[size++] = (byte) (value >>> 16);
+            data[size++] = (byte) (value >>> 8);
+            data[size++] = (byte) value;
+        }
+
+        void bytes(byte[] values, int length) {
+            ensure(length);
+            System.arraycopy(values, 0, data, size, length);
+            size += length;
+        }
+
+        void set2(int position, int value) {
+            data[position] = (byte) (value >>> 8);
+            data[position + 1] = (byte) value;
+        }
+
+        void set4(int position, int value) {
+            data[position] = (byte) (value >>> 24);
+            data[position + 1] = (byte) (value >>> 16);
+            data[position + 2] = (byte) (value >>> 8);
+            data[position + 3] = (byte) value;
+        }
+    }
+}
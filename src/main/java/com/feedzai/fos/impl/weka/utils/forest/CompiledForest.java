@@ -0,0 +1,78 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.api.FOSException;
+
+/**
+ * A tree ensemble compiled into a representation that is cheaper to evaluate than the weka object graph.
+ * <p/>
+ * Implementations are immutable and thread safe, and must produce exactly the same distributions as the
+ * <code>distributionForInstance</code> of the classifier they were compiled from.
+ *
+ * @since 1.0.11
+ */
+public interface CompiledForest {
+    /**
+     * The number of instances scorers should put in each block given to {@link #distributions(double[][], int, double[][])}
+     * (small enough for the values of the whole block to stay in cache).
+     */
+    int BLOCK_SIZE = 64;
+
+    /**
+     * Gets the number of attributes (class attribute included) of the instances this forest scores.
+     *
+     * @return the number of attributes
+     */
+    int numAttributes();
+
+    /**
+     * Gets the number of classes of the forest.
+     *
+     * @return the number of classes
+     */
+    int numClasses();
+
+    /**
+     * Computes the class distribution of the given instance values.
+     *
+     * @param values the values of the instance in the weka representation (missing values are <code>NaN</code>)
+     * @param result the array where to write the distribution to (with {@link #numClasses()} positions)
+     * @return <code>result</code>
+     * @throws FOSException when the instance could not be classified
+     */
+    double[] distribution(double[] values, double[] result) throws FOSException;
+
+    /**
+     * Computes the class distributions of a block of instances.
+     * <p/>
+     * Engines that store the trees as data evaluate the block one tree at a time (tree-major order), so the nodes of
+     * each tree are brought into cache once for the whole block instead of once per instance. The distributions are
+     * the same as the ones {@link #distribution(double[], double[])} computes for each instance.
+     *
+     * @param values  the values of each instance (only the first <code>count</code> are scored)
+     * @param count   the number of instances in the block
+     * @param results the arrays where to write the distribution of each instance to
+     * @throws FOSException when any of the instances could not be classified
+     */
+    void distributions(double[][] values, int count, double[][] results) throws FOSException;
+}
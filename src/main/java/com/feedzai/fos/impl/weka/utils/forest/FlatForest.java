@@ -0,0 +1,486 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import weka.core.Utils;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A forest of decision trees flattened into contiguous primitive arrays.
+ * <p/>
+ * Nodes are numbered in depth first order and each array holds one property of every node (split attribute, split
+ * point, children offset, etc), so evaluating a tree is a tight loop over a few arrays instead of a walk over
+ * objects scattered across the heap.
+ * <p/>
+ * The evaluation mirrors {@link weka.classifiers.trees.RandomTree} (and <code>FastRandomTree</code>) and
+ * {@link weka.classifiers.meta.Bagging} operation by operation (including the order of the floating point sums), so
+ * the results are bit-for-bit equal to the ones of the original classifier:
+ * <ul>
+ * <li>a node with a missing split value returns the sum of its children distributions weighted by the node
+ * proportions (children without distribution are skipped);</li>
+ * <li>when the reached node has no distribution the distribution of the closest ancestor that has one is used;</li>
+ * <li>the distributions of all trees are summed and the sum is normalized (unless it is zero).</li>
+ * </ul>
+ * Instances without missing values on their path use a fast path that follows the precomputed closest distribution
+ * of the reached leaf.
+ *
+ * @since 1.0.11
+ */
+public class FlatForest implements CompiledForest, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Marks a node without distribution.
+     */
+    static final int NO_DISTRIBUTION = -1;
+
+    /* the arrays are package private so that other engines can be compiled from a flat forest */
+    final int numAttributes;
+    final int numClasses;
+    final int[] roots;
+    final int[] attribute;
+    final boolean[] nominal;
+    final double[] splitPoint;
+    final int[] firstChild;
+    final int[] numChildren;
+    final int[] children;
+    final double[] proportions;
+    final int[] distribution;
+    final int[] fallback;
+    final double[] distributions;
+
+    private FlatForest(Builder builder) {
+        this.numAttributes = builder.numAttributes;
+        this.numClasses = builder.numClasses;
+        this.roots = Arrays.copyOf(builder.roots, builder.numTrees);
+        this.attribute = Arrays.copyOf(builder.attribute, builder.numNodes);
+        this.nominal = Arrays.copyOf(builder.nominal, builder.numNodes);
+        this.splitPoint = Arrays.copyOf(builder.splitPoint, builder.numNodes);
+        this.firstChild = Arrays.copyOf(builder.firstChild, builder.numNodes);
+        this.numChildren = Arrays.copyOf(builder.numChildren, builder.numNodes);
+        this.children = Arrays.copyOf(builder.children, builder.numEdges);
+        this.proportions = Arrays.copyOf(builder.proportions, builder.numEdges);
+        this.distribution = Arrays.copyOf(builder.distribution, builder.numNodes);
+        this.distributions = Arrays.copyOf(builder.distributions, builder.numDistributions * numClasses);
+
+        this.fallback = new int[builder.numNodes];
+        for (int root : roots) {
+            computeFallback(root, NO_DISTRIBUTION);
+        }
+    }
+
+    /**
+     * Computes the closest distribution (the node own or the one of an ancestor) of the given node and its subtree.
+     *
+     * @param node   the node
+     * @param parent the closest distribution of the parent node
+     */
+    private void computeFallback(int node, int parent) {
+        fallback[node] = distribution[node] != NO_DISTRIBUTION ? distribution[node] : parent;
+
+        for (int idx = 0; idx < numChildren[node]; idx++) {
+            computeFallback(children[firstChild[node] + idx], fallback[node]);
+        }
+    }
+
+    @Override
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    @Override
+    public int numClasses() {
+        return numClasses;
+    }
+
+    /**
+     * Gets the number of trees in this forest.
+     *
+     * @return the number of trees
+     */
+    public int numTrees() {
+        return roots.length;
+    }
+
+    /**
+     * Gets the total number of nodes in this forest.
+     *
+     * @return the number of nodes
+     */
+    public int numNodes() {
+        return attribute.length;
+    }
+
+    @Override
+    public double[] distribution(double[] values, double[] result) throws FOSException {
+        /* no checkArgument here: its varargs would box on every score */
+        if (values.length != numAttributes || result.length != numClasses) {
+            throw new WekaClassifierException(String.format("Expected %s values and %s classes but got %s and %s", numAttributes, numClasses, values.length, result.length));
+        }
+
+        Arrays.fill(result, 0);
+
+        for (int tree = 0; tree < roots.length; tree++) {
+            addTree(tree, values, result);
+        }
+
+        return normalize(result);
+    }
+
+    /**
+     * Computes the distributions of the block in tree-major order: every instance of the block goes through a tree
+     * before the next tree is evaluated. Each instance still sums the tree distributions in tree order, so the
+     * results are bit-for-bit the ones of {@link #distribution(double[], double[])}.
+     */
+    @Override
+    public void distributions(double[][] values, int count, double[][] results) throws FOSException {
+        checkBlock(values, count, results, numAttributes, numClasses);
+
+        for (int row = 0; row < count; row++) {
+            Arrays.fill(results[row], 0);
+        }
+
+        for (int tree = 0; tree < roots.length; tree++) {
+            for (int row = 0; row < count; row++) {
+                addTree(tree, values[row], results[row]);
+            }
+        }
+
+        for (int row = 0; row < count; row++) {
+            normalize(results[row]);
+        }
+    }
+
+    /**
+     * Checks that the given block of instances can be scored by a forest with the given attributes and classes.
+     *
+     * @param values        the values of each instance
+     * @param count         the number of instances in the block
+     * @param results       the arrays where to write the distribution of each instance to
+     * @param numAttributes the number of attributes of the forest
+     * @param numClasses    the number of classes of the forest
+     * @throws WekaClassifierException when the block does not match the forest
+     */
+    static void checkBlock(double[][] values, int count, double[][] results, int numAttributes, int numClasses) throws WekaClassifierException {
+        if (count < 0 || count > values.length || count > results.length) {
+            throw new WekaClassifierException(String.format("Cannot score %s instances from %s values into %s results", count, values.length, results.length));
+        }
+
+        for (int row = 0; row < count; row++) {
+            if (values[row].length != numAttributes || results[row].length != numClasses) {
+                throw new WekaClassifierException(String.format("Expected %s values and %s classes but got %s and %s", numAttributes, numClasses, values[row].length, results[row].length));
+            }
+        }
+    }
+
+    /**
+     * Adds the distribution of the given tree to the result.
+     *
+     * @param tree   the index of the tree
+     * @param values the values of the instance
+     * @param result the sum of the distributions of the previous trees
+     * @throws WekaClassifierException when the tree cannot classify the instance
+     */
+    void addTree(int tree, double[] values, double[] result) throws WekaClassifierException {
+        int offset = leaf(roots[tree], values);
+
+        if (offset >= 0) {
+            for (int idx = 0; idx < numClasses; idx++) {
+                result[idx] += distributions[offset + idx];
+            }
+        } else {
+            double[] treeDistribution = evaluate(roots[tree], values);
+            if (treeDistribution == null) {
+                throw new WekaClassifierException("Tree " + tree + " could not classify the instance");
+            }
+
+            for (int idx = 0; idx < numClasses; idx++) {
+                result[idx] += treeDistribution[idx];
+            }
+        }
+    }
+
+    /**
+     * Normalizes the sum of the tree distributions as {@link weka.classifiers.meta.Bagging} does.
+     *
+     * @param result the sum of the tree distributions
+     * @return <code>result</code>
+     */
+    static double[] normalize(double[] result) {
+        if (!Utils.eq(Utils.sum(result), 0)) {
+            Utils.normalize(result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Follows the path of the given values from the given node.
+     *
+     * @param node   the node where to start
+     * @param values the values of the instance
+     * @return the offset of the distribution to use, or a negative value when the path has a missing split value (or
+     * no distribution was found)
+     */
+    private int leaf(int node, double[] values) {
+        while (attribute[node] >= 0) {
+            double value = values[attribute[node]];
+            if (Double.isNaN(value)) {
+                return NO_DISTRIBUTION;
+            }
+
+            node = child(node, value);
+        }
+
+        return fallback[node];
+    }
+
+    /**
+     * Gets the child of the given node that the given (non missing) value follows.
+     *
+     * @param node  the node
+     * @param value the value of the node split attribute
+     * @return the index of the child node
+     */
+    private int child(int node, double value) {
+        int branch;
+        if (nominal[node]) {
+            branch = (int) value;
+            if (branch < 0 || branch >= numChildren[node]) {
+                throw new ArrayIndexOutOfBoundsException(branch);
+            }
+        } else {
+            branch = value < splitPoint[node] ? 0 : 1;
+        }
+
+        return children[firstChild[node] + branch];
+    }
+
+    /**
+     * Evaluates the given node exactly as {@link weka.classifiers.trees.RandomTree} does (used when the path of the
+     * instance has missing split values).
+     *
+     * @param node   the node to evaluate
+     * @param values the values of the instance
+     * @return the distribution of the node, or <code>null</code> if the node could not classify the instance
+     */
+    private double[] evaluate(int node, double[] values) {
+        double[] result = null;
+
+        if (attribute[node] >= 0) {
+            double value = values[attribute[node]];
+
+            if (Double.isNaN(value)) {
+                result = new double[numClasses];
+                for (int idx = 0; idx < numChildren[node]; idx++) {
+                    double[] childDistribution = evaluate(children[firstChild[node] + idx], values);
+                    if (childDistribution == null) {
+                        continue;
+                    }
+
+                    double proportion = proportions[firstChild[node] + idx];
+                    for (int classIdx = 0; classIdx < numClasses; classIdx++) {
+                        result[classIdx] += proportion * childDistribution[classIdx];
+                    }
+                }
+            } else {
+                result = evaluate(child(node, value), values);
+            }
+        }
+
+        if (result == null && distribution[node] != NO_DISTRIBUTION) {
+            result = Arrays.copyOfRange(distributions, distribution[node], distribution[node] + numClasses);
+        }
+
+        return result;
+    }
+
+    /**
+     * Builds {@link FlatForest}s, one node at a time.
+     * <p/>
+     * Nodes are added in depth first order: first the node and then the subtree of each of its children, in order.
+     */
+    public static class Builder {
+        private final int numAttributes;
+        private final int numClasses;
+
+        private int numTrees;
+        private int[] roots = new int[16];
+
+        private int numNodes;
+        private int[] attribute = new int[256];
+        private boolean[] nominal = new boolean[256];
+        private double[] splitPoint = new double[256];
+        private int[] firstChild = new int[256];
+        private int[] numChildren = new int[256];
+        private int[] distribution = new int[256];
+
+        private int numEdges;
+        private int[] children = new int[256];
+        private double[] proportions = new double[256];
+
+        private int numDistributions;
+        private double[] distributions = new double[256];
+
+        /**
+         * Creates a new builder.
+         *
+         * @param numAttributes the number of attributes (class attribute included) of the scored instances
+         * @param numClasses    the number of classes
+         */
+        public Builder(int numAttributes, int numClasses) {
+            checkArgument(numAttributes > 0, "The forest must have at least one attribute");
+            checkArgument(numClasses > 0, "The forest must have at least one class");
+
+            this.numAttributes = numAttributes;
+            this.numClasses = numClasses;
+        }
+
+        /**
+         * Starts a new tree, whose root is the next node added.
+         *
+         * @return this builder
+         */
+        public Builder addTree() {
+            roots = ensureCapacity(roots, numTrees + 1);
+            roots[numTrees++] = numNodes;
+
+            return this;
+        }
+
+        /**
+         * Adds a leaf.
+         *
+         * @param distribution the (already normalized) class distribution of the leaf, or <code>null</code> if the leaf cannot classify instances
+         * @return the index of the new node
+         */
+        public int addLeaf(double[] distribution) {
+            return addNode(-1, false, Double.NaN, new double[0], distribution);
+        }
+
+        /**
+         * Adds a split node. The subtrees of the children must be added right after.
+         *
+         * @param attribute    the index of the split attribute
+         * @param nominal      true if the split attribute is nominal (one child per value), false if it is numeric (one child for the values lower than the split point and another for the others)
+         * @param splitPoint   the split point of numeric attributes
+         * @param proportions  the proportion of training instances that followed each child (used for missing values)
+         * @param distribution the (already normalized) class distribution of the node, or <code>null</code> if the node has none
+         * @return the index of the new node
+         */
+        public int addSplit(int attribute, boolean nominal, double splitPoint, double[] proportions, double[] distribution) {
+            checkArgument(attribute >= 0 && attribute < numAttributes, "Invalid split attribute %s", attribute);
+            checkNotNull(proportions, "Proportions cannot be null");
+            checkArgument(nominal || proportions.length == 2, "Numeric splits must have two children");
+
+            return addNode(attribute, nominal, splitPoint, proportions, distribution);
+        }
+
+        private int addNode(int nodeAttribute, boolean nodeNominal, double nodeSplitPoint, double[] nodeProportions, double[] nodeDistribution) {
+            checkState(numTrees > 0, "A tree must be started before adding nodes");
+            checkArgument(nodeDistribution == null || nodeDistribution.length == numClasses, "Distributions must have %s classes", numClasses);
+
+            int node = numNodes++;
+            attribute = ensureCapacity(attribute, numNodes);
+            nominal = ensureCapacity(nominal, numNodes);
+            splitPoint = ensureCapacity(splitPoint, numNodes);
+            firstChild = ensureCapacity(firstChild, numNodes);
+            numChildren = ensureCapacity(numChildren, numNodes);
+            distribution = ensureCapacity(distribution, numNodes);
+
+            attribute[node] = nodeAttribute;
+            nominal[node] = nodeNominal;
+            splitPoint[node] = nodeSplitPoint;
+            firstChild[node] = numEdges;
+            numChildren[node] = nodeProportions.length;
+
+            /* children are filled in as their subtrees are added */
+            children = ensureCapacity(children, numEdges + nodeProportions.length);
+            proportions = ensureCapacity(proportions, numEdges + nodeProportions.length);
+            Arrays.fill(children, numEdges, numEdges + nodeProportions.length, -1);
+            System.arraycopy(nodeProportions, 0, proportions, numEdges, nodeProportions.length);
+            numEdges += nodeProportions.length;
+
+            if (nodeDistribution != null) {
+                distributions = ensureCapacity(distributions, (numDistributions + 1) * numClasses);
+                System.arraycopy(nodeDistribution, 0, distributions, numDistributions * numClasses, numClasses);
+                distribution[node] = numDistributions++ * numClasses;
+            } else {
+                distribution[node] = NO_DISTRIBUTION;
+            }
+
+            return node;
+        }
+
+        /**
+         * Links the given child to its parent.
+         *
+         * @param parent the index of the parent node
+         * @param branch the branch of the parent the child belongs to
+         * @param child  the index of the child node
+         * @return this builder
+         */
+        public Builder setChild(int parent, int branch, int child) {
+            checkArgument(parent >= 0 && parent < numNodes, "Invalid parent %s", parent);
+            checkArgument(branch >= 0 && branch < numChildren[parent], "Invalid branch %s", branch);
+            checkArgument(child > parent && child < numNodes, "Invalid child %s", child);
+
+            children[firstChild[parent] + branch] = child;
+
+            return this;
+        }
+
+        /**
+         * Builds the forest.
+         *
+         * @return a new forest
+         */
+        public FlatForest build() {
+            checkState(numTrees > 0, "The forest must have at least one tree");
+            for (int edge = 0; edge < numEdges; edge++) {
+                checkState(children[edge] >= 0, "All children must be set");
+            }
+
+            return new FlatForest(this);
+        }
+
+        private static int[] ensureCapacity(int[] array, int size) {
+            return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+        }
+
+        private static boolean[] ensureCapacity(boolean[] array, int size) {
+            return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+        }
+
+        private static double[] ensureCapacity(double[] array, int size) {
+            return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A classifier that scores with a {@link FlatForest} (the classifier of the forest models read by the
+ * {@link ForestCodec}).
+ * <p/>
+ * The distributions are bit-for-bit the ones of the forest the {@link FlatForest} was compiled from. The classifier
+ * is immutable, so it can be shared by all scoring threads, but it cannot be trained.
+ *
+ * @since 1.0.11
+ */
+public class FlatForestClassifier extends Classifier {
+    private static final long serialVersionUID = 1L;
+
+    private final FlatForest forest;
+
+    /**
+     * Creates a new classifier.
+     *
+     * @param forest the forest to score with
+     */
+    public FlatForestClassifier(FlatForest forest) {
+        checkNotNull(forest, "Forest cannot be null");
+
+        this.forest = forest;
+    }
+
+    /**
+     * Gets the forest this classifier scores with.
+     *
+     * @return the forest
+     */
+    public FlatForest getForest() {
+        return forest;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        throw new WekaClassifierException("A flat forest cannot be trained");
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) throws Exception {
+        return forest.distribution(instance.toDoubleArray(), new double[forest.numClasses()]);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Flat forest of %s trees (%s nodes)", forest.numTrees(), forest.numNodes());
+    }
+}
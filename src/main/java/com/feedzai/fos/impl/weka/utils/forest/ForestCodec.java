@@ -0,0 +1,374 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.common.validation.NotNull;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import org.apache.commons.io.FileUtils;
+import weka.classifiers.Classifier;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compact binary encoding of {@link FlatForest}s, an alternative to java serialization for binary forest models.
+ * <p/>
+ * Serialized weka forests store an object (with its class descriptor and fields) for every node and are read
+ * through reflection. This encoding only stores the node values, tree by tree and node by node in depth first
+ * order:
+ * <pre>
+ * forest       := MAGIC (int) VERSION (short) numAttributes (varint) numClasses (varint) numTrees (varint) node*
+ * node         := flags (byte) [attribute (varint) [numChildren (varint)] [splitPoint (double)] proportions (double*)] [distribution]
+ * distribution := class (varint), if the node is pure, or one double per class otherwise
+ * </pre>
+ * The flags say if the node is a split, if the split is nominal (numChildren is only stored for nominal splits,
+ * and splitPoint for numeric ones), if the node has a distribution and if that distribution is pure (all the
+ * weight in a single class, as most leaves of large trees). The nodes of the children subtrees follow the node
+ * they belong to. Doubles are stored as their (big endian) bits, so the decoded forest scores bit-for-bit as the
+ * encoded one.
+ * <p/>
+ * Files in this format are recognized by their {@link #MAGIC} header wherever binary models are read, so they can
+ * be used in place of serialized models (they are loaded as a {@link FlatForestClassifier}).
+ *
+ * @since 1.0.11
+ */
+public final class ForestCodec {
+    /**
+     * The first bytes of an encoded forest (<code>FOSF</code>, which is never the start of a java serialization
+     * stream).
+     */
+    public static final int MAGIC = 0x464F5346;
+
+    /**
+     * The version of the encoding written by this class.
+     */
+    public static final short VERSION = 1;
+
+    private static final int SPLIT = 1;
+    private static final int NOMINAL = 2;
+    private static final int DISTRIBUTION = 4;
+    private static final int PURE = 8;
+    private static final long ONE_BITS = Double.doubleToRawLongBits(1.0);
+
+    /**
+     * The largest number of attributes accepted when decoding (the scorers allocate arrays of this size).
+     */
+    private static final int MAX_ATTRIBUTES = 1 << 20;
+
+    private ForestCodec() {
+    }
+
+    /**
+     * Encodes the given forest.
+     *
+     * @param forest the forest to encode
+     * @return the encoded forest
+     */
+    @NotNull
+    public static byte[] encode(FlatForest forest) {
+        checkNotNull(forest, "Forest cannot be null");
+
+        /* an upper bound of the encoded size */
+        int size = 4 + 2 + 5 * 3;
+        for (int node = 0; node < forest.numNodes(); node++) {
+            size += 1 + 5 + 5 + 8 + 8 * forest.numChildren[node] + 8 * forest.numClasses;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        putVarInt(buffer, forest.numAttributes);
+        putVarInt(buffer, forest.numClasses);
+        putVarInt(buffer, forest.roots.length);
+
+        for (int root : forest.roots) {
+            encode(forest, root, buffer);
+        }
+
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /**
+     * Encodes the given node and its subtree.
+     *
+     * @param forest the forest of the node
+     * @param node   the index of the node
+     * @param buffer the buffer where to write the node to
+     */
+    private static void encode(FlatForest forest, int node, ByteBuffer buffer) {
+        boolean split = forest.attribute[node] >= 0;
+        int distribution = forest.distribution[node];
+        int pureClass = distribution != FlatForest.NO_DISTRIBUTION ? pureClass(forest.distributions, distribution, forest.numClasses) : -1;
+
+        int flags = (split ? SPLIT : 0)
+                | (split && forest.nominal[node] ? NOMINAL : 0)
+                | (distribution != FlatForest.NO_DISTRIBUTION ? DISTRIBUTION : 0)
+                | (pureClass >= 0 ? PURE : 0);
+        buffer.put((byte) flags);
+
+        if (split) {
+            putVarInt(buffer, forest.attribute[node]);
+            if (forest.nominal[node]) {
+                putVarInt(buffer, forest.numChildren[node]);
+            } else {
+                buffer.putDouble(forest.splitPoint[node]);
+            }
+
+            for (int idx = 0; idx < forest.numChildren[node]; idx++) {
+                buffer.putDouble(forest.proportions[forest.firstChild[node] + idx]);
+            }
+        }
+
+        if (pureClass >= 0) {
+            putVarInt(buffer, pureClass);
+        } else if (distribution != FlatForest.NO_DISTRIBUTION) {
+            for (int idx = 0; idx < forest.numClasses; idx++) {
+                buffer.putDouble(forest.distributions[distribution + idx]);
+            }
+        }
+
+        for (int idx = 0; idx < forest.numChildren[node]; idx++) {
+            encode(forest, forest.children[forest.firstChild[node] + idx], buffer);
+        }
+    }
+
+    /**
+     * Gets the class that has all the weight of the given distribution.
+     *
+     * @param distributions the distributions of the forest
+     * @param offset        the offset of the distribution
+     * @param numClasses    the number of classes
+     * @return the class of a pure distribution (exactly one <code>1.0</code> and <code>0.0</code> elsewhere), or -1
+     */
+    private static int pureClass(double[] distributions, int offset, int numClasses) {
+        int pureClass = -1;
+
+        for (int idx = 0; idx < numClasses; idx++) {
+            long bits = Double.doubleToRawLongBits(distributions[offset + idx]);
+            if (bits == ONE_BITS && pureClass < 0) {
+                pureClass = idx;
+            } else if (bits != 0) {
+                return -1;
+            }
+        }
+
+        return pureClass;
+    }
+
+    /**
+     * Decodes a forest.
+     *
+     * @param encoded the encoded forest
+     * @return the decoded forest
+     * @throws WekaClassifierException when the bytes are not a forest in a supported version of this encoding
+     */
+    @NotNull
+    public static FlatForest decode(byte[] encoded) throws WekaClassifierException {
+        checkNotNull(encoded, "Encoded forest cannot be null");
+
+        if (!isEncoded(encoded) || encoded.length < 6) {
+            throw new WekaClassifierException("Not an encoded forest");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        buffer.position(4);
+
+        short version = buffer.getShort();
+        if (version != VERSION) {
+            throw new WekaClassifierException(String.format("Unsupported encoded forest version %s (expected %s)", version, VERSION));
+        }
+
+        try {
+            int numAttributes = getVarInt(buffer);
+            int numClasses = getVarInt(buffer);
+            int numTrees = getVarInt(buffer);
+
+            /* checked before anything is allocated, so a corrupted header does not exhaust the memory: every tree
+             * takes at least one byte, and forests with more classes than bytes only come from corrupted files */
+            checkArgument(numAttributes <= MAX_ATTRIBUTES, "Invalid number of attributes %s", numAttributes);
+            checkArgument(numClasses <= buffer.remaining(), "Invalid number of classes %s", numClasses);
+            checkArgument(numTrees <= buffer.remaining(), "Invalid number of trees %s", numTrees);
+
+            FlatForest.Builder builder = new FlatForest.Builder(numAttributes, numClasses);
+            for (int tree = 0; tree < numTrees; tree++) {
+                builder.addTree();
+                decode(builder, numClasses, buffer);
+            }
+
+            if (buffer.hasRemaining()) {
+                throw new WekaClassifierException(String.format("Encoded forest has %s unexpected trailing bytes", buffer.remaining()));
+            }
+
+            return builder.build();
+        } catch (BufferUnderflowException e) {
+            throw new WekaClassifierException("Encoded forest is truncated", e);
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new WekaClassifierException("Encoded forest is corrupted", e);
+        }
+    }
+
+    /**
+     * Decodes a node and its subtree.
+     *
+     * @param builder    the builder of the forest
+     * @param numClasses the number of classes of the forest
+     * @param buffer     the buffer positioned at the node
+     * @return the index of the node
+     */
+    private static int decode(FlatForest.Builder builder, int numClasses, ByteBuffer buffer) {
+        int flags = buffer.get();
+
+        if ((flags & SPLIT) == 0) {
+            return builder.addLeaf(getDistribution(flags, numClasses, buffer));
+        }
+
+        int attribute = getVarInt(buffer);
+        boolean nominal = (flags & NOMINAL) != 0;
+        int numChildren = nominal ? getVarInt(buffer) : 2;
+        double splitPoint = nominal ? Double.NaN : buffer.getDouble();
+        checkArgument(numChildren <= buffer.remaining() / 8, "Invalid number of children %s", numChildren);
+
+        double[] proportions = new double[numChildren];
+        for (int idx = 0; idx < numChildren; idx++) {
+            proportions[idx] = buffer.getDouble();
+        }
+
+        int node = builder.addSplit(attribute, nominal, splitPoint, proportions, getDistribution(flags, numClasses, buffer));
+        for (int branch = 0; branch < numChildren; branch++) {
+            builder.setChild(node, branch, decode(builder, numClasses, buffer));
+        }
+
+        return node;
+    }
+
+    private static double[] getDistribution(int flags, int numClasses, ByteBuffer buffer) {
+        if ((flags & DISTRIBUTION) == 0) {
+            return null;
+        }
+
+        checkArgument((flags & PURE) != 0 || numClasses <= buffer.remaining() / 8, "Truncated distribution");
+
+        double[] distribution = new double[numClasses];
+        if ((flags & PURE) != 0) {
+            int pureClass = getVarInt(buffer);
+            checkArgument(pureClass < numClasses, "Invalid class %s", pureClass);
+            distribution[pureClass] = 1.0;
+        } else {
+            for (int idx = 0; idx < numClasses; idx++) {
+                distribution[idx] = buffer.getDouble();
+            }
+        }
+
+        return distribution;
+    }
+
+    /**
+     * Writes a non negative int in 7 bit groups (least significant first), the high bit set on all bytes but the last.
+     */
+    private static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte current = buffer.get();
+            value |= (current & 0x7F) << shift;
+            if (current >= 0) {
+                checkArgument(value >= 0, "Invalid negative value %s", value);
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Invalid variable length int");
+    }
+
+    /**
+     * Checks if the given bytes start with the header of an encoded forest.
+     *
+     * @param bytes the bytes to check
+     * @return true if the bytes are an encoded forest
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes != null && bytes.length >= 4 && ByteBuffer.wrap(bytes).getInt() == MAGIC;
+    }
+
+    /**
+     * Checks if the given file starts with the header of an encoded forest (only the header is read).
+     *
+     * @param file the file to check
+     * @return true if the file has an encoded forest
+     * @throws IOException when the file could not be read
+     */
+    public static boolean isEncoded(File file) throws IOException {
+        checkNotNull(file, "File cannot be null");
+
+        try (DataInputStream input = new DataInputStream(new FileInputStream(file))) {
+            return input.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the encoded forest in the given file.
+     *
+     * @param file the file with the encoded forest
+     * @return a classifier that scores with the forest
+     * @throws WekaClassifierException when the file does not have an encoded forest
+     * @throws IOException             when the file could not be read
+     */
+    @NotNull
+    public static FlatForestClassifier read(File file) throws WekaClassifierException, IOException {
+        checkNotNull(file, "File cannot be null");
+
+        return new FlatForestClassifier(decode(FileUtils.readFileToByteArray(file)));
+    }
+
+    /**
+     * Writes the given forest classifier to file in this encoding (see {@link ForestEngine#flatten(Classifier)} for
+     * the supported classifiers).
+     *
+     * @param classifier the classifier to write
+     * @param file       the file to write to (will be overwritten)
+     * @throws WekaClassifierException when the classifier is not supported
+     * @throws IOException             when the file could not be written
+     */
+    public static void write(Classifier classifier, File file) throws WekaClassifierException, IOException {
+        checkNotNull(file, "File cannot be null");
+
+        FileUtils.writeByteArrayToFile(file, encode(ForestEngine.flatten(classifier)));
+    }
+}
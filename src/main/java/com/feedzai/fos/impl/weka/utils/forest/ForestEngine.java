@@ -0,0 +1,139 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.common.validation.Nullable;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import hr.irb.fastRandomForest.FastRandomForest;
+import hr.irb.fastRandomForest.FastRandomForestFlattener;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomForestFlattener;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The engines that can be used to score tree ensembles.
+ *
+ * @since 1.0.11
+ */
+public enum ForestEngine {
+    /**
+     * Scores with the weka classifier itself.
+     */
+    WEKA {
+        @Override
+        public CompiledForest compile(Classifier classifier) throws WekaClassifierException {
+            return null;
+        }
+    },
+
+    /**
+     * Scores against a {@link FlatForest}.
+     */
+    FLAT {
+        @Override
+        public CompiledForest compile(Classifier classifier) throws WekaClassifierException {
+            return flatten(classifier);
+        }
+    },
+
+    /**
+     * Scores against a {@link QuickScorerForest} (best for ensembles of many shallow trees).
+     */
+    QUICK_SCORER {
+        @Override
+        public CompiledForest compile(Classifier classifier) throws WekaClassifierException {
+            return new QuickScorerForest(flatten(classifier));
+        }
+    },
+
+    /**
+     * Scores against a {@link MappedForest}, off the heap.
+     * <p/>
+     * The scorers of models with this engine keep the compiled forest in a file (see
+     * {@link com.feedzai.fos.impl.weka.config.WekaModelConfig#MAPPED_FOREST}) that is mapped directly on the next
+     * loads; this method compiles the classifier into a temporary file that is deleted once mapped.
+     */
+    MAPPED {
+        @Override
+        public CompiledForest compile(Classifier classifier) throws WekaClassifierException {
+            try {
+                File file = File.createTempFile("forest", ".mapped");
+                try {
+                    MappedForest.write(flatten(classifier), file);
+                    return new MappedForest(file);
+                } finally {
+                    /* the mappings remain valid after the file is deleted (on the hosts that allow deleting it) */
+                    if (!file.delete()) {
+                        file.deleteOnExit();
+                    }
+                }
+            } catch (IOException e) {
+                throw new WekaClassifierException(e);
+            }
+        }
+    },
+
+    /**
+     * Scores with a class generated for the forest (see {@link GeneratedForest}).
+     */
+    BYTECODE {
+        @Override
+        public CompiledForest compile(Classifier classifier) throws WekaClassifierException {
+            return new GeneratedForest(flatten(classifier));
+        }
+    };
+
+    /**
+     * Compiles the given classifier for this engine.
+     *
+     * @param classifier the classifier to compile
+     * @return the compiled forest, or <code>null</code> if this engine scores with the classifier itself
+     * @throws WekaClassifierException when this engine does not support the given classifier
+     */
+    @Nullable
+    public abstract CompiledForest compile(Classifier classifier) throws WekaClassifierException;
+
+    /**
+     * Flattens the given classifier (supports {@link weka.classifiers.trees.RandomForest},
+     * {@link hr.irb.fastRandomForest.FastRandomForest} and {@link FlatForestClassifier}).
+     *
+     * @param classifier the classifier to flatten
+     * @return the flat forest of the classifier
+     * @throws WekaClassifierException when the classifier is not supported
+     */
+    static FlatForest flatten(Classifier classifier) throws WekaClassifierException {
+        if (classifier instanceof RandomForest) {
+            return RandomForestFlattener.flatten((RandomForest) classifier);
+        }
+        if (classifier instanceof FastRandomForest) {
+            return FastRandomForestFlattener.flatten((FastRandomForest) classifier);
+        }
+        if (classifier instanceof FlatForestClassifier) {
+            return ((FlatForestClassifier) classifier).getForest();
+        }
+
+        throw new WekaClassifierException(String.format("Classifier %s cannot be compiled", classifier == null ? null : classifier.getClass().getName()));
+    }
+}
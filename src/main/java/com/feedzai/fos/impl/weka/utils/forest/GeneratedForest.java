@@ -0,0 +1,356 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.feedzai.fos.impl.weka.utils.forest.ClassFileWriter.*;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A forest compiled into a JVM class, with one method of nested <code>if</code>/<code>else</code> per tree and all
+ * the split attributes, split points and leaf distributions inlined as constants.
+ * <p/>
+ * The class is generated from a {@link FlatForest} and loaded in its own class loader, so it can be unloaded with the
+ * model. The tree methods return the offset of the distribution of the exit leaf, and the trees are called from
+ * chunk methods of at most {@value #TREES_PER_CHUNK} trees. Every method is kept under the size HotSpot compiles
+ * ({@value #MAX_METHOD_SIZE} bytes): the largest subtrees of trees too large for a single method are generated in
+ * methods of their own, called from the method of their parent. Instances with missing split values or nominal
+ * values the tree cannot follow (and the rare trees that cannot be split, such as nominal splits with thousands of
+ * children) are scored by the {@link FlatForest}, so the results are always bit-for-bit equal to the ones of the
+ * original classifier.
+ *
+ * @since 1.0.11
+ */
+public class GeneratedForest implements CompiledForest {
+    /**
+     * The maximum size of a generated method (HotSpot does not compile methods larger than 8000 bytes).
+     */
+    public static final int MAX_METHOD_SIZE = 8000;
+
+    /**
+     * The number of trees called by each chunk method.
+     */
+    static final int TREES_PER_CHUNK = 500;
+
+    /**
+     * The offset returned by the generated code when the tree must be scored by the {@link FlatForest}.
+     */
+    static final int INTERPRET = -2;
+
+    /**
+     * Upper bounds of the code sizes (in bytes) of a leaf, of a split without its children (plus 4 bytes per nominal
+     * child), of a call to the method of a subtree and of the code that returns {@link #INTERPRET}.
+     */
+    private static final int LEAF_SIZE = 4;
+    private static final int NUMERIC_SPLIT_SIZE = 20;
+    private static final int NOMINAL_SPLIT_SIZE = 30;
+    private static final int CALL_SIZE = 5;
+    private static final int INTERPRET_SIZE = 3;
+
+    private static final String PACKAGE = GeneratedForest.class.getName().substring(0, GeneratedForest.class.getName().lastIndexOf('.')).replace('.', '/');
+    private static final AtomicLong CLASS_COUNTER = new AtomicLong();
+
+    private final FlatForest flatForest;
+    private final Trees trees;
+    private final int generatedTrees;
+
+    private final ThreadLocal<int[]> offsets = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[flatForest.numTrees()];
+        }
+    };
+
+    /**
+     * The interface implemented by the generated classes.
+     */
+    public interface Trees {
+        /**
+         * Computes the distribution offset of the exit leaf of every tree.
+         *
+         * @param values  the values of the instance
+         * @param offsets where to write the offset of each tree ({@link FlatForest#NO_DISTRIBUTION} or
+         *                {@link #INTERPRET} when the tree must be scored by the flat forest)
+         */
+        void leaves(double[] values, int[] offsets);
+    }
+
+    /**
+     * Generates and loads the class of the given flat forest.
+     *
+     * @param flatForest the forest to compile
+     * @throws WekaClassifierException when the class could not be generated or loaded
+     */
+    public GeneratedForest(FlatForest flatForest) throws WekaClassifierException {
+        checkNotNull(flatForest, "Flat forest cannot be null");
+
+        this.flatForest = flatForest;
+
+        String className = PACKAGE + "/GeneratedTrees" + CLASS_COUNTER.incrementAndGet();
+        ClassFileWriter writer = new ClassFileWriter(className, "java/lang/Object", Trees.class.getName().replace('.', '/'));
+
+        int numTrees = flatForest.numTrees();
+        boolean[] outlined = new boolean[flatForest.numNodes()];
+        boolean[] generated = new boolean[numTrees];
+        int count = 0;
+        for (int tree = 0; tree < numTrees; tree++) {
+            int root = flatForest.roots[tree];
+            if (split(root, outlined) <= MAX_METHOD_SIZE - INTERPRET_SIZE
+                    && writeMethod(writer, className, "tree" + tree, root, outlined)) {
+                generated[tree] = true;
+                count++;
+            }
+        }
+        this.generatedTrees = count;
+
+        int chunks = (numTrees + TREES_PER_CHUNK - 1) / TREES_PER_CHUNK;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            ClassFileWriter.Code code = writer.new Code();
+            for (int tree = chunk * TREES_PER_CHUNK; tree < Math.min(numTrees, (chunk + 1) * TREES_PER_CHUNK); tree++) {
+                code.op(ALOAD_1).pushInt(tree);
+                if (generated[tree]) {
+                    code.op(ALOAD_0).invokeStatic(className, "tree" + tree, "([D)I");
+                } else {
+                    code.pushInt(INTERPRET);
+                }
+                code.op(IASTORE);
+            }
+            code.op(RETURN);
+            writer.addMethod(ACC_PRIVATE | ACC_STATIC, "chunk" + chunk, "([D[I)V", code, 3, 2);
+        }
+
+        ClassFileWriter.Code leaves = writer.new Code();
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            leaves.op(ALOAD_1).op(ALOAD_2).invokeStatic(className, "chunk" + chunk, "([D[I)V");
+        }
+        leaves.op(RETURN);
+        writer.addMethod(ACC_PUBLIC, "leaves", "([D[I)V", leaves, 2, 3);
+
+        ClassFileWriter.Code constructor = writer.new Code();
+        constructor.op(ALOAD_0).invokeSpecial("java/lang/Object", "<init>", "()V").op(RETURN);
+        writer.addMethod(ACC_PUBLIC, "<init>", "()V", constructor, 1, 1);
+
+        try {
+            byte[] classFile = writer.toByteArray();
+            this.trees = (Trees) new ForestClassLoader(Trees.class.getClassLoader()).define(className.replace('/', '.'), classFile).newInstance();
+        } catch (Exception | LinkageError e) {
+            throw new WekaClassifierException("Could not generate the forest class", e);
+        }
+    }
+
+    /**
+     * Chooses the subtrees of the given node that are generated in methods of their own, largest first, until the
+     * code of the node fits in a method.
+     *
+     * @param node     the root of the subtree
+     * @param outlined where to mark the nodes whose subtrees have methods of their own
+     * @return an upper bound of the size of the code of the node in the method of its parent
+     */
+    private int split(int node, boolean[] outlined) {
+        if (flatForest.attribute[node] < 0) {
+            return LEAF_SIZE;
+        }
+
+        int first = flatForest.firstChild[node];
+        int numChildren = flatForest.numChildren[node];
+        int[] sizes = new int[numChildren];
+        int size = flatForest.nominal[node] ? NOMINAL_SPLIT_SIZE + 4 * numChildren : NUMERIC_SPLIT_SIZE;
+        for (int branch = 0; branch < numChildren; branch++) {
+            sizes[branch] = split(flatForest.children[first + branch], outlined);
+            size += sizes[branch];
+        }
+
+        while (size > MAX_METHOD_SIZE - INTERPRET_SIZE) {
+            int largest = -1;
+            for (int branch = 0; branch < numChildren; branch++) {
+                if (!outlined[flatForest.children[first + branch]] && (largest < 0 || sizes[branch] > sizes[largest])) {
+                    largest = branch;
+                }
+            }
+            if (largest < 0 || sizes[largest] <= CALL_SIZE) {
+                break;
+            }
+
+            outlined[flatForest.children[first + largest]] = true;
+            size += CALL_SIZE - sizes[largest];
+            sizes[largest] = CALL_SIZE;
+        }
+
+        return size;
+    }
+
+    /**
+     * Writes the method of the given subtree (and the methods of its outlined subtrees).
+     *
+     * @param writer    the writer of the class
+     * @param className the name of the class
+     * @param name      the name of the method
+     * @param node      the root of the subtree
+     * @param outlined  the nodes whose subtrees have methods of their own
+     * @return false if the method would be too large (it is not written)
+     */
+    private boolean writeMethod(ClassFileWriter writer, String className, String name, int node, boolean[] outlined) {
+        ClassFileWriter.Code code = writer.new Code();
+        ClassFileWriter.Label interpret = code.newLabel();
+        writeNode(writer, className, code, node, interpret, outlined);
+        code.bind(interpret).pushInt(INTERPRET).op(IRETURN);
+
+        if (code.size() > MAX_METHOD_SIZE) {
+            return false;
+        }
+
+        writer.addMethod(ACC_PRIVATE | ACC_STATIC, name, "([D)I", code, 4, 3);
+        return true;
+    }
+
+    /**
+     * Writes the code of the given node.
+     *
+     * @param writer    the writer of the class
+     * @param className the name of the class
+     * @param code      the code of the method
+     * @param node      the node to write
+     * @param interpret the label that returns {@link #INTERPRET}
+     * @param outlined  the nodes whose subtrees have methods of their own
+     */
+    private void writeNode(ClassFileWriter writer, String className, ClassFileWriter.Code code, int node, ClassFileWriter.Label interpret, boolean[] outlined) {
+        if (flatForest.attribute[node] < 0) {
+            code.pushInt(flatForest.fallback[node]).op(IRETURN);
+            return;
+        }
+
+        /* double value = values[attribute]; if (value != value) -> missing */
+        code.op(ALOAD_0).pushInt(flatForest.attribute[node]).op(DALOAD).op(DSTORE_1);
+        code.op(DLOAD_1).op(DLOAD_1).op(DCMPL).jump(IFNE, interpret);
+
+        int first = flatForest.firstChild[node];
+        if (flatForest.nominal[node]) {
+            ClassFileWriter.Label[] branches = new ClassFileWriter.Label[flatForest.numChildren[node]];
+            for (int branch = 0; branch < branches.length; branch++) {
+                branches[branch] = code.newLabel();
+            }
+
+            code.op(DLOAD_1).op(D2I).tableSwitch(interpret, branches);
+            for (int branch = 0; branch < branches.length; branch++) {
+                code.bind(branches[branch]);
+                writeChild(writer, className, code, flatForest.children[first + branch], interpret, outlined);
+            }
+        } else {
+            /* value < splitPoint goes left, anything else (including a NaN split point) goes right */
+            ClassFileWriter.Label right = code.newLabel();
+            code.op(DLOAD_1).pushDouble(flatForest.splitPoint[node]).op(DCMPG).jump(IFGE, right);
+            writeChild(writer, className, code, flatForest.children[first], interpret, outlined);
+            code.bind(right);
+            writeChild(writer, className, code, flatForest.children[first + 1], interpret, outlined);
+        }
+    }
+
+    /**
+     * Writes the code of a child: either its subtree or, when it is outlined, a call to the method of the subtree.
+     */
+    private void writeChild(ClassFileWriter writer, String className, ClassFileWriter.Code code, int child, ClassFileWriter.Label interpret, boolean[] outlined) {
+        if (!outlined[child]) {
+            writeNode(writer, className, code, child, interpret, outlined);
+        } else if (writeMethod(writer, className, "node" + child, child, outlined)) {
+            code.op(ALOAD_0).invokeStatic(className, "node" + child, "([D)I").op(IRETURN);
+        } else {
+            code.pushInt(INTERPRET).op(IRETURN);
+        }
+    }
+
+    @Override
+    public int numAttributes() {
+        return flatForest.numAttributes();
+    }
+
+    @Override
+    public int numClasses() {
+        return flatForest.numClasses();
+    }
+
+    /**
+     * Gets the number of trees compiled into methods (the others are scored by the {@link FlatForest}).
+     *
+     * @return the number of generated trees
+     */
+    public int numGeneratedTrees() {
+        return generatedTrees;
+    }
+
+    @Override
+    public double[] distribution(double[] values, double[] result) throws FOSException {
+        if (values.length != numAttributes() || result.length != numClasses()) {
+            throw new WekaClassifierException(String.format("Expected %s values and %s classes but got %s and %s", numAttributes(), numClasses(), values.length, result.length));
+        }
+
+        int[] treeOffsets = offsets.get();
+        trees.leaves(values, treeOffsets);
+
+        Arrays.fill(result, 0);
+        double[] distributions = flatForest.distributions;
+        int numClasses = result.length;
+        for (int tree = 0; tree < treeOffsets.length; tree++) {
+            int offset = treeOffsets[tree];
+            if (offset < 0) {
+                flatForest.addTree(tree, values, result);
+                continue;
+            }
+
+            for (int idx = 0; idx < numClasses; idx++) {
+                result[idx] += distributions[offset + idx];
+            }
+        }
+
+        return FlatForest.normalize(result);
+    }
+
+    /**
+     * Computes the distributions of the block one instance at a time: the trees are compiled into code, so there are
+     * no nodes to keep in the data cache.
+     */
+    @Override
+    public void distributions(double[][] values, int count, double[][] results) throws FOSException {
+        FlatForest.checkBlock(values, count, results, numAttributes(), numClasses());
+
+        for (int row = 0; row < count; row++) {
+            distribution(values[row], results[row]);
+        }
+    }
+
+    /**
+     * Class loader of a single generated class.
+     */
+    private static final class ForestClassLoader extends ClassLoader {
+        private ForestClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+}
@@ -0,0 +1,518 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.common.validation.NotNull;
+import com.feedzai.fos.common.validation.Nullable;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import weka.classifiers.Classifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link FlatForest} stored in a file and evaluated directly from the memory mapped file.
+ * <p/>
+ * The file has the arrays of the flat forest, so opening it only maps them (no node is read or created on the
+ * heap): large forests load almost instantly, are not traced by the garbage collector, and every JVM on the host
+ * that maps the same file shares the copy in the page cache. The file layout (little endian) is
+ * <pre>
+ * MAGIC (int) VERSION (int) numAttributes numClasses numTrees numNodes numEdges numDistributionValues (int)
+ * sourceLength sourceModified (long)
+ * roots (int[numTrees]) attribute (int[numNodes]) nominal (byte[numNodes]) splitPoint (double[numNodes])
+ * firstChild numChildren (int[numNodes]) children (int[numEdges]) proportions (double[numEdges])
+ * distribution fallback (int[numNodes]) distributions (double[numDistributionValues])
+ * </pre>
+ * with every array starting at an offset multiple of 8. The source length and modification time are the ones of the
+ * model file the forest was compiled from (see {@link #isCompiledFrom(File, File)}), or 0 if unknown. The evaluation is the one of {@link FlatForest}, so the
+ * results are bit-for-bit equal to the ones of the original classifier.
+ * <p/>
+ * Only the layout of the file is checked when it is mapped (checking the nodes would read the whole file), and the
+ * file must not be changed while it is mapped ({@link #write(FlatForest, File)} replaces files atomically).
+ *
+ * @since 1.0.11
+ */
+public class MappedForest implements CompiledForest {
+    /**
+     * The first bytes of a mapped forest file (<code>FOSM</code>).
+     */
+    public static final int MAGIC = 0x464F534D;
+
+    /**
+     * The version of the file layout written by this class.
+     */
+    public static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 48;
+
+    private final int numAttributes;
+    private final int numClasses;
+    private final IntBuffer roots;
+    private final IntBuffer attribute;
+    private final ByteBuffer nominal;
+    private final DoubleBuffer splitPoint;
+    private final IntBuffer firstChild;
+    private final IntBuffer numChildren;
+    private final IntBuffer children;
+    private final DoubleBuffer proportions;
+    private final IntBuffer distribution;
+    private final IntBuffer fallback;
+    private final DoubleBuffer distributions;
+
+    /**
+     * Maps the forest in the given file.
+     *
+     * @param file the file written by {@link #write(FlatForest, File)}
+     * @throws WekaClassifierException when the file does not have a mapped forest
+     * @throws IOException             when the file could not be mapped
+     */
+    public MappedForest(File file) throws WekaClassifierException, IOException {
+        checkNotNull(file, "File cannot be null");
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new WekaClassifierException("Not a mapped forest: " + file);
+            }
+
+            /* the mappings remain valid after the channel is closed */
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC) {
+                throw new WekaClassifierException("Not a mapped forest: " + file);
+            }
+
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new WekaClassifierException(String.format("Unsupported mapped forest version %s (expected %s)", version, VERSION));
+            }
+
+            this.numAttributes = header.getInt();
+            this.numClasses = header.getInt();
+            int numTrees = header.getInt();
+            int numNodes = header.getInt();
+            int numEdges = header.getInt();
+            int numDistributionValues = header.getInt();
+            header.getLong(); // sourceLength
+            header.getLong(); // sourceModified
+
+            Sections sections = new Sections(channel, HEADER_SIZE);
+            this.roots = sections.map(numTrees, 4).asIntBuffer();
+            this.attribute = sections.map(numNodes, 4).asIntBuffer();
+            this.nominal = sections.map(numNodes, 1);
+            this.splitPoint = sections.map(numNodes, 8).asDoubleBuffer();
+            this.firstChild = sections.map(numNodes, 4).asIntBuffer();
+            this.numChildren = sections.map(numNodes, 4).asIntBuffer();
+            this.children = sections.map(numEdges, 4).asIntBuffer();
+            this.proportions = sections.map(numEdges, 8).asDoubleBuffer();
+            this.distribution = sections.map(numNodes, 4).asIntBuffer();
+            this.fallback = sections.map(numNodes, 4).asIntBuffer();
+            this.distributions = sections.map(numDistributionValues, 8).asDoubleBuffer();
+
+            if (sections.offset != channel.size()) {
+                throw new WekaClassifierException(String.format("Mapped forest %s has %s bytes but expected %s", file, channel.size(), sections.offset));
+            }
+        }
+    }
+
+    /**
+     * Checks if the given file has a mapped forest (of the current version) compiled from the given source file, as
+     * it is now: the length and modification time of the source must be the ones stored when the forest was written.
+     * <p/>
+     * A source that is replaced by a different file is detected even if the new file is older (e.g. restored from a
+     * backup or copied preserving times), as long as its length or modification time are not exactly the same.
+     *
+     * @param file   the mapped forest file
+     * @param source the model file the forest should have been compiled from (null to only check the file)
+     * @return <code>true</code> if the file can be mapped without compiling the source again
+     */
+    public static boolean isCompiledFrom(File file, @Nullable File source) {
+        checkNotNull(file, "File cannot be null");
+
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+             FileChannel channel = randomAccessFile.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                // read the whole header
+            }
+            header.flip();
+
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                return false;
+            }
+
+            if (source == null) {
+                return true;
+            }
+
+            header.position(HEADER_SIZE - 16);
+            return header.getLong() == source.length() && header.getLong() == source.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes the given forest to file in the layout of mapped forests, without a source file.
+     *
+     * @param forest the forest to write
+     * @param file   the file to write to (will be replaced)
+     * @throws IOException when the file could not be written
+     * @see #write(FlatForest, File, File)
+     */
+    public static void write(FlatForest forest, File file) throws IOException {
+        write(forest, file, null);
+    }
+
+    /**
+     * Writes the given forest to file in the layout of mapped forests.
+     * <p/>
+     * The forest is written to a temporary file in the same directory that then replaces the given file, so
+     * forests that are mapped from the given file keep their (old) contents.
+     *
+     * @param forest the forest to write
+     * @param file   the file to write to (will be replaced)
+     * @param source the model file the forest was compiled from, whose length and modification time are stored for
+     *               {@link #isCompiledFrom(File, File)} (null if none)
+     * @throws IOException when the file could not be written
+     */
+    public static void write(FlatForest forest, File file, @Nullable File source) throws IOException {
+        checkNotNull(forest, "Forest cannot be null");
+        checkNotNull(file, "File cannot be null");
+
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temporary = File.createTempFile(file.getName(), ".tmp", directory);
+        try {
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(temporary, "rw");
+                 FileChannel channel = randomAccessFile.getChannel()) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION)
+                        .putInt(forest.numAttributes).putInt(forest.numClasses)
+                        .putInt(forest.roots.length).putInt(forest.numNodes())
+                        .putInt(forest.children.length).putInt(forest.distributions.length)
+                        .putLong(source != null ? source.length() : 0).putLong(source != null ? source.lastModified() : 0);
+                header.flip();
+                channel.write(header, 0);
+
+                Sections sections = new Sections(channel, HEADER_SIZE);
+                put(sections, forest.roots);
+                put(sections, forest.attribute);
+                ByteBuffer nominal = sections.allocate(forest.nominal.length, 1);
+                for (boolean value : forest.nominal) {
+                    nominal.put((byte) (value ? 1 : 0));
+                }
+                sections.write(nominal);
+                put(sections, forest.splitPoint);
+                put(sections, forest.firstChild);
+                put(sections, forest.numChildren);
+                put(sections, forest.children);
+                put(sections, forest.proportions);
+                put(sections, forest.distribution);
+                put(sections, forest.fallback);
+                put(sections, forest.distributions);
+
+                channel.force(true);
+            }
+
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    /**
+     * Compiles the given forest classifier (see {@link ForestEngine#flatten(Classifier)} for the supported
+     * classifiers) and writes it to file in the layout of mapped forests.
+     *
+     * @param classifier the classifier to write
+     * @param file       the file to write to (will be replaced)
+     * @throws WekaClassifierException when the classifier is not supported
+     * @throws IOException             when the file could not be written
+     */
+    public static void write(Classifier classifier, File file) throws WekaClassifierException, IOException {
+        write(classifier, file, null);
+    }
+
+    /**
+     * Compiles the given forest classifier, read from the given source file, and writes it to file in the layout of
+     * mapped forests (see {@link #write(FlatForest, File, File)}).
+     *
+     * @param classifier the classifier to write
+     * @param file       the file to write to (will be replaced)
+     * @param source     the model file the classifier was read from (null if none)
+     * @throws WekaClassifierException when the classifier is not supported
+     * @throws IOException             when the file could not be written
+     */
+    public static void write(Classifier classifier, File file, @Nullable File source) throws WekaClassifierException, IOException {
+        write(ForestEngine.flatten(classifier), file, source);
+    }
+
+    private static void put(Sections sections, int[] values) throws IOException {
+        ByteBuffer buffer = sections.allocate(values.length, 4);
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.limit());
+        sections.write(buffer);
+    }
+
+    private static void put(Sections sections, double[] values) throws IOException {
+        ByteBuffer buffer = sections.allocate(values.length, 8);
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.limit());
+        sections.write(buffer);
+    }
+
+    @Override
+    public int numAttributes() {
+        return numAttributes;
+    }
+
+    @Override
+    public int numClasses() {
+        return numClasses;
+    }
+
+    /**
+     * Gets the number of trees in this forest.
+     *
+     * @return the number of trees
+     */
+    public int numTrees() {
+        return roots.capacity();
+    }
+
+    /**
+     * Gets the total number of nodes in this forest.
+     *
+     * @return the number of nodes
+     */
+    public int numNodes() {
+        return attribute.capacity();
+    }
+
+    @Override
+    public double[] distribution(double[] values, double[] result) throws FOSException {
+        if (values.length != numAttributes || result.length != numClasses) {
+            throw new WekaClassifierException(String.format("Expected %s values and %s classes but got %s and %s", numAttributes, numClasses, values.length, result.length));
+        }
+
+        Arrays.fill(result, 0);
+
+        for (int tree = 0; tree < roots.capacity(); tree++) {
+            addTree(tree, values, result);
+        }
+
+        return FlatForest.normalize(result);
+    }
+
+    /**
+     * Computes the distributions of the block in tree-major order, as {@link FlatForest} does.
+     */
+    @Override
+    public void distributions(double[][] values, int count, double[][] results) throws FOSException {
+        FlatForest.checkBlock(values, count, results, numAttributes, numClasses);
+
+        for (int row = 0; row < count; row++) {
+            Arrays.fill(results[row], 0);
+        }
+
+        for (int tree = 0; tree < roots.capacity(); tree++) {
+            for (int row = 0; row < count; row++) {
+                addTree(tree, values[row], results[row]);
+            }
+        }
+
+        for (int row = 0; row < count; row++) {
+            FlatForest.normalize(results[row]);
+        }
+    }
+
+    /* the methods below are the ones of FlatForest, reading the mapped buffers (absolute gets are thread safe) */
+
+    private void addTree(int tree, double[] values, double[] result) throws WekaClassifierException {
+        int offset = leaf(roots.get(tree), values);
+
+        if (offset >= 0) {
+            for (int idx = 0; idx < numClasses; idx++) {
+                result[idx] += distributions.get(offset + idx);
+            }
+        } else {
+            double[] treeDistribution = evaluate(roots.get(tree), values);
+            if (treeDistribution == null) {
+                throw new WekaClassifierException("Tree " + tree + " could not classify the instance");
+            }
+
+            for (int idx = 0; idx < numClasses; idx++) {
+                result[idx] += treeDistribution[idx];
+            }
+        }
+    }
+
+    private int leaf(int node, double[] values) {
+        int nodeAttribute;
+        while ((nodeAttribute = attribute.get(node)) >= 0) {
+            double value = values[nodeAttribute];
+            if (Double.isNaN(value)) {
+                return FlatForest.NO_DISTRIBUTION;
+            }
+
+            node = child(node, value);
+        }
+
+        return fallback.get(node);
+    }
+
+    private int child(int node, double value) {
+        int branch;
+        if (nominal.get(node) != 0) {
+            branch = (int) value;
+            if (branch < 0 || branch >= numChildren.get(node)) {
+                throw new ArrayIndexOutOfBoundsException(branch);
+            }
+        } else {
+            branch = value < splitPoint.get(node) ? 0 : 1;
+        }
+
+        return children.get(firstChild.get(node) + branch);
+    }
+
+    private double[] evaluate(int node, double[] values) {
+        double[] result = null;
+
+        if (attribute.get(node) >= 0) {
+            double value = values[attribute.get(node)];
+
+            if (Double.isNaN(value)) {
+                result = new double[numClasses];
+                for (int idx = 0; idx < numChildren.get(node); idx++) {
+                    double[] childDistribution = evaluate(children.get(firstChild.get(node) + idx), values);
+                    if (childDistribution == null) {
+                        continue;
+                    }
+
+                    double proportion = proportions.get(firstChild.get(node) + idx);
+                    for (int classIdx = 0; classIdx < numClasses; classIdx++) {
+                        result[classIdx] += proportion * childDistribution[classIdx];
+                    }
+                }
+            } else {
+                result = evaluate(child(node, value), values);
+            }
+        }
+
+        if (result == null && distribution.get(node) != FlatForest.NO_DISTRIBUTION) {
+            result = new double[numClasses];
+            for (int idx = 0; idx < numClasses; idx++) {
+                result[idx] = distributions.get(distribution.get(node) + idx);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The consecutive (8 byte aligned) arrays of a mapped forest file.
+     */
+    private static final class Sections {
+        private final FileChannel channel;
+        private long offset;
+
+        private Sections(FileChannel channel, long offset) {
+            this.channel = channel;
+            this.offset = offset;
+        }
+
+        /**
+         * Maps the next array of the file.
+         */
+        @NotNull
+        private ByteBuffer map(int length, int size) throws IOException, WekaClassifierException {
+            long bytes = bytes(length, size);
+            if (offset + bytes > channel.size()) {
+                throw new WekaClassifierException("Mapped forest is truncated");
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            offset = align(offset + bytes);
+
+            return buffer;
+        }
+
+        /**
+         * Allocates a buffer for the next array to write.
+         */
+        @NotNull
+        private ByteBuffer allocate(int length, int size) throws IOException {
+            try {
+                return ByteBuffer.allocate((int) bytes(length, size)).order(ByteOrder.LITTLE_ENDIAN);
+            } catch (WekaClassifierException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Writes the given (filled) buffer as the next array of the file.
+         */
+        private void write(ByteBuffer buffer) throws IOException {
+            long position = offset;
+            int bytes = buffer.position();
+
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            offset = align(offset + bytes);
+            if (channel.size() < offset) {
+                channel.write(ByteBuffer.allocate((int) (offset - channel.size())), channel.size());
+            }
+        }
+
+        private static long bytes(int length, int size) throws WekaClassifierException {
+            long bytes = (long) length * size;
+            if (length < 0 || bytes > Integer.MAX_VALUE) {
+                throw new WekaClassifierException(String.format("Cannot map an array of %s elements of %s bytes", length, size));
+            }
+
+            return bytes;
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A forest evaluated feature by feature with leaf bitvectors, as in QuickScorer (Lucchese et al., SIGIR 2015).
+ * <p/>
+ * Each tree keeps a bitvector with one bit per leaf (leaves numbered from left to right). Each split node has a mask
+ * that clears the leaves the instance cannot reach when the node test fails (the left subtree of a numeric node
+ * when <code>value >= splitPoint</code>, every subtree but the taken one of a nominal node). The numeric thresholds
+ * of each feature are sorted, so for every feature only the nodes whose test fails are visited, and the exit leaf of
+ * each tree is the lowest bit still set. Scoring takes time proportional to the number of failed tests instead of
+ * chasing pointers down every tree.
+ * <p/>
+ * The evaluation is exact: the exit leaf uses the same distribution as the {@link FlatForest} it was compiled from
+ * and the tree distributions are summed in the same order. Instances with missing split values (or nominal values
+ * the trees cannot follow) and trees with more than {@value #MAX_LEAVES} leaves are scored by the
+ * {@link FlatForest}.
+ *
+ * @since 1.0.11
+ */
+public class QuickScorerForest implements CompiledForest {
+    /**
+     * The maximum number of leaves of a tree scored with bitvectors.
+     */
+    public static final int MAX_LEAVES = Long.SIZE;
+
+    /**
+     * Orders conditions by attribute and then by threshold (or value).
+     */
+    private static final Comparator<Condition> BY_ATTRIBUTE_AND_VALUE = new Comparator<Condition>() {
+        @Override
+        public int compare(Condition first, Condition second) {
+            int result = Integer.compare(first.attribute, second.attribute);
+            return result != 0 ? result : Double.compare(first.value, second.value);
+        }
+    };
+
+    private final FlatForest flatForest;
+
+    private final int[] numericFeatures;
+    private final int[] numericStart;
+    private final double[] thresholds;
+    private final int[] thresholdTree;
+    private final long[] thresholdMask;
+
+    private final int[] nominalFeatures;
+    private final int[] nominalLimit;
+    private final int[] nominalValueStart;
+    private final int[] nominalStart;
+    private final int[] nominalTree;
+    private final long[] nominalMask;
+
+    private final boolean[] quickScored;
+    private final long[] initialBits;
+    private final int[] leafStart;
+    private final int[] leafDistribution;
+
+    private final ThreadLocal<long[]> bits = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[initialBits.length];
+        }
+    };
+
+    /**
+     * Compiles the given flat forest.
+     *
+     * @param flatForest the forest to compile
+     */
+    public QuickScorerForest(FlatForest flatForest) {
+        checkNotNull(flatForest, "Flat forest cannot be null");
+
+        this.flatForest = flatForest;
+
+        int numTrees = flatForest.numTrees();
+        int numAttributes = flatForest.numAttributes;
+        this.quickScored = new boolean[numTrees];
+        this.initialBits = new long[numTrees];
+        this.leafStart = new int[numTrees + 1];
+
+        List<Condition> numeric = new ArrayList<>();
+        List<Condition> nominal = new ArrayList<>();
+        List<Integer> leaves = new ArrayList<>();
+        int[] leafCount = new int[flatForest.numNodes()];
+        int[] firstLeaf = new int[flatForest.numNodes()];
+        this.nominalLimit = new int[numAttributes];
+        Arrays.fill(nominalLimit, Integer.MAX_VALUE);
+
+        for (int tree = 0; tree < numTrees; tree++) {
+            leafStart[tree] = leaves.size();
+
+            int root = flatForest.roots[tree];
+            if (countLeaves(root, 0, leafCount, firstLeaf) <= MAX_LEAVES) {
+                quickScored[tree] = true;
+                initialBits[tree] = leafCount[root] == MAX_LEAVES ? -1L : (1L << leafCount[root]) - 1;
+                addConditions(tree, root, leafCount, firstLeaf, numeric, nominal, leaves);
+            }
+        }
+        leafStart[numTrees] = leaves.size();
+
+        this.leafDistribution = new int[leaves.size()];
+        for (int idx = 0; idx < leaves.size(); idx++) {
+            leafDistribution[idx] = leaves.get(idx);
+        }
+
+        /* numeric conditions: grouped by feature and sorted by threshold */
+        Collections.sort(numeric, BY_ATTRIBUTE_AND_VALUE);
+        this.numericStart = new int[numAttributes + 1];
+        this.thresholds = new double[numeric.size()];
+        this.thresholdTree = new int[numeric.size()];
+        this.thresholdMask = new long[numeric.size()];
+        for (int idx = 0; idx < numeric.size(); idx++) {
+            Condition condition = numeric.get(idx);
+            thresholds[idx] = condition.value;
+            thresholdTree[idx] = condition.tree;
+            thresholdMask[idx] = condition.mask;
+            numericStart[condition.attribute + 1]++;
+        }
+        this.numericFeatures = cumulate(numericStart);
+
+        /* nominal conditions: grouped by feature and by value */
+        Collections.sort(nominal, BY_ATTRIBUTE_AND_VALUE);
+        this.nominalValueStart = new int[numAttributes + 1];
+        for (int attribute = 0; attribute < numAttributes; attribute++) {
+            int values = nominalLimit[attribute] == Integer.MAX_VALUE ? 0 : nominalLimit[attribute];
+            nominalValueStart[attribute + 1] = nominalValueStart[attribute] + values;
+        }
+        this.nominalStart = new int[nominalValueStart[numAttributes] + 1];
+        List<Condition> usable = new ArrayList<>(nominal.size());
+        for (Condition condition : nominal) {
+            /* values beyond the limit are never scored here (see distribution) */
+            if (condition.value < nominalLimit[condition.attribute]) {
+                usable.add(condition);
+                nominalStart[nominalValueStart[condition.attribute] + (int) condition.value + 1]++;
+            }
+        }
+        for (int idx = 0; idx < nominalStart.length - 1; idx++) {
+            nominalStart[idx + 1] += nominalStart[idx];
+        }
+        this.nominalTree = new int[usable.size()];
+        this.nominalMask = new long[usable.size()];
+        for (int idx = 0; idx < usable.size(); idx++) {
+            nominalTree[idx] = usable.get(idx).tree;
+            nominalMask[idx] = usable.get(idx).mask;
+        }
+
+        List<Integer> features = new ArrayList<>();
+        for (int attribute = 0; attribute < numAttributes; attribute++) {
+            if (nominalLimit[attribute] != Integer.MAX_VALUE) {
+                features.add(attribute);
+            }
+        }
+        this.nominalFeatures = new int[features.size()];
+        for (int idx = 0; idx < features.size(); idx++) {
+            nominalFeatures[idx] = features.get(idx);
+        }
+    }
+
+    /**
+     * Counts the leaves of each node of the given subtree (stops counting when the tree has too many leaves).
+     *
+     * @param node      the root of the subtree
+     * @param first     the index of the first leaf of the subtree
+     * @param leafCount where to store the number of leaves of each node
+     * @param firstLeaf where to store the index of the first leaf of each node
+     * @return the number of leaves of the subtree
+     */
+    private int countLeaves(int node, int first, int[] leafCount, int[] firstLeaf) {
+        firstLeaf[node] = first;
+
+        int count = 0;
+        if (flatForest.attribute[node] < 0) {
+            count = 1;
+        } else {
+            for (int branch = 0; branch < flatForest.numChildren[node] && first + count <= MAX_LEAVES; branch++) {
+                count += countLeaves(flatForest.children[flatForest.firstChild[node] + branch], first + count, leafCount, firstLeaf);
+            }
+        }
+
+        leafCount[node] = count;
+        return count;
+    }
+
+    /**
+     * Creates the conditions of the split nodes of the given subtree and collects the distributions of its leaves.
+     *
+     * @param tree      the index of the tree
+     * @param node      the root of the subtree
+     * @param leafCount the number of leaves of each node
+     * @param firstLeaf the index of the first leaf of each node
+     * @param numeric   where to add the conditions of numeric nodes
+     * @param nominal   where to add the conditions of nominal nodes
+     * @param leaves    where to add the distribution offsets of the leaves
+     */
+    private void addConditions(int tree, int node, int[] leafCount, int[] firstLeaf, List<Condition> numeric, List<Condition> nominal, List<Integer> leaves) {
+        if (flatForest.attribute[node] < 0) {
+            leaves.add(flatForest.fallback[node]);
+            return;
+        }
+
+        int attribute = flatForest.attribute[node];
+        long subtree = range(firstLeaf[node], leafCount[node]);
+        for (int branch = 0; branch < flatForest.numChildren[node]; branch++) {
+            int child = flatForest.children[flatForest.firstChild[node] + branch];
+
+            if (flatForest.nominal[node]) {
+                nominal.add(new Condition(tree, attribute, branch, ~subtree | range(firstLeaf[child], leafCount[child])));
+            } else if (branch == 0) {
+                /* a NaN split point sends every value right (value < NaN is false), as a -Infinity one does */
+                double threshold = Double.isNaN(flatForest.splitPoint[node]) ? Double.NEGATIVE_INFINITY : flatForest.splitPoint[node];
+                numeric.add(new Condition(tree, attribute, threshold, ~range(firstLeaf[child], leafCount[child])));
+            }
+        }
+        if (flatForest.nominal[node]) {
+            nominalLimit[attribute] = Math.min(nominalLimit[attribute], flatForest.numChildren[node]);
+        }
+
+        for (int branch = 0; branch < flatForest.numChildren[node]; branch++) {
+            addConditions(tree, flatForest.children[flatForest.firstChild[node] + branch], leafCount, firstLeaf, numeric, nominal, leaves);
+        }
+    }
+
+    /**
+     * Gets the bits of the given range of leaves.
+     *
+     * @param first the first leaf
+     * @param count the number of leaves
+     * @return a bitvector with the given leaves set
+     */
+    private static long range(int first, int count) {
+        long bits = count == MAX_LEAVES ? -1L : (1L << count) - 1;
+        return bits << first;
+    }
+
+    /**
+     * Turns the counts per attribute into offsets (in place).
+     *
+     * @param start the count of each attribute, shifted by one
+     * @return the attributes with at least one entry
+     */
+    private static int[] cumulate(int[] start) {
+        List<Integer> used = new ArrayList<>();
+        for (int idx = 0; idx < start.length - 1; idx++) {
+            if (start[idx + 1] > 0) {
+                used.add(idx);
+            }
+            start[idx + 1] += start[idx];
+        }
+
+        int[] result = new int[used.size()];
+        for (int idx = 0; idx < used.size(); idx++) {
+            result[idx] = used.get(idx);
+        }
+        return result;
+    }
+
+    @Override
+    public int numAttributes() {
+        return flatForest.numAttributes();
+    }
+
+    @Override
+    public int numClasses() {
+        return flatForest.numClasses();
+    }
+
+    /**
+     * Gets the number of trees scored with bitvectors (the others are scored by the {@link FlatForest}).
+     *
+     * @return the number of trees scored with bitvectors
+     */
+    public int numQuickScoredTrees() {
+        int result = 0;
+        for (boolean quick : quickScored) {
+            result += quick ? 1 : 0;
+        }
+        return result;
+    }
+
+    @Override
+    public double[] distribution(double[] values, double[] result) throws FOSException {
+        if (values.length != numAttributes() || result.length != numClasses()) {
+            throw new WekaClassifierException(String.format("Expected %s values and %s classes but got %s and %s", numAttributes(), numClasses(), values.length, result.length));
+        }
+
+        for (int attribute : numericFeatures) {
+            if (Double.isNaN(values[attribute])) {
+                return flatForest.distribution(values, result);
+            }
+        }
+        for (int attribute : nominalFeatures) {
+            double value = values[attribute];
+            if (Double.isNaN(value) || value < 0 || (int) value >= nominalLimit[attribute]) {
+                return flatForest.distribution(values, result);
+            }
+        }
+
+        long[] treeBits = bits.get();
+        System.arraycopy(initialBits, 0, treeBits, 0, treeBits.length);
+
+        for (int attribute : numericFeatures) {
+            double value = values[attribute];
+            for (int idx = numericStart[attribute]; idx < numericStart[attribute + 1] && value >= thresholds[idx]; idx++) {
+                treeBits[thresholdTree[idx]] &= thresholdMask[idx];
+            }
+        }
+        for (int attribute : nominalFeatures) {
+            int start = nominalValueStart[attribute] + (int) values[attribute];
+            for (int idx = nominalStart[start]; idx < nominalStart[start + 1]; idx++) {
+                treeBits[nominalTree[idx]] &= nominalMask[idx];
+            }
+        }
+
+        Arrays.fill(result, 0);
+        double[] distributions = flatForest.distributions;
+        int numClasses = result.length;
+        for (int tree = 0; tree < treeBits.length; tree++) {
+            if (!quickScored[tree]) {
+                flatForest.addTree(tree, values, result);
+                continue;
+            }
+
+            int offset = leafDistribution[leafStart[tree] + Long.numberOfTrailingZeros(treeBits[tree])];
+            if (offset < 0) {
+                throw new WekaClassifierException("Tree " + tree + " could not classify the instance");
+            }
+            for (int idx = 0; idx < numClasses; idx++) {
+                result[idx] += distributions[offset + idx];
+            }
+        }
+
+        return FlatForest.normalize(result);
+    }
+
+    /**
+     * Computes the distributions of the block one instance at a time: the bitvectors already visit the forest
+     * feature by feature and never walk the trees.
+     */
+    @Override
+    public void distributions(double[][] values, int count, double[][] results) throws FOSException {
+        FlatForest.checkBlock(values, count, results, numAttributes(), numClasses());
+
+        for (int row = 0; row < count; row++) {
+            distribution(values[row], results[row]);
+        }
+    }
+
+    /**
+     * The test of a split node on one of its branches.
+     */
+    private static final class Condition {
+        private final int tree;
+        private final int attribute;
+        private final double value;
+        private final long mask;
+
+        private Condition(int tree, int attribute, double value, long mask) {
+            this.tree = tree;
+            this.attribute = attribute;
+            this.value = value;
+            this.mask = mask;
+        }
+    }
+}
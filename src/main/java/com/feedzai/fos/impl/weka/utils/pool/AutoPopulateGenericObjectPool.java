@@ -25,8 +25,7 @@ import com.feedzai.fos.common.validation.Nullable;
 import org.apache.commons.pool.PoolableObjectFactory;
 import org.apache.commons.pool.impl.GenericObjectPool;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Extension of the @{GenericObjectPool} to auto populate based on the minIdle even if the monitor is not enabled.
@@ -34,7 +33,7 @@ import java.util.List;
  * @param <T> the type of elements in the pool
  * @author Marco Jorge (marco.jorge@feedzai.com)
  */
-public class AutoPopulateGenericObjectPool<T> extends GenericObjectPool<T> {
+public class AutoPopulateGenericObjectPool<T> extends GenericObjectPool<T> implements ResizableObjectPool<T> {
     private static final int DISABLED = -1;
 
     /**
@@ -46,22 +45,56 @@ public class AutoPopulateGenericObjectPool<T> extends GenericObjectPool<T> {
      */
     public AutoPopulateGenericObjectPool(PoolableObjectFactory<T> factory, @Nullable Config config) throws Exception {
         super(factory, config);
-        this.populate();
+        this.populate(config);
+    }
+
+    /**
+     * Borrows an object with the pool monitor held and, for the duration of the call, no room for new objects and a
+     * failing exhausted action: the {@link GenericObjectPool} settings are only read under its monitor, so other
+     * threads never see them, and the borrow either gets an idle object or fails without creating or waiting.
+     */
+    @Override
+    public synchronized T pollIdle() throws Exception {
+        if (getNumIdle() == 0) {
+            return null;
+        }
+
+        int maxActive = getMaxActive();
+        byte whenExhaustedAction = getWhenExhaustedAction();
+        setMaxActive(0);
+        setWhenExhaustedAction(WHEN_EXHAUSTED_FAIL);
+        try {
+            return borrowObject();
+        } catch (NoSuchElementException e) {
+            return null;
+        } finally {
+            setWhenExhaustedAction(whenExhaustedAction);
+            setMaxActive(maxActive);
+        }
     }
 
     /**
      * Populate the pool up to minIdle instances. Is limited to maxIdle and maxActive.
+     * <p/>
+     * The instances are created concurrently by up to {@link GenericObjectPoolConfig#populateThreads} threads
+     * (the number of processors if the configuration is not a {@link GenericObjectPoolConfig}).
      *
-     * @throws Exception when could not borrow or return objects to the pool
+     * @param config the configuration of the pool
+     * @throws Exception when could not create the objects of the pool
      */
-    private void populate() throws Exception {
-        List<T> initializer = new ArrayList<T>(this.getMinIdle());
-
-        for (int idx = 0; idx < this.getMinIdle() && (this.getMaxIdle() == DISABLED || idx < this.getMaxIdle()) && (this.getMaxActive() == DISABLED || idx < this.getMaxActive()); idx++) {
-            initializer.add(this.borrowObject());
+    private void populate(@Nullable Config config) throws Exception {
+        int count = this.getMinIdle();
+        if (this.getMaxIdle() != DISABLED) {
+            count = Math.min(count, this.getMaxIdle());
         }
-        for (int idx = 0; idx < this.getMinIdle() && (this.getMaxIdle() == DISABLED || idx < this.getMaxIdle()) && (this.getMaxActive() == DISABLED || idx < this.getMaxActive()); idx++) {
-            this.returnObject(initializer.get(idx));
+        if (this.getMaxActive() != DISABLED) {
+            count = Math.min(count, this.getMaxActive());
         }
+
+        int threads = config instanceof GenericObjectPoolConfig
+                ? ((GenericObjectPoolConfig) config).populateThreads
+                : Runtime.getRuntime().availableProcessors();
+
+        PoolPopulator.populate(this, count, threads);
     }
 }
@@ -26,6 +26,9 @@ import com.feedzai.fos.api.ModelDescriptor;
 import com.feedzai.fos.common.validation.NotNull;
 import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
 import com.feedzai.fos.impl.weka.utils.Cloner;
+import com.feedzai.fos.impl.weka.utils.DeepCopier;
+import com.feedzai.fos.impl.weka.utils.forest.FlatForestClassifier;
+import com.feedzai.fos.impl.weka.utils.forest.ForestCodec;
 import com.feedzai.fos.impl.weka.utils.pmml.PMMLConsumers;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.SerializationUtils;
@@ -42,6 +45,10 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * The Classifier Factory.
  * This factory is used to backup the {@link org.apache.commons.pool.ObjectPool} object life cycle.
+ * <p/>
+ * The model is read from disk (and PMML models converted) only once, on the first {@link #makeObject()}. That
+ * classifier is kept as the master and every object of the pool is a deep copy of it, made field by field with
+ * the {@link DeepCopier} or, when the classifier does not support it, by deserializing it from memory.
  *
  * @author Rafael Marmelo
  */
@@ -53,6 +60,17 @@ public class ClassifierFactory extends BasePoolableObjectFactory<Classifier> {
      */
     private ModelDescriptor modelDescriptor;
 
+    /**
+     * The classifier the objects are copied from (never handed out), null until the model is loaded or when the
+     * objects are deserialized from {@link #cloner}.
+     */
+    private volatile Classifier master;
+
+    /**
+     * The serialized classifier, when it cannot be copied field by field.
+     */
+    private volatile Cloner<Classifier> cloner;
+
 
     /**
      * Create a new classifier factory using the given cloner.
@@ -74,7 +92,7 @@ public class ClassifierFactory extends BasePoolableObjectFactory<Classifier> {
     /**
      * Make on object of the factory type.
      * <p>
-     * Reads the {@link Classifier} from file.
+     * Copies the {@link Classifier} read from file (the file is read on the first call).
      *
      * @return a new classifier instance
      * @throws WekaClassifierException when the object could not be read from file.
@@ -82,7 +100,76 @@ public class ClassifierFactory extends BasePoolableObjectFactory<Classifier> {
     @Override
     @NotNull
     public Classifier makeObject() throws WekaClassifierException {
-        logger.debug("Creating classifier");
+        if (master == null && cloner == null) {
+            loadMaster();
+        }
+
+        Classifier master = this.master;
+        if (master instanceof FlatForestClassifier) {
+            /* the decoded forest is immutable, so the copies share it */
+            return new FlatForestClassifier(((FlatForestClassifier) master).getForest());
+        }
+        if (master != null) {
+            try {
+                return DeepCopier.copy(master);
+            } catch (IllegalArgumentException e) {
+                useSerialization(master, e);
+            }
+        }
+
+        try {
+            return cloner.get();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new WekaClassifierException(e);
+        }
+    }
+
+    /**
+     * Reads the classifier from file.
+     *
+     * @throws WekaClassifierException when the object could not be read from file.
+     */
+    private synchronized void loadMaster() throws WekaClassifierException {
+        if (master != null || cloner != null) {
+            return;
+        }
+
+        this.master = load(modelDescriptor);
+    }
+
+    /**
+     * Switches to copying the classifier through serialization, after it failed to be copied field by field.
+     *
+     * @param classifier the master classifier
+     * @param cause      why the classifier cannot be copied field by field
+     * @throws WekaClassifierException when the classifier could not be serialized.
+     */
+    private synchronized void useSerialization(Classifier classifier, IllegalArgumentException cause) throws WekaClassifierException {
+        if (cloner != null) {
+            return;
+        }
+
+        logger.debug("Classifier {} will be copied through serialization ({})", classifier.getClass().getName(), cause.getMessage());
+        try {
+            this.cloner = new Cloner<>(classifier);
+        } catch (IOException e) {
+            throw new WekaClassifierException(e);
+        }
+        this.master = null;
+    }
+
+    /**
+     * Reads the {@link Classifier} of the given model from file.
+     * <p/>
+     * Binary files are either a serialized classifier or a forest encoded by the {@link ForestCodec}.
+     *
+     * @param modelDescriptor the {@link ModelDescriptor} representing the classifier
+     * @return the classifier read from file
+     * @throws WekaClassifierException when the object could not be read from file.
+     */
+    @NotNull
+    public static Classifier load(ModelDescriptor modelDescriptor) throws WekaClassifierException {
+        logger.debug("Loading classifier");
 
         File file = new File(modelDescriptor.getModelFilePath());
 
@@ -92,6 +179,16 @@ public class ClassifierFactory extends BasePoolableObjectFactory<Classifier> {
 
         switch (modelDescriptor.getFormat()) {
             case BINARY:
+                try {
+                    if (ForestCodec.isEncoded(file)) {
+                        Classifier classifier = ForestCodec.read(file);
+                        logger.debug("Loaded encoded forest {} in {} ms.", file.getPath(), (System.currentTimeMillis() - time));
+                        return classifier;
+                    }
+                } catch (IOException e) {
+                    throw new WekaClassifierException(e);
+                }
+
                 try (FileInputStream fileInputStream = new FileInputStream(file);
                      BufferedInputStream bufferedInputStream = new BufferedInputStream(fileInputStream, 1024 * 1024);
                      ObjectInputStream objectInputStream = new ObjectInputStream(bufferedInputStream)) {
@@ -0,0 +1,277 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Resizes a {@link ResizableObjectPool} from the way it is being used.
+ * <p/>
+ * The users of the pool report how long they waited for each object and how long they held it. Periodically (every
+ * {@link GenericObjectPoolConfig#elasticPeriodMillis}, in a background thread) the controller:
+ * <ul>
+ * <li>grows the pool when all its objects were in use and threads waited on average more than
+ * {@link GenericObjectPoolConfig#elasticWaitMicros} for one. The number of objects added is proportional to the
+ * ratio between the waiting and the holding times (about the number of threads that were waiting);</li>
+ * <li>releases the idle objects of the pool (down to the objects that were in use) when the heap in use after
+ * collection goes above {@link GenericObjectPoolConfig#elasticMemoryThreshold}.</li>
+ * </ul>
+ * The size of the pool always stays between <code>minIdle</code> (at least 1) and
+ * {@link GenericObjectPoolConfig#elasticMaxActive}. New objects are created in the background, so threads that score
+ * do not pay for them. Threads only wait for objects when the pool blocks when exhausted (the default).
+ *
+ * @param <T> the type of elements in the pool
+ * @since 1.0.11
+ */
+public class ElasticPoolController<T> {
+    private static final Logger logger = LoggerFactory.getLogger(ElasticPoolController.class);
+
+    /**
+     * The thread that resizes all the elastic pools.
+     */
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "elastic-pool-controller");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ResizableObjectPool<T> pool;
+    private final String name;
+    private final int minActive;
+    private final int maxActive;
+    private final long waitThresholdNanos;
+    private final double memoryThreshold;
+    private final int populateThreads;
+
+    private final AtomicInteger borrows = new AtomicInteger();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicInteger returns = new AtomicInteger();
+    private final AtomicLong holdNanos = new AtomicLong();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final AtomicInteger peakInUse = new AtomicInteger();
+
+    private ScheduledFuture<?> schedule;
+
+    /**
+     * Creates a new controller for the given pool (not started, see {@link #start(long)}).
+     * <p/>
+     * The maximum size of the pool is set to its configured <code>maxActive</code>, within the elastic bounds.
+     *
+     * @param pool   the pool to resize
+     * @param config the configuration of the pool
+     * @param name   the name of the pool (for logging)
+     */
+    public ElasticPoolController(ResizableObjectPool<T> pool, GenericObjectPoolConfig config, String name) {
+        checkNotNull(pool, "Pool cannot be null");
+        checkNotNull(config, "Pool configuration cannot be null");
+
+        this.pool = pool;
+        this.name = name;
+        this.minActive = Math.max(1, config.minIdle);
+        this.maxActive = Math.max(minActive, config.elasticMaxActive);
+        this.waitThresholdNanos = TimeUnit.MICROSECONDS.toNanos(config.elasticWaitMicros);
+        this.memoryThreshold = config.elasticMemoryThreshold;
+        this.populateThreads = config.populateThreads;
+
+        pool.setMaxActive(config.maxActive < 0 ? maxActive : Math.max(minActive, Math.min(maxActive, config.maxActive)));
+    }
+
+    /**
+     * Starts resizing the pool periodically.
+     *
+     * @param periodMillis the time between resizes
+     * @return this controller
+     */
+    public ElasticPoolController<T> start(long periodMillis) {
+        schedule = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    adjust();
+                } catch (Exception e) {
+                    logger.warn("Could not resize pool {}", name, e);
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+
+        return this;
+    }
+
+    /**
+     * Stops resizing the pool.
+     */
+    public void stop() {
+        if (schedule != null) {
+            schedule.cancel(false);
+        }
+    }
+
+    /**
+     * Records that an object was borrowed.
+     *
+     * @param waitNanos how long the borrower waited for the object
+     */
+    public void borrowed(long waitNanos) {
+        borrows.incrementAndGet();
+        this.waitNanos.addAndGet(waitNanos);
+
+        int current = inUse.incrementAndGet();
+        int peak = peakInUse.get();
+        while (current > peak && !peakInUse.compareAndSet(peak, current)) {
+            peak = peakInUse.get();
+        }
+    }
+
+    /**
+     * Records that an object was returned.
+     *
+     * @param holdNanos how long the object was borrowed
+     */
+    public void returned(long holdNanos) {
+        inUse.decrementAndGet();
+        returns.incrementAndGet();
+        this.holdNanos.addAndGet(holdNanos);
+    }
+
+    /**
+     * Resizes the pool from what was recorded since the last resize.
+     *
+     * @throws Exception when objects could not be created or destroyed
+     */
+    void adjust() throws Exception {
+        adjust(memoryPressure());
+    }
+
+    /**
+     * Resizes the pool from what was recorded since the last resize.
+     *
+     * @param memoryPressure true if the heap is above the memory threshold
+     * @throws Exception when objects could not be created or destroyed
+     */
+    void adjust(boolean memoryPressure) throws Exception {
+        int borrows = this.borrows.getAndSet(0);
+        long waitNanos = this.waitNanos.getAndSet(0);
+        int returns = this.returns.getAndSet(0);
+        long holdNanos = this.holdNanos.getAndSet(0);
+        int peakInUse = this.peakInUse.getAndSet(inUse.get());
+
+        int size = pool.getMaxActive();
+
+        if (memoryPressure) {
+            shrink(Math.max(minActive, peakInUse));
+            return;
+        }
+
+        if (borrows == 0 || size >= maxActive || peakInUse < size) {
+            return;
+        }
+
+        long averageWait = waitNanos / borrows;
+        if (averageWait <= waitThresholdNanos) {
+            return;
+        }
+
+        long averageHold = returns > 0 ? holdNanos / returns : 0;
+        long waiting = averageHold > 0 ? (size * averageWait + averageHold - 1) / averageHold : 1;
+
+        grow(Math.min(maxActive, size + (int) Math.max(1, Math.min(size, waiting))));
+    }
+
+    /**
+     * Creates objects until the pool has the given size.
+     */
+    private void grow(int target) throws Exception {
+        int count = target - (pool.getNumActive() + pool.getNumIdle());
+
+        /* otherwise the new objects beyond the maximum idle would be destroyed as soon as they are added or returned */
+        int maxIdle = pool.getMaxIdle();
+        if (maxIdle >= 0 && maxIdle < target) {
+            pool.setMaxIdle(target);
+        }
+
+        /* added before raising the limit, so that waiting threads get them instead of creating their own */
+        PoolPopulator.populate(pool, count, populateThreads);
+        pool.setMaxActive(target);
+
+        logger.debug("Pool {} grew to {} objects", name, target);
+    }
+
+    /**
+     * Destroys idle objects until the pool has the given size (or there are no idle objects).
+     */
+    private void shrink(int target) throws Exception {
+        if (target >= pool.getMaxActive() && pool.getNumActive() + pool.getNumIdle() <= target) {
+            return;
+        }
+
+        pool.setMaxActive(target);
+        while (pool.getNumActive() + pool.getNumIdle() > target) {
+            /* never borrows: the last idle object may be taken by a scorer meanwhile, and this thread must not wait */
+            T object = pool.pollIdle();
+            if (object == null) {
+                break;
+            }
+            pool.invalidateObject(object);
+        }
+
+        logger.debug("Pool {} shrank to {} objects (memory pressure)", name, target);
+    }
+
+    /**
+     * Checks if the heap in use after the last collection is above the memory threshold (falls back to the heap in
+     * use now if the JVM does not report it).
+     */
+    private boolean memoryPressure() {
+        double used = -1;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = memoryPool.getType() == MemoryType.HEAP ? memoryPool.getCollectionUsage() : null;
+            if (usage != null && usage.getMax() > 0) {
+                used = Math.max(used, (double) usage.getUsed() / usage.getMax());
+            }
+        }
+
+        if (used < 0) {
+            Runtime runtime = Runtime.getRuntime();
+            used = (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+        }
+
+        return used > memoryThreshold;
+    }
+}
@@ -28,6 +28,47 @@ import org.apache.commons.pool.impl.GenericObjectPool;
  * Required for BeanUtils.populate():
  */
 public class GenericObjectPoolConfig extends GenericObjectPool.Config {
+    /**
+     * Use a {@link StripedObjectPool} instead of a {@link GenericObjectPool}.
+     */
+    public boolean striped = false;
+
+    /**
+     * The number of slots of a {@link StripedObjectPool} (rounded up to a power of two).
+     */
+    public int stripes = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The number of threads that create the <code>minIdle</code> objects when the pool is created.
+     */
+    public int populateThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Let an {@link ElasticPoolController} resize the pool between <code>minIdle</code> and
+     * {@link #elasticMaxActive} (<code>maxActive</code> is the initial size).
+     */
+    public boolean elastic = false;
+
+    /**
+     * The maximum size of an elastic pool.
+     */
+    public int elasticMaxActive = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The average time (in microseconds) threads may wait for an object of an elastic pool before it grows.
+     */
+    public long elasticWaitMicros = 100;
+
+    /**
+     * The fraction of the heap in use (after collection) above which elastic pools release their idle objects.
+     */
+    public double elasticMemoryThreshold = 0.9;
+
+    /**
+     * How often (in milliseconds) elastic pools are resized.
+     */
+    public long elasticPeriodMillis = 1000;
+
     public void setMinIdle(int minIdle) {
         super.minIdle = minIdle;
     }
@@ -79,4 +120,36 @@ public class GenericObjectPoolConfig extends GenericObjectPool.Config {
     public void setWhenExhaustedAction(byte whenExhaustedAction) {
         super.whenExhaustedAction = whenExhaustedAction;
     }
+
+    public void setStriped(boolean striped) {
+        this.striped = striped;
+    }
+
+    public void setStripes(int stripes) {
+        this.stripes = stripes;
+    }
+
+    public void setPopulateThreads(int populateThreads) {
+        this.populateThreads = populateThreads;
+    }
+
+    public void setElastic(boolean elastic) {
+        this.elastic = elastic;
+    }
+
+    public void setElasticMaxActive(int elasticMaxActive) {
+        this.elasticMaxActive = elasticMaxActive;
+    }
+
+    public void setElasticWaitMicros(long elasticWaitMicros) {
+        this.elasticWaitMicros = elasticWaitMicros;
+    }
+
+    public void setElasticMemoryThreshold(double elasticMemoryThreshold) {
+        this.elasticMemoryThreshold = elasticMemoryThreshold;
+    }
+
+    public void setElasticPeriodMillis(long elasticPeriodMillis) {
+        this.elasticPeriodMillis = elasticPeriodMillis;
+    }
 }
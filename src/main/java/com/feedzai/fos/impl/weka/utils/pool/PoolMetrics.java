@@ -0,0 +1,213 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import com.google.common.base.Objects;
+import org.apache.commons.pool.PoolableObjectFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Records how the classifier pool of a model is used: how long threads wait for classifiers, how often the pool runs
+ * out of idle classifiers and how long new classifiers take to create.
+ * <p/>
+ * Only atomic counters are used (no lock of the pool is taken), so the pool sizes are derived from the borrowed,
+ * returned, created and destroyed objects seen by these metrics. Objects are only seen as created and destroyed if
+ * the pool uses the factory returned by {@link #timed(PoolableObjectFactory)}.
+ *
+ * @since 1.0.11
+ */
+public class PoolMetrics implements PoolMetricsMXBean {
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong exhaustions = new AtomicLong();
+    private final AtomicLong borrowFailures = new AtomicLong();
+    private final AtomicLong active = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong destroyed = new AtomicLong();
+    private final AtomicLong creationNanos = new AtomicLong();
+
+    /**
+     * Records that a thread is about to borrow an object.
+     */
+    public void borrowing() {
+        if (active.get() >= created.get() - destroyed.get()) {
+            exhaustions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a borrow.
+     *
+     * @param waitNanos how long the thread waited in <code>borrowObject</code>
+     * @param success   false if the borrow failed
+     */
+    public void borrowed(long waitNanos, boolean success) {
+        borrows.incrementAndGet();
+        borrowWaitNanos.addAndGet(waitNanos);
+
+        long max = maxBorrowWaitNanos.get();
+        while (waitNanos > max && !maxBorrowWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxBorrowWaitNanos.get();
+        }
+
+        if (success) {
+            active.incrementAndGet();
+        } else {
+            borrowFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a borrowed object was returned (or invalidated).
+     */
+    public void returned() {
+        active.decrementAndGet();
+    }
+
+    /**
+     * Wraps the given factory to record the objects it creates and destroys.
+     *
+     * @param factory the factory of the pool
+     * @param <T>     the type of elements in the pool
+     * @return a factory that delegates to the given one
+     */
+    public <T> PoolableObjectFactory<T> timed(final PoolableObjectFactory<T> factory) {
+        checkNotNull(factory, "Factory cannot be null");
+
+        return new PoolableObjectFactory<T>() {
+            @Override
+            public T makeObject() throws Exception {
+                long start = System.nanoTime();
+                T object = factory.makeObject();
+                creationNanos.addAndGet(System.nanoTime() - start);
+                created.incrementAndGet();
+                return object;
+            }
+
+            @Override
+            public void destroyObject(T object) throws Exception {
+                destroyed.incrementAndGet();
+                factory.destroyObject(object);
+            }
+
+            @Override
+            public boolean validateObject(T object) {
+                return factory.validateObject(object);
+            }
+
+            @Override
+            public void activateObject(T object) throws Exception {
+                factory.activateObject(object);
+            }
+
+            @Override
+            public void passivateObject(T object) throws Exception {
+                factory.passivateObject(object);
+            }
+        };
+    }
+
+    @Override
+    public long getBorrows() {
+        return borrows.get();
+    }
+
+    @Override
+    public double getAverageBorrowWaitMicros() {
+        long borrows = this.borrows.get();
+        return borrows == 0 ? 0 : micros(borrowWaitNanos.get()) / borrows;
+    }
+
+    @Override
+    public double getMaxBorrowWaitMicros() {
+        return micros(maxBorrowWaitNanos.get());
+    }
+
+    @Override
+    public long getExhaustions() {
+        return exhaustions.get();
+    }
+
+    @Override
+    public long getBorrowFailures() {
+        return borrowFailures.get();
+    }
+
+    @Override
+    public int getNumActive() {
+        return (int) Math.max(0, active.get());
+    }
+
+    @Override
+    public int getNumIdle() {
+        return (int) Math.max(0, created.get() - destroyed.get() - active.get());
+    }
+
+    @Override
+    public long getCreated() {
+        return created.get();
+    }
+
+    @Override
+    public long getDestroyed() {
+        return destroyed.get();
+    }
+
+    @Override
+    public double getAverageCreationMillis() {
+        long created = this.created.get();
+        return created == 0 ? 0 : (double) creationNanos.get() / TimeUnit.MILLISECONDS.toNanos(1) / created;
+    }
+
+    @Override
+    public void reset() {
+        borrows.set(0);
+        borrowWaitNanos.set(0);
+        maxBorrowWaitNanos.set(0);
+        exhaustions.set(0);
+        borrowFailures.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("borrows", getBorrows())
+                .add("averageBorrowWaitMicros", getAverageBorrowWaitMicros())
+                .add("maxBorrowWaitMicros", getMaxBorrowWaitMicros())
+                .add("exhaustions", getExhaustions())
+                .add("borrowFailures", getBorrowFailures())
+                .add("numActive", getNumActive())
+                .add("numIdle", getNumIdle())
+                .add("created", getCreated())
+                .add("averageCreationMillis", getAverageCreationMillis())
+                .toString();
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+/**
+ * The metrics of the classifier pool of a model, also published through JMX (see {@link PoolMetrics}).
+ *
+ * @since 1.0.11
+ */
+public interface PoolMetricsMXBean {
+
+    /**
+     * Gets the number of objects borrowed from the pool.
+     *
+     * @return the number of borrows (successful or not)
+     */
+    long getBorrows();
+
+    /**
+     * Gets the average time threads waited in <code>borrowObject</code>.
+     *
+     * @return the average wait in microseconds
+     */
+    double getAverageBorrowWaitMicros();
+
+    /**
+     * Gets the longest time a thread waited in <code>borrowObject</code>.
+     *
+     * @return the longest wait in microseconds
+     */
+    double getMaxBorrowWaitMicros();
+
+    /**
+     * Gets the number of borrows that found all the objects of the pool in use (and had to wait for one or create it).
+     *
+     * @return the number of exhaustion events
+     */
+    long getExhaustions();
+
+    /**
+     * Gets the number of borrows that failed (e.g. the pool was exhausted and does not block).
+     *
+     * @return the number of failed borrows
+     */
+    long getBorrowFailures();
+
+    /**
+     * Gets the number of objects currently borrowed.
+     *
+     * @return the number of active objects
+     */
+    int getNumActive();
+
+    /**
+     * Gets the number of objects currently idle in the pool.
+     *
+     * @return the number of idle objects
+     */
+    int getNumIdle();
+
+    /**
+     * Gets the number of objects created by the pool.
+     *
+     * @return the number of objects created
+     */
+    long getCreated();
+
+    /**
+     * Gets the number of objects destroyed by the pool.
+     *
+     * @return the number of objects destroyed
+     */
+    long getDestroyed();
+
+    /**
+     * Gets the average time it took to create an object.
+     *
+     * @return the average creation time in milliseconds
+     */
+    double getAverageCreationMillis();
+
+    /**
+     * Resets the borrow statistics (the object counts are kept).
+     */
+    void reset();
+}
@@ -0,0 +1,94 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import org.apache.commons.pool.ObjectPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fills object pools with {@link ObjectPool#addObject()} from several threads, so that pools of objects that are
+ * expensive to create (e.g. deserialized classifiers) are populated in about the time it takes to create one.
+ *
+ * @since 1.0.11
+ */
+final class PoolPopulator {
+
+    private PoolPopulator() {
+    }
+
+    /**
+     * Adds the given number of objects to the pool using at most <code>threads</code> loader threads.
+     * <p/>
+     * Returns only when all the objects were added (or failed to be created).
+     *
+     * @param pool    the pool to populate (its <code>addObject</code> must be thread safe)
+     * @param count   the number of objects to add
+     * @param threads the maximum number of objects created at the same time
+     * @throws Exception the first exception thrown while creating the objects
+     */
+    static void populate(final ObjectPool<?> pool, int count, int threads) throws Exception {
+        if (count <= 1 || threads <= 1) {
+            for (int idx = 0; idx < count; idx++) {
+                pool.addObject();
+            }
+            return;
+        }
+
+        ExecutorService loaders = Executors.newFixedThreadPool(Math.min(count, threads));
+        try {
+            List<Future<Void>> futures = new ArrayList<>(count);
+            for (int idx = 0; idx < count; idx++) {
+                futures.add(loaders.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        pool.addObject();
+                        return null;
+                    }
+                }));
+            }
+
+            Exception failure = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            loaders.shutdown();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import com.feedzai.fos.common.validation.Nullable;
+import org.apache.commons.pool.ObjectPool;
+
+/**
+ * An {@link ObjectPool} whose maximum number of objects can be changed while it is in use (see
+ * {@link ElasticPoolController}).
+ *
+ * @param <T> the type of elements in the pool
+ * @since 1.0.11
+ */
+public interface ResizableObjectPool<T> extends ObjectPool<T> {
+
+    /**
+     * Gets the maximum number of objects (borrowed or idle) the pool creates.
+     *
+     * @return the maximum number of objects, negative if unbounded
+     */
+    int getMaxActive();
+
+    /**
+     * Sets the maximum number of objects (borrowed or idle) the pool creates.
+     * <p/>
+     * Lowering it does not destroy existing objects.
+     *
+     * @param maxActive the maximum number of objects, negative if unbounded
+     */
+    void setMaxActive(int maxActive);
+
+    /**
+     * Gets the maximum number of idle objects the pool keeps (objects returned or added beyond it are destroyed).
+     *
+     * @return the maximum number of idle objects, negative if unbounded
+     */
+    int getMaxIdle();
+
+    /**
+     * Sets the maximum number of idle objects the pool keeps.
+     *
+     * @param maxIdle the maximum number of idle objects, negative if unbounded
+     */
+    void setMaxIdle(int maxIdle);
+
+    /**
+     * Takes an idle object out of the pool, if there is one, without ever creating an object or waiting for one to be
+     * returned.
+     * <p/>
+     * The object must be returned or invalidated like a borrowed one.
+     *
+     * @return the idle object or null if there is none
+     * @throws Exception when the object could not be activated
+     */
+    @Nullable
+    T pollIdle() throws Exception;
+}
@@ -0,0 +1,179 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import com.feedzai.fos.api.ModelDescriptor;
+import com.feedzai.fos.common.validation.NotNull;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import com.feedzai.fos.impl.weka.utils.ThreadSafeClassifiers;
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import weka.classifiers.Classifier;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Classifier factory that loads the model once and makes copies that share its read-only structure.
+ * <p/>
+ * The classifier is serialized once into a template where every object whose class is registered in
+ * {@link ThreadSafeClassifiers} (e.g. the {@link weka.classifiers.trees.RandomForest} inside a
+ * {@link weka.classifiers.meta.FilteredClassifier}) is replaced by a reference to the loaded instance. Each new
+ * object is deserialized from that template, so it gets its own copy of the mutable parts (filters, buffers, ...)
+ * while the trees are held only once, no matter how many copies the pool keeps.
+ *
+ * @since 1.0.11
+ */
+public class SharedStructureClassifierFactory extends BasePoolableObjectFactory<Classifier> {
+    private static final Logger logger = LoggerFactory.getLogger(SharedStructureClassifierFactory.class);
+
+    /**
+     * The shared objects, indexed by {@link SharedReference#index}.
+     */
+    private final Object[] shared;
+
+    /**
+     * The serialized classifier (without the shared objects).
+     */
+    private final byte[] template;
+
+    /**
+     * Creates a new factory for the classifier of the given model (read only once).
+     *
+     * @param modelDescriptor the {@link ModelDescriptor} representing the classifier
+     * @throws WekaClassifierException when the classifier could not be read
+     */
+    public SharedStructureClassifierFactory(ModelDescriptor modelDescriptor) throws WekaClassifierException {
+        this(ClassifierFactory.load(modelDescriptor));
+    }
+
+    /**
+     * Creates a new factory that makes copies of the given classifier.
+     *
+     * @param classifier the classifier to copy (its registered thread safe parts are shared, not copied)
+     * @throws WekaClassifierException when the classifier could not be serialized
+     */
+    public SharedStructureClassifierFactory(Classifier classifier) throws WekaClassifierException {
+        checkNotNull(classifier, "Classifier cannot be null");
+
+        List<Object> shared = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new SharingOutputStream(bytes, classifier, shared)) {
+            output.writeObject(classifier);
+        } catch (IOException e) {
+            throw new WekaClassifierException(e);
+        }
+
+        this.shared = shared.toArray();
+        this.template = bytes.toByteArray();
+
+        logger.debug("Sharing {} objects of classifier {} between copies ({} bytes per copy)", this.shared.length, classifier.getClass().getName(), template.length);
+    }
+
+    /**
+     * Makes a new copy of the classifier.
+     *
+     * @return a new classifier that shares the read-only structure with the other copies
+     * @throws WekaClassifierException when the copy could not be deserialized
+     */
+    @Override
+    @NotNull
+    public Classifier makeObject() throws WekaClassifierException {
+        try (ObjectInputStream input = new SharedInputStream(new ByteArrayInputStream(template), shared)) {
+            return (Classifier) input.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new WekaClassifierException(e);
+        }
+    }
+
+    /**
+     * Placeholder written to the template instead of a shared object.
+     */
+    private static final class SharedReference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int index;
+
+        private SharedReference(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Writes the classifier replacing the thread safe objects (except the classifier itself) by references.
+     */
+    private static final class SharingOutputStream extends ObjectOutputStream {
+        private final Object root;
+        private final List<Object> shared;
+
+        private SharingOutputStream(OutputStream output, Object root, List<Object> shared) throws IOException {
+            super(output);
+            this.root = root;
+            this.shared = shared;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object object) throws IOException {
+            /* objects already written are referenced by the stream itself, so each one is only seen once */
+            if (object != root && object != null && ThreadSafeClassifiers.isThreadSafe(object.getClass())) {
+                shared.add(object);
+                return new SharedReference(shared.size() - 1);
+            }
+
+            return object;
+        }
+    }
+
+    /**
+     * Reads a copy of the classifier resolving the references to the shared objects.
+     */
+    private static final class SharedInputStream extends ObjectInputStream {
+        private final Object[] shared;
+
+        private SharedInputStream(InputStream input, Object[] shared) throws IOException {
+            super(input);
+            this.shared = shared;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object object) throws IOException {
+            if (object instanceof SharedReference) {
+                return shared[((SharedReference) object).index];
+            }
+
+            return object;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import org.apache.commons.pool.BaseObjectPool;
+import org.apache.commons.pool.PoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Object pool without a global lock, for objects that are borrowed and returned at a very high rate (e.g. the
+ * classifiers of the scorers).
+ * <p/>
+ * Idle objects are kept in an array of slots and each thread has a home slot (derived from its id). A thread first
+ * tries its home slot, so the same thread usually gets back the object it returned, with a single compare-and-set on
+ * a slot that no other thread touches. When the home slot is empty (or full on return), a lock free queue is used as
+ * fallback, and borrowing then tries the slots of the other threads before creating a new object.
+ * <p/>
+ * The pool honors the <code>minIdle</code> (created upfront), <code>maxActive</code>, <code>maxWait</code> and
+ * <code>whenExhaustedAction</code> settings of the given {@link GenericObjectPoolConfig}; <code>maxIdle</code>,
+ * eviction and validation settings are ignored (all the idle objects are kept).
+ *
+ * @param <T> the type of elements in the pool
+ * @since 1.0.11
+ */
+public class StripedObjectPool<T> extends BaseObjectPool<T> implements ResizableObjectPool<T> {
+    private static final Logger logger = LoggerFactory.getLogger(StripedObjectPool.class);
+
+    /**
+     * How long to wait before looking for returned objects again when the pool is exhausted.
+     */
+    private static final long EXHAUSTED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final PoolableObjectFactory<T> factory;
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    private final ConcurrentLinkedQueue<T> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger created = new AtomicInteger();
+    private volatile int maxActive;
+    private final long maxWait;
+    private final byte whenExhaustedAction;
+
+    /**
+     * Creates a new pool with the given factory and configuration.
+     *
+     * @param factory the factory that produces the elements of the pool
+     * @param config  the configuration of the pool
+     * @throws Exception when the <code>minIdle</code> objects could not be created
+     */
+    public StripedObjectPool(PoolableObjectFactory<T> factory, GenericObjectPoolConfig config) throws Exception {
+        checkNotNull(factory, "Factory cannot be null");
+        checkNotNull(config, "Pool configuration cannot be null");
+
+        this.factory = factory;
+        this.maxActive = config.maxActive;
+        this.maxWait = config.maxWait;
+        this.whenExhaustedAction = config.whenExhaustedAction;
+
+        int stripes = Integer.highestOneBit(Math.max(1, config.stripes));
+        this.slots = new AtomicReferenceArray<>(stripes < config.stripes ? stripes << 1 : stripes);
+        this.mask = slots.length() - 1;
+
+        PoolPopulator.populate(this, maxActive < 0 ? config.minIdle : Math.min(config.minIdle, maxActive), config.populateThreads);
+    }
+
+    @Override
+    public T borrowObject() throws Exception {
+        assertOpen();
+
+        T object = poll(home());
+        if (object == null) {
+            object = create();
+        }
+
+        factory.activateObject(object);
+        return object;
+    }
+
+    @Override
+    public T pollIdle() throws Exception {
+        assertOpen();
+
+        T object = poll(home());
+        if (object != null) {
+            factory.activateObject(object);
+        }
+        return object;
+    }
+
+    @Override
+    public void returnObject(T object) throws Exception {
+        if (isClosed()) {
+            destroy(object);
+            return;
+        }
+
+        factory.passivateObject(object);
+        offer(object);
+    }
+
+    @Override
+    public void invalidateObject(T object) throws Exception {
+        destroy(object);
+    }
+
+    @Override
+    public void addObject() throws Exception {
+        assertOpen();
+
+        created.incrementAndGet();
+        try {
+            offer(factory.makeObject());
+        } catch (Exception e) {
+            created.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    @Override
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    /**
+     * @return always -1, all the idle objects are kept
+     */
+    @Override
+    public int getMaxIdle() {
+        return -1;
+    }
+
+    /**
+     * Ignored, all the idle objects are kept.
+     */
+    @Override
+    public void setMaxIdle(int maxIdle) {
+    }
+
+    @Override
+    public int getNumIdle() {
+        int idle = overflow.size();
+        for (int idx = 0; idx < slots.length(); idx++) {
+            idle += slots.get(idx) != null ? 1 : 0;
+        }
+        return idle;
+    }
+
+    @Override
+    public int getNumActive() {
+        return Math.max(0, created.get() - getNumIdle());
+    }
+
+    @Override
+    public void clear() throws Exception {
+        for (int idx = 0; idx < slots.length(); idx++) {
+            T object = slots.getAndSet(idx, null);
+            if (object != null) {
+                destroy(object);
+            }
+        }
+
+        T object;
+        while ((object = overflow.poll()) != null) {
+            destroy(object);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        super.close();
+        clear();
+    }
+
+    /**
+     * Gets the home slot of the current thread.
+     *
+     * @return the index of the slot
+     */
+    private int home() {
+        return (int) Thread.currentThread().getId() & mask;
+    }
+
+    /**
+     * Takes an idle object, preferring the given slot.
+     *
+     * @param home the home slot of the borrowing thread
+     * @return the idle object or null if there is none
+     */
+    private T poll(int home) {
+        T object = take(home);
+        if (object != null) {
+            return object;
+        }
+
+        object = overflow.poll();
+        if (object != null) {
+            return object;
+        }
+
+        for (int idx = 1; idx < slots.length(); idx++) {
+            object = take((home + idx) & mask);
+            if (object != null) {
+                return object;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Takes the object of the given slot, without writing to the slot when it is empty.
+     *
+     * @param slot the index of the slot
+     * @return the object of the slot or null if the slot was empty
+     */
+    private T take(int slot) {
+        T object = slots.get(slot);
+        return object != null && slots.compareAndSet(slot, object, null) ? object : null;
+    }
+
+    /**
+     * Puts the given idle object back in the home slot of the current thread (or in the fallback queue if the slot is taken).
+     *
+     * @param object the idle object
+     */
+    private void offer(T object) {
+        int home = home();
+        if (slots.get(home) != null || !slots.compareAndSet(home, null, object)) {
+            overflow.offer(object);
+        }
+    }
+
+    /**
+     * Creates a new object when there are no idle ones, or waits for one to be returned if the pool is exhausted.
+     *
+     * @return the new (or returned) object
+     * @throws Exception when the object could not be created or the pool is exhausted
+     */
+    private T create() throws Exception {
+        long deadline = maxWait > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait) : Long.MAX_VALUE;
+
+        while (true) {
+            int count = created.get();
+            if (maxActive < 0 || count < maxActive || whenExhaustedAction == GenericObjectPool.WHEN_EXHAUSTED_GROW) {
+                if (created.compareAndSet(count, count + 1)) {
+                    try {
+                        return factory.makeObject();
+                    } catch (Exception e) {
+                        created.decrementAndGet();
+                        throw e;
+                    }
+                }
+                continue;
+            }
+
+            if (whenExhaustedAction == GenericObjectPool.WHEN_EXHAUSTED_FAIL) {
+                throw new NoSuchElementException("Pool exhausted");
+            }
+
+            LockSupport.parkNanos(EXHAUSTED_PARK_NANOS);
+            assertOpen();
+
+            T object = poll(home());
+            if (object != null) {
+                return object;
+            }
+
+            if (System.nanoTime() > deadline) {
+                throw new NoSuchElementException("Timeout waiting for idle object");
+            }
+        }
+    }
+
+    /**
+     * Destroys an object that leaves the pool.
+     *
+     * @param object the object to destroy
+     */
+    private void destroy(T object) {
+        created.decrementAndGet();
+        try {
+            factory.destroyObject(object);
+        } catch (Exception e) {
+            logger.warn("Could not destroy pooled object", e);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.setter;
+
+import com.feedzai.fos.api.FOSException;
+import weka.core.Attribute;
+import weka.core.Instance;
+
+/**
+ * Base {@link InstanceSetter} for setters that are compiled once per attribute and convert the scorable values
+ * straight into the weka <code>double</code> representation (no intermediate <code>String</code>).
+ *
+ * @since 1.0.11
+ */
+public abstract class AbstractInstanceSetter implements InstanceSetter {
+
+    /**
+     * Converts the given value into the weka representation of the attribute handled by this setter.
+     *
+     * @param value the value to convert (cannot be null)
+     * @return the weka value (a missing value is represented by {@link weka.core.Instance#missingValue()})
+     * @throws FOSException when the value could not be converted
+     */
+    public abstract double convert(Object value) throws FOSException;
+
+    @Override
+    public void set(Instance instance, Attribute attribute, Object value) throws FOSException {
+        instance.setValue(attribute, convert(value));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.setter;
+
+import com.feedzai.fos.api.CategoricalAttribute;
+import com.feedzai.fos.api.FOSException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Setter for categorical (nominal) attributes.
+ * <p/>
+ * The index of each categorical value is computed once, so <code>String</code> and {@link Boolean} values are
+ * resolved with a single lookup. Values that are not in the table (missing markers, unknown categories or other
+ * types) are handed over to the attribute's own parsing, as before.
+ *
+ * @since 1.0.11
+ */
+public class CategoricalInstanceSetter extends AbstractInstanceSetter {
+    private final CategoricalAttribute attribute;
+    private final Map<String, Double> indexes;
+    private final Double trueIndex;
+    private final Double falseIndex;
+
+    /**
+     * Creates a new setter for the given attribute.
+     *
+     * @param attribute the categorical attribute
+     */
+    public CategoricalInstanceSetter(CategoricalAttribute attribute) {
+        checkNotNull(attribute, "Attribute cannot be null");
+        checkNotNull(attribute.getCategoricalInstances(), "Categorical instances cannot be null");
+
+        this.attribute = attribute;
+
+        List<String> instances = attribute.getCategoricalInstances();
+        this.indexes = new HashMap<>(instances.size() * 2);
+        for (int idx = 0; idx < instances.size(); idx++) {
+            if (!indexes.containsKey(instances.get(idx))) {
+                indexes.put(instances.get(idx), (double) idx);
+            }
+        }
+
+        this.trueIndex = indexes.get(Boolean.TRUE.toString());
+        this.falseIndex = indexes.get(Boolean.FALSE.toString());
+    }
+
+    @Override
+    public double convert(Object value) throws FOSException {
+        Double index = null;
+
+        if (value instanceof String) {
+            index = indexes.get(value);
+        } else if (value instanceof Boolean) {
+            index = (Boolean) value ? trueIndex : falseIndex;
+        }
+
+        if (index != null) {
+            return index;
+        }
+
+        return attribute.parseOrMissing(value.toString());
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.setter;
+
+import com.feedzai.fos.api.Attribute;
+import com.feedzai.fos.api.FOSException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Setter for numeric attributes.
+ * <p/>
+ * {@link Number} values are read directly through {@link Number#doubleValue()}. Any other value (e.g. the
+ * <code>String</code> fields read from a CSV file) keeps being parsed by the attribute itself.
+ *
+ * @since 1.0.11
+ */
+public class NumericInstanceSetter extends AbstractInstanceSetter {
+    private final Attribute attribute;
+
+    /**
+     * Creates a new setter for the given attribute.
+     *
+     * @param attribute the numeric attribute
+     */
+    public NumericInstanceSetter(Attribute attribute) {
+        checkNotNull(attribute, "Attribute cannot be null");
+
+        this.attribute = attribute;
+    }
+
+    @Override
+    public double convert(Object value) throws FOSException {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+
+        return attribute.parseOrMissing(value.toString());
+    }
+}
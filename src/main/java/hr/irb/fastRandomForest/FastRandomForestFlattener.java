@@ -0,0 +1,106 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package hr.irb.fastRandomForest;
+
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import com.feedzai.fos.impl.weka.utils.forest.FlatForest;
+import weka.classifiers.Classifier;
+import weka.classifiers.RandomForestUtils;
+import weka.core.Instances;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiles a {@link hr.irb.fastRandomForest.FastRandomForest} into a {@link FlatForest}.
+ * <p/>
+ * Lives in the fast random forest package to have access to the trees of the forest (as
+ * {@link FastRandomForestPMMLProducer}).
+ * <p/>
+ * Unlike weka's <code>RandomTree</code>, a {@link FastRandomTree} returns the class probabilities of the leaf as is
+ * and never falls back to the distribution of an inner node, so only leaves get a distribution.
+ *
+ * @since 1.0.11
+ */
+public final class FastRandomForestFlattener {
+
+    private FastRandomForestFlattener() {
+    }
+
+    /**
+     * Flattens the given forest.
+     *
+     * @param fastRandomForest the forest to flatten (already built)
+     * @return a {@link FlatForest} that produces the same distributions as the given forest
+     * @throws WekaClassifierException when the forest cannot be flattened (not built, numeric class or replaced by ZeroR)
+     */
+    public static FlatForest flatten(FastRandomForest fastRandomForest) throws WekaClassifierException {
+        checkNotNull(fastRandomForest, "Fast random forest cannot be null");
+
+        if (fastRandomForest.m_bagger == null || fastRandomForest.m_ZeroR != null) {
+            throw new WekaClassifierException("Fast random forest was not built yet (or was replaced by ZeroR)");
+        }
+
+        Instances info = fastRandomForest.m_Info;
+        if (info == null || info.classIndex() < 0 || !info.classAttribute().isNominal()) {
+            throw new WekaClassifierException("Only fast random forests with a nominal class can be flattened");
+        }
+
+        Classifier[] trees = RandomForestUtils.getBaggingClassifiers(fastRandomForest.m_bagger);
+        if (trees == null || trees.length == 0) {
+            throw new WekaClassifierException("Fast random forest has no trees");
+        }
+
+        FlatForest.Builder builder = new FlatForest.Builder(info.numAttributes(), info.numClasses());
+        for (Classifier tree : trees) {
+            builder.addTree();
+            addNode(builder, info, (FastRandomTree) tree);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Adds the given node (and its subtree) to the builder.
+     *
+     * @param builder the builder of the flat forest
+     * @param info    the header of the data the forest was trained with
+     * @param node    the node to add
+     * @return the index of the node in the flat forest
+     * @throws WekaClassifierException when the node cannot be flattened
+     */
+    private static int addNode(FlatForest.Builder builder, Instances info, FastRandomTree node) throws WekaClassifierException {
+        if (node.m_Attribute == -1) {
+            return builder.addLeaf(node.m_ClassProbs);
+        }
+
+        if (node.m_Successors == null || node.m_Prop == null || node.m_Prop.length != node.m_Successors.length) {
+            throw new WekaClassifierException("Split node without successors or proportions");
+        }
+
+        int index = builder.addSplit(node.m_Attribute, info.attribute(node.m_Attribute).isNominal(), node.m_SplitPoint, node.m_Prop, null);
+        for (int branch = 0; branch < node.m_Successors.length; branch++) {
+            builder.setChild(index, branch, addNode(builder, info, node.m_Successors[branch]));
+        }
+
+        return index;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package weka.classifiers.trees;
+
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import com.feedzai.fos.impl.weka.utils.forest.FlatForest;
+import weka.classifiers.Classifier;
+import weka.classifiers.RandomForestUtils;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Compiles a {@link weka.classifiers.trees.RandomForest} into a {@link FlatForest}.
+ * <p/>
+ * Lives in the weka package to have access to the trees of the forest (as {@link RandomForestPMMLProducer}).
+ *
+ * @since 1.0.11
+ */
+public final class RandomForestFlattener {
+
+    private RandomForestFlattener() {
+    }
+
+    /**
+     * Flattens the given forest.
+     *
+     * @param randomForest the forest to flatten (already built)
+     * @return a {@link FlatForest} that produces the same distributions as the given forest
+     * @throws WekaClassifierException when the forest cannot be flattened (not built, numeric class, trees replaced
+     *                                 by ZeroR or distributions that weka would fail to normalize)
+     */
+    public static FlatForest flatten(RandomForest randomForest) throws WekaClassifierException {
+        checkNotNull(randomForest, "Random forest cannot be null");
+
+        if (randomForest.m_bagger == null) {
+            throw new WekaClassifierException("Random forest was not built yet");
+        }
+
+        Classifier[] trees = RandomForestUtils.getBaggingClassifiers(randomForest.m_bagger);
+        if (trees == null || trees.length == 0) {
+            throw new WekaClassifierException("Random forest has no trees");
+        }
+
+        Instances info = ((RandomTree) trees[0]).m_Info;
+        if (info == null || info.classIndex() < 0 || !info.classAttribute().isNominal()) {
+            throw new WekaClassifierException("Only random forests with a nominal class can be flattened");
+        }
+
+        FlatForest.Builder builder = new FlatForest.Builder(info.numAttributes(), info.numClasses());
+        for (Classifier classifier : trees) {
+            RandomTree tree = (RandomTree) classifier;
+            if (tree.m_zeroR != null || tree.m_Tree == null) {
+                throw new WekaClassifierException("Random forest has trees that were not built");
+            }
+
+            builder.addTree();
+            addNode(builder, tree, tree.m_Tree);
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Adds the given node (and its subtree) to the builder.
+     *
+     * @param builder the builder of the flat forest
+     * @param tree    the tree the node belongs to
+     * @param node    the node to add
+     * @return the index of the node in the flat forest
+     * @throws WekaClassifierException when the node cannot be flattened
+     */
+    private static int addNode(FlatForest.Builder builder, RandomTree tree, RandomTree.Tree node) throws WekaClassifierException {
+        double[] distribution = distribution(tree, node);
+
+        if (node.m_Attribute == -1) {
+            return builder.addLeaf(distribution);
+        }
+
+        if (node.m_Successors == null || node.m_Prop == null || node.m_Prop.length != node.m_Successors.length) {
+            throw new WekaClassifierException("Split node without successors or proportions");
+        }
+
+        int index = builder.addSplit(node.m_Attribute, tree.m_Info.attribute(node.m_Attribute).isNominal(), node.m_SplitPoint, node.m_Prop, distribution);
+        for (int branch = 0; branch < node.m_Successors.length; branch++) {
+            builder.setChild(index, branch, addNode(builder, tree, node.m_Successors[branch]));
+        }
+
+        return index;
+    }
+
+    /**
+     * Computes the distribution that weka returns when the instance stops at the given node.
+     *
+     * @param tree the tree the node belongs to
+     * @param node the node
+     * @return the normalized distribution of the node or <code>null</code> if the node cannot classify instances
+     * @throws WekaClassifierException when the distribution of the node cannot be normalized
+     */
+    private static double[] distribution(RandomTree tree, RandomTree.Tree node) throws WekaClassifierException {
+        if (node.m_ClassDistribution == null) {
+            return tree.getAllowUnclassifiedInstances() ? new double[tree.m_Info.numClasses()] : null;
+        }
+
+        double[] distribution = node.m_ClassDistribution.clone();
+        try {
+            Utils.normalize(distribution);
+        } catch (IllegalArgumentException e) {
+            throw new WekaClassifierException("Node distribution cannot be normalized", e);
+        }
+
+        return distribution;
+    }
+}
@@ -26,20 +26,31 @@ import com.feedzai.fos.api.config.FosConfig;
 import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
 import com.feedzai.fos.impl.weka.config.WekaModelConfig;
 import com.feedzai.fos.impl.weka.utils.Cloner;
+import com.feedzai.fos.impl.weka.utils.ModelJournal;
 import com.feedzai.fos.impl.weka.utils.pool.GenericObjectPoolConfig;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
 import junit.framework.Assert;
 import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.powermock.reflect.Whitebox;
 import weka.classifiers.Classifier;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
 
 import static junit.framework.Assert.*;
 
@@ -139,6 +150,20 @@ public class WekaManagerTest {
         Assert.assertEquals(1, wekaManager.listModels().size());
     }
 
+    @Test
+    public void removeModelDeletesMappedForestTest() throws FOSException, IOException {
+        ModelDescriptor descriptor = new ModelDescriptor(ModelDescriptor.Format.BINARY, "target/test-classes/models/test.model");
+        UUID id = wekaManager.addModel(modelConfig, new ModelBinary(new Cloner<Classifier>(descriptor).getSerialized()));
+
+        File model = new File(wekaManager.listModels().get(id).getProperties().get(WekaModelConfig.MODEL_FILE));
+        File mappedForest = new File(model.getPath() + ".forest");
+        FileUtils.writeByteArrayToFile(mappedForest, new byte[]{1, 2, 3});
+
+        wekaManager.removeModel(id);
+        Assert.assertFalse(model.exists());
+        Assert.assertFalse(mappedForest.exists());
+    }
+
     @Test
     public void reconfigureModelByModelTest() throws FOSException, IOException {
         ModelDescriptor descriptor = new ModelDescriptor(ModelDescriptor.Format.BINARY, "target/test-classes/models/test.model");
@@ -149,6 +174,79 @@ public class WekaManagerTest {
         Assert.assertEquals(modelConfig.getAttributes(), wekaManager.listModels().get(id).getAttributes());
     }
 
+    @Test
+    public void modelChangesOnlyWaitForTheSameModelTest() throws Exception {
+        final ModelDescriptor descriptor = new ModelDescriptor(ModelDescriptor.Format.BINARY, "target/test-classes/models/test.model");
+        final UUID id = wekaManager.addModel(new Cloner<>(wekaManager.listModels().get(testUID)).get(), descriptor);
+
+        // simulates a change of the model that is still in progress
+        Striped<Lock> modelLocks = Whitebox.getInternalState(wekaManager, "modelLocks");
+        Lock modelLock = modelLocks.get(id);
+        modelLock.lock();
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> reconfigure = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    wekaManager.reconfigureModel(id, modelConfig, descriptor);
+                    return null;
+                }
+            });
+
+            try {
+                reconfigure.get(200, TimeUnit.MILLISECONDS);
+                fail("The change should wait for the change in progress");
+            } catch (TimeoutException e) {
+                // expected
+            }
+
+            // other models and the registry are not blocked meanwhile
+            wekaManager.addModel(setupModelConfig(), descriptor);
+            Assert.assertEquals(3, wekaManager.listModels().size());
+
+            modelLock.unlock();
+            reconfigure.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(modelConfig.getAttributes(), wekaManager.listModels().get(id).getAttributes());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void modelJournalTest() throws Exception {
+        File headerLocation = com.google.common.io.Files.createTempDir();
+        try {
+            FileUtils.copyFileToDirectory(new File("target/test-classes/models/threadsafe/test.header"), headerLocation);
+
+            BaseConfiguration configuration = new BaseConfiguration();
+            configuration.setProperty(FosConfig.HEADER_LOCATION, headerLocation.getAbsolutePath());
+            configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+            configuration.setProperty(WekaManagerConfig.MODEL_JOURNAL, true);
+            WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+
+            // the first time the headers are saved to the journal
+            WekaManager journaled = new WekaManager(wekaManagerConfig);
+            Assert.assertEquals(1, journaled.listModels().size());
+            Assert.assertTrue(new File(headerLocation, ModelJournal.SNAPSHOT_FILE).exists());
+
+            ModelDescriptor descriptor = new ModelDescriptor(ModelDescriptor.Format.BINARY, "target/test-classes/models/test.model");
+            UUID added = journaled.addModel(setupModelConfig(), descriptor);
+            UUID removed = journaled.addModel(setupModelConfig(), descriptor);
+            journaled.reconfigureModel(added, setupModelConfig(), descriptor);
+            journaled.removeModel(removed);
+            journaled.close();
+
+            Assert.assertEquals(1, FileUtils.listFiles(headerLocation, new String[]{WekaManagerConfig.HEADER_EXTENSION}, false).size());
+
+            journaled = new WekaManager(wekaManagerConfig);
+            Assert.assertEquals(ImmutableSet.of(testUID, added), journaled.listModels().keySet());
+            journaled.close();
+        } finally {
+            FileUtils.deleteQuietly(headerLocation);
+        }
+    }
+
     @Test
     public void reconfigureModelByFileNameTest() throws FOSException, IOException, ClassNotFoundException {
         ModelDescriptor descriptor = new ModelDescriptor(ModelDescriptor.Format.BINARY, "target/test-classes/models/test.model");
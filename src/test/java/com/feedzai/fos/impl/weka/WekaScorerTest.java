@@ -21,23 +21,55 @@
  */
 package com.feedzai.fos.impl.weka;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.api.ModelConfig;
 import com.feedzai.fos.api.config.FosConfig;
 import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
+import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.feedzai.fos.impl.weka.utils.Cloner;
+import com.feedzai.fos.impl.weka.utils.MatrixLayout;
+import com.feedzai.fos.impl.weka.utils.ScorerCacheMXBean;
+import com.feedzai.fos.impl.weka.utils.SharedScorers;
 import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorer;
 import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorerPassthrough;
 import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorerPool;
+import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorerShared;
+import com.feedzai.fos.impl.weka.utils.WekaUtils;
 import com.feedzai.fos.impl.weka.utils.pool.GenericObjectPoolConfig;
+import com.feedzai.fos.impl.weka.utils.pool.PoolMetricsMXBean;
 import com.google.common.collect.Lists;
 import junit.framework.Assert;
 import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.powermock.reflect.Whitebox;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instance;
+import weka.core.Instances;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.FileInputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.Assert.assertEquals;
+import static org.junit.Assert.assertArrayEquals;
 
 /**
  * @author Marco Jorge (marco.jorge@feedzai.com)
@@ -83,4 +115,394 @@ public class WekaScorerTest {
 
         wekaManager.close();
     }
+
+    @Test
+    public void updateKeepsRegisteredClassifiersSharedTest() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        WekaScorer wekaScorer = wekaManager.getScorer();
+        WekaModelConfig wekaModelConfig = ((Map<UUID, WekaModelConfig>) Whitebox.getInternalState(wekaManager, "modelConfigs")).get(testUUID);
+
+        // the test model is a naive bayes (not registered as thread safe)
+        wekaScorer.addOrUpdate(wekaModelConfig);
+        Assert.assertTrue(((Map<UUID, WekaThreadSafeScorer>) Whitebox.getInternalState(wekaScorer, "wekaThreadSafeScorers")).get(testUUID) instanceof WekaThreadSafeScorerPool);
+
+        // a random forest with the same fields is shared, even after an update
+        Instances instances = new Instances("test", WekaUtils.instanceFields2Attributes(3, wekaModelConfig.getAttributess()), 100);
+        instances.setClassIndex(3);
+        Random random = new Random(42);
+        for (int idx = 0; idx < 100; idx++) {
+            instances.add(new Instance(1, new double[]{random.nextDouble(), random.nextDouble(), random.nextInt(3), random.nextInt(2)}));
+        }
+        RandomForest randomForest = new RandomForest();
+        randomForest.buildClassifier(instances);
+
+        File model = File.createTempFile("randomForest", ".model");
+        model.deleteOnExit();
+        new Cloner<Classifier>(randomForest).write(model);
+
+        ModelConfig modelConfig = wekaModelConfig.getModelConfig();
+        modelConfig.setProperty(WekaModelConfig.MODEL_FILE, model.getAbsolutePath());
+        wekaScorer.addOrUpdate(new WekaModelConfig(modelConfig, wekaManagerConfig));
+
+        Assert.assertTrue(((Map<UUID, WekaThreadSafeScorer>) Whitebox.getInternalState(wekaScorer, "wekaThreadSafeScorers")).get(testUUID) instanceof WekaThreadSafeScorerPassthrough);
+        double[] score = wekaScorer.score(testUUID, new Object[]{0.5, 0.5, "gray", "positive"});
+        assertEquals(1.0, score[0] + score[1], 0.001);
+
+        wekaManager.close();
+    }
+
+    @Test
+    public void poolMetricsTest() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        WekaScorer wekaScorer = wekaManager.getScorer();
+
+        for (int idx = 0; idx < 10; idx++) {
+            wekaScorer.score(testUUID, new Object[]{1.5, 0, "gray", "positive"});
+        }
+
+        PoolMetricsMXBean metrics = wekaScorer.getPoolMetrics(testUUID);
+        assertEquals(10, metrics.getBorrows());
+        assertEquals(0, metrics.getNumActive());
+        assertEquals(0, metrics.getBorrowFailures());
+        assertEquals(metrics, wekaScorer.getPoolMetrics().get(testUUID));
+        Assert.assertNull(wekaScorer.getPoolMetrics(UUID.randomUUID()));
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(WekaScorer.METRICS_DOMAIN + ":type=ScorerPool,model=" + testUUID);
+        assertEquals(10L, mBeanServer.getAttribute(name, "Borrows"));
+
+        wekaScorer.close();
+        Assert.assertFalse(mBeanServer.isRegistered(name));
+        wekaManager.close();
+    }
+
+    @Test
+    public void lazyLoadingTest() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+        configuration.setProperty(WekaManagerConfig.LAZY_LOADING, true);
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        WekaScorer wekaScorer = wekaManager.getScorer();
+
+        ScorerCacheMXBean metrics = wekaScorer.getScorerCacheMetrics();
+        assertEquals(0, metrics.getResidentModels());
+        Assert.assertNull(wekaScorer.getPoolMetrics(testUUID));
+
+        double[] score = wekaScorer.score(testUUID, new Object[]{1.5, 0, "gray", "positive"});
+        assertEquals(2, score.length);
+        assertEquals(1.0, score[0] + score[1], 0.001);
+        wekaScorer.score(testUUID, new Object[]{1.5, 0, "gray", "positive"});
+
+        assertEquals(1, metrics.getResidentModels());
+        assertEquals(1, metrics.getLoads());
+        assertEquals(1, metrics.getHits());
+        Assert.assertTrue(metrics.getResidentBytes() > 0);
+
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(WekaScorer.METRICS_DOMAIN + ":type=ScorerCache");
+        assertEquals(1L, mBeanServer.getAttribute(name, "Loads"));
+
+        wekaScorer.close();
+        assertEquals(0, metrics.getResidentModels());
+        Assert.assertFalse(mBeanServer.isRegistered(name));
+        wekaManager.close();
+    }
+
+    @Test
+    public void sharedModelsTest() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+        configuration.setProperty(WekaManagerConfig.SHARE_IDENTICAL_MODELS, true);
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        WekaScorer wekaScorer = wekaManager.getScorer();
+        SharedScorers sharedScorers = Whitebox.getInternalState(wekaScorer, "sharedScorers");
+
+        ModelConfig modelConfig = new ObjectMapper().readValue(IOUtils.toString(new FileInputStream("target/test-classes/models/threadsafe/test.header")), ModelConfig.class);
+        UUID copyUUID = UUID.randomUUID();
+        WekaModelConfig copy = new WekaModelConfig(modelConfig, wekaManagerConfig);
+        copy.setId(copyUUID);
+        wekaScorer.addOrUpdate(copy);
+
+        modelConfig.setProperty(GenericObjectPoolConfig.class.getName() + ".maxActive", "2");
+        UUID otherUUID = UUID.randomUUID();
+        WekaModelConfig other = new WekaModelConfig(modelConfig, wekaManagerConfig);
+        other.setId(otherUUID);
+        wekaScorer.addOrUpdate(other);
+
+        assertEquals(2, sharedScorers.size());
+        Assert.assertSame(wekaScorer.getPoolMetrics(testUUID), wekaScorer.getPoolMetrics(copyUUID));
+        Assert.assertNotSame(wekaScorer.getPoolMetrics(testUUID), wekaScorer.getPoolMetrics(otherUUID));
+
+        Object[] scorable = {1.5, 0, "gray", "positive"};
+        assertArrayEquals(wekaScorer.score(testUUID, scorable), wekaScorer.score(copyUUID, scorable), 0);
+        assertEquals(2, wekaScorer.getPoolMetrics(copyUUID).getBorrows());
+
+        wekaScorer.removeModel(testUUID);
+        assertEquals(2, sharedScorers.size());
+        assertArrayEquals(wekaScorer.score(otherUUID, scorable), wekaScorer.score(copyUUID, scorable), 0);
+
+        wekaScorer.removeModel(copyUUID);
+        assertEquals(1, sharedScorers.size());
+
+        wekaScorer.close();
+        assertEquals(0, sharedScorers.size());
+        wekaManager.close();
+    }
+
+    @Test
+    public void warmupTest() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+        configuration.setProperty(WekaManagerConfig.WARMUP_MILLIS, 5000);
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        WekaScorer wekaScorer = wekaManager.getScorer();
+
+        ModelConfig modelConfig = new ObjectMapper().readValue(IOUtils.toString(new FileInputStream("target/test-classes/models/threadsafe/test.header")), ModelConfig.class);
+        WekaModelConfig wekaModelConfig = new WekaModelConfig(modelConfig, wekaManagerConfig);
+        WekaThreadSafeScorer prepared = wekaScorer.prepare(wekaModelConfig);
+
+        // warmed up (on a pool of its own), but without counting in the metrics
+        Assert.assertTrue(prepared instanceof WekaThreadSafeScorerPool);
+        assertEquals(0, ((WekaThreadSafeScorerPool) prepared).getMetrics().getBorrows());
+
+        WekaUtils.closeSilently(wekaScorer.install(testUUID, prepared));
+        double[] score = wekaScorer.score(testUUID, new Object[]{1.5, 0, "gray", "positive"});
+        assertEquals(1.0, score[0] + score[1], 0.001);
+
+        wekaScorer.close();
+        wekaManager.close();
+    }
+
+    @Test
+    public void sharedWarmupTest() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+        configuration.setProperty(WekaManagerConfig.SHARE_IDENTICAL_MODELS, true);
+        configuration.setProperty(WekaManagerConfig.WARMUP_MILLIS, 5000);
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        WekaScorer wekaScorer = wekaManager.getScorer();
+
+        Object[] scorable = {1.5, 0, "gray", "positive"};
+        wekaScorer.score(testUUID, scorable);
+        assertEquals(1, wekaScorer.getPoolMetrics(testUUID).getBorrows());
+
+        // an identical model shares the live scorer, which is not warmed up again
+        ModelConfig modelConfig = new ObjectMapper().readValue(IOUtils.toString(new FileInputStream("target/test-classes/models/threadsafe/test.header")), ModelConfig.class);
+        WekaModelConfig copy = new WekaModelConfig(modelConfig, wekaManagerConfig);
+        copy.setId(UUID.randomUUID());
+        WekaThreadSafeScorer prepared = wekaScorer.prepare(copy);
+        Assert.assertTrue(prepared instanceof WekaThreadSafeScorerShared);
+        Assert.assertFalse(((WekaThreadSafeScorerShared) prepared).isNewlyLoaded());
+        assertEquals(1, wekaScorer.getPoolMetrics(testUUID).getBorrows());
+        prepared.close();
+
+        // a model with other settings gets a scorer of its own, warmed up without counting in the metrics
+        modelConfig.setProperty(GenericObjectPoolConfig.class.getName() + ".maxActive", "2");
+        WekaModelConfig other = new WekaModelConfig(modelConfig, wekaManagerConfig);
+        other.setId(UUID.randomUUID());
+        prepared = wekaScorer.prepare(other);
+        Assert.assertTrue(((WekaThreadSafeScorerShared) prepared).isNewlyLoaded());
+        assertEquals(0, ((WekaThreadSafeScorerPool) ((WekaThreadSafeScorerShared) prepared).getShared()).getMetrics().getBorrows());
+        prepared.close();
+
+        wekaScorer.close();
+        wekaManager.close();
+    }
+
+    @Test
+    public void batchScoringTest() throws FOSException {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        WekaScorer wekaScorer = wekaManager.getScorer();
+
+        Object[][] scorables = new Object[][]{
+                {1.5, 0, "gray", "positive"},
+                {0.1, 12.5, "blue", "negative"},
+                {null, 3, "black", null}
+        };
+        double nan = Double.NaN;
+        double[] rowMajor = new double[]{
+                1.5, 0, 1, 0,
+                0.1, 12.5, 0, 1,
+                nan, 3, 2, nan
+        };
+        double[] columnMajor = new double[]{
+                1.5, 0.1, nan,
+                0, 12.5, 3,
+                1, 0, 2,
+                0, 1, nan
+        };
+
+        double[] expected = new double[scorables.length * 2];
+        for (int row = 0; row < scorables.length; row++) {
+            System.arraycopy(wekaScorer.score(testUUID, scorables[row]), 0, expected, row * 2, 2);
+        }
+
+        assertArrayEquals(Arrays.toString(expected), expected, wekaScorer.score(testUUID, rowMajor, MatrixLayout.ROW_MAJOR), 0);
+        assertArrayEquals(Arrays.toString(expected), expected, wekaScorer.score(testUUID, columnMajor, MatrixLayout.COLUMN_MAJOR), 0);
+        assertEquals(0, wekaScorer.score(testUUID, new double[0], MatrixLayout.ROW_MAJOR).length);
+
+        List<double[]> scores = wekaScorer.score(testUUID, Arrays.asList(scorables));
+        assertEquals(scorables.length, scores.size());
+        for (int row = 0; row < scorables.length; row++) {
+            assertArrayEquals(Arrays.toString(scorables[row]), Arrays.copyOfRange(expected, row * 2, row * 2 + 2), scores.get(row), 0);
+        }
+
+        wekaManager.close();
+    }
+
+    @Test
+    public void reloadWhileScoringTest() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        final WekaScorer wekaScorer = wekaManager.getScorer();
+        WekaModelConfig wekaModelConfig = ((Map<UUID, WekaModelConfig>) Whitebox.getInternalState(wekaManager, "modelConfigs")).get(testUUID);
+
+        final AtomicBoolean reloading = new AtomicBoolean(true);
+        final AtomicInteger scored = new AtomicInteger();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int idx = 0; idx < 4; idx++) {
+            futures.add(executorService.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    int scores = 0;
+                    while (reloading.get()) {
+                        double[] score = wekaScorer.score(testUUID, new Object[]{1.5, 0, "gray", "positive"});
+                        assertEquals(1.0, score[0] + score[1], 0.001);
+                        scored.incrementAndGet();
+                        scores++;
+                    }
+                    return scores;
+                }
+            }));
+        }
+
+        // every reload closes the scorer the scoring threads may be using (keep reloading until they scored a while)
+        for (int idx = 0; idx < 50 || scored.get() < 1000; idx++) {
+            wekaScorer.addOrUpdate(wekaModelConfig);
+        }
+        reloading.set(false);
+
+        for (Future<Integer> future : futures) {
+            future.get();
+        }
+
+        executorService.shutdown();
+        wekaManager.close();
+    }
+
+    @Test
+    public void bulkScoringTest() throws FOSException {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+        WekaScorer wekaScorer = wekaManager.getScorer();
+
+        Object[][] distinct = new Object[][]{
+                {1.5, 0, "gray", "positive"},
+                {0.1, 12.5, "blue", "negative"},
+                {null, 3, "black", null}
+        };
+        double[][] expected = new double[distinct.length][];
+        for (int idx = 0; idx < distinct.length; idx++) {
+            expected[idx] = wekaScorer.score(testUUID, distinct[idx]);
+        }
+
+        // the same arrays over and over (each row must get its own score)
+        List<Object[]> scorables = new ArrayList<>();
+        for (int row = 0; row < 10000; row++) {
+            scorables.add(distinct[row % distinct.length]);
+        }
+
+        for (List<Object[]> list : Arrays.asList(scorables, new LinkedList<>(scorables))) {
+            List<double[]> scores = wekaScorer.score(testUUID, list);
+            assertEquals(scorables.size(), scores.size());
+            for (int row = 0; row < scores.size(); row++) {
+                assertArrayEquals(expected[row % distinct.length], scores.get(row), 0);
+            }
+        }
+
+        assertEquals(0, wekaScorer.score(testUUID, new ArrayList<Object[]>()).size());
+
+        // a bad row fails the whole batch
+        scorables.set(5000, new Object[]{1.5});
+        try {
+            wekaScorer.score(testUUID, scorables);
+            Assert.fail("Scoring a row with the wrong size must fail");
+        } catch (FOSException e) {
+            // expected
+        }
+
+        wekaManager.close();
+    }
+
+    @Test
+    public void multiModelScoringTest() throws FOSException {
+        for (long threshold : new long[]{0, Long.MAX_VALUE / 1000}) {
+            BaseConfiguration configuration = new BaseConfiguration();
+            configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+            configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+            // everything in parallel, then everything inline
+            configuration.setProperty(WekaManagerConfig.INLINE_SCORING_THRESHOLD, threshold);
+
+            WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+            WekaManager wekaManager = new WekaManager(wekaManagerConfig);
+            WekaScorer wekaScorer = wekaManager.getScorer();
+
+            Object[] scorable = new Object[]{1.5, 0, "gray", "positive"};
+            double[] expected = wekaScorer.score(testUUID, scorable);
+
+            // the first call measures the models and the others use the estimates
+            for (int idx = 0; idx < 3; idx++) {
+                List<double[]> scores = wekaScorer.score(Lists.newArrayList(testUUID, testUUID, testUUID), scorable);
+                assertEquals(3, scores.size());
+                for (double[] score : scores) {
+                    assertArrayEquals(expected, score, 0);
+                }
+            }
+
+            try {
+                wekaScorer.score(Lists.newArrayList(testUUID, UUID.randomUUID()), scorable);
+                Assert.fail("Scoring an unknown model must fail");
+            } catch (FOSException e) {
+                // expected
+            }
+
+            wekaManager.close();
+        }
+    }
 }
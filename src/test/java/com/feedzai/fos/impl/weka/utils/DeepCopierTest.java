@@ -0,0 +1,147 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.functions.Logistic;
+import weka.classifiers.meta.FilteredClassifier;
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.feedzai.fos.impl.weka.utils.TestData.readArff;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link DeepCopier}.
+ *
+ * @since 1.0.11
+ */
+public class DeepCopierTest {
+
+    @Test
+    public void testCopiesLikeSerialization() {
+        Node root = new Node("root", 7);
+        Node child = new Node("child", 3);
+        root.children.add(child);
+        root.children.add(child);
+        child.parent = root;
+        root.byName.put("child", child);
+        root.cache = new Object();
+
+        Node copy = DeepCopier.copy(root);
+
+        /* same bytes as the original, and what serialization gives for the transient field */
+        assertArrayEquals(SerializationUtils.serialize(root), SerializationUtils.serialize(copy));
+        assertNull(copy.cache);
+
+        assertNotSame(root, copy);
+        assertNotSame(root.values, copy.values);
+        assertNotSame(root.children, copy.children);
+        assertSame(copy.children.get(0), copy.children.get(1));
+        assertSame(copy, copy.children.get(0).parent);
+        assertSame(copy.children.get(0), copy.byName.get("child"));
+        assertEquals(7, copy.id);
+        assertEquals("not serializable", copy.base);
+    }
+
+    @Test
+    public void testCopiesClassifiers() throws Exception {
+        Instances data = readArff("/datasets/iris_model_builder.arff");
+
+        FilteredClassifier filteredClassifier = new FilteredClassifier();
+        filteredClassifier.setClassifier(new J48());
+
+        for (Classifier classifier : new Classifier[]{new RandomForest(), new J48(), new NaiveBayes(), new Logistic(), filteredClassifier}) {
+            classifier.buildClassifier(data);
+
+            Classifier copy = DeepCopier.copy(classifier);
+
+            assertNotSame(classifier, copy);
+            for (int idx = 0; idx < data.numInstances(); idx++) {
+                assertArrayEquals(classifier.distributionForInstance(data.instance(idx)), copy.distributionForInstance(data.instance(idx)), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testCustomSerializationIsRejected() {
+        try {
+            DeepCopier.copy(new Custom());
+            fail(Custom.class.getName() + " has a readObject");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        try {
+            DeepCopier.copy(new Object[]{new Object()});
+            fail("Object is not serializable");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static class Base {
+        protected String base;
+
+        Base() {
+            this.base = "not serializable";
+        }
+    }
+
+    private static class Node extends Base implements Serializable {
+        private final String name;
+        private final int id;
+        private final double[] values = {1, 2, 3};
+        private final List<Node> children = new ArrayList<>();
+        private final Map<String, Node> byName = new HashMap<>();
+        private Node parent;
+        private transient Object cache;
+
+        private Node(String name, int id) {
+            this.name = name;
+            this.id = id;
+            this.base = "changed";
+        }
+    }
+
+    private static class Custom implements Serializable {
+        private void readObject(ObjectInputStream input) {
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.Attribute;
+import com.feedzai.fos.api.ModelConfig;
+import com.feedzai.fos.api.NumericAttribute;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the {@link ModelJournal}.
+ *
+ * @since 1.0.11
+ */
+public class ModelJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final UUID first = UUID.randomUUID();
+    private final UUID second = UUID.randomUUID();
+
+    @Test
+    public void testReplaysChanges() throws IOException {
+        ModelJournal journal = new ModelJournal(folder.getRoot(), 100);
+        assertFalse(journal.exists());
+        assertTrue(journal.open().isEmpty());
+
+        journal.put(first, modelConfig("a"));
+        journal.put(second, modelConfig("b"));
+        journal.put(first, modelConfig("c"));
+        journal.remove(second);
+        journal.close();
+
+        journal = new ModelJournal(folder.getRoot(), 100);
+        assertTrue(journal.exists());
+        Map<UUID, ModelConfig> models = journal.open();
+        assertEquals(ImmutableList.of(first), new ArrayList<>(models.keySet()));
+        assertEquals("c", models.get(first).getProperty("name"));
+        journal.close();
+    }
+
+    @Test
+    public void testDiscardsIncompleteRecords() throws IOException {
+        ModelJournal journal = new ModelJournal(folder.getRoot(), 100);
+        journal.open();
+        journal.put(first, modelConfig("a"));
+        journal.put(second, modelConfig("b"));
+        journal.close();
+
+        /* a crash in the middle of the second append */
+        File file = new File(folder.getRoot(), ModelJournal.JOURNAL_FILE);
+        long length = file.length();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length - 5);
+        }
+
+        journal = new ModelJournal(folder.getRoot(), 100);
+        assertEquals(ImmutableList.of(first), new ArrayList<>(journal.open().keySet()));
+
+        /* the incomplete record is truncated, so the next changes are readable */
+        journal.put(second, modelConfig("c"));
+        journal.close();
+
+        journal = new ModelJournal(folder.getRoot(), 100);
+        Map<UUID, ModelConfig> models = journal.open();
+        assertEquals(2, models.size());
+        assertEquals("c", models.get(second).getProperty("name"));
+        journal.close();
+    }
+
+    @Test
+    public void testCompaction() throws IOException {
+        File journalFile = new File(folder.getRoot(), ModelJournal.JOURNAL_FILE);
+        File snapshotFile = new File(folder.getRoot(), ModelJournal.SNAPSHOT_FILE);
+
+        ModelJournal journal = new ModelJournal(folder.getRoot(), 3);
+        journal.open();
+        journal.put(first, modelConfig("a"));
+        journal.put(second, modelConfig("b"));
+        assertFalse(snapshotFile.exists());
+
+        journal.put(first, modelConfig("c"));
+        assertTrue(snapshotFile.exists());
+        assertEquals(0, journalFile.length());
+
+        journal.remove(second);
+        journal.close();
+
+        journal = new ModelJournal(folder.getRoot(), 3);
+        Map<UUID, ModelConfig> models = journal.open();
+        assertEquals(ImmutableList.of(first), new ArrayList<>(models.keySet()));
+        assertEquals("c", models.get(first).getProperty("name"));
+
+        /* replaying changes that are already in the snapshot (a crash during compaction) gives the same models */
+        journal.reset(ImmutableMap.of(first, modelConfig("d"), second, modelConfig("e")));
+        journal.remove(second);
+        journal.put(first, modelConfig("f"));
+        byte[] changes = Files.readAllBytes(journalFile.toPath());
+        journal.compact();
+        journal.close();
+        Files.write(journalFile.toPath(), changes);
+
+        journal = new ModelJournal(folder.getRoot(), 3);
+        models = journal.open();
+        assertEquals(ImmutableList.of(first), new ArrayList<>(models.keySet()));
+        assertEquals("f", models.get(first).getProperty("name"));
+        journal.close();
+    }
+
+    @Test
+    public void testCorruptedSnapshotFailsToOpen() throws IOException {
+        ModelJournal journal = new ModelJournal(folder.getRoot(), 100);
+        journal.open();
+        journal.reset(ImmutableMap.of(first, modelConfig("a"), second, modelConfig("b")));
+        journal.close();
+
+        /* snapshots are written whole, so a bad record is not a crash during a write: the models cannot be trusted */
+        File snapshotFile = new File(folder.getRoot(), ModelJournal.SNAPSHOT_FILE);
+        byte[] snapshot = Files.readAllBytes(snapshotFile.toPath());
+        snapshot[20]++;
+        Files.write(snapshotFile.toPath(), snapshot);
+
+        journal = new ModelJournal(folder.getRoot(), 100);
+        try {
+            journal.open();
+            fail("Opened a corrupted snapshot");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static ModelConfig modelConfig(String name) {
+        ModelConfig modelConfig = new ModelConfig(ImmutableList.<Attribute>of(new NumericAttribute("numeric")), new HashMap<String, String>());
+        modelConfig.setProperty("name", name);
+        return modelConfig;
+    }
+}
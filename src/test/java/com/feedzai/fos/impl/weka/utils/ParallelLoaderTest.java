@@ -0,0 +1,192 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link ParallelLoader}.
+ *
+ * @since 1.0.11
+ */
+public class ParallelLoaderTest {
+
+    @Test
+    public void testLoadsInParallel() {
+        final CountDownLatch started = new CountDownLatch(4);
+
+        /* every load waits for the 4 to start, so they are only loaded if loaded at once */
+        Map<Integer, String> loaded = new ParallelLoader<>("test", 4, 1 << 30, new Loader(0) {
+            @Override
+            public String load(Integer key) throws Exception {
+                started.countDown();
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+                return super.load(key);
+            }
+        }).load(ImmutableList.of(1, 2, 3, 4));
+
+        assertEquals(ImmutableList.of(1, 2, 3, 4), new ArrayList<>(loaded.keySet()));
+        assertEquals("4", loaded.get(4));
+    }
+
+    @Test
+    public void testFailuresAreIsolated() {
+        Map<Integer, String> loaded = new ParallelLoader<>("test", 2, 1 << 30, new Loader(0) {
+            @Override
+            public String load(Integer key) throws Exception {
+                if (key % 2 == 0) {
+                    throw new IllegalStateException("Cannot load " + key);
+                }
+                return super.load(key);
+            }
+        }).load(ImmutableList.of(5, 4, 3, 2, 1));
+
+        assertEquals(ImmutableList.of(5, 3, 1), new ArrayList<>(loaded.keySet()));
+    }
+
+    @Test
+    public void testMemoryBudgetLimitsConcurrency() {
+        Loader small = new Loader(1024 * 1024);
+        new ParallelLoader<>("test", 4, 4 * 1024 * 1024, small).load(keys(20));
+        assertTrue(small.maxConcurrent.get() > 1);
+        assertTrue(small.maxConcurrent.get() <= 4);
+
+        /* loads larger than half the budget (or the whole budget) run alone */
+        Loader large = new Loader(3 * 1024 * 1024);
+        new ParallelLoader<>("test", 4, 4 * 1024 * 1024, large).load(keys(8));
+        assertEquals(1, large.maxConcurrent.get());
+
+        Loader huge = new Loader(Long.MAX_VALUE);
+        assertEquals(8, new ParallelLoader<>("test", 4, 4 * 1024 * 1024, huge).load(keys(8)).size());
+        assertEquals(1, huge.maxConcurrent.get());
+    }
+
+    @Test
+    public void testLoadsCompletedAfterAnInterruptAreDiscarded() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Loader loader = new Loader(0) {
+            @Override
+            public String load(Integer key) throws Exception {
+                if (key == 1) {
+                    /* a load that does not stop when interrupted */
+                    started.countDown();
+                    Uninterruptibles.awaitUninterruptibly(release);
+                }
+                return key.toString();
+            }
+        };
+
+        final AtomicReference<Map<Integer, String>> loaded = new AtomicReference<>();
+        Thread loading = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loaded.set(new ParallelLoader<>("test", 2, 1 << 30, loader).load(ImmutableList.of(0, 1)));
+            }
+        });
+        loading.start();
+
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        loading.interrupt();
+        loading.join(10000);
+        release.countDown();
+
+        /* the value of the load that completed after the interrupt is discarded instead of being lost */
+        assertFalse(loaded.get().containsKey(1));
+        Set<String> expected = loaded.get().containsKey(0) ? ImmutableSet.of("1") : ImmutableSet.of("0", "1");
+        Set<String> discarded = new HashSet<>();
+        while (discarded.size() < expected.size()) {
+            String value = loader.discarded.poll(10, TimeUnit.SECONDS);
+            assertNotNull(value);
+            discarded.add(value);
+        }
+        assertEquals(expected, discarded);
+    }
+
+    private static List<Integer> keys(int count) {
+        List<Integer> keys = new ArrayList<>();
+        for (int idx = 0; idx < count; idx++) {
+            keys.add(idx);
+        }
+        return keys;
+    }
+
+    /**
+     * Loads the string of each key, recording how many loads run at once.
+     */
+    private static class Loader implements ParallelLoader.Loader<Integer, String> {
+        private final long estimatedBytes;
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final BlockingQueue<String> discarded = new LinkedBlockingQueue<>();
+
+        private Loader(long estimatedBytes) {
+            this.estimatedBytes = estimatedBytes;
+        }
+
+        @Override
+        public String load(Integer key) throws Exception {
+            int current = concurrent.incrementAndGet();
+            try {
+                int max = maxConcurrent.get();
+                while (current > max && !maxConcurrent.compareAndSet(max, current)) {
+                    max = maxConcurrent.get();
+                }
+
+                Thread.sleep(20);
+                return key.toString();
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+
+        @Override
+        public long estimatedBytes(Integer key) {
+            return estimatedBytes;
+        }
+
+        @Override
+        public void discard(String value) {
+            discarded.add(value);
+        }
+    }
+}
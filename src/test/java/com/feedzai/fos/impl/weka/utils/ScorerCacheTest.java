@@ -0,0 +1,215 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.FOSException;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the {@link ScorerCache} of {@link WekaThreadSafeScorerLazy} models.
+ *
+ * @since 1.0.11
+ */
+public class ScorerCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        ScorerCache cache = new ScorerCache(200);
+        AtomicInteger loads = new AtomicInteger();
+        WekaThreadSafeScorerLazy first = lazy(cache, 100, loads, null);
+        WekaThreadSafeScorerLazy second = lazy(cache, 100, loads, null);
+        WekaThreadSafeScorerLazy third = lazy(cache, 100, loads, null);
+
+        assertNull(first.getLoaded());
+
+        first.score(new Object[0]);
+        second.score(new Object[0]);
+        first.score(new Object[0]);
+        third.score(new Object[0]);
+
+        assertNotNull(first.getLoaded());
+        assertNull(second.getLoaded());
+        assertNotNull(third.getLoaded());
+        assertEquals(200, cache.getResidentBytes());
+        assertEquals(2, cache.getResidentModels());
+
+        second.score(new Object[0]);
+        assertNull(first.getLoaded());
+        assertEquals(4, loads.get());
+        assertEquals(4, cache.getLoads());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getEvictions());
+
+        first.close();
+        second.close();
+        third.close();
+        assertEquals(0, cache.getResidentBytes());
+        assertEquals(0, cache.getResidentModels());
+    }
+
+    @Test
+    public void testDoesNotEvictWhileScoring() throws Exception {
+        ScorerCache cache = new ScorerCache(100);
+        final CountDownLatch scoring = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final WekaThreadSafeScorerLazy busy = lazy(cache, 100, new AtomicInteger(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                scoring.countDown();
+                release.await();
+                return null;
+            }
+        });
+        WekaThreadSafeScorerLazy other = lazy(cache, 100, new AtomicInteger(), null);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<double[]> score = executor.submit(new Callable<double[]>() {
+                @Override
+                public double[] call() throws Exception {
+                    return busy.score(new Object[0]);
+                }
+            });
+            scoring.await();
+
+            other.score(new Object[0]);
+            assertNotNull(busy.getLoaded());
+            assertNotNull(other.getLoaded());
+            assertEquals(200, cache.getResidentBytes());
+            assertEquals(0, cache.getEvictions());
+
+            release.countDown();
+            score.get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        WekaThreadSafeScorerLazy third = lazy(cache, 100, new AtomicInteger(), null);
+        third.score(new Object[0]);
+        assertEquals(2, cache.getEvictions());
+        assertNull(busy.getLoaded());
+        assertNull(other.getLoaded());
+        assertEquals(100, cache.getResidentBytes());
+    }
+
+    @Test
+    public void testLoadFailures() throws Exception {
+        ScorerCache cache = new ScorerCache(100);
+        WekaThreadSafeScorerLazy failing = new WekaThreadSafeScorerLazy(UUID.randomUUID(), 50, cache, new Callable<WekaThreadSafeScorer>() {
+            @Override
+            public WekaThreadSafeScorer call() throws Exception {
+                throw new IllegalStateException("corrupt model");
+            }
+        });
+
+        try {
+            failing.score(new Object[0]);
+            fail("Loading should have failed");
+        } catch (FOSException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, cache.getLoadFailures());
+        assertEquals(0, cache.getResidentBytes());
+
+        failing.close();
+        try {
+            failing.score(new Object[0]);
+            fail("Closed scorers should not load");
+        } catch (FOSException e) {
+            assertEquals(1, cache.getLoadFailures());
+        }
+    }
+
+    /**
+     * Creates a lazy scorer whose loaded scorer returns an empty score (after running the given action, if any).
+     */
+    private static WekaThreadSafeScorerLazy lazy(ScorerCache cache, long bytes, final AtomicInteger loads, final Callable<Void> action) {
+        return new WekaThreadSafeScorerLazy(UUID.randomUUID(), bytes, cache, new Callable<WekaThreadSafeScorer>() {
+            @Override
+            public WekaThreadSafeScorer call() {
+                loads.incrementAndGet();
+                return new FakeScorer(action);
+            }
+        });
+    }
+
+    private static class FakeScorer implements WekaThreadSafeScorer {
+        private final Callable<Void> action;
+
+        FakeScorer(Callable<Void> action) {
+            this.action = action;
+        }
+
+        @Override
+        public double[] score(Object[] scorable) throws FOSException {
+            if (action != null) {
+                try {
+                    action.call();
+                } catch (Exception e) {
+                    throw new FOSException(e);
+                }
+            }
+            return new double[0];
+        }
+
+        @Override
+        public double[] score(Object[] scorable, double[] distribution) throws FOSException {
+            return score(scorable);
+        }
+
+        @Override
+        public List<double[]> score(List<Object[]> scorables) throws FOSException {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public double[] score(double[] matrix, MatrixLayout layout) throws FOSException {
+            return new double[0];
+        }
+
+        @Override
+        public Classifier getClassifier() throws FOSException {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
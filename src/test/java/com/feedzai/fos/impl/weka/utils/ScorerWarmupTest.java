@@ -0,0 +1,158 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.Attribute;
+import com.feedzai.fos.api.CategoricalAttribute;
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.api.NumericAttribute;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link ScorerWarmup}.
+ *
+ * @since 1.0.11
+ */
+public class ScorerWarmupTest {
+    private final List<Attribute> attributes = ImmutableList.of(
+            new NumericAttribute("numeric"),
+            new CategoricalAttribute("categorical", ImmutableList.of("blue", "gray", "black")));
+
+    @Test
+    public void testSyntheticInstances() {
+        List<Object[]> instances = ScorerWarmup.syntheticInstances(attributes, 50, 7);
+
+        assertEquals(50, instances.size());
+        for (Object[] instance : instances) {
+            assertEquals(2, instance.length);
+            assertTrue(instance[0] instanceof Double);
+            assertTrue(ImmutableList.of("blue", "gray", "black").contains(instance[1]));
+        }
+        assertArrayEquals(instances.get(10), ScorerWarmup.syntheticInstances(attributes, 50, 7).get(10));
+    }
+
+    @Test
+    public void testStopsWhenLatencyIsStable() {
+        CountingScorer scorer = new CountingScorer(-1);
+        int scored = new ScorerWarmup(60000).warmUp(UUID.randomUUID(), scorer, ScorerWarmup.syntheticInstances(attributes, 10, 7), 1);
+
+        assertEquals(scored, scorer.scores.get());
+        assertTrue(scored >= (ScorerWarmup.STABLE_BATCHES + 1) * ScorerWarmup.BATCH_SIZE);
+        assertEquals(0, scored % ScorerWarmup.BATCH_SIZE);
+    }
+
+    @Test
+    public void testStopsWhenScoringFails() {
+        CountingScorer scorer = new CountingScorer(150);
+        int scored = new ScorerWarmup(60000).warmUp(UUID.randomUUID(), scorer, ScorerWarmup.syntheticInstances(attributes, 10, 7), 1);
+
+        assertEquals(150, scored);
+    }
+
+    @Test
+    public void testScoresFromSeveralThreadsAtOnce() {
+        CountingScorer scorer = new CountingScorer(-1);
+        int scored = new ScorerWarmup(60000).warmUp(UUID.randomUUID(), scorer, ScorerWarmup.syntheticInstances(attributes, 10, 7), 4);
+
+        assertEquals(scored, scorer.scores.get());
+        assertEquals(0, scored % (4 * ScorerWarmup.BATCH_SIZE));
+        assertEquals(4, scorer.threads.size());
+    }
+
+    @Test
+    public void testThreadsScoreDeterministicSlices() {
+        CountingScorer scorer = new CountingScorer(-1);
+        List<Object[]> instances = ScorerWarmup.syntheticInstances(attributes, 1000, 7);
+        int scored = new ScorerWarmup(60000).warmUp(UUID.randomUUID(), scorer, instances, 4);
+
+        /* the batches cover the first scored instances (cycling through the sample) without gaps or overlaps */
+        for (int idx = 0; idx < instances.size(); idx++) {
+            int expected = scored / instances.size() + (idx < scored % instances.size() ? 1 : 0);
+            AtomicInteger count = scorer.instances.get(instances.get(idx));
+            assertEquals(expected, count == null ? 0 : count.get());
+        }
+    }
+
+    /**
+     * Scorer that counts the scores and fails after a number of them.
+     */
+    private static class CountingScorer implements WekaThreadSafeScorer {
+        private final AtomicInteger scores = new AtomicInteger();
+        private final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+        private final ConcurrentMap<Object[], AtomicInteger> instances = new ConcurrentHashMap<>();
+        private final int failAfter;
+
+        CountingScorer(int failAfter) {
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public double[] score(Object[] scorable) throws FOSException {
+            if (scores.get() == failAfter) {
+                throw new FOSException("Cannot score");
+            }
+            scores.incrementAndGet();
+            threads.add(Thread.currentThread());
+            instances.putIfAbsent(scorable, new AtomicInteger());
+            instances.get(scorable).incrementAndGet();
+            return new double[]{0.5, 0.5};
+        }
+
+        @Override
+        public double[] score(Object[] scorable, double[] distribution) throws FOSException {
+            return score(scorable);
+        }
+
+        @Override
+        public List<double[]> score(List<Object[]> scorables) throws FOSException {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public double[] score(double[] matrix, MatrixLayout layout) throws FOSException {
+            return new double[0];
+        }
+
+        @Override
+        public Classifier getClassifier() throws FOSException {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
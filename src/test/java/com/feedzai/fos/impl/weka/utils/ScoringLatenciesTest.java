@@ -0,0 +1,65 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ScoringLatencies}.
+ *
+ * @since 1.0.11
+ */
+public class ScoringLatenciesTest {
+
+    @Test
+    public void testUnknownModelsAreFree() {
+        assertEquals(0, new ScoringLatencies().estimate(UUID.randomUUID()));
+    }
+
+    @Test
+    public void testMovingAverage() {
+        ScoringLatencies scoringLatencies = new ScoringLatencies();
+        UUID modelId = UUID.randomUUID();
+
+        scoringLatencies.record(modelId, 1000);
+        assertEquals(1000, scoringLatencies.estimate(modelId));
+
+        // a single outlier moves the estimate but does not take it over
+        scoringLatencies.record(modelId, 101000);
+        assertTrue(scoringLatencies.estimate(modelId) > 1000);
+        assertTrue(scoringLatencies.estimate(modelId) < 101000);
+
+        // and a steady latency is followed
+        for (int idx = 0; idx < 100; idx++) {
+            scoringLatencies.record(modelId, 5000);
+        }
+        assertEquals(5000, scoringLatencies.estimate(modelId), 1);
+
+        scoringLatencies.reset(modelId);
+        assertEquals(0, scoringLatencies.estimate(modelId));
+    }
+}
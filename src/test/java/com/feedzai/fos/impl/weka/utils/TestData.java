@@ -0,0 +1,77 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import weka.core.Instances;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.Random;
+
+/**
+ * Datasets shared by the tests.
+ *
+ * @since 1.0.11
+ */
+public final class TestData {
+    private TestData() {
+    }
+
+    /**
+     * Reads the given ARFF resource (the class is the last attribute).
+     *
+     * @param resource the path of the resource, e.g. <code>/datasets/iris_model_builder.arff</code>
+     * @return the instances of the resource
+     * @throws Exception when the resource could not be read
+     */
+    public static Instances readArff(String resource) throws Exception {
+        try (BufferedReader reader = new BufferedReader(new FileReader(new File(TestData.class.getResource(resource).getPath())))) {
+            Instances data = new Instances(reader);
+            data.setClassIndex(data.numAttributes() - 1);
+
+            return data;
+        }
+    }
+
+    /**
+     * Copies the given instances with some of the (non class) values missing.
+     *
+     * @param instances the instances to copy
+     * @param random    the random generator that picks the missing values
+     * @param rate      the fraction (between 0 and 1) of the values that are missing
+     * @return the copy of the instances with missing values
+     */
+    public static Instances withMissingValues(Instances instances, Random random, double rate) {
+        Instances result = new Instances(instances);
+
+        for (int idx = 0; idx < result.numInstances(); idx++) {
+            for (int attribute = 0; attribute < result.numAttributes(); attribute++) {
+                if (attribute != result.classIndex() && random.nextDouble() < rate) {
+                    result.instance(idx).setMissing(attribute);
+                }
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.feedzai.fos.api.Attribute;
+import com.feedzai.fos.api.ModelConfig;
+import com.feedzai.fos.api.config.FosConfig;
+import com.feedzai.fos.impl.weka.WekaManagerFactory;
+import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
+import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.feedzai.fos.impl.weka.utils.forest.FlatForest;
+import com.feedzai.fos.impl.weka.utils.forest.FlatForestClassifier;
+import com.feedzai.fos.impl.weka.utils.forest.ForestCodec;
+import com.feedzai.fos.impl.weka.utils.forest.ForestEngine;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.feedzai.fos.impl.weka.utils.TestData.readArff;
+import static com.feedzai.fos.impl.weka.utils.TestData.withMissingValues;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ThreadSafeClassifiers}.
+ * <p/>
+ * Every registered classifier goes through a stress test where a single trained instance is scored concurrently
+ * by several threads, and all the distributions must match (bit for bit) the ones computed by a single thread.
+ *
+ * @since 1.0.11
+ */
+public class ThreadSafeClassifiersTest {
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 20;
+
+    @Test
+    public void testRegisteredClassifiersAreThreadSafe() throws Exception {
+        Instances data = withMissingValues(readArff("/datasets/iris_model_builder.arff"), new Random(7), 0.2);
+
+        for (String className : ThreadSafeClassifiers.CLASSIFIERS) {
+            Classifier classifier = train(className, data);
+
+            assertTrue(className + " is not thread safe", scoresConcurrently(classifier, data));
+            assertTrue(ThreadSafeClassifiers.isThreadSafe(classifier.getClass()));
+        }
+    }
+
+    @Test
+    public void testStressDetectsStatefulClassifiers() throws Exception {
+        Instances data = readArff("/datasets/iris_model_builder.arff");
+        Classifier classifier = new StatefulClassifier();
+        classifier.buildClassifier(data);
+
+        assertFalse(scoresConcurrently(classifier, data));
+        assertFalse(ThreadSafeClassifiers.isThreadSafe(classifier.getClass()));
+    }
+
+    @Test
+    public void testSubclassesAreNotRegistered() {
+        assertTrue(ThreadSafeClassifiers.isThreadSafe(RandomForest.class));
+        assertFalse(ThreadSafeClassifiers.isThreadSafe(new RandomForest() {
+        }.getClass()));
+        assertFalse(ThreadSafeClassifiers.isThreadSafe(NaiveBayes.class));
+    }
+
+    @Test
+    public void testSerializedClassName() throws Exception {
+        assertEquals(NaiveBayes.class.getName(), ThreadSafeClassifiers.serializedClassName(new File("target/test-classes/models/test.model")));
+        assertNull(ThreadSafeClassifiers.serializedClassName(new File("target/test-classes/models/iris.pmml")));
+
+        File model = File.createTempFile("randomForest", ".model");
+        model.deleteOnExit();
+        new Cloner<Classifier>(new RandomForest()).write(model);
+        assertEquals(RandomForest.class.getName(), ThreadSafeClassifiers.serializedClassName(model));
+    }
+
+    @Test
+    public void testEncodedForestsAreThreadSafe() throws Exception {
+        RandomForest randomForest = new RandomForest();
+        randomForest.buildClassifier(readArff("/datasets/iris_model_builder.arff"));
+
+        File model = File.createTempFile("encodedForest", ".model");
+        model.deleteOnExit();
+        ForestCodec.write(randomForest, model);
+        assertNull(ThreadSafeClassifiers.serializedClassName(model));
+
+        ModelConfig modelConfig = new ModelConfig(new ArrayList<Attribute>(), ImmutableMap.of(
+                WekaModelConfig.MODEL_FILE, model.getAbsolutePath(),
+                WekaModelConfig.CLASSIFIER_FORMAT, "BINARY"));
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        assertTrue(ThreadSafeClassifiers.isThreadSafe(new WekaModelConfig(modelConfig, wekaManagerConfig)));
+    }
+
+    /**
+     * Trains a classifier of the given registered class.
+     */
+    private Classifier train(String className, Instances data) throws Exception {
+        if (className.equals(FlatForestClassifier.class.getName())) {
+            RandomForest randomForest = new RandomForest();
+            randomForest.buildClassifier(data);
+            return new FlatForestClassifier((FlatForest) ForestEngine.FLAT.compile(randomForest));
+        }
+
+        Classifier classifier = (Classifier) Class.forName(className).newInstance();
+        classifier.buildClassifier(data);
+        return classifier;
+    }
+
+    /**
+     * Scores all the instances with the given classifier from several threads at once.
+     *
+     * @return true if all threads got the distributions computed by a single thread
+     */
+    private boolean scoresConcurrently(final Classifier classifier, final Instances data) throws Exception {
+        final double[][] expected = new double[data.numInstances()][];
+        for (int idx = 0; idx < data.numInstances(); idx++) {
+            expected[idx] = classifier.distributionForInstance(data.instance(idx));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                final Random random = new Random(thread);
+                futures.add(executorService.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        for (int round = 0; round < ROUNDS * data.numInstances(); round++) {
+                            int idx = random.nextInt(data.numInstances());
+                            if (!Arrays.equals(expected[idx], classifier.distributionForInstance(data.instance(idx)))) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+
+            boolean threadSafe = true;
+            for (Future<Boolean> future : futures) {
+                threadSafe &= future.get();
+            }
+            return threadSafe;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * A classifier that keeps the instance being scored in a field (like the filtering classifiers do).
+     * <p/>
+     * To not depend on the timing of the threads, the threads that did not build the classifier wait for each other
+     * between writing the field and reading it back, so all of them read the instance of the last one.
+     */
+    private static class StatefulClassifier extends Classifier {
+        private final CyclicBarrier scoring = new CyclicBarrier(THREADS);
+        private Thread owner;
+        private Instance current;
+
+        @Override
+        public void buildClassifier(Instances data) {
+            owner = Thread.currentThread();
+        }
+
+        @Override
+        public double[] distributionForInstance(Instance instance) throws Exception {
+            current = instance;
+            if (Thread.currentThread() != owner) {
+                try {
+                    scoring.await(1, TimeUnit.SECONDS);
+                } catch (BrokenBarrierException | TimeoutException e) {
+                    // a thread already stopped scoring
+                }
+            }
+            return new double[]{current.value(0), current.value(1)};
+        }
+    }
+}
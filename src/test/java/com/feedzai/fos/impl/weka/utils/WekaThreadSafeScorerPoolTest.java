@@ -27,14 +27,18 @@ import com.feedzai.fos.api.config.FosConfig;
 import com.feedzai.fos.impl.weka.WekaManagerFactory;
 import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
 import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.feedzai.fos.impl.weka.utils.pool.ElasticPoolController;
 import com.feedzai.fos.impl.weka.utils.pool.GenericObjectPoolConfig;
+import com.feedzai.fos.impl.weka.utils.pool.StripedObjectPool;
 import org.apache.commons.configuration.BaseConfiguration;
 import org.apache.commons.io.IOUtils;
 import org.junit.Test;
+import org.powermock.reflect.Whitebox;
 
 import java.io.FileInputStream;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
 
 /**
  * @author Marco Jorge (marco.jorge@feedzai.com)
@@ -62,4 +66,72 @@ public class WekaThreadSafeScorerPoolTest {
         assertEquals(2, score.length);
         assertEquals(1.0, score[0] + score[1], 0.001);
     }
+
+    @Test
+    public void testStripedPoolScoring() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        FileInputStream fis = new FileInputStream("target/test-classes/models/threadsafe/test.header");
+        ModelConfig modelConfig = new ObjectMapper().readValue(IOUtils.toString(fis), ModelConfig.class);
+        modelConfig.setProperty(GenericObjectPoolConfig.class.getName() + ".striped", "true");
+        modelConfig.setProperty(GenericObjectPoolConfig.class.getName() + ".minIdle", "2");
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaThreadSafeScorer wekaThreadSafeScorer = new WekaThreadSafeScorerPool(new WekaModelConfig(modelConfig, wekaManagerConfig), wekaManagerConfig);
+
+        assertTrue(Whitebox.getInternalState(wekaThreadSafeScorer, "pool") instanceof StripedObjectPool);
+
+        double[] score = wekaThreadSafeScorer.score(new Object[]{1.5, 0, "gray", "positive"});
+        assertEquals(2, score.length);
+        assertEquals(1.0, score[0] + score[1], 0.001);
+
+        wekaThreadSafeScorer.close();
+    }
+
+    @Test
+    public void testSharedStructureScoring() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        FileInputStream fis = new FileInputStream("target/test-classes/models/threadsafe/test.header");
+        ModelConfig modelConfig = new ObjectMapper().readValue(IOUtils.toString(fis), ModelConfig.class);
+        modelConfig.setProperty(WekaModelConfig.SHARE_STRUCTURE, "true");
+        modelConfig.setProperty(GenericObjectPoolConfig.class.getName() + ".minIdle", "4");
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaThreadSafeScorer wekaThreadSafeScorer = new WekaThreadSafeScorerPool(new WekaModelConfig(modelConfig, wekaManagerConfig), wekaManagerConfig);
+
+        double[] score = wekaThreadSafeScorer.score(new Object[]{1.5, 0, "gray", "positive"});
+        assertEquals(2, score.length);
+        assertEquals(1.0, score[0] + score[1], 0.001);
+
+        wekaThreadSafeScorer.close();
+    }
+
+    @Test
+    public void testElasticPoolScoring() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        FileInputStream fis = new FileInputStream("target/test-classes/models/threadsafe/test.header");
+        ModelConfig modelConfig = new ObjectMapper().readValue(IOUtils.toString(fis), ModelConfig.class);
+        modelConfig.setProperty(GenericObjectPoolConfig.class.getName() + ".elastic", "true");
+        modelConfig.setProperty(GenericObjectPoolConfig.class.getName() + ".elasticMaxActive", "4");
+        modelConfig.setProperty(GenericObjectPoolConfig.class.getName() + ".maxActive", "1");
+
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+        WekaThreadSafeScorer wekaThreadSafeScorer = new WekaThreadSafeScorerPool(new WekaModelConfig(modelConfig, wekaManagerConfig), wekaManagerConfig);
+
+        assertTrue(Whitebox.getInternalState(wekaThreadSafeScorer, "elasticPoolController") instanceof ElasticPoolController);
+
+        double[] score = wekaThreadSafeScorer.score(new Object[]{1.5, 0, "gray", "positive"});
+        assertEquals(2, score.length);
+        assertEquals(1.0, score[0] + score[1], 0.001);
+
+        wekaThreadSafeScorer.close();
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.feedzai.fos.api.ModelConfig;
+import com.feedzai.fos.api.config.FosConfig;
+import com.feedzai.fos.impl.weka.WekaManagerFactory;
+import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
+import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the scoring mode that reuses thread confined instances.
+ *
+ * @since 1.0.11
+ */
+public class WekaThreadSafeScorerReuseTest {
+    private static final Object[][] SCORABLES = new Object[][]{
+            {1.5, 0, "gray", "positive"},
+            {0.1, 12.5, "blue", "negative"},
+            {null, 3, "black", null},
+            {7, null, null, "positive"},
+            {2.0, 1.0, "unknown", "?"}
+    };
+
+    private WekaManagerConfig wekaManagerConfig;
+
+    @Before
+    public void setUp() throws Exception {
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.HEADER_LOCATION, "target/test-classes/models/threadsafe");
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+
+        wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+    }
+
+    @Test
+    public void testReuseMatchesDefaultScoring() throws Exception {
+        WekaThreadSafeScorer[] scorers = new WekaThreadSafeScorer[]{
+                new WekaThreadSafeScorerPassthrough(modelConfig(null, false), wekaManagerConfig),
+                new WekaThreadSafeScorerPassthrough(modelConfig(null, true), wekaManagerConfig),
+                new WekaThreadSafeScorerPool(modelConfig(null, false), wekaManagerConfig),
+                new WekaThreadSafeScorerPool(modelConfig(null, true), wekaManagerConfig)
+        };
+
+        try {
+            for (Object[] scorable : SCORABLES) {
+                double[] expected = scorers[0].score(scorable);
+
+                for (WekaThreadSafeScorer scorer : scorers) {
+                    assertArrayEquals(Arrays.toString(scorable), expected, scorer.score(scorable), 0);
+
+                    double[] distribution = new double[expected.length];
+                    assertSame(distribution, scorer.score(scorable, distribution));
+                    assertArrayEquals(Arrays.toString(scorable), expected, distribution, 0);
+                }
+            }
+        } finally {
+            for (WekaThreadSafeScorer scorer : scorers) {
+                scorer.close();
+            }
+        }
+    }
+
+    @Test
+    public void testReuseDoesNotAllocate() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        File model = File.createTempFile("reuse", ".model");
+        model.deleteOnExit();
+        new Cloner<Classifier>(new MissingFirstClassifier()).write(model);
+
+        WekaThreadSafeScorer scorer = new WekaThreadSafeScorerPassthrough(modelConfig(model, true), wekaManagerConfig);
+        try {
+            double[] distribution = new double[2];
+            int iterations = 100000;
+
+            /* warm up so that the measured loop runs compiled code */
+            scoreAll(scorer, distribution, iterations);
+
+            long threadId = Thread.currentThread().getId();
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            scoreAll(scorer, distribution, iterations);
+            long allocated = allocations.getThreadAllocatedBytes(threadId) - before;
+
+            assertTrue("Allocated " + allocated + " bytes in " + iterations + " scores", allocated / iterations < 8);
+        } finally {
+            scorer.close();
+            FileUtils.deleteQuietly(model);
+        }
+    }
+
+    private void scoreAll(WekaThreadSafeScorer scorer, double[] distribution, int iterations) throws Exception {
+        for (int idx = 0; idx < iterations; idx++) {
+            scorer.score(SCORABLES[idx % SCORABLES.length], distribution);
+        }
+    }
+
+    private WekaModelConfig modelConfig(File model, boolean reuse) throws Exception {
+        ModelConfig modelConfig = new ObjectMapper().readValue(new File("target/test-classes/models/threadsafe/test.header"), ModelConfig.class);
+        modelConfig.setProperty(WekaModelConfig.REUSE_INSTANCES, Boolean.toString(reuse));
+        if (model != null) {
+            modelConfig.setProperty(WekaModelConfig.MODEL_FILE, model.getAbsolutePath());
+        }
+
+        return new WekaModelConfig(modelConfig, wekaManagerConfig);
+    }
+
+    /**
+     * Classifier that does not allocate: gives all the probability to the first class when the first field is missing.
+     */
+    public static class MissingFirstClassifier extends Classifier {
+        private final double[] distribution = new double[2];
+
+        @Override
+        public void buildClassifier(Instances data) throws Exception {
+            /* nothing to build */
+        }
+
+        @Override
+        public double[] distributionForInstance(Instance instance) throws Exception {
+            distribution[0] = instance.isMissing(0) ? 1 : 0;
+            distribution[1] = 1 - distribution[0];
+
+            return distribution;
+        }
+    }
+}
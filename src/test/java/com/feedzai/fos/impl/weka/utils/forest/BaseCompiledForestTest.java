@@ -0,0 +1,111 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Helpers to check that {@link CompiledForest}s score exactly as the classifiers they were compiled from.
+ *
+ * @since 1.0.11
+ */
+public abstract class BaseCompiledForestTest {
+
+    /**
+     * Asserts that the compiled forest produces bit-for-bit the same distributions as the classifier.
+     */
+    protected void assertSameDistributions(Classifier classifier, CompiledForest compiledForest, Instances instances) throws Exception {
+        double[] distribution = new double[compiledForest.numClasses()];
+
+        for (int idx = 0; idx < instances.numInstances(); idx++) {
+            Instance instance = instances.instance(idx);
+            double[] expected = classifier.distributionForInstance(instance);
+
+            compiledForest.distribution(instance.toDoubleArray(), distribution);
+
+            /* bit-for-bit, not within a delta */
+            assertTrue(instance + ": " + Arrays.toString(expected) + " != " + Arrays.toString(distribution), Arrays.equals(expected, distribution));
+        }
+
+        /* and the same in blocks (the last one partially filled) */
+        double[][] values = new double[CompiledForest.BLOCK_SIZE][];
+        double[][] results = new double[CompiledForest.BLOCK_SIZE][compiledForest.numClasses()];
+        for (int start = 0; start < instances.numInstances(); start += CompiledForest.BLOCK_SIZE) {
+            int count = Math.min(CompiledForest.BLOCK_SIZE, instances.numInstances() - start);
+            for (int row = 0; row < count; row++) {
+                values[row] = instances.instance(start + row).toDoubleArray();
+            }
+
+            compiledForest.distributions(values, count, results);
+
+            for (int row = 0; row < count; row++) {
+                Instance instance = instances.instance(start + row);
+                double[] expected = classifier.distributionForInstance(instance);
+                assertTrue(instance + ": " + Arrays.toString(expected) + " != " + Arrays.toString(results[row]), Arrays.equals(expected, results[row]));
+            }
+        }
+    }
+
+    /**
+     * Gets the class of the exception thrown when scoring the given values (null if none).
+     */
+    protected Class<?> failure(CompiledForest compiledForest, double[] values) {
+        try {
+            compiledForest.distribution(values, new double[compiledForest.numClasses()]);
+            return null;
+        } catch (Exception e) {
+            return e.getClass();
+        }
+    }
+
+    /**
+     * Creates a dataset of random numeric values and classes (grows very large trees).
+     */
+    protected Instances noise(Random random, int size) {
+        FastVector classValues = new FastVector(2);
+        classValues.addElement("a");
+        classValues.addElement("b");
+
+        FastVector attributes = new FastVector(4);
+        attributes.addElement(new Attribute("x"));
+        attributes.addElement(new Attribute("y"));
+        attributes.addElement(new Attribute("z"));
+        attributes.addElement(new Attribute("class", classValues));
+
+        Instances result = new Instances("noise", attributes, size);
+        result.setClassIndex(3);
+        for (int idx = 0; idx < size; idx++) {
+            result.add(new Instance(1, new double[]{random.nextGaussian(), random.nextGaussian(), random.nextInt(10), random.nextInt(2)}));
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.api.Attribute;
+import com.feedzai.fos.api.CategoricalAttribute;
+import com.feedzai.fos.api.ModelConfig;
+import com.feedzai.fos.api.NumericAttribute;
+import com.feedzai.fos.api.config.FosConfig;
+import com.feedzai.fos.impl.weka.WekaManagerFactory;
+import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
+import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import com.feedzai.fos.impl.weka.utils.Cloner;
+import com.feedzai.fos.impl.weka.utils.MatrixLayout;
+import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorer;
+import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorerCompiled;
+import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorerPassthrough;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomForestFlattener;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.feedzai.fos.impl.weka.utils.TestData.readArff;
+import static com.feedzai.fos.impl.weka.utils.TestData.withMissingValues;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link FlatForest}s score exactly as the forests they were compiled from.
+ *
+ * @since 1.0.11
+ */
+public class FlatForestTest extends BaseCompiledForestTest {
+
+    @Test
+    public void testIris() throws Exception {
+        testForests(readArff("/datasets/iris_model_builder.arff"));
+    }
+
+    @Test
+    public void testShuttleLandingControl() throws Exception {
+        testForests(readArff("/datasets/shuttle-landing-control.arff"));
+    }
+
+    @Test(expected = WekaClassifierException.class)
+    public void testForestMustBeBuilt() throws Exception {
+        RandomForestFlattener.flatten(new RandomForest());
+    }
+
+    @Test(expected = WekaClassifierException.class)
+    public void testOtherClassifiersAreNotSupported() throws Exception {
+        ForestEngine.FLAT.compile(new NaiveBayes());
+    }
+
+    @Test
+    public void testCompiledScorer() throws Exception {
+        Instances iris = readArff("/datasets/iris_model_builder.arff");
+        RandomForest randomForest = new RandomForest();
+        randomForest.setOptions(new String[]{"-I", "20", "-S", "3"});
+        randomForest.buildClassifier(iris);
+
+        File model = File.createTempFile("flat", ".model");
+        model.deleteOnExit();
+        new Cloner<Classifier>(randomForest).write(model);
+
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+
+        List<Attribute> attributes = new ArrayList<>();
+        for (int idx = 0; idx < iris.numAttributes() - 1; idx++) {
+            attributes.add(new NumericAttribute(iris.attribute(idx).name()));
+        }
+        attributes.add(new CategoricalAttribute(iris.classAttribute().name(), Arrays.asList("0", "1")));
+
+        ModelConfig modelConfig = new ModelConfig(attributes, ImmutableMap.of(
+                WekaModelConfig.MODEL_FILE, model.getAbsolutePath(),
+                WekaModelConfig.CLASSIFIER_FORMAT, "BINARY",
+                WekaModelConfig.FOREST_ENGINE, ForestEngine.FLAT.name()));
+        WekaModelConfig wekaModelConfig = new WekaModelConfig(modelConfig, wekaManagerConfig);
+
+        WekaThreadSafeScorer weka = new WekaThreadSafeScorerPassthrough(wekaModelConfig, wekaManagerConfig);
+        WekaThreadSafeScorer compiled = new WekaThreadSafeScorerCompiled(wekaModelConfig, wekaManagerConfig);
+
+        double[] matrix = new double[iris.numInstances() * iris.numAttributes()];
+        double[] expected = new double[iris.numInstances() * iris.numClasses()];
+        List<Object[]> scorables = new ArrayList<>();
+        for (int row = 0; row < iris.numInstances(); row++) {
+            Object[] scorable = new Object[iris.numAttributes()];
+            for (int idx = 0; idx < iris.numAttributes() - 1; idx++) {
+                scorable[idx] = (row + idx) % 7 == 0 ? null : iris.instance(row).value(idx);
+                matrix[row * iris.numAttributes() + idx] = scorable[idx] == null ? Instance.missingValue() : (Double) scorable[idx];
+            }
+            matrix[row * iris.numAttributes() + iris.classIndex()] = Instance.missingValue();
+
+            double[] wekaScore = weka.score(scorable);
+            System.arraycopy(wekaScore, 0, expected, row * iris.numClasses(), iris.numClasses());
+
+            assertTrue(Arrays.toString(scorable), Arrays.equals(wekaScore, compiled.score(scorable)));
+            scorables.add(scorable);
+        }
+
+        List<double[]> scores = compiled.score(scorables);
+        assertEquals(scorables.size(), scores.size());
+        for (int row = 0; row < scorables.size(); row++) {
+            assertTrue(Arrays.toString(scorables.get(row)), Arrays.equals(weka.score(scorables.get(row)), scores.get(row)));
+        }
+
+        assertTrue(Arrays.equals(expected, compiled.score(matrix, MatrixLayout.ROW_MAJOR)));
+
+        /* the classifier read for compiling is kept (it is not read from file on every call) */
+        assertSame(compiled.getClassifier(), compiled.getClassifier());
+
+        FileUtils.deleteQuietly(model);
+    }
+
+    private void testForests(Instances instances) throws Exception {
+        Instances withMissing = withMissingValues(instances, new Random(42), 0.3);
+
+        for (String[] options : new String[][]{
+                {"-I", "1", "-K", "1", "-S", "1", "-depth", "1"},
+                {"-I", "10", "-K", "2", "-S", "2", "-depth", "3"},
+                {"-I", "50", "-K", "0", "-S", "3", "-depth", "0"}}) {
+            RandomForest randomForest = new RandomForest();
+            randomForest.setOptions(options);
+            randomForest.buildClassifier(instances);
+
+            FlatForest flatForest = RandomForestFlattener.flatten(randomForest);
+            assertEquals(randomForest.getNumTrees(), flatForest.numTrees());
+
+            assertSameDistributions(randomForest, flatForest, instances);
+            assertSameDistributions(randomForest, flatForest, withMissing);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.feedzai.fos.api.ModelDescriptor;
+import com.feedzai.fos.impl.weka.utils.Cloner;
+import com.feedzai.fos.impl.weka.utils.pool.ClassifierFactory;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the time to load a forest model serialized by java with the time to load it encoded by the
+ * {@link ForestCodec}.
+ * <p/>
+ * Not part of the regular test run: run it with <code>mvn test -Dtest=ForestCodecBenchmark</code>.
+ *
+ * @since 1.0.11
+ */
+@BenchmarkOptions(benchmarkRounds = 20, warmupRounds = 10)
+public class ForestCodecBenchmark {
+    private static ModelDescriptor serialized;
+    private static ModelDescriptor encoded;
+
+    @Rule
+    public TestRule benchmarkRun = new BenchmarkRule();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        FastVector classValues = new FastVector(2);
+        classValues.addElement("a");
+        classValues.addElement("b");
+
+        FastVector attributes = new FastVector(11);
+        for (int idx = 0; idx < 10; idx++) {
+            attributes.addElement(new Attribute("x" + idx));
+        }
+        attributes.addElement(new Attribute("class", classValues));
+
+        Instances instances = new Instances("benchmark", attributes, 5000);
+        instances.setClassIndex(10);
+        Random random = new Random(42);
+        for (int row = 0; row < 5000; row++) {
+            double[] values = new double[11];
+            for (int idx = 0; idx < 10; idx++) {
+                values[idx] = random.nextGaussian();
+            }
+            values[10] = values[0] + values[1] * values[2] > 0 ? 0 : 1;
+            instances.add(new Instance(1, values));
+        }
+
+        RandomForest randomForest = new RandomForest();
+        randomForest.setNumTrees(100);
+        randomForest.buildClassifier(instances);
+
+        File serializedFile = File.createTempFile("serialized", ".model");
+        serializedFile.deleteOnExit();
+        new Cloner<Classifier>(randomForest).write(serializedFile);
+        serialized = new ModelDescriptor(ModelDescriptor.Format.BINARY, serializedFile.getAbsolutePath());
+
+        File encodedFile = File.createTempFile("encoded", ".model");
+        encodedFile.deleteOnExit();
+        ForestCodec.write(randomForest, encodedFile);
+        encoded = new ModelDescriptor(ModelDescriptor.Format.BINARY, encodedFile.getAbsolutePath());
+
+        /* the encoded forest is a fraction of the size of the serialized one */
+        assertTrue(encodedFile.length() + " vs " + serializedFile.length() + " bytes", encodedFile.length() * 2 < serializedFile.length());
+    }
+
+    @Test
+    public void serialized() throws Exception {
+        ClassifierFactory.load(serialized);
+    }
+
+    @Test
+    public void encoded() throws Exception {
+        ClassifierFactory.load(encoded);
+    }
+}
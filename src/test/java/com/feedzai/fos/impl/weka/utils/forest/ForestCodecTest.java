@@ -0,0 +1,169 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.api.ModelDescriptor;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import com.feedzai.fos.impl.weka.utils.Cloner;
+import com.feedzai.fos.impl.weka.utils.pool.ClassifierFactory;
+import hr.irb.fastRandomForest.FastRandomForest;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.feedzai.fos.impl.weka.utils.TestData.readArff;
+import static com.feedzai.fos.impl.weka.utils.TestData.withMissingValues;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the {@link ForestCodec}.
+ *
+ * @since 1.0.11
+ */
+public class ForestCodecTest extends BaseCompiledForestTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Instances shuttle = readArff("/datasets/shuttle-landing-control.arff");
+        Instances noise = noise(new Random(5), 500);
+
+        RandomForest randomForest = new RandomForest();
+        randomForest.setOptions(new String[]{"-I", "20", "-S", "3"});
+        randomForest.buildClassifier(shuttle);
+        assertRoundTrip(randomForest, withMissingValues(shuttle, new Random(5), 0.3));
+
+        FastRandomForest fastRandomForest = new FastRandomForest();
+        fastRandomForest.buildClassifier(noise);
+        assertRoundTrip(fastRandomForest, withMissingValues(noise, new Random(5), 0.3));
+    }
+
+    @Test
+    public void testBinaryModelsAreDetected() throws Exception {
+        Instances noise = noise(new Random(3), 1000);
+        RandomForest randomForest = new RandomForest();
+        randomForest.setNumTrees(20);
+        randomForest.buildClassifier(noise);
+
+        File serialized = File.createTempFile("serialized", ".model");
+        serialized.deleteOnExit();
+        new Cloner<Classifier>(randomForest).write(serialized);
+
+        File encoded = File.createTempFile("encoded", ".model");
+        encoded.deleteOnExit();
+        ForestCodec.write(randomForest, encoded);
+
+        assertFalse(ForestCodec.isEncoded(serialized));
+        assertTrue(ForestCodec.isEncoded(encoded));
+        assertTrue(encoded.length() + " vs " + serialized.length(), encoded.length() * 2 < serialized.length());
+
+        ModelDescriptor modelDescriptor = new ModelDescriptor(ModelDescriptor.Format.BINARY, encoded.getAbsolutePath());
+        Classifier loaded = ClassifierFactory.load(modelDescriptor);
+        assertTrue(loaded instanceof FlatForestClassifier);
+        ClassifierFactory classifierFactory = new ClassifierFactory(modelDescriptor);
+        Classifier copy = classifierFactory.makeObject();
+        assertTrue(copy instanceof FlatForestClassifier);
+        assertNotSame(copy, classifierFactory.makeObject());
+        assertSame(((FlatForestClassifier) copy).getForest(), ((FlatForestClassifier) classifierFactory.makeObject()).getForest());
+
+        /* encoded forests keep their format when they are copied to another file */
+        File copied = File.createTempFile("copied", ".model");
+        copied.deleteOnExit();
+        new Cloner<Classifier>(modelDescriptor).write(copied);
+        assertArrayEquals(FileUtils.readFileToByteArray(encoded), FileUtils.readFileToByteArray(copied));
+        assertSameDistributions(randomForest, ((FlatForestClassifier) loaded).getForest(), noise);
+
+        for (int idx = 0; idx < noise.numInstances(); idx++) {
+            assertArrayEquals(randomForest.distributionForInstance(noise.instance(idx)), loaded.distributionForInstance(noise.instance(idx)), 0);
+        }
+
+        /* serialized models keep working */
+        assertTrue(ClassifierFactory.load(new ModelDescriptor(ModelDescriptor.Format.BINARY, serialized.getAbsolutePath())) instanceof RandomForest);
+    }
+
+    @Test
+    public void testInvalidForestsAreRejected() throws Exception {
+        RandomForest randomForest = new RandomForest();
+        randomForest.buildClassifier(readArff("/datasets/iris_model_builder.arff"));
+        byte[] encoded = ForestCodec.encode(ForestEngine.flatten(randomForest));
+
+        byte[] version = encoded.clone();
+        version[5]++;
+        assertRejected(version);
+        assertRejected(Arrays.copyOf(encoded, encoded.length - 1));
+        assertRejected(Arrays.copyOf(encoded, encoded.length + 1));
+        assertRejected(new byte[]{1, 2, 3, 4, 5, 6});
+
+        /* corrupted headers are rejected before the forest is allocated */
+        byte[] header = {0x46, 0x4F, 0x53, 0x46, 0, 1};
+        byte[] pureLeaf = {12, 0};
+        assertRejected(concat(header, new byte[]{5, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 1}, pureLeaf));
+        assertRejected(concat(header, new byte[]{5, 2, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, pureLeaf));
+        assertRejected(concat(header, new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 2, 1}, pureLeaf));
+        assertEquals(1, ForestCodec.decode(concat(header, new byte[]{5, 2, 1}, pureLeaf)).numTrees());
+
+        File empty = File.createTempFile("empty", ".model");
+        empty.deleteOnExit();
+        FileUtils.writeByteArrayToFile(empty, new byte[0]);
+        assertFalse(ForestCodec.isEncoded(empty));
+    }
+
+    private void assertRoundTrip(Classifier classifier, Instances instances) throws Exception {
+        FlatForest forest = ForestEngine.flatten(classifier);
+        FlatForest decoded = ForestCodec.decode(ForestCodec.encode(forest));
+
+        assertEquals(forest.numTrees(), decoded.numTrees());
+        assertEquals(forest.numNodes(), decoded.numNodes());
+        assertArrayEquals(ForestCodec.encode(forest), ForestCodec.encode(decoded));
+        assertSameDistributions(classifier, decoded, instances);
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        byte[] result = new byte[0];
+        for (byte[] part : parts) {
+            int length = result.length;
+            result = Arrays.copyOf(result, length + part.length);
+            System.arraycopy(part, 0, result, length, part.length);
+        }
+        return result;
+    }
+
+    private void assertRejected(byte[] encoded) {
+        try {
+            ForestCodec.decode(encoded);
+            fail("Decoded an invalid forest");
+        } catch (WekaClassifierException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import hr.irb.fastRandomForest.FastRandomForest;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.feedzai.fos.impl.weka.utils.TestData.readArff;
+import static com.feedzai.fos.impl.weka.utils.TestData.withMissingValues;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Tests that {@link GeneratedForest}s score exactly as the forests they were generated from.
+ *
+ * @since 1.0.11
+ */
+public class GeneratedForestTest extends BaseCompiledForestTest {
+
+    @Test
+    public void testIris() throws Exception {
+        Instances iris = readArff("/datasets/iris_model_builder.arff");
+
+        testForests(new FastRandomForest(), iris);
+        testForests(new RandomForest(), iris);
+    }
+
+    @Test
+    public void testShuttleLandingControl() throws Exception {
+        Instances shuttle = readArff("/datasets/shuttle-landing-control.arff");
+
+        testForests(new FastRandomForest(), shuttle);
+        testForests(new RandomForest(), shuttle);
+    }
+
+    @Test
+    public void testManyTreesAreSplitInChunks() throws Exception {
+        Instances iris = readArff("/datasets/iris_model_builder.arff");
+
+        FastRandomForest fastRandomForest = new FastRandomForest();
+        fastRandomForest.setOptions(new String[]{"-I", Integer.toString(2 * GeneratedForest.TREES_PER_CHUNK + 1), "-S", "1", "-depth", "3"});
+        fastRandomForest.buildClassifier(iris);
+
+        GeneratedForest generatedForest = (GeneratedForest) ForestEngine.BYTECODE.compile(fastRandomForest);
+        assertEquals(2 * GeneratedForest.TREES_PER_CHUNK + 1, generatedForest.numGeneratedTrees());
+
+        assertSameDistributions(fastRandomForest, generatedForest, iris);
+    }
+
+    @Test
+    public void testLargeTreesAreSplitInMethods() throws Exception {
+        Instances noise = noise(new Random(7), 4000);
+
+        RandomForest randomForest = new RandomForest();
+        randomForest.setOptions(new String[]{"-I", "10", "-S", "1"});
+        randomForest.buildClassifier(noise);
+
+        GeneratedForest generatedForest = (GeneratedForest) ForestEngine.BYTECODE.compile(randomForest);
+        assertEquals(10, generatedForest.numGeneratedTrees());
+
+        assertSameDistributions(randomForest, generatedForest, noise);
+        assertSameDistributions(randomForest, generatedForest, withMissingValues(noise, new Random(3), 0.3));
+    }
+
+    @Test
+    public void testDeepTreesAreSplitInMethods() throws Exception {
+        /* a chain of 2000 numeric splits (value < depth exits to a leaf of class depth % 3), way over a single method */
+        int depth = 2000;
+        FlatForest.Builder builder = new FlatForest.Builder(2, 3).addTree();
+        int parent = builder.addSplit(0, false, 0, new double[]{0.5, 0.5}, null);
+        for (int level = 0; level < depth; level++) {
+            double[] distribution = new double[3];
+            distribution[level % 3] = 1;
+            builder.setChild(parent, 0, builder.addLeaf(distribution));
+            int child = level + 1 < depth ? builder.addSplit(0, false, level + 1, new double[]{0.5, 0.5}, null) : builder.addLeaf(new double[]{1, 1, 1});
+            builder.setChild(parent, 1, child);
+            parent = child;
+        }
+        FlatForest flatForest = builder.build();
+
+        GeneratedForest generatedForest = new GeneratedForest(flatForest);
+        assertEquals(1, generatedForest.numGeneratedTrees());
+
+        Random random = new Random(11);
+        for (int idx = 0; idx < 1000; idx++) {
+            double[] values = {random.nextDouble() * (depth + 10) - 5, 0};
+            if (idx % 100 == 0) {
+                values[0] = Double.NaN;
+            }
+            assertArrayEquals(flatForest.distribution(values, new double[3]), generatedForest.distribution(values, new double[3]), 0);
+        }
+    }
+
+    @Test
+    public void testUnknownNominalValues() throws Exception {
+        Instances shuttle = readArff("/datasets/shuttle-landing-control.arff");
+
+        RandomForest randomForest = new RandomForest();
+        randomForest.setOptions(new String[]{"-I", "20", "-S", "5"});
+        randomForest.buildClassifier(shuttle);
+
+        CompiledForest flat = ForestEngine.FLAT.compile(randomForest);
+        CompiledForest generated = ForestEngine.BYTECODE.compile(randomForest);
+
+        /* indexes that no tree can follow fail in both engines (as they do in weka) */
+        double[] values = shuttle.instance(0).toDoubleArray();
+        Arrays.fill(values, 17);
+        assertNotNull(failure(flat, values));
+        assertEquals(failure(flat, values), failure(generated, values));
+    }
+
+    private void testForests(Classifier classifier, Instances instances) throws Exception {
+        Instances withMissing = withMissingValues(instances, new Random(42), 0.3);
+
+        for (String[] options : new String[][]{
+                {"-I", "1", "-K", "1", "-S", "1", "-depth", "1"},
+                {"-I", "10", "-K", "2", "-S", "2", "-depth", "3"},
+                {"-I", "100", "-K", "0", "-S", "3", "-depth", "0"}}) {
+            classifier.setOptions(options);
+            classifier.buildClassifier(instances);
+
+            GeneratedForest generatedForest = (GeneratedForest) ForestEngine.BYTECODE.compile(classifier);
+
+            assertSameDistributions(classifier, generatedForest, instances);
+            assertSameDistributions(classifier, generatedForest, withMissing);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.feedzai.fos.api.Attribute;
+import com.feedzai.fos.api.CategoricalAttribute;
+import com.feedzai.fos.api.ModelConfig;
+import com.feedzai.fos.api.NumericAttribute;
+import com.feedzai.fos.api.config.FosConfig;
+import com.feedzai.fos.impl.weka.WekaManagerFactory;
+import com.feedzai.fos.impl.weka.config.WekaManagerConfig;
+import com.feedzai.fos.impl.weka.config.WekaModelConfig;
+import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import com.feedzai.fos.impl.weka.utils.Cloner;
+import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorer;
+import com.feedzai.fos.impl.weka.utils.WekaThreadSafeScorerCompiled;
+import com.google.common.collect.ImmutableMap;
+import hr.irb.fastRandomForest.FastRandomForest;
+import org.apache.commons.configuration.BaseConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.feedzai.fos.impl.weka.utils.TestData.readArff;
+import static com.feedzai.fos.impl.weka.utils.TestData.withMissingValues;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests that {@link MappedForest}s score exactly as the forests they were compiled from.
+ *
+ * @since 1.0.11
+ */
+public class MappedForestTest extends BaseCompiledForestTest {
+
+    @Test
+    public void testIris() throws Exception {
+        testForests(readArff("/datasets/iris_model_builder.arff"));
+    }
+
+    @Test
+    public void testShuttleLandingControl() throws Exception {
+        testForests(readArff("/datasets/shuttle-landing-control.arff"));
+    }
+
+    @Test
+    public void testLargeTrees() throws Exception {
+        Instances noise = noise(new Random(7), 2000);
+
+        FastRandomForest fastRandomForest = new FastRandomForest();
+        fastRandomForest.setOptions(new String[]{"-I", "10", "-S", "1"});
+        fastRandomForest.buildClassifier(noise);
+
+        MappedForest mappedForest = (MappedForest) ForestEngine.MAPPED.compile(fastRandomForest);
+        FlatForest flatForest = ForestEngine.flatten(fastRandomForest);
+        assertEquals(flatForest.numTrees(), mappedForest.numTrees());
+        assertEquals(flatForest.numNodes(), mappedForest.numNodes());
+
+        assertSameDistributions(fastRandomForest, mappedForest, noise);
+        assertSameDistributions(fastRandomForest, mappedForest, withMissingValues(noise, new Random(7), 0.3));
+    }
+
+    @Test
+    public void testInvalidFilesAreRejected() throws Exception {
+        RandomForest randomForest = new RandomForest();
+        randomForest.buildClassifier(readArff("/datasets/iris_model_builder.arff"));
+
+        File file = File.createTempFile("mapped", ".forest");
+        file.deleteOnExit();
+        MappedForest.write(randomForest, file);
+        byte[] bytes = FileUtils.readFileToByteArray(file);
+
+        assertRejected(file, Arrays.copyOf(bytes, bytes.length - 8));
+        assertRejected(file, Arrays.copyOf(bytes, bytes.length + 8));
+        assertRejected(file, Arrays.copyOf(bytes, 16));
+        byte[] version = bytes.clone();
+        version[4]++;
+        assertRejected(file, version);
+
+        /* a serialized model is not a mapped forest */
+        new Cloner<Classifier>(randomForest).write(file);
+        try {
+            new MappedForest(file);
+            fail("Mapped a serialized model");
+        } catch (WekaClassifierException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompiledScorerMapsTheForestFile() throws Exception {
+        Instances iris = readArff("/datasets/iris_model_builder.arff");
+        RandomForest randomForest = new RandomForest();
+        randomForest.setOptions(new String[]{"-I", "20", "-S", "3"});
+        randomForest.buildClassifier(iris);
+
+        File model = File.createTempFile("mapped", ".model");
+        model.deleteOnExit();
+        new Cloner<Classifier>(randomForest).write(model);
+        File forest = new File(model.getPath() + ".forest");
+        forest.deleteOnExit();
+
+        BaseConfiguration configuration = new BaseConfiguration();
+        configuration.setProperty(FosConfig.FACTORY_NAME, WekaManagerFactory.class.getName());
+        WekaManagerConfig wekaManagerConfig = new WekaManagerConfig(new FosConfig(configuration));
+
+        List<Attribute> attributes = new ArrayList<>();
+        for (int idx = 0; idx < iris.numAttributes() - 1; idx++) {
+            attributes.add(new NumericAttribute(iris.attribute(idx).name()));
+        }
+        attributes.add(new CategoricalAttribute(iris.classAttribute().name(), Arrays.asList("0", "1")));
+
+        ModelConfig modelConfig = new ModelConfig(attributes, ImmutableMap.of(
+                WekaModelConfig.MODEL_FILE, model.getAbsolutePath(),
+                WekaModelConfig.CLASSIFIER_FORMAT, "BINARY",
+                WekaModelConfig.FOREST_ENGINE, ForestEngine.MAPPED.name()));
+        WekaModelConfig wekaModelConfig = new WekaModelConfig(modelConfig, wekaManagerConfig);
+        assertEquals(forest, wekaModelConfig.getMappedForest());
+
+        Object[] scorable = new Object[]{5.1, 3.5, 1.4, 0.2, null};
+        double[] expected = new WekaThreadSafeScorerCompiled(wekaModelConfig, wekaManagerConfig).score(scorable);
+        assertTrue(forest.exists());
+
+        /* the forest file is mapped as is while the model is the one it was compiled from */
+        assertTrue(MappedForest.isCompiledFrom(forest, model));
+        assertTrue(forest.setLastModified(forest.lastModified() - 10000));
+        long compiled = forest.lastModified();
+        WekaThreadSafeScorer scorer = new WekaThreadSafeScorerCompiled(wekaModelConfig, wekaManagerConfig);
+        assertArrayEquals(expected, scorer.score(scorable), 0);
+        assertEquals(compiled, forest.lastModified());
+
+        /* and compiled again when the model is replaced, even by an older file */
+        FileUtils.writeByteArrayToFile(model, new byte[]{1, 2, 3});
+        assertTrue(model.setLastModified(compiled - 10000));
+        assertFalse(MappedForest.isCompiledFrom(forest, model));
+        try {
+            new WekaThreadSafeScorerCompiled(wekaModelConfig, wekaManagerConfig);
+            fail("The model should have been read");
+        } catch (Exception e) {
+            // expected
+        }
+        assertArrayEquals(expected, scorer.score(scorable), 0);
+    }
+
+    @Test
+    public void testSourceIsStoredInTheHeader() throws Exception {
+        RandomForest randomForest = new RandomForest();
+        randomForest.buildClassifier(readArff("/datasets/iris_model_builder.arff"));
+
+        File model = File.createTempFile("mapped", ".model");
+        model.deleteOnExit();
+        new Cloner<Classifier>(randomForest).write(model);
+        File file = File.createTempFile("mapped", ".forest");
+        file.deleteOnExit();
+
+        MappedForest.write(randomForest, file, model);
+        assertTrue(MappedForest.isCompiledFrom(file, model));
+        assertTrue(MappedForest.isCompiledFrom(file, null));
+
+        /* same length, another modification time */
+        assertTrue(model.setLastModified(model.lastModified() - 10000));
+        assertFalse(MappedForest.isCompiledFrom(file, model));
+
+        /* forests without a source, from older versions or missing are never up to date */
+        MappedForest.write(randomForest, file);
+        assertFalse(MappedForest.isCompiledFrom(file, model));
+        byte[] version = FileUtils.readFileToByteArray(file);
+        version[4]--;
+        FileUtils.writeByteArrayToFile(file, version);
+        assertFalse(MappedForest.isCompiledFrom(file, null));
+        assertTrue(file.delete());
+        assertFalse(MappedForest.isCompiledFrom(file, null));
+    }
+
+    private void testForests(Instances instances) throws Exception {
+        Instances withMissing = withMissingValues(instances, new Random(42), 0.3);
+
+        for (Classifier classifier : new Classifier[]{new RandomForest(), new FastRandomForest()}) {
+            classifier.setOptions(new String[]{"-I", "20", "-S", "3"});
+            classifier.buildClassifier(instances);
+
+            CompiledForest compiledForest = ForestEngine.MAPPED.compile(classifier);
+            assertSameDistributions(classifier, compiledForest, instances);
+            assertSameDistributions(classifier, compiledForest, withMissing);
+        }
+    }
+
+    private void assertRejected(File file, byte[] bytes) throws Exception {
+        FileUtils.writeByteArrayToFile(file, bytes);
+        try {
+            new MappedForest(file);
+            fail("Mapped an invalid forest");
+        } catch (WekaClassifierException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import hr.irb.fastRandomForest.FastRandomForest;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.feedzai.fos.impl.weka.utils.TestData.readArff;
+import static com.feedzai.fos.impl.weka.utils.TestData.withMissingValues;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link QuickScorerForest}s score exactly as the forests they were compiled from.
+ *
+ * @since 1.0.11
+ */
+public class QuickScorerForestTest extends BaseCompiledForestTest {
+    private static final String[][] OPTIONS = new String[][]{
+            {"-I", "1", "-K", "1", "-S", "1", "-depth", "1"},
+            {"-I", "10", "-K", "2", "-S", "2", "-depth", "3"},
+            {"-I", "50", "-K", "0", "-S", "3", "-depth", "0"}};
+
+    @Test
+    public void testIris() throws Exception {
+        Instances iris = readArff("/datasets/iris_model_builder.arff");
+
+        testForests(new FastRandomForest(), iris);
+        testForests(new RandomForest(), iris);
+    }
+
+    @Test
+    public void testShuttleLandingControl() throws Exception {
+        Instances shuttle = readArff("/datasets/shuttle-landing-control.arff");
+
+        testForests(new FastRandomForest(), shuttle);
+        testForests(new RandomForest(), shuttle);
+    }
+
+    @Test
+    public void testLargeTreesAreScoredByTheFlatForest() throws Exception {
+        Instances noise = noise(new Random(7), 2000);
+
+        FastRandomForest fastRandomForest = new FastRandomForest();
+        fastRandomForest.setOptions(new String[]{"-I", "10", "-S", "1"});
+        fastRandomForest.buildClassifier(noise);
+
+        QuickScorerForest quickScorerForest = (QuickScorerForest) ForestEngine.QUICK_SCORER.compile(fastRandomForest);
+        assertTrue(quickScorerForest.numQuickScoredTrees() < 10);
+
+        assertSameDistributions(fastRandomForest, quickScorerForest, noise);
+    }
+
+    @Test
+    public void testUnknownNominalValues() throws Exception {
+        Instances shuttle = readArff("/datasets/shuttle-landing-control.arff");
+
+        FastRandomForest fastRandomForest = new FastRandomForest();
+        fastRandomForest.setOptions(new String[]{"-I", "20", "-S", "5"});
+        fastRandomForest.buildClassifier(shuttle);
+
+        CompiledForest flat = ForestEngine.FLAT.compile(fastRandomForest);
+        CompiledForest quick = ForestEngine.QUICK_SCORER.compile(fastRandomForest);
+
+        /* indexes that no tree can follow fail in both engines (as they do in weka) */
+        double[] values = shuttle.instance(0).toDoubleArray();
+        Arrays.fill(values, 17);
+        assertNotNull(failure(flat, values));
+        assertEquals(failure(flat, values), failure(quick, values));
+    }
+
+    private void testForests(Classifier classifier, Instances instances) throws Exception {
+        Instances withMissing = withMissingValues(instances, new Random(42), 0.3);
+
+        for (String[] options : OPTIONS) {
+            classifier.setOptions(options.clone());
+            classifier.buildClassifier(instances);
+
+            for (ForestEngine engine : new ForestEngine[]{ForestEngine.FLAT, ForestEngine.QUICK_SCORER}) {
+                CompiledForest compiledForest = engine.compile(classifier);
+
+                assertSameDistributions(classifier, compiledForest, instances);
+                assertSameDistributions(classifier, compiledForest, withMissing);
+            }
+        }
+    }
+}
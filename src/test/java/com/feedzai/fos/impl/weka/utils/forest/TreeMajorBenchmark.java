@@ -0,0 +1,145 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.forest;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import hr.irb.fastRandomForest.FastRandomForest;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.util.Random;
+
+/**
+ * Compares the throughput of row-major scoring (every instance walks every tree) with the tree-major blocks of
+ * {@link CompiledForest#distributions(double[][], int, double[][])}, for <code>RandomForest</code> and
+ * <code>FastRandomForest</code> (and of the {@link MappedForest} arrays against the heap ones).
+ * <p/>
+ * Not part of the regular test run: run it with <code>mvn test -Dtest=TreeMajorBenchmark</code>.
+ *
+ * @since 1.0.11
+ */
+@BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 3)
+public class TreeMajorBenchmark extends BaseCompiledForestTest {
+    private static final int TREES = 100;
+    private static final int TRAINING_ROWS = 5000;
+    private static final int SCORED_ROWS = 10000;
+
+    private static Instances scored;
+    private static double[][] values;
+    private static RandomForest randomForest;
+    private static FastRandomForest fastRandomForest;
+    private static CompiledForest randomFlatForest;
+    private static CompiledForest randomMappedForest;
+    private static CompiledForest fastRandomFlatForest;
+
+    @Rule
+    public TestRule benchmarkRun = new BenchmarkRule();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        TreeMajorBenchmark data = new TreeMajorBenchmark();
+        Instances training = data.noise(new Random(1), TRAINING_ROWS);
+        scored = data.noise(new Random(2), SCORED_ROWS);
+
+        values = new double[SCORED_ROWS][];
+        for (int row = 0; row < SCORED_ROWS; row++) {
+            values[row] = scored.instance(row).toDoubleArray();
+        }
+
+        randomForest = new RandomForest();
+        randomForest.setOptions(new String[]{"-I", Integer.toString(TREES), "-S", "1"});
+        randomForest.buildClassifier(training);
+        randomFlatForest = ForestEngine.FLAT.compile(randomForest);
+        randomMappedForest = ForestEngine.MAPPED.compile(randomForest);
+
+        fastRandomForest = new FastRandomForest();
+        fastRandomForest.setOptions(new String[]{"-I", Integer.toString(TREES), "-S", "1"});
+        fastRandomForest.buildClassifier(training);
+        fastRandomFlatForest = ForestEngine.FLAT.compile(fastRandomForest);
+    }
+
+    @Test
+    public void randomForestWeka() throws Exception {
+        weka(randomForest);
+    }
+
+    @Test
+    public void randomForestRowMajor() throws Exception {
+        rowMajor(randomFlatForest);
+    }
+
+    @Test
+    public void randomForestTreeMajor() throws Exception {
+        treeMajor(randomFlatForest);
+    }
+
+    @Test
+    public void randomForestMappedTreeMajor() throws Exception {
+        treeMajor(randomMappedForest);
+    }
+
+    @Test
+    public void fastRandomForestWeka() throws Exception {
+        weka(fastRandomForest);
+    }
+
+    @Test
+    public void fastRandomForestRowMajor() throws Exception {
+        rowMajor(fastRandomFlatForest);
+    }
+
+    @Test
+    public void fastRandomForestTreeMajor() throws Exception {
+        treeMajor(fastRandomFlatForest);
+    }
+
+    private void weka(Classifier classifier) throws Exception {
+        for (int row = 0; row < scored.numInstances(); row++) {
+            classifier.distributionForInstance(scored.instance(row));
+        }
+    }
+
+    private void rowMajor(CompiledForest compiledForest) throws Exception {
+        double[] result = new double[compiledForest.numClasses()];
+
+        for (double[] row : values) {
+            compiledForest.distribution(row, result);
+        }
+    }
+
+    private void treeMajor(CompiledForest compiledForest) throws Exception {
+        double[][] block = new double[CompiledForest.BLOCK_SIZE][];
+        double[][] results = new double[CompiledForest.BLOCK_SIZE][compiledForest.numClasses()];
+
+        for (int first = 0; first < values.length; first += CompiledForest.BLOCK_SIZE) {
+            int count = Math.min(CompiledForest.BLOCK_SIZE, values.length - first);
+            System.arraycopy(values, first, block, 0, count);
+            compiledForest.distributions(block, count, results);
+        }
+    }
+}
@@ -21,6 +21,7 @@
  */
 package com.feedzai.fos.impl.weka.utils.pool;
 
+import org.apache.commons.pool.BasePoolableObjectFactory;
 import org.apache.commons.pool.PoolableObjectFactory;
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -29,11 +30,20 @@ import org.junit.runner.RunWith;
 import org.powermock.api.easymock.PowerMock;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 /**
  * @author Marco Jorge (marco.jorge@feedzai.com)
  */
 @RunWith(PowerMockRunner.class)
 public class AutoPopulateGenericObjectPoolTest {
+    private static final long CREATE_MILLIS = 200;
+
     private PoolableObjectFactory<Object> objectFactory;
 
     @Before
@@ -78,4 +88,68 @@ public class AutoPopulateGenericObjectPoolTest {
 
         PowerMock.verify(objectFactory);
     }
+
+    @Test
+    public void testPopulatesConcurrently() throws Exception {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(8);
+        config.setMaxActive(8);
+        config.setPopulateThreads(8);
+
+        long start = System.nanoTime();
+        AutoPopulateGenericObjectPool<Object> pool = new AutoPopulateGenericObjectPool<>(new SlowFactory(), config);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(8, pool.getNumIdle());
+        assertEquals(0, pool.getNumActive());
+        /* one creation per thread (not 8 in a row) */
+        assertTrue("Took " + elapsed + " ms", elapsed < 4 * CREATE_MILLIS);
+
+        pool.close();
+    }
+
+    @Test
+    public void testPopulationIsLimited() throws Exception {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(10);
+        config.setMaxIdle(3);
+        config.setMaxActive(5);
+
+        SlowFactory factory = new SlowFactory();
+        AutoPopulateGenericObjectPool<Object> pool = new AutoPopulateGenericObjectPool<>(factory, config);
+
+        assertEquals(3, pool.getNumIdle());
+        assertEquals(3, factory.created.get());
+
+        pool.close();
+    }
+
+    @Test
+    public void testPopulationFailures() throws Exception {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(4);
+
+        try {
+            new AutoPopulateGenericObjectPool<>(new BasePoolableObjectFactory<Object>() {
+                @Override
+                public Object makeObject() throws Exception {
+                    throw new IllegalStateException("cannot load");
+                }
+            }, config);
+            fail("The pool could not be populated");
+        } catch (IllegalStateException e) {
+            assertEquals("cannot load", e.getMessage());
+        }
+    }
+
+    private static class SlowFactory extends BasePoolableObjectFactory<Object> {
+        private final AtomicInteger created = new AtomicInteger();
+
+        @Override
+        public Object makeObject() throws Exception {
+            Thread.sleep(CREATE_MILLIS);
+            created.incrementAndGet();
+            return new Object();
+        }
+    }
 }
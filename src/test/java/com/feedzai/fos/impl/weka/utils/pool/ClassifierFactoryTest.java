@@ -23,10 +23,17 @@ package com.feedzai.fos.impl.weka.utils.pool;
 
 import com.feedzai.fos.api.ModelDescriptor;
 import com.feedzai.fos.impl.weka.exception.WekaClassifierException;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.SerializationUtils;
 import org.junit.Test;
 import weka.classifiers.Classifier;
 
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Tests for {@link ClassifierFactory}.
@@ -63,4 +70,23 @@ public class ClassifierFactoryTest {
 
         assertNotNull("Read classifier cannot be null.", classifier);
     }
+
+    /**
+     * Tests that the model file is only read once and the objects are copies of it.
+     */
+    @Test
+    public void testMakeObjectReadsTheModelOnce() throws Exception {
+        File model = File.createTempFile("test", ".model");
+        model.deleteOnExit();
+        FileUtils.copyFile(new File("target/test-classes/models/test.model"), model);
+
+        ClassifierFactory classifierFactory = new ClassifierFactory(new ModelDescriptor(ModelDescriptor.Format.BINARY, model.getAbsolutePath()));
+        Classifier first = classifierFactory.makeObject();
+
+        assertTrue(model.delete());
+        Classifier second = classifierFactory.makeObject();
+
+        assertNotSame(first, second);
+        assertArrayEquals(SerializationUtils.serialize(first), SerializationUtils.serialize(second));
+    }
 }
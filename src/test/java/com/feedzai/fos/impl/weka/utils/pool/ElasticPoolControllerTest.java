@@ -0,0 +1,183 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link ElasticPoolController}.
+ *
+ * @since 1.0.11
+ */
+public class ElasticPoolControllerTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testGrowsWhenThreadsWait() throws Exception {
+        GenericObjectPoolConfig config = config();
+        AutoPopulateGenericObjectPool<Object> pool = new AutoPopulateGenericObjectPool<>(new Factory(), config);
+        ElasticPoolController<Object> controller = new ElasticPoolController<>(pool, config, "test");
+        assertEquals(1, pool.getMaxActive());
+
+        // one thread held the only object while others waited 3 times as long: grows (at most doubles)
+        use(controller, 1, 3 * MILLIS, MILLIS);
+        controller.adjust(false);
+        assertEquals(2, pool.getMaxActive());
+        assertEquals(2, pool.getNumIdle());
+
+        use(controller, 2, 3 * MILLIS, MILLIS);
+        controller.adjust(false);
+        assertEquals(4, pool.getMaxActive());
+        assertEquals(4, pool.getNumIdle());
+
+        // never above the elastic maximum
+        use(controller, 4, 3 * MILLIS, MILLIS);
+        controller.adjust(false);
+        assertEquals(4, pool.getMaxActive());
+        assertEquals(4, pool.getNumIdle());
+    }
+
+    @Test
+    public void testKeepsSizeWithoutContention() throws Exception {
+        GenericObjectPoolConfig config = config();
+        config.setMaxActive(2);
+        StripedObjectPool<Object> pool = new StripedObjectPool<>(new Factory(), config);
+        ElasticPoolController<Object> controller = new ElasticPoolController<>(pool, config, "test");
+
+        // short waits
+        use(controller, 2, 10, MILLIS);
+        controller.adjust(false);
+        assertEquals(2, pool.getMaxActive());
+
+        // long waits, but not all objects were in use
+        use(controller, 1, 3 * MILLIS, MILLIS);
+        controller.adjust(false);
+        assertEquals(2, pool.getMaxActive());
+
+        // nothing was borrowed
+        controller.adjust(false);
+        assertEquals(2, pool.getMaxActive());
+    }
+
+    @Test
+    public void testShrinksUnderMemoryPressure() throws Exception {
+        GenericObjectPoolConfig config = config();
+        config.setMaxActive(4);
+        config.setMinIdle(4);
+        AutoPopulateGenericObjectPool<Object> pool = new AutoPopulateGenericObjectPool<>(new Factory(), config);
+        config.setMinIdle(1);
+        ElasticPoolController<Object> controller = new ElasticPoolController<>(pool, config, "test");
+        assertEquals(4, pool.getNumIdle());
+
+        // two objects were in use: keeps them
+        use(controller, 2, 0, MILLIS);
+        controller.adjust(true);
+        assertEquals(2, pool.getMaxActive());
+        assertEquals(2, pool.getNumIdle());
+
+        // down to the minimum
+        controller.adjust(true);
+        assertEquals(1, pool.getMaxActive());
+        assertEquals(1, pool.getNumIdle());
+    }
+
+    @Test
+    public void testGrowsAboveMaxIdle() throws Exception {
+        GenericObjectPoolConfig config = config();
+        config.setMaxIdle(1);
+        AutoPopulateGenericObjectPool<Object> pool = new AutoPopulateGenericObjectPool<>(new Factory(), config);
+        ElasticPoolController<Object> controller = new ElasticPoolController<>(pool, config, "test");
+
+        use(controller, 1, 3 * MILLIS, MILLIS);
+        controller.adjust(false);
+        assertEquals(2, pool.getMaxActive());
+        assertEquals(2, pool.getNumIdle());
+
+        // the new objects are kept when they are returned
+        Object first = pool.borrowObject();
+        Object second = pool.borrowObject();
+        pool.returnObject(first);
+        pool.returnObject(second);
+        assertEquals(2, pool.getNumIdle());
+    }
+
+    @Test(timeout = 10000)
+    public void testShrinkNeverWaitsForObjects() throws Exception {
+        GenericObjectPoolConfig config = config();
+        config.setMaxActive(2);
+        config.setMinIdle(2);
+        AutoPopulateGenericObjectPool<Object> pool = new AutoPopulateGenericObjectPool<>(new Factory(), config);
+        config.setMinIdle(1);
+        ElasticPoolController<Object> controller = new ElasticPoolController<>(pool, config, "test");
+
+        Object first = pool.borrowObject();
+        Object second = pool.borrowObject();
+        assertNull(pool.pollIdle());
+
+        // every object is in use: nothing to release, and the pool is not left blocking
+        controller.adjust(true);
+        assertEquals(1, pool.getMaxActive());
+        assertEquals(2, pool.getNumActive());
+        assertEquals(GenericObjectPool.WHEN_EXHAUSTED_BLOCK, pool.getWhenExhaustedAction());
+
+        pool.returnObject(first);
+        pool.returnObject(second);
+        controller.adjust(true);
+        assertEquals(1, pool.getNumActive() + pool.getNumIdle());
+    }
+
+    /**
+     * Records the given number of concurrent borrows.
+     */
+    private void use(ElasticPoolController<Object> controller, int concurrent, long waitNanos, long holdNanos) {
+        for (int idx = 0; idx < concurrent; idx++) {
+            controller.borrowed(waitNanos);
+        }
+        for (int idx = 0; idx < concurrent; idx++) {
+            controller.returned(holdNanos);
+        }
+    }
+
+    private GenericObjectPoolConfig config() {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(1);
+        config.setMaxActive(1);
+        config.setElastic(true);
+        config.setElasticMaxActive(4);
+        config.setElasticWaitMicros(100);
+        return config;
+    }
+
+    private static class Factory extends BasePoolableObjectFactory<Object> {
+        @Override
+        public Object makeObject() {
+            return new Object();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.ObjectPool;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+/**
+ * Compares the contention of the {@link AutoPopulateGenericObjectPool} and the {@link StripedObjectPool} when many
+ * threads borrow and return objects with a short piece of work in between (like scoring a small model).
+ * <p/>
+ * Not part of the regular test run: run it with <code>mvn test -Dtest=ObjectPoolBenchmark</code>.
+ *
+ * @since 1.0.11
+ */
+@BenchmarkOptions(benchmarkRounds = 20, warmupRounds = 5, concurrency = ObjectPoolBenchmark.THREADS)
+public class ObjectPoolBenchmark {
+    static final int THREADS = 16;
+    private static final int OPERATIONS = 20000;
+
+    private static ObjectPool<double[]> genericPool;
+    private static ObjectPool<double[]> stripedPool;
+
+    @Rule
+    public TestRule benchmarkRun = new BenchmarkRule();
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(THREADS);
+        config.setMaxActive(THREADS);
+        config.setMaxIdle(-1);
+
+        genericPool = new AutoPopulateGenericObjectPool<>(new Factory(), config);
+        stripedPool = new StripedObjectPool<>(new Factory(), config);
+    }
+
+    @Test
+    public void genericObjectPool() throws Exception {
+        borrowAndReturn(genericPool);
+    }
+
+    @Test
+    public void stripedObjectPool() throws Exception {
+        borrowAndReturn(stripedPool);
+    }
+
+    private void borrowAndReturn(ObjectPool<double[]> pool) throws Exception {
+        for (int idx = 0; idx < OPERATIONS; idx++) {
+            double[] object = pool.borrowObject();
+            object[0] += idx;
+            pool.returnObject(object);
+        }
+    }
+
+    private static class Factory extends BasePoolableObjectFactory<double[]> {
+        @Override
+        public double[] makeObject() {
+            return new double[8];
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.ObjectPool;
+import org.junit.Test;
+
+import java.util.NoSuchElementException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link PoolMetrics}.
+ *
+ * @since 1.0.11
+ */
+public class PoolMetricsTest {
+
+    @Test
+    public void testCountsPoolUsage() throws Exception {
+        PoolMetrics metrics = new PoolMetrics();
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(2);
+        config.setMaxIdle(2);
+        config.setMaxActive(2);
+        ObjectPool<Object> pool = new AutoPopulateGenericObjectPool<>(metrics.timed(new Factory()), config);
+
+        assertEquals(2, metrics.getCreated());
+        assertEquals(2, metrics.getNumIdle());
+        assertTrue(metrics.getAverageCreationMillis() >= 1);
+
+        Object first = borrow(metrics, pool);
+        Object second = borrow(metrics, pool);
+        assertEquals(2, metrics.getBorrows());
+        assertEquals(2, metrics.getNumActive());
+        assertEquals(0, metrics.getNumIdle());
+        assertEquals(0, metrics.getExhaustions());
+
+        pool.returnObject(first);
+        metrics.returned();
+        pool.invalidateObject(second);
+        metrics.returned();
+        assertEquals(0, metrics.getNumActive());
+        assertEquals(1, metrics.getNumIdle());
+        assertEquals(1, metrics.getDestroyed());
+    }
+
+    @Test
+    public void testCountsExhaustionsAndFailures() throws Exception {
+        PoolMetrics metrics = new PoolMetrics();
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(1);
+        config.setMaxIdle(1);
+        config.setMaxActive(1);
+        config.setMaxWait(10);
+        ObjectPool<Object> pool = new AutoPopulateGenericObjectPool<>(metrics.timed(new Factory()), config);
+
+        borrow(metrics, pool);
+        try {
+            borrow(metrics, pool);
+            fail("The pool should be exhausted");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+
+        assertEquals(2, metrics.getBorrows());
+        assertEquals(1, metrics.getExhaustions());
+        assertEquals(1, metrics.getBorrowFailures());
+        assertEquals(1, metrics.getNumActive());
+        assertTrue(metrics.getMaxBorrowWaitMicros() >= 10000);
+
+        metrics.reset();
+        assertEquals(0, metrics.getBorrows());
+        assertEquals(0, metrics.getExhaustions());
+        assertEquals(0, metrics.getMaxBorrowWaitMicros(), 0);
+        assertEquals(1, metrics.getNumActive());
+    }
+
+    private static Object borrow(PoolMetrics metrics, ObjectPool<Object> pool) throws Exception {
+        metrics.borrowing();
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            Object object = pool.borrowObject();
+            success = true;
+            return object;
+        } finally {
+            metrics.borrowed(System.nanoTime() - start, success);
+        }
+    }
+
+    private static class Factory extends BasePoolableObjectFactory<Object> {
+        @Override
+        public Object makeObject() throws Exception {
+            Thread.sleep(2);
+            return new Object();
+        }
+    }
+}
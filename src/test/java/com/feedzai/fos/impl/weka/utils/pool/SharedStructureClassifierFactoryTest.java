@@ -0,0 +1,104 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import com.feedzai.fos.api.ModelDescriptor;
+import com.feedzai.fos.impl.weka.utils.Cloner;
+import org.junit.Test;
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.meta.FilteredClassifier;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+import weka.filters.unsupervised.attribute.Discretize;
+
+import java.io.File;
+
+import static com.feedzai.fos.impl.weka.utils.TestData.readArff;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link SharedStructureClassifierFactory}.
+ *
+ * @since 1.0.11
+ */
+public class SharedStructureClassifierFactoryTest {
+
+    @Test
+    public void testCopiesShareTheForest() throws Exception {
+        Instances data = readArff("/datasets/iris_model_builder.arff");
+
+        FilteredClassifier classifier = new FilteredClassifier();
+        classifier.setFilter(new Discretize());
+        classifier.setClassifier(new RandomForest());
+        classifier.buildClassifier(data);
+
+        File model = File.createTempFile("filtered", ".model");
+        model.deleteOnExit();
+        new Cloner<Classifier>(classifier).write(model);
+
+        SharedStructureClassifierFactory factory = new SharedStructureClassifierFactory(new ModelDescriptor(ModelDescriptor.Format.BINARY, model.getAbsolutePath()));
+        FilteredClassifier first = (FilteredClassifier) factory.makeObject();
+        FilteredClassifier second = (FilteredClassifier) factory.makeObject();
+
+        // the (mutable) filter is copied, the forest is shared
+        assertNotSame(first, second);
+        assertNotSame(first.getFilter(), second.getFilter());
+        assertSame(first.getClassifier(), second.getClassifier());
+
+        for (int idx = 0; idx < data.numInstances(); idx++) {
+            double[] expected = classifier.distributionForInstance(data.instance(idx));
+            assertArrayEquals(expected, first.distributionForInstance(data.instance(idx)), 0);
+            assertArrayEquals(expected, second.distributionForInstance(data.instance(idx)), 0);
+        }
+    }
+
+    @Test
+    public void testUnregisteredClassifiersAreCopied() throws Exception {
+        Instances data = readArff("/datasets/iris_model_builder.arff");
+
+        FilteredClassifier classifier = new FilteredClassifier();
+        classifier.setClassifier(new NaiveBayes());
+        classifier.buildClassifier(data);
+
+        SharedStructureClassifierFactory factory = new SharedStructureClassifierFactory(classifier);
+        FilteredClassifier first = (FilteredClassifier) factory.makeObject();
+        FilteredClassifier second = (FilteredClassifier) factory.makeObject();
+
+        assertNotSame(first.getClassifier(), second.getClassifier());
+        assertArrayEquals(classifier.distributionForInstance(data.instance(0)), first.distributionForInstance(data.instance(0)), 0);
+    }
+
+    @Test
+    public void testTheRootIsNeverShared() throws Exception {
+        Instances data = readArff("/datasets/iris_model_builder.arff");
+
+        RandomForest classifier = new RandomForest();
+        classifier.buildClassifier(data);
+
+        SharedStructureClassifierFactory factory = new SharedStructureClassifierFactory(classifier);
+
+        assertNotSame(factory.makeObject(), factory.makeObject());
+    }
+}
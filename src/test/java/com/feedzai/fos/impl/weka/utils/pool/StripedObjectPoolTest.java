@@ -0,0 +1,214 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.pool;
+
+import org.apache.commons.pool.BasePoolableObjectFactory;
+import org.apache.commons.pool.impl.GenericObjectPool;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link StripedObjectPool}.
+ *
+ * @since 1.0.11
+ */
+public class StripedObjectPoolTest {
+
+    @Test
+    public void testPopulatesMinIdle() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(10);
+        config.setMaxActive(5);
+
+        StripedObjectPool<Object> pool = new StripedObjectPool<>(factory, config);
+
+        assertEquals(5, factory.created.get());
+        assertEquals(5, pool.getNumIdle());
+        assertEquals(0, pool.getNumActive());
+    }
+
+    @Test
+    public void testThreadGetsBackItsObject() throws Exception {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(4);
+        StripedObjectPool<Object> pool = new StripedObjectPool<>(new CountingFactory(), config);
+
+        Object first = pool.borrowObject();
+        pool.returnObject(first);
+
+        for (int idx = 0; idx < 10; idx++) {
+            Object object = pool.borrowObject();
+            assertSame(first, object);
+            pool.returnObject(object);
+        }
+    }
+
+    @Test
+    public void testExhaustedFails() throws Exception {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxActive(2);
+        config.setWhenExhaustedAction(GenericObjectPool.WHEN_EXHAUSTED_FAIL);
+        StripedObjectPool<Object> pool = new StripedObjectPool<>(new CountingFactory(), config);
+
+        Object first = pool.borrowObject();
+        pool.borrowObject();
+        try {
+            pool.borrowObject();
+            fail("The pool is exhausted");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+
+        pool.returnObject(first);
+        assertSame(first, pool.borrowObject());
+    }
+
+    @Test
+    public void testPollIdleNeverCreates() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(1);
+        config.setMaxActive(2);
+        StripedObjectPool<Object> pool = new StripedObjectPool<>(factory, config);
+
+        Object idle = pool.pollIdle();
+        assertNotNull(idle);
+        assertNull(pool.pollIdle());
+        assertEquals(1, factory.created.get());
+        assertEquals(1, pool.getNumActive());
+
+        pool.invalidateObject(idle);
+        assertEquals(0, pool.getNumActive());
+        assertEquals(0, pool.getNumIdle());
+    }
+
+    @Test
+    public void testExhaustedWaits() throws Exception {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxActive(1);
+        config.setMaxWait(50);
+        StripedObjectPool<Object> pool = new StripedObjectPool<>(new CountingFactory(), config);
+
+        pool.borrowObject();
+        long start = System.nanoTime();
+        try {
+            pool.borrowObject();
+            fail("The pool is exhausted");
+        } catch (NoSuchElementException e) {
+            assertTrue(System.nanoTime() - start >= 50 * 1000 * 1000);
+        }
+    }
+
+    @Test
+    public void testCloseDestroysIdleAndReturnedObjects() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(3);
+        StripedObjectPool<Object> pool = new StripedObjectPool<>(factory, config);
+
+        Object borrowed = pool.borrowObject();
+        pool.close();
+        assertEquals(2, factory.destroyed.get());
+
+        pool.returnObject(borrowed);
+        assertEquals(3, factory.destroyed.get());
+
+        try {
+            pool.borrowObject();
+            fail("The pool is closed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testObjectsAreNeverShared() throws Exception {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMaxActive(4);
+        config.setStripes(2);
+        final StripedObjectPool<AtomicBoolean> pool = new StripedObjectPool<>(new BasePoolableObjectFactory<AtomicBoolean>() {
+            @Override
+            public AtomicBoolean makeObject() {
+                return new AtomicBoolean();
+            }
+        }, config);
+
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < 8; thread++) {
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int idx = 0; idx < 10000; idx++) {
+                        AtomicBoolean inUse = pool.borrowObject();
+                        assertTrue("Object handed out twice", inUse.compareAndSet(false, true));
+                        inUse.set(false);
+                        pool.returnObject(inUse);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        assertFalse(pool.getNumIdle() > 4);
+        assertEquals(0, pool.getNumActive());
+    }
+
+    private static class CountingFactory extends BasePoolableObjectFactory<Object> {
+        private final AtomicInteger created = new AtomicInteger();
+        private final AtomicInteger destroyed = new AtomicInteger();
+
+        @Override
+        public Object makeObject() {
+            created.incrementAndGet();
+            return new Object();
+        }
+
+        @Override
+        public void destroyObject(Object object) {
+            destroyed.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * $#
+ * FOS Weka
+ *  
+ * Copyright (C) 2013 Feedzai SA
+ *  
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-3.0.html>.
+ * #$
+ */
+package com.feedzai.fos.impl.weka.utils.setter;
+
+import com.feedzai.fos.api.CategoricalAttribute;
+import com.feedzai.fos.api.FOSException;
+import com.feedzai.fos.api.NumericAttribute;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for the typed {@link InstanceSetter}s.
+ *
+ * @since 1.0.11
+ */
+public class InstanceSetterTest {
+
+    @Test
+    public void testNumericReadsNumbersDirectly() throws FOSException {
+        NumericInstanceSetter setter = new NumericInstanceSetter(new NumericAttribute("numeric"));
+
+        assertEquals(1.5, setter.convert(1.5), 0);
+        assertEquals(3, setter.convert(3), 0);
+        assertEquals(120L, setter.convert(120L), 0);
+        assertEquals(0.25, setter.convert(new BigDecimal("0.25")), 0);
+        assertEquals(Double.MAX_VALUE, setter.convert(Double.MAX_VALUE), 0);
+    }
+
+    @Test
+    public void testNumericFallsBackToAttributeParsing() throws FOSException {
+        NumericAttribute attribute = new NumericAttribute("numeric");
+        NumericInstanceSetter setter = new NumericInstanceSetter(attribute);
+
+        for (Object value : new Object[]{"1.5", "?", "", "not a number", Boolean.TRUE}) {
+            assertEquals(String.valueOf(value), attribute.parseOrMissing(value.toString()), setter.convert(value), 0);
+        }
+    }
+
+    @Test
+    public void testCategoricalUsesPrecomputedIndexes() throws FOSException {
+        CategoricalAttribute attribute = new CategoricalAttribute("categorical", Arrays.asList("blue", "gray", "black", "true", "false"));
+        CategoricalInstanceSetter setter = new CategoricalInstanceSetter(attribute);
+
+        assertEquals(0, setter.convert("blue"), 0);
+        assertEquals(1, setter.convert("gray"), 0);
+        assertEquals(2, setter.convert("black"), 0);
+        assertEquals(3, setter.convert(Boolean.TRUE), 0);
+        assertEquals(4, setter.convert(Boolean.FALSE), 0);
+    }
+
+    @Test
+    public void testCategoricalMatchesAttributeParsing() throws FOSException {
+        CategoricalAttribute attribute = new CategoricalAttribute("categorical", Arrays.asList("a", "b", "1", "2"));
+        CategoricalInstanceSetter setter = new CategoricalInstanceSetter(attribute);
+
+        for (Object value : new Object[]{"a", "b", "1", "2", 1, 2L, "?", "unknown", Boolean.TRUE}) {
+            assertEquals(String.valueOf(value), attribute.parseOrMissing(value.toString()), setter.convert(value), 0);
+        }
+    }
+}